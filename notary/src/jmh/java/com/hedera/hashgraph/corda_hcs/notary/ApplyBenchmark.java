@@ -0,0 +1,90 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applying topic messages to a destruction index, as {@link HcsShard} does for each message the
+ * mirror subscription delivers: decoding each record in place, consuming its inputs and committing
+ * the message.
+ *
+ * Each iteration applies the same {@value #MESSAGES} messages to an empty index, so every state
+ * is consumed for the first time; the score is the time taken for all of them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = ApplyBenchmark.MESSAGES)
+@Measurement(iterations = 10, batchSize = ApplyBenchmark.MESSAGES)
+public class ApplyBenchmark {
+    static final int MESSAGES = 8192;
+
+    @Param({"memory", "persistent", "filtered", "tiered"})
+    public String index;
+
+    // transactions batched into one message
+    @Param({"1", "32"})
+    public int records;
+
+    @Param({"2"})
+    public int inputs;
+
+    private byte[][] messages;
+
+    private Path directory;
+    private DestructionIndex destructions;
+    private int next;
+
+    private final TransactionView view = new TransactionView();
+
+    @Setup(Level.Trial)
+    public void buildMessages() {
+        messages = new byte[MESSAGES][];
+
+        for (int i = 0; i < MESSAGES; i++) {
+            messages[i] = BenchmarkStates.message((long) i * records * inputs, records, inputs);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void openIndex() throws IOException {
+        directory = Files.createTempDirectory("hcs-apply-benchmark");
+        destructions = BenchmarkStates.open(index, directory, 1 << 20);
+        next = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeIndex() throws IOException {
+        destructions.close();
+        BenchmarkStates.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public void applyMessage() {
+        long sequenceNumber = next + 1;
+
+        view.wrap(messages[next++]);
+
+        while (view.next()) {
+            destructions.apply(view, sequenceNumber);
+        }
+
+        destructions.commit(sequenceNumber, Instant.EPOCH.plusNanos(sequenceNumber));
+    }
+}
@@ -0,0 +1,144 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Deterministic states and HCS messages for the benchmarks, so a state can be looked up again
+ * by its number without keeping every one of them around.
+ */
+final class BenchmarkStates {
+    // outputs of the same transaction consumed together, as they often are
+    static final int STATES_PER_HASH = 4;
+
+    // the notary's defaults
+    private static final int CHECKPOINT_INTERVAL = 10_000;
+    private static final int BITS_PER_STATE = 10;
+
+    // far fewer than by default, so the larger indices are mostly in cold segments
+    private static final long HOT_MESSAGES = 10_000;
+
+    private BenchmarkStates() {
+    }
+
+    /**
+     * The transaction ID of a transaction created by the benchmarks, from its number.
+     */
+    static SecureHash hash(long n) {
+        SplittableRandom random = new SplittableRandom(n);
+        ByteBuffer bytes = ByteBuffer.allocate(32);
+
+        for (int i = 0; i < 4; i++) {
+            bytes.putLong(random.nextLong());
+        }
+
+        return new SecureHash.SHA256(bytes.array());
+    }
+
+    /**
+     * The state with the given number; states with a negative number are never consumed.
+     */
+    static StateRef state(long n) {
+        return new StateRef(hash(n / STATES_PER_HASH), (int) Math.floorMod(n, STATES_PER_HASH));
+    }
+
+    /**
+     * A transaction consuming {@code inputs} states from {@code firstState} on, with its ID
+     * numbered after every state's.
+     */
+    static SerializeTransaction transaction(long firstState, int inputs, int refs) {
+        List<StateRef> inputStates = new ArrayList<>(inputs);
+        List<StateRef> refStates = new ArrayList<>(refs);
+
+        for (int i = 0; i < inputs; i++) {
+            inputStates.add(state(firstState + i));
+        }
+
+        for (int i = 0; i < refs; i++) {
+            refStates.add(state(-1 - firstState - i));
+        }
+
+        return new SerializeTransaction(hash(Long.MAX_VALUE - firstState), inputStates, refStates);
+    }
+
+    /**
+     * A compact batch message of {@code records} transactions each consuming {@code inputs}
+     * consecutive states from {@code firstState} on.
+     */
+    static byte[] message(long firstState, int records, int inputs) {
+        MessageBuilder builder = new MessageBuilder(true);
+
+        for (int i = 0; i < records; i++) {
+            builder.add(transaction(firstState + (long) i * inputs, inputs, 0),
+                    SerializeTransaction.RECORD_APPLY, -1);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Apply messages consuming states {@code 0} to {@code states - 1} to the index, as the
+     * thread applying a topic would.
+     */
+    static void fill(DestructionIndex index, long states, int records, int inputs) {
+        TransactionView view = new TransactionView();
+        long perMessage = (long) records * inputs;
+        long sequenceNumber = index.appliedSequenceNumber();
+
+        for (long first = 0; first < states; first += perMessage) {
+            view.wrap(message(first, records, inputs));
+
+            while (view.next()) {
+                index.apply(view, sequenceNumber + 1);
+            }
+
+            index.commit(++sequenceNumber, Instant.EPOCH.plusSeconds(sequenceNumber));
+        }
+    }
+
+    /**
+     * Open an empty index of the given kind, as configured by default, in {@code directory} if
+     * it's persisted.
+     *
+     * @param kind {@code memory}, {@code persistent}, {@code filtered} (a persistent index behind
+     *             a Bloom filter) or {@code tiered}.
+     */
+    static DestructionIndex open(String kind, Path directory, long capacity) throws IOException {
+        switch (kind) {
+            case "memory":
+                return new CompactDestructionIndex(capacity);
+            case "persistent":
+                return PersistentDestructionIndex.open(directory, capacity, CHECKPOINT_INTERVAL);
+            case "filtered":
+                return new FilteredDestructionIndex(
+                        PersistentDestructionIndex.open(directory, capacity, CHECKPOINT_INTERVAL), capacity, BITS_PER_STATE);
+            case "tiered":
+                return TieredDestructionIndex.open(directory, capacity, CHECKPOINT_INTERVAL, HOT_MESSAGES);
+            default:
+                throw new IllegalArgumentException("unknown index kind " + kind);
+        }
+    }
+
+    static void deleteRecursively(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.contracts.StateRef;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looking up states in a destruction index of a given size, as the checks before submitting a
+ * request and after its message is applied do: a hit is a consumed state, a miss one that isn't,
+ * by far the most common lookup.
+ *
+ * Filling an index with 100M states takes a while and, in memory, several GB of heap; the
+ * persisted indices need as much free disk and page cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LookupBenchmark {
+    // states looked up, drawn at random from the consumed ones or from those never consumed
+    private static final int LOOKUPS = 1 << 16;
+
+    @Param({"memory", "persistent", "filtered", "tiered"})
+    public String index;
+
+    @Param({"1000000", "10000000", "100000000"})
+    public long size;
+
+    private Path directory;
+    private DestructionIndex destructions;
+
+    private final StateRef[] consumed = new StateRef[LOOKUPS];
+    private final StateRef[] unconsumed = new StateRef[LOOKUPS];
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void fillIndex() throws IOException {
+        directory = Files.createTempDirectory("hcs-lookup-benchmark");
+        destructions = BenchmarkStates.open(index, directory, size);
+
+        BenchmarkStates.fill(destructions, size, 100, 4);
+
+        SplittableRandom random = new SplittableRandom(size);
+
+        for (int i = 0; i < LOOKUPS; i++) {
+            consumed[i] = BenchmarkStates.state(random.nextLong(size));
+            unconsumed[i] = BenchmarkStates.state(size + random.nextLong(size));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void closeIndex() throws IOException {
+        destructions.close();
+        BenchmarkStates.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public StateDestruction hit(Cursor cursor) {
+        return destructions.get(consumed[cursor.next++ & (LOOKUPS - 1)]);
+    }
+
+    @Benchmark
+    public StateDestruction miss(Cursor cursor) {
+        return destructions.get(unconsumed[cursor.next++ & (LOOKUPS - 1)]);
+    }
+}
@@ -0,0 +1,60 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding a transaction's spends into the record sent to HCS, and decoding it again both into
+ * objects and in place, as the thread applying messages does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SerializeTransactionBenchmark {
+    @Param({"1", "4", "32"})
+    public int inputs;
+
+    @Param({"0", "4"})
+    public int refs;
+
+    private SerializeTransaction txn;
+    private byte[] record;
+
+    private final TransactionView view = new TransactionView();
+
+    @Setup
+    public void setUp() {
+        txn = BenchmarkStates.transaction(0, inputs, refs);
+        record = txn.serialize();
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return txn.serialize();
+    }
+
+    @Benchmark
+    public SerializeTransaction deserialize() {
+        return SerializeTransaction.deserialize(record);
+    }
+
+    @Benchmark
+    public void decodeInPlace(Blackhole blackhole) {
+        view.wrap(record);
+
+        while (view.next()) {
+            for (int i = 0; i < view.inputsLen(); i++) {
+                blackhole.consume(view.inputIndex(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.crypto.Crypto;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.crypto.SignatureMetadata;
+import net.corda.core.crypto.TransactionSignature;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.SignatureException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signing HCS submissions with the operator or submit key, and notarised transactions with the
+ * notary's key, one at a time or in batches (see {@link BatchSigner}).
+ *
+ * The notary signs through the node's key management service, which serializes the transaction
+ * ID and signature metadata with Corda's serialization first; that needs a running node, so these
+ * sign the ID's bytes directly with the same scheme.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SigningBenchmark {
+    // transactions requested together in each invocation of the batch benchmark
+    private static final int REQUESTS = 256;
+
+    @State(Scope.Benchmark)
+    public static class Submission {
+        // the size of a consensus submit transaction body, and of a large batch message
+        @Param({"128", "1024"})
+        public int messageBytes;
+
+        byte[] privateKey;
+        byte[] message;
+
+        @Setup
+        public void setUp() {
+            privateKey = new byte[32];
+            message = new byte[messageBytes];
+
+            ThreadLocalRandom.current().nextBytes(privateKey);
+            ThreadLocalRandom.current().nextBytes(message);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Notary {
+        // 1 signs every transaction separately, as the notary did before batching
+        @Param({"1", "16", "256"})
+        public int maxBatchSize;
+
+        KeyPair key;
+        SignatureMetadata metadata;
+        SecureHash txId;
+
+        final SecureHash[] txIds = new SecureHash[REQUESTS];
+        BatchSigner batchSigner;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            key = Crypto.generateKeyPair(Crypto.EDDSA_ED25519_SHA512);
+            metadata = new SignatureMetadata(4, Crypto.EDDSA_ED25519_SHA512.getSchemeNumberID());
+            txId = SecureHash.randomSHA256();
+
+            for (int i = 0; i < REQUESTS; i++) {
+                txIds[i] = SecureHash.randomSHA256();
+            }
+
+            batchSigner = new BatchSigner(this::sign, maxBatchSize);
+            batchSigner.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            batchSigner.stop();
+        }
+
+        TransactionSignature sign(SecureHash id) {
+            try {
+                return new TransactionSignature(Crypto.doSign(key.getPrivate(), id.getBytes()), key.getPublic(), metadata);
+            } catch (InvalidKeyException | SignatureException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    @Benchmark
+    public byte[] signSubmission(Submission submission) {
+        return SigningUtils.sign(submission.privateKey, submission.message);
+    }
+
+    @Benchmark
+    public TransactionSignature signTransaction(Notary notary) {
+        return notary.sign(notary.txId);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REQUESTS)
+    public void signTransactionInBatch(Notary notary) {
+        CompletableFuture<?>[] signatures = new CompletableFuture<?>[REQUESTS];
+
+        for (int i = 0; i < REQUESTS; i++) {
+            signatures[i] = notary.batchSigner.sign(notary.txIds[i]);
+        }
+
+        CompletableFuture.allOf(signatures).join();
+    }
+}
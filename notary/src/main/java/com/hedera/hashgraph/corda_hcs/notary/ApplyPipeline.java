@@ -0,0 +1,492 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+
+import net.corda.core.crypto.SecureHash;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+import javax.annotation.Nullable;
+
+/**
+ * Takes a topic's messages as the mirror node delivers them, decodes them in parallel and hands
+ * them to a single thread which applies them strictly in sequence number order.
+ *
+ * Messages pass through a ring of preallocated slots in the order they're admitted. A message
+ * arriving after a gap in the sequence numbers is held back until the missing ones, which are
+ * requested again from the mirror node, have been admitted before it. Messages already admitted
+ * are dropped when delivered again, except chunks and messages with record kinds already applied,
+ * which are passed on as replays so their payloads can be reassembled, and the locks they hold
+ * rebuilt, after a restart.
+ *
+ * A message that fails to apply is retried a second later, as nothing after it can be applied
+ * before it; one that keeps failing stops the pipeline rather than stall it silently.
+ */
+final class ApplyPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(ApplyPipeline.class);
+
+    private static final int EMPTY = 0;
+    private static final int DECODING = 1;
+    private static final int DECODED = 2;
+
+    interface Applier {
+        /**
+         * Apply a message; called for each message in turn by the pipeline's thread.
+         */
+        void apply(Message message);
+    }
+
+    interface GapFiller {
+        /**
+         * Request the messages with consensus timestamps from {@code startTime} up to
+         * {@code endTime} from the mirror node again, and offer them to the pipeline.
+         */
+        void request(Instant startTime, Instant endTime, long limit);
+    }
+
+    interface FailureHandler {
+        /**
+         * Called by the pipeline's thread once a message has failed to apply more times than it is
+         * retried, after which the pipeline applies nothing more.
+         */
+        void failed(TopicMessage message, RuntimeException cause);
+    }
+
+    /**
+     * A message in the pipeline, with what could be worked out ahead of applying it.
+     */
+    static final class Message implements Runnable {
+        private final ApplyPipeline pipeline;
+        private final TransactionView view = new TransactionView();
+
+        private volatile int state = EMPTY;
+
+        private TopicMessage response;
+        private boolean replay;
+
+        @Nullable
+        private SecureHash messageHash;
+
+        private boolean decoded;
+
+        @Nullable
+        private IllegalArgumentException decodeError;
+
+        private Message(ApplyPipeline pipeline) {
+            this.pipeline = pipeline;
+        }
+
+        TopicMessage response() {
+            return response;
+        }
+
+        /**
+         * Returns true if the message was already applied and is only passed on again because it's
+         * a chunk or has record kinds.
+         */
+        boolean isReplay() {
+            return replay;
+        }
+
+        /**
+         * The SHA-256 hash of the message, if a submission may be waiting for it.
+         */
+        @Nullable
+        SecureHash messageHash() {
+            return messageHash;
+        }
+
+        /**
+         * The message's records, or null if it is a chunk or couldn't be decoded.
+         */
+        @Nullable
+        TransactionView view() {
+            return decoded ? view : null;
+        }
+
+        /**
+         * Why the message couldn't be decoded, or null if it could (or is a chunk).
+         */
+        @Nullable
+        IllegalArgumentException decodeError() {
+            return decodeError;
+        }
+
+        // decodes on a decoder thread
+        @Override
+        public void run() {
+            byte[] payload = response.message;
+
+            if (!replay && pipeline.hashMessages.getAsBoolean()) {
+                messageHash = SecureHash.sha256(payload);
+            }
+
+            // chunks can only be decoded once reassembled, which depends on what came before
+            if (!ChunkAssembler.isChunk(payload)) {
+                try {
+                    view.wrap(payload);
+                    decoded = true;
+                } catch (IllegalArgumentException e) {
+                    decodeError = e;
+                }
+            }
+
+            state = DECODED;
+            LockSupport.unpark(pipeline.applyThread);
+        }
+
+        private void clear() {
+            response = null;
+            replay = false;
+            messageHash = null;
+            decoded = false;
+            decodeError = null;
+            state = EMPTY;
+        }
+    }
+
+    private final String name;
+    private final Applier applier;
+    private final GapFiller gapFiller;
+    private final FailureHandler failureHandler;
+    private final BooleanSupplier hashMessages;
+    private final Executor decodeExecutor;
+    private final ScheduledExecutorService scheduler;
+    private final long gapTimeoutNanos;
+    private final int maxRetries;
+
+    private final Message[] ring;
+    private final int mask;
+
+    // the next slot to hand out, guarded by this
+    private long published;
+
+    // the next slot to apply, written only by the apply thread
+    private volatile long consumed;
+
+    // the sequence number of the last message applied, written only by the apply thread
+    private volatile long applied;
+
+    // the last message admitted, or -1 before the first; guarded by this
+    private long received;
+    private Instant nextStartTime;
+
+    // messages that arrived after a gap, by sequence number; guarded by this
+    private final TreeMap<Long, TopicMessage> pending = new TreeMap<>();
+    private boolean gapCheckScheduled;
+
+    // the last message applied since the pipeline started, written only by the apply thread
+    @Nullable
+    private volatile TopicMessage lastApplied;
+
+    // milliseconds between the consensus timestamp of the last message applied and applying it
+    private volatile long lagMillis;
+
+    // run by the apply thread before the next message
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running;
+
+    @Nullable
+    private volatile Thread applyThread;
+
+    /**
+     * @param appliedSequenceNumber the sequence number of the last message already applied, or -1.
+     * @param resumeTimestamp       where the topic will be read from.
+     * @param hashMessages          whether to hash messages as they're decoded.
+     */
+    ApplyPipeline(String name, long appliedSequenceNumber, Instant resumeTimestamp, HcsConfig hcsConfig,
+                  Applier applier, GapFiller gapFiller, FailureHandler failureHandler, BooleanSupplier hashMessages,
+                  Executor decodeExecutor, ScheduledExecutorService scheduler) {
+        this.name = name;
+        this.applier = applier;
+        this.gapFiller = gapFiller;
+        this.failureHandler = failureHandler;
+        this.hashMessages = hashMessages;
+        this.decodeExecutor = decodeExecutor;
+        this.scheduler = scheduler;
+        this.gapTimeoutNanos = hcsConfig.applyGapTimeout.toNanos();
+        this.maxRetries = hcsConfig.applyMaxRetries;
+
+        this.ring = new Message[hcsConfig.applyRingSize];
+        this.mask = ring.length - 1;
+
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = new Message(this);
+        }
+
+        this.applied = appliedSequenceNumber;
+        this.received = appliedSequenceNumber > 0 ? appliedSequenceNumber : -1;
+        this.nextStartTime = resumeTimestamp;
+    }
+
+    /**
+     * Carry on after a message applied to the index some other way than through this pipeline,
+     * such as a snapshot loaded before it started.
+     */
+    synchronized void reset(TopicMessage lastApplied, Instant resumeTimestamp) {
+        if (running) {
+            throw new IllegalStateException(name + " already started");
+        }
+
+        this.lastApplied = lastApplied;
+        this.applied = lastApplied.sequenceNumber;
+        this.received = lastApplied.sequenceNumber;
+        this.nextStartTime = resumeTimestamp;
+    }
+
+    void start() {
+        running = true;
+
+        Thread thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+
+        applyThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Stop applying messages, waiting for the one being applied.
+     */
+    void stop() {
+        running = false;
+
+        Thread thread = applyThread;
+
+        if (thread == null) {
+            return;
+        }
+
+        LockSupport.unpark(thread);
+
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * How far behind consensus the last message applied was when it was applied.
+     */
+    Duration lag() {
+        return Duration.ofMillis(lagMillis);
+    }
+
+    /**
+     * The last message applied since the pipeline started, or null if none.
+     */
+    @Nullable
+    TopicMessage lastApplied() {
+        return lastApplied;
+    }
+
+    /**
+     * Run a task on the apply thread once the message being applied (if any) is done, so it sees
+     * everything applied so far and nothing changes while it runs.
+     *
+     * @return a future that completes once the task has run, or exceptionally with what it threw.
+     */
+    CompletableFuture<Void> runBetweenMessages(Runnable task) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+
+        if (!running) {
+            result.completeExceptionally(new IllegalStateException(name + " is not running"));
+            return result;
+        }
+
+        tasks.add(() -> {
+            try {
+                task.run();
+                result.complete(null);
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+
+        LockSupport.unpark(applyThread);
+
+        return result;
+    }
+
+    /**
+     * Admit a message delivered by the mirror node; may be called from several threads, and blocks
+     * while the ring is full.
+     */
+    void offer(TopicMessage response) {
+        long seq = response.sequenceNumber;
+        long slot;
+        boolean replay;
+
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+
+            if (seq <= received) {
+                // delivered again after a resubscribe; only applied chunks and locks are of any use
+                if (seq > applied || !(ChunkAssembler.isChunk(response.message)
+                        || SerializeTransaction.hasRecordKinds(response.message))) {
+                    return;
+                }
+
+                replay = true;
+            } else if (received >= 0 && seq > received + 1) {
+                pending.putIfAbsent(seq, response);
+
+                if (pending.firstKey() == seq) {
+                    requestGap();
+                }
+
+                return;
+            } else {
+                replay = false;
+                admitted(response);
+            }
+
+            slot = published++;
+        }
+
+        publish(slot, response, replay);
+
+        if (replay) {
+            return;
+        }
+
+        // the messages held back behind the gap this one may have closed
+        while (true) {
+            TopicMessage next;
+
+            synchronized (this) {
+                while (!pending.isEmpty() && pending.firstKey() <= received) {
+                    pending.pollFirstEntry();
+                }
+
+                if (pending.isEmpty() || pending.firstKey() != received + 1) {
+                    return;
+                }
+
+                next = pending.pollFirstEntry().getValue();
+                admitted(next);
+                slot = published++;
+            }
+
+            publish(slot, next, false);
+        }
+    }
+
+    // guarded by this
+    private void admitted(TopicMessage response) {
+        received = response.sequenceNumber;
+        nextStartTime = response.consensusTimestamp.plusNanos(1);
+    }
+
+    // guarded by this
+    private void requestGap() {
+        Map.Entry<Long, TopicMessage> first = pending.firstEntry();
+        long missing = first.getKey() - received - 1;
+
+        logger.warn(name + " missing messages " + (received + 1) + " to " + (first.getKey() - 1) + ", requesting them again");
+
+        gapFiller.request(nextStartTime, first.getValue().consensusTimestamp, missing);
+
+        if (!gapCheckScheduled) {
+            gapCheckScheduled = true;
+            scheduler.schedule(this::checkGap, gapTimeoutNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private synchronized void checkGap() {
+        gapCheckScheduled = false;
+
+        if (running && !pending.isEmpty() && pending.firstKey() > received + 1) {
+            requestGap();
+        }
+    }
+
+    private void publish(long slot, TopicMessage response, boolean replay) {
+        // wait for the apply thread to free the slot
+        while (slot - consumed >= ring.length) {
+            if (!running) {
+                return;
+            }
+
+            LockSupport.parkNanos(100_000);
+        }
+
+        Message message = ring[(int) (slot & mask)];
+
+        message.response = response;
+        message.replay = replay;
+        message.state = DECODING;
+
+        decodeExecutor.execute(message);
+    }
+
+    private void run() {
+        // times the message in the next slot has failed to apply
+        int failures = 0;
+
+        while (running) {
+            for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+                task.run();
+            }
+
+            Message message = ring[(int) (consumed & mask)];
+
+            if (message.state != DECODED) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            TopicMessage response = message.response;
+
+            try {
+                applier.apply(message);
+            } catch (RuntimeException e) {
+                if (++failures > maxRetries) {
+                    logger.error(name + " failed to apply message " + response.sequenceNumber + " "
+                            + failures + " times, applying no more messages", e);
+
+                    running = false;
+                    failureHandler.failed(response, e);
+                    break;
+                }
+
+                // nothing after this message can be applied before it, so keep trying
+                logger.error(name + " failed to apply message " + response.sequenceNumber + ", retrying ("
+                        + failures + " of " + maxRetries + ")", e);
+                LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+                continue;
+            }
+
+            failures = 0;
+
+            if (!message.replay) {
+                lastApplied = response;
+                applied = response.sequenceNumber;
+                lagMillis = Math.max(0, System.currentTimeMillis() - response.consensusTimestamp.toEpochMilli());
+            }
+
+            message.clear();
+            consumed = consumed + 1;
+        }
+
+        // tasks added while stopping still see every message applied
+        for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+            task.run();
+        }
+    }
+}
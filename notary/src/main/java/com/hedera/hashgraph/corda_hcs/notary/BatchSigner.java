@@ -0,0 +1,162 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.crypto.MerkleTree;
+import net.corda.core.crypto.MerkleTreeException;
+import net.corda.core.crypto.PartialMerkleTree;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.crypto.TransactionSignature;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Signs transaction IDs in batches: one signature over the root of a Merkle tree of the hashes of
+ * a batch's IDs, handed to each transaction with a partial Merkle tree proving its ID is in the
+ * batch, which {@link TransactionSignature#verify} checks.
+ *
+ * A batch is whatever was requested while the one before it was being signed, so a request never
+ * waits for a batch to fill up, and under load the notary signs far less often than it notarises.
+ * A batch of one transaction is signed directly.
+ */
+final class BatchSigner {
+    private static final Logger logger = LoggerFactory.getLogger(BatchSigner.class);
+
+    interface Signer {
+        /**
+         * Sign the given transaction ID or Merkle root with the notary's key.
+         */
+        TransactionSignature sign(SecureHash id);
+    }
+
+    private final Signer signer;
+    private final int maxBatchSize;
+
+    private final LinkedBlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+
+    private final Thread thread;
+
+    private volatile boolean stopped;
+
+    BatchSigner(Signer signer, int maxBatchSize) {
+        this.signer = signer;
+        this.maxBatchSize = maxBatchSize;
+
+        this.thread = new Thread(this::run, "hcs-signer");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Sign the given transaction ID with the next batch.
+     */
+    CompletableFuture<TransactionSignature> sign(SecureHash txId) {
+        Request request = new Request(txId);
+        requests.add(request);
+
+        if (stopped) {
+            failRemaining();
+        }
+
+        return request.future;
+    }
+
+    void stop() {
+        stopped = true;
+        thread.interrupt();
+
+        failRemaining();
+    }
+
+    private void run() {
+        List<Request> batch = new ArrayList<>();
+
+        try {
+            while (!stopped) {
+                batch.add(requests.take());
+                requests.drainTo(batch, maxBatchSize - 1);
+
+                signBatch(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        }
+
+        failRemaining();
+    }
+
+    private void signBatch(List<Request> batch) {
+        // a transaction requested more than once is only in the tree once
+        Map<SecureHash, List<CompletableFuture<TransactionSignature>>> waiters = new LinkedHashMap<>();
+
+        for (Request request : batch) {
+            waiters.computeIfAbsent(request.txId, id -> new ArrayList<>(1)).add(request.future);
+        }
+
+        try {
+            if (waiters.size() == 1) {
+                Map.Entry<SecureHash, List<CompletableFuture<TransactionSignature>>> only = waiters.entrySet().iterator().next();
+                TransactionSignature signature = signer.sign(only.getKey());
+
+                only.getValue().forEach(future -> future.complete(signature));
+                return;
+            }
+
+            List<SecureHash> txIds = new ArrayList<>(waiters.keySet());
+            List<SecureHash> leaves = new ArrayList<>(txIds.size());
+
+            // the leaves are the hashes of the IDs, which is what `TransactionSignature.verify` looks for
+            for (SecureHash txId : txIds) {
+                leaves.add(SecureHash.sha256(txId.getBytes()));
+            }
+
+            MerkleTree tree = MerkleTree.Companion.getMerkleTree(leaves);
+
+            TransactionSignature rootSignature = signer.sign(tree.getHash());
+
+            for (int i = 0; i < txIds.size(); i++) {
+                TransactionSignature signature = new TransactionSignature(
+                        rootSignature.getBytes(),
+                        rootSignature.getBy(),
+                        rootSignature.getSignatureMetadata(),
+                        PartialMerkleTree.Companion.build(tree, Collections.singletonList(leaves.get(i))));
+
+                waiters.get(txIds.get(i)).forEach(future -> future.complete(signature));
+            }
+
+            logger.trace("signed a batch of " + txIds.size() + " transactions");
+        } catch (MerkleTreeException | RuntimeException e) {
+            logger.error("failed to sign a batch of " + waiters.size() + " transactions", e);
+
+            waiters.values().forEach(futures -> futures.forEach(future -> future.completeExceptionally(e)));
+        }
+    }
+
+    private void failRemaining() {
+        Request request;
+
+        while ((request = requests.poll()) != null) {
+            request.future.completeExceptionally(new IllegalStateException("notary service is stopped"));
+        }
+    }
+
+    private static final class Request {
+        final SecureHash txId;
+        final CompletableFuture<TransactionSignature> future = new CompletableFuture<>();
+
+        Request(SecureHash txId) {
+            this.txId = txId;
+        }
+    }
+}
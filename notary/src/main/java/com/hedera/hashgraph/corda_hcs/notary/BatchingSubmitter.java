@@ -0,0 +1,257 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import com.codahale.metrics.Timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Collects transactions submitted concurrently by notary flows and sends them to HCS as a single
+ * batch message once either {@code maxRecords} transactions are waiting, the batch would exceed
+ * {@code maxMessageBytes} or {@code maxDelay} has passed since the first transaction was queued.
+ *
+ * Every transaction in a batch resolves to the consensus sequence number of that batch. A batch
+ * (in practice, a lone transaction) still too large for one message is sent in chunks and resolves
+ * to the sequence number of the last of them.
+ *
+ * At most one batch waits for the batcher thread at a time. While it waits, the next batch keeps
+ * growing, and once that's full too callers block until the batcher thread takes the first, so a
+ * slow HCS holds back the notary's flows rather than queueing batches without bound.
+ */
+final class BatchingSubmitter {
+    private static final Logger logger = LoggerFactory.getLogger(BatchingSubmitter.class);
+
+    interface MessageSender {
+        /**
+         * Submit the message to HCS.
+         *
+         * @param traces the notarisations whose records the message carries.
+         * @return a future that completes with the consensus sequence number of the message.
+         */
+        CompletableFuture<Long> send(byte[] message, NotarisationTracer.Traces traces);
+    }
+
+    private final MessageSender sender;
+    private final int maxRecords;
+    private final long maxDelayNanos;
+    private final int maxMessageBytes;
+    private final boolean compactMessages;
+
+    // from a batch being sent until its sequence number is known
+    private final Timer consensusWait;
+
+    private final NotarisationTracer tracer;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "hcs-batcher");
+        thread.setDaemon(true);
+        batcherThread = thread;
+        return thread;
+    });
+
+    private volatile Thread batcherThread;
+
+    // guarded by `this`
+    private MessageBuilder pending;
+    private List<CompletableFuture<Long>> pendingFutures = new ArrayList<>();
+    private NotarisationTracer.Traces pendingTraces = new NotarisationTracer.Traces();
+
+    @Nullable
+    private ScheduledFuture<?> scheduledFlush;
+
+    // guarded by `this`; a batch is handed to the batcher thread and it hasn't started sending it
+    private boolean handOffPending;
+
+    // guarded by `this`; the pending batch is full or overdue and goes as soon as it can be handed off
+    private boolean flushDue;
+
+    BatchingSubmitter(MessageSender sender, int maxRecords, Duration maxDelay, int maxMessageBytes, boolean compactMessages,
+                      Timer consensusWait, NotarisationTracer tracer) {
+        this.sender = sender;
+        this.maxRecords = maxRecords;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.maxMessageBytes = maxMessageBytes;
+        this.compactMessages = compactMessages;
+        this.consensusWait = consensusWait;
+        this.tracer = tracer;
+        this.pending = new MessageBuilder(compactMessages);
+    }
+
+    /**
+     * Queue a record of the given kind to be sent with the next batch.
+     *
+     * @param trace the notarisation the record is for, or {@link NotarisationTracer#NONE}.
+     * @see MessageBuilder#add(SerializeTransaction, byte, long)
+     */
+    CompletableFuture<Long> submit(SerializeTransaction record, byte kind, long lockSequenceNumber, long trace) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+
+        synchronized (this) {
+            // if the current batch is full or this record doesn't fit in it then send that one
+            // first, waiting for the batcher thread to take the batch before it
+            while (!pending.isEmpty()
+                    && (pending.count() >= maxRecords || pending.sizeWith(record, kind) > maxMessageBytes)
+                    && !flushLocked()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    future.completeExceptionally(e);
+                    return future;
+                }
+            }
+
+            pending.add(record, kind, lockSequenceNumber);
+            pendingFutures.add(future);
+            pendingTraces.add(trace);
+
+            if (pending.count() >= maxRecords) {
+                flushLocked();
+            } else if (scheduledFlush == null && !flushDue) {
+                scheduledFlush = executor.schedule(this::flush, maxDelayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        return future;
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    private synchronized void flush() {
+        scheduledFlush = null;
+
+        // the batch goes after the one before it, which the batcher thread is about to take
+        if (handOffPending) {
+            flushDue = true;
+            return;
+        }
+
+        flushLocked();
+    }
+
+    /**
+     * Hand the pending batch to the batcher thread, unless it has yet to take the one before.
+     *
+     * @return false if the batch couldn't be handed off, in which case it goes once that one is
+     * taken.
+     */
+    private boolean flushLocked() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+
+        if (pending.isEmpty()) {
+            return true;
+        }
+
+        // the batcher thread submits records of its own from callbacks, and can't wait on itself
+        if (handOffPending && Thread.currentThread() != batcherThread) {
+            flushDue = true;
+            return false;
+        }
+
+        MessageBuilder batch = pending;
+        List<CompletableFuture<Long>> futures = pendingFutures;
+        NotarisationTracer.Traces traces = pendingTraces;
+
+        pending = new MessageBuilder(compactMessages);
+        pendingFutures = new ArrayList<>();
+        pendingTraces = new NotarisationTracer.Traces();
+
+        handOffPending = true;
+        flushDue = false;
+
+        executor.execute(() -> send(batch, futures, traces));
+
+        return true;
+    }
+
+    private void send(MessageBuilder batch, List<CompletableFuture<Long>> futures, NotarisationTracer.Traces traces) {
+        synchronized (this) {
+            handOffPending = false;
+
+            // the batch that waited behind this one goes next
+            if (flushDue) {
+                flushLocked();
+            }
+
+            notifyAll();
+        }
+
+        logger.trace("sending batch of " + batch.count() + " transactions");
+
+        long started = System.nanoTime();
+        CompletableFuture<Long> sent;
+
+        try {
+            byte[] message = batch.build();
+
+            sent = message.length <= maxMessageBytes ? sender.send(message, traces) : sendChunked(message, traces);
+        } catch (Throwable e) {
+            sent = new CompletableFuture<>();
+            sent.completeExceptionally(e);
+        }
+
+        // several batches may be in flight at once; each completes its own records
+        sent.whenComplete((sequenceNumber, e) -> {
+            if (e == null) {
+                consensusWait.update(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                tracer.record(traces, NotarisationTracer.Phase.RECEIPT);
+            }
+
+            for (CompletableFuture<Long> future : futures) {
+                if (e != null) {
+                    future.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+                } else {
+                    future.complete(sequenceNumber);
+                }
+            }
+        });
+    }
+
+    /**
+     * Send a message too large for HCS as several chunk messages, all at once.
+     *
+     * @return a future that completes with the sequence number of the last chunk to reach
+     * consensus, which is when the message is applied.
+     */
+    private CompletableFuture<Long> sendChunked(byte[] message, NotarisationTracer.Traces traces) {
+        List<byte[]> chunks = SerializeTransaction.chunk(
+                message, ThreadLocalRandom.current().nextLong(), maxMessageBytes, ChunkAssembler.MAX_CHUNKS);
+
+        logger.debug("sending message of " + message.length + " bytes in " + chunks.size() + " chunks");
+
+        List<CompletableFuture<Long>> sent = new ArrayList<>(chunks.size());
+
+        for (byte[] chunk : chunks) {
+            sent.add(sender.send(chunk, traces));
+        }
+
+        return CompletableFuture.allOf(sent.toArray(new CompletableFuture<?>[0]))
+                .thenApply(v -> {
+                    long sequenceNumber = -1;
+
+                    for (CompletableFuture<Long> future : sent) {
+                        sequenceNumber = Math.max(sequenceNumber, future.join());
+                    }
+
+                    return sequenceNumber;
+                });
+    }
+}
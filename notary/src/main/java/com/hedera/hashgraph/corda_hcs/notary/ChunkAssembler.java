@@ -0,0 +1,157 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Reassembles payloads split into chunk messages (see {@link SerializeTransaction#chunk}) as they
+ * arrive from the topic, in any order.
+ *
+ * A payload is only complete if all its chunks reached consensus within {@code timeout} of its
+ * first one; both that and expiring incomplete payloads depend only on consensus timestamps, so
+ * every replay of the topic assembles the same payloads. Only used by the thread applying messages.
+ */
+final class ChunkAssembler {
+    private static final Logger logger = LoggerFactory.getLogger(ChunkAssembler.class);
+
+    /**
+     * The most chunks a single payload may be split into.
+     */
+    static final int MAX_CHUNKS = 1024;
+
+    private final Duration timeout;
+
+    private final Map<Long, Group> groups = new HashMap<>();
+
+    ChunkAssembler(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    static boolean isChunk(byte[] message) {
+        return message.length > 0
+                && message[0] == SerializeTransaction.VERSION_CHUNK
+                && !SerializeTransaction.isRecord(message, message.length);
+    }
+
+    /**
+     * Add a chunk message.
+     *
+     * @return the reassembled payload if this chunk completed it, otherwise null.
+     */
+    @Nullable
+    byte[] add(byte[] message, Instant consensusTimestamp) {
+        if (message.length < SerializeTransaction.CHUNK_HEADER_SIZE) {
+            logger.warn("ignoring truncated chunk message");
+            return null;
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(message);
+
+        in.get();
+        long groupId = in.getLong();
+        int index = in.getInt();
+        int chunksLen = in.getInt();
+        int partLen = in.getInt();
+
+        if (chunksLen < 1 || chunksLen > MAX_CHUNKS || index < 0 || index >= chunksLen
+                || partLen < 0 || partLen > in.remaining()) {
+            logger.warn("ignoring malformed chunk " + index + "/" + chunksLen + " of group " + groupId);
+            return null;
+        }
+
+        Group group = groups.get(groupId);
+
+        if (group == null) {
+            group = new Group(chunksLen, consensusTimestamp);
+            groups.put(groupId, group);
+        } else if (group.parts.length != chunksLen) {
+            logger.warn("ignoring chunk of group " + groupId + " with mismatched chunk count " + chunksLen);
+            return null;
+        }
+
+        if (group.parts[index] != null) {
+            // redelivered after a resubscribe
+            return null;
+        }
+
+        byte[] part = new byte[partLen];
+        in.get(part);
+
+        group.parts[index] = part;
+        group.size += partLen;
+
+        if (++group.received < chunksLen) {
+            return null;
+        }
+
+        groups.remove(groupId);
+
+        if (consensusTimestamp.isAfter(group.firstTimestamp.plus(timeout))) {
+            logger.warn("discarding chunk group " + groupId + " completed after its timeout");
+            return null;
+        }
+
+        byte[] payload = new byte[group.size];
+        int offset = 0;
+
+        for (byte[] p : group.parts) {
+            System.arraycopy(p, 0, payload, offset, p.length);
+            offset += p.length;
+        }
+
+        return payload;
+    }
+
+    /**
+     * Discard incomplete payloads that can no longer complete as of the given consensus time.
+     */
+    void expire(Instant consensusTimestamp) {
+        for (Iterator<Map.Entry<Long, Group>> it = groups.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Long, Group> entry = it.next();
+
+            if (consensusTimestamp.isAfter(entry.getValue().firstTimestamp.plus(timeout))) {
+                logger.warn("discarding incomplete chunk group " + entry.getKey() + " after its timeout");
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * The consensus timestamp of the earliest chunk of any incomplete payload, or null if there
+     * are none.
+     */
+    @Nullable
+    Instant earliestPendingTimestamp() {
+        Instant earliest = null;
+
+        for (Group group : groups.values()) {
+            if (earliest == null || group.firstTimestamp.isBefore(earliest)) {
+                earliest = group.firstTimestamp;
+            }
+        }
+
+        return earliest;
+    }
+
+    private static final class Group {
+        final byte[][] parts;
+        final Instant firstTimestamp;
+
+        int received;
+        int size;
+
+        Group(int chunksLen, Instant firstTimestamp) {
+            this.parts = new byte[chunksLen][];
+            this.firstTimestamp = firstTimestamp;
+        }
+    }
+}
@@ -0,0 +1,494 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.crypto.SecureHash;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * An immutable, memory-mapped file of states sorted by transaction ID and index, each either
+ * consumed or released again; the cold tier of a {@link TieredDestructionIndex}.
+ *
+ * States are found by binary search, so a lookup only touches the pages on its search path and
+ * the segment needs no memory beyond what the OS caches of it.
+ */
+final class ColdSegment {
+    // SEGMENT FORMAT:
+    // int8 magic
+    // int8 entriesLen
+    //
+    // for each state, ordered by transaction ID (compared as unsigned bytes) and then index:
+    //   byte[32] transaction ID of the state
+    //   int4 state index
+    //   byte[32] ID of the transaction consuming it, or zeroes if it was released
+    //   int8 sequence number of the message consuming it, or -1 if it was released
+
+    private static final long MAGIC = 0x484353434f4c4431L; // "HCSCOLD1"
+
+    private static final int HEADER_SIZE = 8 + 8;
+    private static final int ENTRY_SIZE = 32 + 4 + 32 + 8;
+    private static final int KEY_SIZE = 32 + 4;
+
+    // keep each mapping well under the 2 GiB limit of a single `MappedByteBuffer`
+    private static final int CHUNK_SHIFT = 24;
+    private static final long CHUNK_ENTRIES = 1L << CHUNK_SHIFT;
+
+    // states are collected off-heap in buffers of this many while a segment is built
+    private static final int BUILD_BUFFER_ENTRIES = 1 << 16;
+
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    static final long RELEASED = -1;
+
+    private static final byte[] NO_TXN_ID = new byte[32];
+
+    interface EntryVisitor {
+        /**
+         * Visit the state whose transaction ID is in {@code hash}, consumed by {@code txnId} at
+         * {@code sequenceNumber}, or released if that is {@link #RELEASED}; the arrays are reused
+         * once this returns.
+         */
+        void visit(byte[] hash, int index, byte[] txnId, long sequenceNumber);
+    }
+
+    interface Source {
+        /**
+         * Pass every state to go in the segment to the visitor, each once and in any order.
+         */
+        void forEach(EntryVisitor visitor);
+    }
+
+    private interface Body {
+        /**
+         * Write the entries of a segment in order, returning how many there were.
+         */
+        long write(DataOutputStream out) throws IOException;
+    }
+
+    final Path file;
+    final long entriesLen;
+
+    private final MappedByteBuffer[] chunks;
+
+    private ColdSegment(Path file, long entriesLen, MappedByteBuffer[] chunks) {
+        this.file = file;
+        this.entriesLen = entriesLen;
+        this.chunks = chunks;
+    }
+
+    static ColdSegment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException(file + " is truncated");
+                }
+            }
+
+            if (header.getLong(0) != MAGIC) {
+                throw new IOException(file + " is not a cold segment");
+            }
+
+            long entriesLen = header.getLong(8);
+
+            if (entriesLen < 0 || channel.size() != HEADER_SIZE + entriesLen * ENTRY_SIZE) {
+                throw new IOException(file + " is truncated");
+            }
+
+            MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((entriesLen + CHUNK_ENTRIES - 1) >>> CHUNK_SHIFT)];
+
+            for (int i = 0; i < chunks.length; i++) {
+                long first = i * CHUNK_ENTRIES;
+
+                chunks[i] = channel.map(
+                        FileChannel.MapMode.READ_ONLY,
+                        HEADER_SIZE + first * ENTRY_SIZE,
+                        Math.min(CHUNK_ENTRIES, entriesLen - first) * ENTRY_SIZE);
+            }
+
+            return new ColdSegment(file, entriesLen, chunks);
+        }
+    }
+
+    /**
+     * Write the states from the source to a new segment, sorting them in memory first.
+     */
+    static ColdSegment build(Path file, Source source) throws IOException {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        long[] count = new long[1];
+
+        source.forEach((hash, index, txnId, sequenceNumber) -> {
+            int pos = (int) (count[0] % BUILD_BUFFER_ENTRIES) * ENTRY_SIZE;
+
+            if (pos == 0) {
+                buffers.add(ByteBuffer.allocateDirect(BUILD_BUFFER_ENTRIES * ENTRY_SIZE));
+            }
+
+            ByteBuffer buffer = buffers.get(buffers.size() - 1);
+
+            buffer.position(pos);
+            buffer.put(hash, 0, 32);
+            buffer.putInt(index);
+            buffer.put(txnId, 0, 32);
+            buffer.putLong(sequenceNumber);
+
+            count[0]++;
+        });
+
+        if (count[0] > Integer.MAX_VALUE) {
+            throw new IllegalStateException("too many states for one segment: " + count[0]);
+        }
+
+        Entries entries = new Entries(buffers, (int) count[0]);
+        entries.sort();
+
+        return write(file, out -> {
+            byte[] entry = new byte[ENTRY_SIZE];
+
+            for (int i = 0; i < entries.len; i++) {
+                entries.read(i, entry);
+                out.write(entry);
+            }
+
+            return entries.len;
+        });
+    }
+
+    /**
+     * Merge two segments into a new one, keeping the newer segment's entry of a state both have.
+     *
+     * @param dropReleased leave out released states, which is only right if no segment is older
+     *                     than those merged.
+     */
+    static ColdSegment merge(Path file, ColdSegment newer, ColdSegment older, boolean dropReleased) throws IOException {
+        return write(file, out -> {
+            byte[] a = new byte[ENTRY_SIZE];
+            byte[] b = new byte[ENTRY_SIZE];
+
+            long i = 0;
+            long j = 0;
+            long written = 0;
+
+            if (i < newer.entriesLen) {
+                newer.read(i, a);
+            }
+
+            if (j < older.entriesLen) {
+                older.read(j, b);
+            }
+
+            while (i < newer.entriesLen || j < older.entriesLen) {
+                int c = i >= newer.entriesLen ? 1 : j >= older.entriesLen ? -1 : compareKeys(a, b);
+
+                byte[] entry = c <= 0 ? a : b;
+
+                if (!dropReleased || sequenceNumber(entry) != RELEASED) {
+                    out.write(entry);
+                    written++;
+                }
+
+                if (c <= 0 && ++i < newer.entriesLen) {
+                    newer.read(i, a);
+                }
+
+                if (c >= 0 && ++j < older.entriesLen) {
+                    older.read(j, b);
+                }
+            }
+
+            return written;
+        });
+    }
+
+    private static ColdSegment write(Path file, Body body) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(tmp,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            // not closed itself, as that would close the channel
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+
+            out.writeLong(MAGIC);
+            out.writeLong(0);
+
+            long entriesLen = body.write(out);
+            out.flush();
+
+            // only known once the entries are written
+            ByteBuffer header = ByteBuffer.allocate(8);
+            header.putLong(0, entriesLen);
+
+            while (header.hasRemaining()) {
+                channel.write(header, 8 + header.position());
+            }
+
+            channel.force(true);
+        }
+
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        return open(file);
+    }
+
+    /**
+     * Returns the number of the entry of the state whose transaction ID is at {@code offset} in
+     * {@code hash}, or -1 if this segment doesn't have one.
+     */
+    long find(byte[] hash, int offset, int index) {
+        long low = 0;
+        long high = entriesLen - 1;
+
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            int c = compareKey(mid, hash, offset, index);
+
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * The destruction recorded by the given entry, or null if its state was released.
+     */
+    @Nullable
+    StateDestruction destruction(long entry) {
+        ByteBuffer chunk = chunk(entry);
+        int pos = position(entry);
+
+        long sequenceNumber = chunk.getLong(pos + KEY_SIZE + 32);
+
+        if (sequenceNumber == RELEASED) {
+            return null;
+        }
+
+        byte[] txnId = new byte[32];
+
+        for (int i = 0; i < 32; i++) {
+            txnId[i] = chunk.get(pos + KEY_SIZE + i);
+        }
+
+        return new StateDestruction(new SecureHash.SHA256(txnId), sequenceNumber);
+    }
+
+    /**
+     * Visit every entry, in order.
+     */
+    void forEach(EntryVisitor visitor) {
+        byte[] entry = new byte[ENTRY_SIZE];
+        byte[] hash = new byte[32];
+        byte[] txnId = new byte[32];
+
+        for (long i = 0; i < entriesLen; i++) {
+            read(i, entry);
+
+            System.arraycopy(entry, 0, hash, 0, 32);
+            System.arraycopy(entry, KEY_SIZE, txnId, 0, 32);
+
+            visitor.visit(hash, StateRefs.getInt(entry, 32), txnId, sequenceNumber(entry));
+        }
+    }
+
+    /**
+     * Visit a released state in a segment source.
+     */
+    static void visitReleased(EntryVisitor visitor, byte[] hash, int index) {
+        visitor.visit(hash, index, NO_TXN_ID, RELEASED);
+    }
+
+    private void read(long entry, byte[] into) {
+        ByteBuffer chunk = chunk(entry);
+        int pos = position(entry);
+
+        for (int i = 0; i < ENTRY_SIZE; i++) {
+            into[i] = chunk.get(pos + i);
+        }
+    }
+
+    private int compareKey(long entry, byte[] hash, int offset, int index) {
+        ByteBuffer chunk = chunk(entry);
+        int pos = position(entry);
+
+        for (int i = 0; i < 32; i++) {
+            int c = Integer.compare(chunk.get(pos + i) & 0xFF, hash[offset + i] & 0xFF);
+
+            if (c != 0) {
+                return c;
+            }
+        }
+
+        return Integer.compare(chunk.getInt(pos + 32), index);
+    }
+
+    private ByteBuffer chunk(long entry) {
+        return chunks[(int) (entry >>> CHUNK_SHIFT)];
+    }
+
+    private static int position(long entry) {
+        return (int) (entry & (CHUNK_ENTRIES - 1)) * ENTRY_SIZE;
+    }
+
+    private static int compareKeys(byte[] a, byte[] b) {
+        for (int i = 0; i < 32; i++) {
+            int c = Integer.compare(a[i] & 0xFF, b[i] & 0xFF);
+
+            if (c != 0) {
+                return c;
+            }
+        }
+
+        return Integer.compare(StateRefs.getInt(a, 32), StateRefs.getInt(b, 32));
+    }
+
+    private static long sequenceNumber(byte[] entry) {
+        return ByteBuffer.wrap(entry).getLong(KEY_SIZE + 32);
+    }
+
+    /**
+     * States collected off-heap for a new segment, sorted through an array of their positions.
+     */
+    private static final class Entries {
+        final int len;
+
+        private final List<ByteBuffer> buffers;
+
+        // the first 8 bytes of each state's transaction ID, with the sign flipped so they sort
+        // as unsigned; almost always enough to order two states of different transactions
+        private final long[] prefixes;
+        private final int[] order;
+
+        Entries(List<ByteBuffer> buffers, int len) {
+            this.len = len;
+            this.buffers = buffers;
+            this.prefixes = new long[len];
+            this.order = new int[len];
+
+            for (int i = 0; i < len; i++) {
+                order[i] = i;
+                prefixes[i] = buffer(i).getLong(position(i)) ^ Long.MIN_VALUE;
+            }
+        }
+
+        void sort() {
+            sort(0, len - 1);
+        }
+
+        /**
+         * Copy the entry that is {@code i}th in sorted order.
+         */
+        void read(int i, byte[] into) {
+            int entry = order[i];
+            ByteBuffer buffer = buffer(entry);
+            int pos = position(entry);
+
+            for (int b = 0; b < ENTRY_SIZE; b++) {
+                into[b] = buffer.get(pos + b);
+            }
+        }
+
+        private void sort(int low, int high) {
+            // recurse into the smaller side only, so the stack stays shallow
+            while (high - low >= INSERTION_SORT_THRESHOLD) {
+                int mid = (low + high) >>> 1;
+                long pivotPrefix = prefixes[mid];
+                int pivot = order[mid];
+
+                int i = low - 1;
+                int j = high + 1;
+
+                while (true) {
+                    do {
+                        i++;
+                    } while (compare(i, pivotPrefix, pivot) < 0);
+
+                    do {
+                        j--;
+                    } while (compare(j, pivotPrefix, pivot) > 0);
+
+                    if (i >= j) {
+                        break;
+                    }
+
+                    swap(i, j);
+                }
+
+                if (j - low < high - j) {
+                    sort(low, j);
+                    low = j + 1;
+                } else {
+                    sort(j + 1, high);
+                    high = j;
+                }
+            }
+
+            for (int i = low + 1; i <= high; i++) {
+                for (int j = i; j > low && compare(j - 1, prefixes[j], order[j]) > 0; j--) {
+                    swap(j - 1, j);
+                }
+            }
+        }
+
+        private int compare(int i, long prefix, int entry) {
+            int c = Long.compare(prefixes[i], prefix);
+
+            if (c != 0) {
+                return c;
+            }
+
+            ByteBuffer a = buffer(order[i]);
+            int aPos = position(order[i]);
+            ByteBuffer b = buffer(entry);
+            int bPos = position(entry);
+
+            for (int k = 8; k < 32; k++) {
+                c = Integer.compare(a.get(aPos + k) & 0xFF, b.get(bPos + k) & 0xFF);
+
+                if (c != 0) {
+                    return c;
+                }
+            }
+
+            return Integer.compare(a.getInt(aPos + 32), b.getInt(bPos + 32));
+        }
+
+        private void swap(int i, int j) {
+            long prefix = prefixes[i];
+            prefixes[i] = prefixes[j];
+            prefixes[j] = prefix;
+
+            int entry = order[i];
+            order[i] = order[j];
+            order[j] = entry;
+        }
+
+        private ByteBuffer buffer(int entry) {
+            return buffers.get(entry / BUILD_BUFFER_ENTRIES);
+        }
+
+        private static int position(int entry) {
+            return (entry % BUILD_BUFFER_ENTRIES) * ENTRY_SIZE;
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+/**
+ * A destruction index that lives only as long as the node does, stored off-heap so millions of
+ * consumed states don't weigh on the garbage collector.
+ *
+ * States live in an open-addressing table of fixed-size slots keyed directly on the 32-byte
+ * transaction ID and the state index. Each consuming transaction is stored once in a separate
+ * append-only slab and referenced from its states' slots by ordinal, so an entry costs
+ * {@value #SLOT_SIZE} bytes divided by the load factor plus its share of its transaction.
+ */
+final class CompactDestructionIndex implements DestructionIndex {
+    private static final Logger logger = LoggerFactory.getLogger(CompactDestructionIndex.class);
+
+    // SLOT FORMAT:
+    // byte[32] state transaction ID
+    // int4 state index
+    // int4 consuming transaction ordinal + 1 (0 means the slot is empty, -1 that its state was released)
+    //
+    // TRANSACTION FORMAT:
+    // byte[32] transaction ID
+    // int8 sequence number
+
+    static final int SLOT_SIZE = 32 + 4 + 4;
+    static final int TXN_SIZE = 32 + 8;
+
+    private static final int EMPTY = 0;
+    private static final int RELEASED = -1;
+
+    private static final int SEGMENT_SHIFT = 20;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+    private static final int MIN_CAPACITY = 1 << 10;
+
+    // grow the table once it is this full, counting the slots of released states
+    private static final double MAX_LOAD = 0.7;
+
+    private volatile Slots slots;
+
+    // only grown by the applying thread; readers only follow ordinals published before them
+    private volatile ByteBuffer[] txnSegments = new ByteBuffer[0];
+
+    private int txnCount;
+
+    private volatile long size;
+
+    private volatile long sequenceNumber = -1;
+
+    @Nullable
+    private volatile Instant resumeTimestamp;
+
+    CompactDestructionIndex(long initialCapacity) {
+        long capacity = Long.highestOneBit(Math.max(MIN_CAPACITY, initialCapacity) - 1) << 1;
+        this.slots = new Slots(capacity);
+    }
+
+    @Nullable
+    @Override
+    public StateDestruction get(StateRef stateRef) {
+        return probe(stateRef.getTxhash().getBytes(), 0, stateRef.getIndex());
+    }
+
+    @Nullable
+    @Override
+    public StateDestruction probe(byte[] hash, int offset, int index) {
+        int ordinal = slots.get(hash, offset, index);
+
+        if (ordinal < 0) {
+            return null;
+        }
+
+        ByteBuffer[] segments = txnSegments;
+
+        // only possible for a message that is still being applied
+        if ((ordinal >>> SEGMENT_SHIFT) >= segments.length) {
+            return null;
+        }
+
+        ByteBuffer segment = segments[ordinal >>> SEGMENT_SHIFT];
+        int pos = (ordinal & SEGMENT_MASK) * TXN_SIZE;
+
+        byte[] txnId = new byte[32];
+
+        for (int i = 0; i < 32; i++) {
+            txnId[i] = segment.get(pos + i);
+        }
+
+        return new StateDestruction(new SecureHash.SHA256(txnId), segment.getLong(pos + 32));
+    }
+
+    @Override
+    public void apply(TransactionView txn, long sequenceNumber) {
+        if (txn.inputsLen() == 0) {
+            return;
+        }
+
+        byte[] data = txn.data();
+
+        int ordinal = internTransaction(data, txn.txnIdOffset(), sequenceNumber);
+
+        Slots slots = this.slots;
+
+        for (int i = 0; i < txn.inputsLen(); i++) {
+            // don't overwrite with duplicate destructions
+            if (slots.putIfAbsent(data, txn.inputHashOffset(i), txn.inputIndex(i), ordinal)) {
+                size++;
+            }
+        }
+
+        if (size + slots.released > slots.capacity * MAX_LOAD) {
+            grow();
+        }
+    }
+
+    @Override
+    public void abort(TransactionView txn, long lockSequenceNumber, long sequenceNumber) {
+        byte[] data = txn.data();
+
+        Slots slots = this.slots;
+
+        for (int i = 0; i < txn.inputsLen(); i++) {
+            int ordinal = slots.get(data, txn.inputHashOffset(i), txn.inputIndex(i));
+
+            if (ordinal >= 0 && transactionMatches(ordinal, data, txn.txnIdOffset(), lockSequenceNumber)) {
+                slots.release(data, txn.inputHashOffset(i), txn.inputIndex(i));
+                size--;
+            }
+        }
+    }
+
+    @Override
+    public void commit(long sequenceNumber, Instant resumeTimestamp) {
+        this.resumeTimestamp = resumeTimestamp;
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    @Override
+    public void forEach(Visitor visitor) {
+        byte[] hash = new byte[32];
+        byte[] txnId = new byte[32];
+
+        for (ByteBuffer segment : slots.segments) {
+            for (int pos = 0; pos < segment.capacity(); pos += SLOT_SIZE) {
+                int stored = segment.getInt(pos + 36);
+
+                if (stored == EMPTY || stored == RELEASED) {
+                    continue;
+                }
+
+                int ordinal = stored - 1;
+
+                ByteBuffer txnSegment = txnSegments[ordinal >>> SEGMENT_SHIFT];
+                int txnPos = (ordinal & SEGMENT_MASK) * TXN_SIZE;
+
+                for (int i = 0; i < 32; i++) {
+                    hash[i] = segment.get(pos + i);
+                    txnId[i] = txnSegment.get(txnPos + i);
+                }
+
+                visitor.visit(hash, segment.getInt(pos + 32), txnId, txnSegment.getLong(txnPos + 32));
+            }
+        }
+    }
+
+    @Override
+    public long appliedSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    @Nullable
+    @Override
+    public Instant resumeTimestamp() {
+        return resumeTimestamp;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public long memoryBytes() {
+        return slots.capacity * SLOT_SIZE + (long) txnSegments.length * (TXN_SIZE << SEGMENT_SHIFT);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private int internTransaction(byte[] data, int txnIdOffset, long sequenceNumber) {
+        int ordinal = txnCount;
+        ByteBuffer[] segments = txnSegments;
+
+        if ((ordinal >>> SEGMENT_SHIFT) == segments.length) {
+            segments = Arrays.copyOf(segments, segments.length + 1);
+            segments[segments.length - 1] = ByteBuffer.allocateDirect(TXN_SIZE << SEGMENT_SHIFT);
+            txnSegments = segments;
+        }
+
+        ByteBuffer segment = segments[ordinal >>> SEGMENT_SHIFT];
+        int pos = (ordinal & SEGMENT_MASK) * TXN_SIZE;
+
+        for (int i = 0; i < 32; i++) {
+            segment.put(pos + i, data[txnIdOffset + i]);
+        }
+
+        segment.putLong(pos + 32, sequenceNumber);
+
+        txnCount++;
+
+        return ordinal;
+    }
+
+    private boolean transactionMatches(int ordinal, byte[] data, int txnIdOffset, long sequenceNumber) {
+        ByteBuffer segment = txnSegments[ordinal >>> SEGMENT_SHIFT];
+        int pos = (ordinal & SEGMENT_MASK) * TXN_SIZE;
+
+        if (segment.getLong(pos + 32) != sequenceNumber) {
+            return false;
+        }
+
+        for (int i = 0; i < 32; i++) {
+            if (segment.get(pos + i) != data[txnIdOffset + i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void grow() {
+        Slots oldSlots = slots;
+
+        // mostly released states, which aren't copied, so the same capacity will do
+        long capacity = size > oldSlots.capacity * MAX_LOAD / 2 ? oldSlots.capacity * 2 : oldSlots.capacity;
+        Slots newSlots = new Slots(capacity);
+
+        oldSlots.copyTo(newSlots);
+
+        // readers still holding the old table keep seeing everything it had
+        slots = newSlots;
+
+        logger.info("grew destruction index to " + newSlots.capacity + " slots, dropping "
+                + oldSlots.released + " released states; "
+                + size + " consumed states in " + memoryBytes() + " bytes ("
+                + memoryBytes() / Math.max(1, size) + " bytes per state)");
+    }
+
+    private static final class Slots {
+        final long capacity;
+
+        private final long mask;
+        private final ByteBuffer[] segments;
+
+        // slots of released states, which probes still pass over; only used by the applying thread
+        long released;
+
+        Slots(long capacity) {
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+
+            long segmentSlots = Math.min(capacity, 1L << SEGMENT_SHIFT);
+
+            this.segments = new ByteBuffer[(int) Math.max(1, capacity >>> SEGMENT_SHIFT)];
+
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = ByteBuffer.allocateDirect((int) (segmentSlots * SLOT_SIZE));
+            }
+        }
+
+        /**
+         * Returns the ordinal of the transaction that consumed the state, or -1.
+         */
+        int get(byte[] hash, int offset, int index) {
+            for (long slot = StateRefs.hash(hash, offset, index) & mask; ; slot = (slot + 1) & mask) {
+                ByteBuffer segment = segments[(int) (slot >>> SEGMENT_SHIFT)];
+                int pos = (int) (slot & SEGMENT_MASK) * SLOT_SIZE;
+
+                int stored = segment.getInt(pos + 36);
+
+                if (stored == EMPTY) {
+                    return -1;
+                }
+
+                if (keyMatches(segment, pos, hash, offset, index)) {
+                    return stored == RELEASED ? -1 : stored - 1;
+                }
+            }
+        }
+
+        /**
+         * Returns true if the state wasn't already in the table and has been inserted.
+         */
+        boolean putIfAbsent(byte[] hash, int offset, int index, int ordinal) {
+            for (long slot = StateRefs.hash(hash, offset, index) & mask; ; slot = (slot + 1) & mask) {
+                ByteBuffer segment = segments[(int) (slot >>> SEGMENT_SHIFT)];
+                int pos = (int) (slot & SEGMENT_MASK) * SLOT_SIZE;
+
+                int stored = segment.getInt(pos + 36);
+
+                if (stored == EMPTY) {
+                    for (int i = 0; i < 32; i++) {
+                        segment.put(pos + i, hash[offset + i]);
+                    }
+
+                    segment.putInt(pos + 32, index);
+                    segment.putInt(pos + 36, ordinal + 1);
+
+                    return true;
+                }
+
+                if (keyMatches(segment, pos, hash, offset, index)) {
+                    if (stored != RELEASED) {
+                        return false;
+                    }
+
+                    segment.putInt(pos + 36, ordinal + 1);
+                    released--;
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Mark the state as no longer consumed, keeping its slot so later probes still pass over it.
+         */
+        void release(byte[] hash, int offset, int index) {
+            for (long slot = StateRefs.hash(hash, offset, index) & mask; ; slot = (slot + 1) & mask) {
+                ByteBuffer segment = segments[(int) (slot >>> SEGMENT_SHIFT)];
+                int pos = (int) (slot & SEGMENT_MASK) * SLOT_SIZE;
+
+                int stored = segment.getInt(pos + 36);
+
+                if (stored == EMPTY) {
+                    return;
+                }
+
+                if (keyMatches(segment, pos, hash, offset, index)) {
+                    if (stored != RELEASED) {
+                        segment.putInt(pos + 36, RELEASED);
+                        released++;
+                    }
+                    return;
+                }
+            }
+        }
+
+        void copyTo(Slots other) {
+            byte[] hash = new byte[32];
+
+            for (ByteBuffer segment : segments) {
+                for (int pos = 0; pos < segment.capacity(); pos += SLOT_SIZE) {
+                    int stored = segment.getInt(pos + 36);
+
+                    // released states are dropped rather than copied
+                    if (stored == EMPTY || stored == RELEASED) {
+                        continue;
+                    }
+
+                    int ordinal = stored - 1;
+
+                    for (int i = 0; i < 32; i++) {
+                        hash[i] = segment.get(pos + i);
+                    }
+
+                    other.putIfAbsent(hash, 0, segment.getInt(pos + 32), ordinal);
+                }
+            }
+        }
+
+        private static boolean keyMatches(ByteBuffer segment, int pos, byte[] hash, int offset, int index) {
+            if (segment.getInt(pos + 32) != index) {
+                return false;
+            }
+
+            for (int i = 0; i < 32; i++) {
+                if (segment.get(pos + i) != hash[offset + i]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.contracts.StateRef;
+
+import java.time.Instant;
+
+import javax.annotation.Nullable;
+
+/**
+ * The notary's record of which transaction consumed each state, built by applying HCS messages
+ * in consensus order.
+ *
+ * Lookups may happen from any thread; {@link #probe}, {@link #apply}, {@link #abort},
+ * {@link #commit} and {@link #forEach} are only called from the thread applying messages.
+ */
+interface DestructionIndex extends AutoCloseable {
+    interface Visitor {
+        /**
+         * Visit the state whose transaction ID is in {@code hash}, consumed by the transaction
+         * {@code txnId} at {@code sequenceNumber}; the arrays are reused once this returns.
+         */
+        void visit(byte[] hash, int index, byte[] txnId, long sequenceNumber);
+    }
+
+    /**
+     * Returns the destruction of the given state, or null if it hasn't been consumed.
+     */
+    @Nullable
+    StateDestruction get(StateRef stateRef);
+
+    /**
+     * Like {@link #get(StateRef)} for the state whose transaction ID is at {@code offset} in
+     * {@code hash}, but also seeing the records applied so far from the current message.
+     */
+    @Nullable
+    StateDestruction probe(byte[] hash, int offset, int index);
+
+    /**
+     * Record every input of the view's current record as consumed by it, unless already consumed.
+     *
+     * Reads the record in place; the view may be reused once this returns.
+     */
+    void apply(TransactionView txn, long sequenceNumber);
+
+    /**
+     * Release every input of the view's current record that was consumed by the same transaction
+     * at {@code lockSequenceNumber}, so it reads as unconsumed and may be consumed again.
+     */
+    void abort(TransactionView txn, long lockSequenceNumber, long sequenceNumber);
+
+    /**
+     * Mark the message with the given sequence number as completely applied.
+     *
+     * @param resumeTimestamp the consensus timestamp to resume reading the topic from after a
+     *                        restart; just after this message's, unless earlier messages (such as
+     *                        chunks of an incomplete payload) must be read again.
+     */
+    void commit(long sequenceNumber, Instant resumeTimestamp);
+
+    /**
+     * Visit every consumed state in this index, in no particular order.
+     */
+    void forEach(Visitor visitor);
+
+    /**
+     * The sequence number of the last message committed to this index, or -1 if none.
+     */
+    long appliedSequenceNumber();
+
+    /**
+     * The resume timestamp of the last message committed to this index, or null if none.
+     */
+    @Nullable
+    Instant resumeTimestamp();
+
+    /**
+     * The number of consumed states in this index.
+     */
+    long size();
+
+    /**
+     * The memory, on or off the heap, taken up by this index (excluding the OS page cache).
+     */
+    long memoryBytes();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,563 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.crypto.SecureHash;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+
+/**
+ * An append-only log of applied HCS messages; the durable source of a
+ * {@link PersistentDestructionIndex}.
+ *
+ * Entries for a message are buffered until its commit entry is appended, then written with a
+ * single call. Entries following the last intact commit entry are discarded on recovery.
+ *
+ * Lookups read entries in place through mappings of the file, and check their CRCs only on
+ * recovery; every entry before {@link #end()} has been checked by then or written since.
+ */
+final class DestructionLog implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(DestructionLog.class);
+
+    // ENTRY FORMAT:
+    // int4 bodyLen
+    // int4 CRC32 of body
+    //
+    // body (record):
+    //   byte type = TYPE_RECORD
+    //   int8 sequence number
+    //   byte[32] transaction ID
+    //   int4 inputsLen
+    //
+    //   for 0 .. inputsLen:
+    //     byte[32] input transaction ID
+    //     int4 state index
+    //
+    // body (abort):
+    //   as a record, with type = TYPE_ABORT and the sequence number of the lock record it releases
+    //
+    // body (commit):
+    //   byte type = TYPE_COMMIT
+    //   int8 sequence number
+    //   int8 resume timestamp seconds
+    //   int4 resume timestamp nanos
+
+    static final byte TYPE_RECORD = 1;
+    static final byte TYPE_COMMIT = 2;
+    static final byte TYPE_ABORT = 3;
+
+    // where the transaction ID is in the body of a record or abort entry
+    static final int ENTRY_TXN_ID_OFFSET = 1 + 8;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_PREFIX_SIZE = 1 + 8 + 32 + 4;
+    private static final int COMMIT_SIZE = 1 + 8 + 8 + 4;
+
+    // the file is mapped in windows of this size as lookups reach them; an entry that crosses
+    // into the next window is read from the file instead
+    private static final int WINDOW_SHIFT = 24;
+    private static final long WINDOW_SIZE = 1L << WINDOW_SHIFT;
+
+    interface Visitor {
+        /**
+         * Called for each record entry; input {@code i} of the record is at
+         * {@link #recordInputOffset(int)} in {@code body}.
+         */
+        void onRecord(long offset, byte[] body, int inputsLen);
+
+        /**
+         * Called for each abort entry, laid out like a record entry.
+         */
+        void onAbort(long offset, byte[] body, int inputsLen);
+
+        void onCommit(long sequenceNumber, Instant resumeTimestamp);
+    }
+
+    private final FileChannel channel;
+
+    // everything before this offset has been written to the file
+    private volatile long end;
+
+    // entries of the message currently being applied; only touched by the applying thread
+    private ByteBuffer pending = ByteBuffer.allocate(4096);
+
+    private final CRC32 crc = new CRC32();
+
+    // indexed by window; null until mapped
+    private volatile MappedByteBuffer[] windows = new MappedByteBuffer[0];
+
+    private DestructionLog(FileChannel channel, long end) {
+        this.channel = channel;
+        this.end = end;
+    }
+
+    static DestructionLog open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        return new DestructionLog(channel, channel.size());
+    }
+
+    /**
+     * The offset just past the last entry written to the file.
+     */
+    long end() {
+        return end;
+    }
+
+    /**
+     * Replay every committed message from {@code offset} onwards and discard anything after the
+     * last intact commit entry.
+     */
+    void recover(long offset, Visitor visitor) throws IOException {
+        long fileSize = channel.size();
+        long committedEnd = offset;
+
+        List<RecoveredRecord> records = new ArrayList<>();
+
+        // mapping a window extends the file with zeros, which aren't worth a warning
+        boolean torn = false;
+
+        while (offset + HEADER_SIZE <= fileSize) {
+            ByteBuffer body = readEntry(offset, fileSize);
+
+            if (body == null) {
+                torn = !isPadding(offset);
+                break;
+            }
+
+            byte type = body.get();
+
+            if (type == TYPE_RECORD || type == TYPE_ABORT) {
+                records.add(new RecoveredRecord(offset, body.array(), body.getInt(RECORD_PREFIX_SIZE - 4)));
+            } else if (type == TYPE_COMMIT) {
+                long sequenceNumber = body.getLong();
+                Instant resumeTimestamp = Instant.ofEpochSecond(body.getLong(), body.getInt());
+
+                for (RecoveredRecord record : records) {
+                    if (record.body[0] == TYPE_ABORT) {
+                        visitor.onAbort(record.offset, record.body, record.inputsLen);
+                    } else {
+                        visitor.onRecord(record.offset, record.body, record.inputsLen);
+                    }
+                }
+
+                records.clear();
+                visitor.onCommit(sequenceNumber, resumeTimestamp);
+            } else {
+                torn = true;
+                break;
+            }
+
+            offset += HEADER_SIZE + body.limit();
+
+            if (type == TYPE_COMMIT) {
+                committedEnd = offset;
+            }
+        }
+
+        if (torn || committedEnd < offset) {
+            logger.warn("discarding " + (fileSize - committedEnd) + " bytes of incomplete log entries");
+        }
+
+        if (committedEnd < fileSize) {
+            channel.truncate(committedEnd);
+        }
+
+        end = committedEnd;
+    }
+
+    /**
+     * The offset of input {@code i} (its transaction ID followed by its int4 index) in the body
+     * of a record entry.
+     */
+    static int recordInputOffset(int i) {
+        return RECORD_PREFIX_SIZE + i * 36;
+    }
+
+    /**
+     * Buffer a record entry for the inputs of the view's current record.
+     *
+     * @return the offset the entry will have in the log.
+     */
+    long appendRecord(TransactionView txn, long sequenceNumber) {
+        return append(TYPE_RECORD, txn, sequenceNumber);
+    }
+
+    /**
+     * Buffer an abort entry for the inputs of the view's current record.
+     *
+     * @return the offset the entry will have in the log.
+     */
+    long appendAbort(TransactionView txn, long lockSequenceNumber) {
+        return append(TYPE_ABORT, txn, lockSequenceNumber);
+    }
+
+    /**
+     * The sequence number written in the record or abort entry {@code body}.
+     */
+    static long entrySequenceNumber(byte[] body) {
+        return ByteBuffer.wrap(body).getLong(1);
+    }
+
+    /**
+     * Append a commit entry and write out every entry buffered since the last commit.
+     */
+    void appendCommit(long sequenceNumber, Instant resumeTimestamp) {
+        ensurePending(HEADER_SIZE + COMMIT_SIZE);
+
+        int start = pending.position();
+
+        pending.position(start + HEADER_SIZE);
+        pending.put(TYPE_COMMIT);
+        pending.putLong(sequenceNumber);
+        pending.putLong(resumeTimestamp.getEpochSecond());
+        pending.putInt(resumeTimestamp.getNano());
+
+        writeHeader(start, COMMIT_SIZE);
+
+        pending.flip();
+
+        try {
+            long position = end;
+
+            while (pending.hasRemaining()) {
+                position += channel.write(pending, position);
+            }
+
+            end = position;
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to append to destruction log", e);
+        } finally {
+            pending.clear();
+        }
+    }
+
+    private long append(byte type, TransactionView txn, long sequenceNumber) {
+        byte[] data = txn.data();
+        int inputsLen = txn.inputsLen();
+
+        int bodyLen = RECORD_PREFIX_SIZE + inputsLen * 36;
+        long offset = end + pending.position();
+
+        ensurePending(HEADER_SIZE + bodyLen);
+
+        int start = pending.position();
+
+        pending.position(start + HEADER_SIZE);
+        pending.put(type);
+        pending.putLong(sequenceNumber);
+        pending.put(data, txn.txnIdOffset(), 32);
+        pending.putInt(inputsLen);
+
+        for (int i = 0; i < inputsLen; i++) {
+            pending.put(data, txn.inputHashOffset(i), 32);
+            pending.putInt(txn.inputIndex(i));
+        }
+
+        writeHeader(start, bodyLen);
+
+        return offset;
+    }
+
+    /**
+     * Returns true if the record entry at {@code offset} exists and lists the state whose
+     * transaction ID is at {@code hashOffset} in {@code hash} as one of its inputs.
+     *
+     * @param includePending also consider entries that are buffered but not yet written; only
+     *                       the applying thread may do this.
+     */
+    boolean listsInput(long offset, byte[] hash, int hashOffset, int index, boolean includePending) {
+        return lists(offset, TYPE_RECORD, hash, hashOffset, index, includePending);
+    }
+
+    /**
+     * Returns true if the abort entry at {@code offset} exists and lists the state whose
+     * transaction ID is at {@code hashOffset} in {@code hash} as one of those it releases.
+     *
+     * @param includePending also consider entries that are buffered but not yet written; only
+     *                       the applying thread may do this.
+     */
+    boolean listsRelease(long offset, byte[] hash, int hashOffset, int index, boolean includePending) {
+        return lists(offset, TYPE_ABORT, hash, hashOffset, index, includePending);
+    }
+
+    private boolean lists(long offset, byte type, byte[] hash, int hashOffset, int index, boolean includePending) {
+        ByteBuffer buf = entryBuffer(offset, includePending);
+
+        return buf != null && findInput(buf, bodyStart(offset, buf), type, hash, hashOffset, index);
+    }
+
+    /**
+     * Read the destruction recorded by the record entry at {@code offset}, if that entry exists
+     * and lists the state whose transaction ID is at {@code hashOffset} in {@code hash} as one of
+     * its inputs.
+     *
+     * @param includePending also consider entries that are buffered but not yet written; only
+     *                       the applying thread may do this.
+     */
+    @Nullable
+    StateDestruction readDestruction(long offset, byte[] hash, int hashOffset, int index, boolean includePending) {
+        ByteBuffer buf = entryBuffer(offset, includePending);
+
+        if (buf == null) {
+            return null;
+        }
+
+        int start = bodyStart(offset, buf);
+
+        if (!findInput(buf, start, TYPE_RECORD, hash, hashOffset, index)) {
+            return null;
+        }
+
+        long sequenceNumber = buf.getLong(start + 1);
+        byte[] txnId = new byte[32];
+
+        for (int i = 0; i < 32; i++) {
+            txnId[i] = buf.get(start + ENTRY_TXN_ID_OFFSET + i);
+        }
+
+        return new StateDestruction(new SecureHash.SHA256(txnId), sequenceNumber);
+    }
+
+    /**
+     * The buffer holding the entry at {@code offset}: the log's mapping, the entry read from the
+     * file if it crosses two windows, or the pending entries; null if there is no such entry.
+     *
+     * @see #bodyStart(long, ByteBuffer)
+     */
+    @Nullable
+    private ByteBuffer entryBuffer(long offset, boolean includePending) {
+        if (offset < end) {
+            int pos = (int) (offset & (WINDOW_SIZE - 1));
+
+            if (pos + HEADER_SIZE + RECORD_PREFIX_SIZE <= WINDOW_SIZE) {
+                ByteBuffer window = window((int) (offset >>> WINDOW_SHIFT));
+                int bodyLen = window.getInt(pos);
+
+                if (pos + HEADER_SIZE + (long) bodyLen <= WINDOW_SIZE) {
+                    return isEntry(offset, bodyLen, window, pos + HEADER_SIZE) ? window : null;
+                }
+            }
+
+            try {
+                ByteBuffer body = readEntry(offset, end);
+
+                return body != null && isEntry(offset, body.limit(), body, 0) ? body : null;
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to read destruction log", e);
+            }
+        }
+
+        if (includePending && offset < end + pending.position()) {
+            // we wrote these entries ourselves so they can't be corrupt
+            return pending;
+        }
+
+        return null;
+    }
+
+    /**
+     * Where the body of the entry at {@code offset} starts in the buffer returned for it by
+     * {@link #entryBuffer(long, boolean)}.
+     */
+    private int bodyStart(long offset, ByteBuffer buf) {
+        if (buf == pending) {
+            return (int) (offset - end) + HEADER_SIZE;
+        }
+
+        // an entry read from the file on its own
+        if (!(buf instanceof MappedByteBuffer)) {
+            return 0;
+        }
+
+        return (int) (offset & (WINDOW_SIZE - 1)) + HEADER_SIZE;
+    }
+
+    /**
+     * Returns true if a record or abort entry with a body of {@code bodyLen} bytes, at
+     * {@code bodyStart} in {@code buf}, could start at {@code offset}.
+     *
+     * A slot left dangling by a crash may point anywhere in the log, including the middle of an
+     * entry, so its framing is checked in place of its CRC.
+     */
+    private boolean isEntry(long offset, int bodyLen, ByteBuffer buf, int bodyStart) {
+        if (bodyLen < RECORD_PREFIX_SIZE || offset + HEADER_SIZE + bodyLen > end) {
+            return false;
+        }
+
+        int inputsLen = buf.getInt(bodyStart + RECORD_PREFIX_SIZE - 4);
+
+        return inputsLen >= 0 && bodyLen == RECORD_PREFIX_SIZE + inputsLen * 36L;
+    }
+
+    /**
+     * The mapping of the given window of the file, mapped on first use.
+     */
+    private ByteBuffer window(int i) {
+        MappedByteBuffer[] windows = this.windows;
+
+        if (i < windows.length && windows[i] != null) {
+            return windows[i];
+        }
+
+        synchronized (this) {
+            windows = this.windows;
+
+            if (i >= windows.length) {
+                windows = Arrays.copyOf(windows, i + 1);
+            }
+
+            if (windows[i] == null) {
+                try {
+                    windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, i * WINDOW_SIZE, WINDOW_SIZE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("failed to map destruction log", e);
+                }
+            }
+
+            this.windows = windows;
+
+            return windows[i];
+        }
+    }
+
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Read the body of the entry at {@code offset}, or return null if it is truncated or corrupt.
+     */
+    @Nullable
+    private ByteBuffer readEntry(long offset, long limit) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, offset);
+
+        if (header.remaining() < HEADER_SIZE) {
+            return null;
+        }
+
+        int bodyLen = header.getInt(0);
+        int bodyCrc = header.getInt(4);
+
+        if (bodyLen <= 0 || offset + HEADER_SIZE + bodyLen > limit) {
+            return null;
+        }
+
+        ByteBuffer body = ByteBuffer.allocate(bodyLen);
+        readFully(body, offset + HEADER_SIZE);
+
+        if (body.remaining() < bodyLen) {
+            return null;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(body.array(), 0, bodyLen);
+
+        if ((int) crc.getValue() != bodyCrc) {
+            return null;
+        }
+
+        return body;
+    }
+
+    /**
+     * Returns true if the entry at {@code offset} is the zeros a mapping extended the file with.
+     */
+    private boolean isPadding(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, offset);
+
+        return header.remaining() < HEADER_SIZE || header.getLong(0) == 0;
+    }
+
+    private static boolean findInput(ByteBuffer buf, int bodyStart, byte type, byte[] hash, int hashOffset, int index) {
+        if (buf.get(bodyStart) != type) {
+            return false;
+        }
+
+        int inputsLen = buf.getInt(bodyStart + RECORD_PREFIX_SIZE - 4);
+
+        for (int i = 0; i < inputsLen; i++) {
+            int pos = bodyStart + recordInputOffset(i);
+
+            if (buf.getInt(pos + 32) == index && hashEquals(buf, pos, hash, hashOffset)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean hashEquals(ByteBuffer buf, int pos, byte[] hash, int hashOffset) {
+        for (int i = 0; i < 32; i++) {
+            if (buf.get(pos + i) != hash[hashOffset + i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                break;
+            }
+        }
+
+        buf.flip();
+    }
+
+    private void writeHeader(int start, int bodyLen) {
+        crc.reset();
+        crc.update(pending.array(), start + HEADER_SIZE, bodyLen);
+
+        pending.putInt(start, bodyLen);
+        pending.putInt(start + 4, (int) crc.getValue());
+    }
+
+    private void ensurePending(int len) {
+        if (pending.remaining() < len) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + len));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+    }
+
+    private static final class RecoveredRecord {
+        final long offset;
+        final byte[] body;
+        final int inputsLen;
+
+        RecoveredRecord(long offset, byte[] body, int inputsLen) {
+            this.offset = offset;
+            this.body = body;
+            this.inputsLen = inputsLen;
+        }
+    }
+}
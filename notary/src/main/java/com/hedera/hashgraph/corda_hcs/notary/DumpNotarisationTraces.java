@@ -0,0 +1,36 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import co.paralleluniverse.fibers.Suspendable;
+
+/**
+ * Returns the latest notarisations traced by the notary running on this node, as dumped by
+ * {@link NotarisationTracesMBean#dump()}, for operators without access to the node's JMX.
+ */
+@StartableByRPC
+public class DumpNotarisationTraces extends FlowLogic<List<String>> {
+    @Suspendable
+    @Override
+    public List<String> call() throws FlowException {
+        try {
+            // the notary service isn't reachable from a flow started by RPC, but its MBean is
+            String[] traces = (String[]) ManagementFactory.getPlatformMBeanServer().invoke(
+                    new ObjectName(NotarisationTracer.OBJECT_NAME), "dump", new Object[0], new String[0]);
+
+            return new ArrayList<>(Arrays.asList(traces));
+        } catch (JMException e) {
+            throw new FlowException("no HCS notary is running on this node", e);
+        }
+    }
+}
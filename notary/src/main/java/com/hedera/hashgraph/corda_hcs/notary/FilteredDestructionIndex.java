@@ -0,0 +1,237 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.contracts.StateRef;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nullable;
+
+/**
+ * A Bloom filter of the consumed states in front of another destruction index, so looking up a
+ * state that isn't consumed, by far the most common lookup, mostly doesn't touch the index.
+ *
+ * States are added to the filter as they're applied. States released by an abort stay in it,
+ * which only means the index is asked about them. Once more states have been added than the
+ * filter was sized for it is rebuilt from the index, twice as large, so its false positive rate
+ * stays around what it was configured for.
+ */
+final class FilteredDestructionIndex implements DestructionIndex {
+    private static final Logger logger = LoggerFactory.getLogger(FilteredDestructionIndex.class);
+
+    // a single buffer holds at most this many bits
+    private static final long MAX_BITS = 1L << 33;
+
+    private final DestructionIndex index;
+    private final int bitsPerState;
+
+    private volatile Filter filter;
+
+    // lookups of states that aren't consumed, and those the filter let through anyway
+    private final LongAdder negatives = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    /**
+     * Put a filter sized for at least {@code initialCapacity} states in front of the index,
+     * adding the states already in it.
+     */
+    FilteredDestructionIndex(DestructionIndex index, long initialCapacity, int bitsPerState) {
+        this.index = index;
+        this.bitsPerState = bitsPerState;
+
+        long started = System.nanoTime();
+        this.filter = build(Math.max(initialCapacity, index.size() * 2));
+
+        if (index.size() > 0) {
+            logger.info("added " + index.size() + " consumed states to the state filter in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " ms");
+        }
+    }
+
+    @Nullable
+    @Override
+    public StateDestruction get(StateRef stateRef) {
+        byte[] hash = stateRef.getTxhash().getBytes();
+
+        if (!filter.mightContain(hash, 0, stateRef.getIndex())) {
+            negatives.increment();
+            return null;
+        }
+
+        return counted(index.get(stateRef));
+    }
+
+    @Nullable
+    @Override
+    public StateDestruction probe(byte[] hash, int offset, int index) {
+        if (!filter.mightContain(hash, offset, index)) {
+            negatives.increment();
+            return null;
+        }
+
+        return counted(this.index.probe(hash, offset, index));
+    }
+
+    @Nullable
+    private StateDestruction counted(@Nullable StateDestruction destruction) {
+        if (destruction == null) {
+            negatives.increment();
+            falsePositives.increment();
+        }
+
+        return destruction;
+    }
+
+    @Override
+    public void apply(TransactionView txn, long sequenceNumber) {
+        Filter filter = this.filter;
+        byte[] data = txn.data();
+
+        // added first, so probes for the rest of the message get through to the index
+        for (int i = 0; i < txn.inputsLen(); i++) {
+            filter.add(data, txn.inputHashOffset(i), txn.inputIndex(i));
+        }
+
+        index.apply(txn, sequenceNumber);
+
+        if (filter.added > filter.capacity) {
+            grow();
+        }
+    }
+
+    @Override
+    public void abort(TransactionView txn, long lockSequenceNumber, long sequenceNumber) {
+        index.abort(txn, lockSequenceNumber, sequenceNumber);
+    }
+
+    @Override
+    public void commit(long sequenceNumber, Instant resumeTimestamp) {
+        index.commit(sequenceNumber, resumeTimestamp);
+    }
+
+    @Override
+    public void forEach(Visitor visitor) {
+        index.forEach(visitor);
+    }
+
+    @Override
+    public long appliedSequenceNumber() {
+        return index.appliedSequenceNumber();
+    }
+
+    @Nullable
+    @Override
+    public Instant resumeTimestamp() {
+        return index.resumeTimestamp();
+    }
+
+    @Override
+    public long size() {
+        return index.size();
+    }
+
+    @Override
+    public long memoryBytes() {
+        return index.memoryBytes() + filter.bytes();
+    }
+
+    /**
+     * The fraction of lookups of states that aren't consumed which the filter let through to the
+     * index, since the notary started.
+     */
+    double falsePositiveRate() {
+        long negatives = this.negatives.sum();
+
+        return negatives > 0 ? (double) falsePositives.sum() / negatives : 0;
+    }
+
+    @Override
+    public void close() {
+        logger.info("state filter of " + filter.bytes() + " bytes had a false positive rate of "
+                + String.format("%.4f", falsePositiveRate()) + " over " + negatives.sum() + " lookups of unconsumed states");
+
+        index.close();
+    }
+
+    // walks the whole index on the thread applying messages, which waits; how long is logged so
+    // an undersized `hcs.persistence.initialCapacity` shows
+    private void grow() {
+        long started = System.nanoTime();
+        Filter grown = build(Math.max(filter.capacity, index.size()) * 2);
+
+        // readers still holding the old filter keep seeing everything it had
+        filter = grown;
+
+        logger.info("grew state filter to " + grown.bytes() + " bytes for " + grown.capacity + " states in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " ms; "
+                + "false positive rate so far " + String.format("%.4f", falsePositiveRate()));
+    }
+
+    private Filter build(long capacity) {
+        Filter filter = new Filter(capacity, bitsPerState);
+
+        index.forEach((hash, stateIndex, txnId, sequenceNumber) -> filter.add(hash, 0, stateIndex));
+
+        return filter;
+    }
+
+    private static final class Filter {
+        final long capacity;
+
+        private final long mask;
+        private final int hashes;
+        private final ByteBuffer words;
+
+        // written only by the thread applying messages
+        long added;
+
+        Filter(long capacity, int bitsPerState) {
+            long bits = Math.min(MAX_BITS, Math.max(64, Long.highestOneBit(Math.min(capacity, MAX_BITS) * bitsPerState - 1) << 1));
+
+            // a filter as large as it gets is never rebuilt, but its false positive rate goes up
+            this.capacity = bits == MAX_BITS ? Long.MAX_VALUE : bits / bitsPerState;
+            this.mask = bits - 1;
+            // the number of hashes that minimises false positives for the bits per state
+            this.hashes = Math.max(1, (int) Math.round(bitsPerState * Math.log(2)));
+            this.words = ByteBuffer.allocateDirect((int) (bits / 8));
+        }
+
+        void add(byte[] hash, int offset, int index) {
+            long h1 = StateRefs.hash(hash, offset, index);
+            long h2 = StateRefs.secondHash(hash, offset, index) | 1;
+
+            for (int i = 0; i < hashes; i++) {
+                long bit = (h1 + i * h2) & mask;
+                int pos = (int) (bit >>> 6) * 8;
+
+                words.putLong(pos, words.getLong(pos) | (1L << bit));
+            }
+
+            added++;
+        }
+
+        boolean mightContain(byte[] hash, int offset, int index) {
+            long h1 = StateRefs.hash(hash, offset, index);
+            long h2 = StateRefs.secondHash(hash, offset, index) | 1;
+
+            for (int i = 0; i < hashes; i++) {
+                long bit = (h1 + i * h2) & mask;
+
+                if ((words.getLong((int) (bit >>> 6) * 8) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        long bytes() {
+            return words.capacity();
+        }
+    }
+}
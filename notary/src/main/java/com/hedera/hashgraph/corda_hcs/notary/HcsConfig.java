@@ -10,9 +10,101 @@ import com.typesafe.config.ConfigValueType;
 import org.apache.shiro.codec.Hex;
 import org.bouncycastle.math.ec.rfc8032.Ed25519;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import javax.annotation.Nullable;
 
 public final class HcsConfig {
+    /**
+     * How submissions are spread across the pool of operator accounts.
+     */
+    public enum OperatorSelection {
+        /**
+         * Each account in turn.
+         */
+        ROUND_ROBIN,
+
+        /**
+         * The account with the fewest submissions in flight.
+         */
+        LEAST_LOADED
+    }
+
+    /**
+     * What to do with a request spending an input that a request already submitted by this
+     * notary is spending too.
+     */
+    public enum ContendedInputs {
+        /**
+         * Submit it anyway; it finds out it lost after consensus.
+         */
+        SUBMIT,
+
+        /**
+         * Wait until the other request's spends are applied, then check against them.
+         */
+        QUEUE,
+
+        /**
+         * Reject it right away, even though the other request may still fail.
+         */
+        FAIL_FAST
+    }
+
+    /**
+     * Where a notary without any consumed states yet starts reading its topics from.
+     */
+    public enum Bootstrap {
+        /**
+         * The first message of each topic, replaying its entire history.
+         */
+        HISTORY,
+
+        /**
+         * A signed snapshot of the consumed states, then the messages after it.
+         */
+        SNAPSHOT,
+
+        /**
+         * The time the notary starts, ignoring the history of its topics.
+         */
+        NONE
+    }
+
+    /**
+     * What the notary submits its messages to and reads them back from.
+     */
+    public enum Transport {
+        /**
+         * The Hedera network and its mirror node.
+         */
+        HEDERA,
+
+        /**
+         * A network simulated in the node's own process, for testing without Hedera.
+         */
+        SIMULATED
+    }
+
+    /**
+     * An account that pays for HCS submissions.
+     */
+    public static final class Operator {
+        public final AccountId accountId;
+
+        public final byte[] privateKey;
+
+        Operator(AccountId accountId, byte[] privateKey) {
+            this.accountId = accountId;
+            this.privateKey = privateKey;
+        }
+    }
+
     /**
      * The account ID that will be sending HCS messages (and will create the topic if it doesn't
      * exist)
@@ -24,12 +116,42 @@ public final class HcsConfig {
      */
     public final byte[] privateKey;
 
+    /**
+     * The accounts that pay for HCS submissions, spread across to get past the submission rate
+     * of a single account. If not given, just {@link #accountId}.
+     */
+    public final List<Operator> operators;
+
+    public final OperatorSelection operatorSelection;
+
+    /**
+     * The Hedera nodes submissions are spread across. If not given, the nodes the SDK knows for
+     * the network.
+     */
+    public final List<AccountId> nodeAccountIds;
+
+    /**
+     * How long a submission may wait on a busy or slow node before it's tried on another.
+     */
+    public final Duration nodeTimeout;
+
+    /**
+     * How long a node that was busy or unreachable is left out of the rotation.
+     */
+    public final Duration nodeCooldown;
+
     /**
      * The topic ID to use for HCS. If not given it will be created.
      */
     @Nullable
     public final ConsensusTopicId topicId;
 
+    /**
+     * The topic IDs of each shard when the notary is sharded across several topics, which must
+     * all exist; otherwise a list holding just {@link #topicId}, or empty if it's not given.
+     */
+    public final List<ConsensusTopicId> topicIds;
+
     /**
      * The submit key to use with the given topic, or if it doesn't exist, the submit key to use
      * with the new topic.
@@ -39,48 +161,259 @@ public final class HcsConfig {
 
     public final boolean testnet;
 
+    /**
+     * The maximum number of transactions to pack into one HCS message.
+     */
+    public final int batchMaxRecords;
+
+    /**
+     * How long the first transaction of a batch may wait for others to join it.
+     */
+    public final Duration batchMaxDelay;
+
+    /**
+     * The maximum size of a single HCS message, in bytes.
+     */
+    public final int maxMessageBytes;
+
+    /**
+     * Whether HCS messages are written in the compact (v2) format, which older notaries can't read;
+     * off unless configured, so it's only turned on once every notary reading the topic is upgraded.
+     */
+    public final boolean compactMessages;
+
+    /**
+     * How long, in consensus time, the chunks of a message too large for one HCS message may take
+     * to all arrive before it is discarded.
+     */
+    public final Duration chunkTimeout;
+
+    /**
+     * How long, in consensus time, a transaction spanning several shards may hold the locks on its
+     * input states before they are released.
+     */
+    public final Duration lockTimeout;
+
+    /**
+     * How long to wait for a submitted message to come back through the mirror subscription
+     * before querying its receipt for the sequence number instead.
+     */
+    public final Duration receiptFallback;
+
+    public final ContendedInputs contendedInputs;
+
+    /**
+     * How many recently issued notary signatures are kept to answer retried requests with.
+     */
+    public final int signatureCacheSize;
+
+    /**
+     * The most transactions signed at once, with one signature over a Merkle tree of their IDs.
+     */
+    public final int signatureBatchSize;
+
+    /**
+     * How many of the latest notarisations are traced, a power of two; 0 to trace none.
+     */
+    public final int traceCapacity;
+
+    /**
+     * How long a notarisation may take before its trace is logged; zero to log none.
+     */
+    public final Duration traceSlowThreshold;
+
+    /**
+     * The number of threads submitting HCS messages, i.e. how many may be in flight at once.
+     */
+    public final int submitThreads;
+
+    /**
+     * How many HCS messages may wait for a submit thread before batching is held back.
+     */
+    public final int submitQueueSize;
+
+    /**
+     * The number of threads decoding topic messages ahead of the thread applying them, shared by
+     * every shard.
+     */
+    public final int applyDecodeThreads;
+
+    /**
+     * How many topic messages each shard may have received but not yet applied; a power of two.
+     */
+    public final int applyRingSize;
+
+    /**
+     * How long to wait for the messages missing from a gap in a topic's sequence numbers before
+     * requesting them from the mirror node again.
+     */
+    public final Duration applyGapTimeout;
+
+    /**
+     * How many times, a second apart, a message that failed to apply is retried before its shard
+     * stops applying messages and fails every request waiting on it.
+     */
+    public final int applyMaxRetries;
+
+    public final Bootstrap bootstrap;
+
+    /**
+     * Where the snapshots of consumed states are read from when bootstrapping from a snapshot.
+     */
+    @Nullable
+    public final Path bootstrapSnapshotDirectory;
+
+    /**
+     * The Ed25519 key snapshots must be signed with; the notary's own if not given.
+     */
+    public final byte[] bootstrapSnapshotPublicKey;
+
+    /**
+     * How many mirror node queries may read ranges of a topic's history at once.
+     */
+    public final int bootstrapParallelQueries;
+
+    /**
+     * The most messages read by one mirror node query of a topic's history.
+     */
+    public final int bootstrapQueryLimit;
+
+    /**
+     * Whether lookups go through a Bloom filter of the consumed states first.
+     */
+    public final boolean filterEnabled;
+
+    /**
+     * The size of the Bloom filter in bits per consumed state, which sets its false positive rate.
+     */
+    public final int filterBitsPerState;
+
+    /**
+     * Whether consumed states are persisted so they survive a restart.
+     */
+    public final boolean persistenceEnabled;
+
+    /**
+     * Where consumed states are persisted. If not given, a directory in the node's base directory
+     * is used.
+     */
+    @Nullable
+    public final Path persistenceDirectory;
+
+    /**
+     * The number of slots the index of consumed states starts out with, persistent or not.
+     */
+    public final long persistenceInitialCapacity;
+
+    /**
+     * How many messages are applied between checkpoints of the persistent index, which bounds
+     * how much of its log is replayed on startup.
+     */
+    public final int persistenceCheckpointInterval;
+
+    /**
+     * Whether states consumed more than {@link #persistenceHotMessages} messages ago are moved out
+     * of the persistent index's hash table to sorted, memory-mapped segments.
+     */
+    public final boolean persistenceTiered;
+
+    /**
+     * How many messages the consumed states in the tiered index's hash table span before they're
+     * moved to a segment.
+     */
+    public final long persistenceHotMessages;
+
+    public final Transport transport;
+
+    /**
+     * How long a message submitted to the simulated network takes to reach consensus, on average.
+     */
+    public final Duration simulatorLatency;
+
+    /**
+     * How much sooner or later than that each message may reach consensus, at random.
+     */
+    public final Duration simulatorJitter;
+
+    /**
+     * How many messages a second the simulated network accepts before answering BUSY; 0 for no
+     * limit.
+     */
+    public final int simulatorMaxTps;
+
+    /**
+     * The chance of the simulated mirror node delivering a message twice.
+     */
+    public final double simulatorDuplicateRate;
+
+    /**
+     * How long a subscription to the simulated mirror node lasts on average before it's dropped;
+     * zero to never drop one.
+     */
+    public final Duration simulatorDisconnectInterval;
+
     HcsConfig(Config config) {
-        ConfigValue accountId = config.getValue("hcs.accountId");
+        this.accountId = accountId(config.getValue("hcs.accountId"), "hcs.accountId");
+        this.privateKey = privateKey(config, "hcs.privateKey");
 
-        if (accountId.valueType() == ConfigValueType.STRING) {
-            this.accountId = AccountId.fromString((String) accountId.unwrapped());
-        } else if (accountId.valueType() == ConfigValueType.NUMBER) {
-            this.accountId = new AccountId(((Number) accountId.unwrapped()).longValue());
+        if (config.hasPath("hcs.operators")) {
+            List<Operator> operators = new ArrayList<>();
+
+            for (Config operator : config.getConfigList("hcs.operators")) {
+                operators.add(new Operator(
+                        accountId(operator.getValue("accountId"), "hcs.operators.accountId"),
+                        privateKey(operator, "privateKey")));
+            }
+
+            if (operators.isEmpty()) {
+                throw new ConfigException.BadValue(
+                        config.origin(),
+                        "hcs.operators",
+                        "must list at least one account");
+            }
+
+            this.operators = Collections.unmodifiableList(operators);
         } else {
-            throw new ConfigException.WrongType(accountId.origin(),
-                    "hcs.accountId",
-                    "string or number",
-                    accountId.valueType().toString());
+            this.operators = Collections.singletonList(new Operator(this.accountId, this.privateKey));
         }
 
-        String privateKey = config.getString("hcs.privateKey");
-
-        this.privateKey = Hex.decode(privateKey);
+        String operatorSelection = config.hasPath("hcs.operatorSelection")
+                ? config.getString("hcs.operatorSelection")
+                : "round-robin";
 
-        // FIXME: use `Ed25519PrivateKey.fromString()` except Corda needs to upgrade Bouncycastle
-        if (this.privateKey.length != Ed25519.SECRET_KEY_SIZE) {
+        if (operatorSelection.equals("round-robin")) {
+            this.operatorSelection = OperatorSelection.ROUND_ROBIN;
+        } else if (operatorSelection.equals("least-loaded")) {
+            this.operatorSelection = OperatorSelection.LEAST_LOADED;
+        } else {
             throw new ConfigException.BadValue(
                     config.origin(),
-                    "hcs.privateKey",
-                    "must be 64 hex characters; if you have a 96-character private key from "
-                            + "the SDK then you must trim the first 32 characters");
+                    "hcs.operatorSelection",
+                    "must be `round-robin` or `least-loaded`");
         }
 
-        if (config.hasPath("hcs.topicId")) {
-            ConfigValue topicId = config.getValue("hcs.topicId");
+        if (config.hasPath("hcs.topicIds")) {
+            List<ConsensusTopicId> topicIds = new ArrayList<>();
 
-            if (topicId.valueType() == ConfigValueType.STRING) {
-                this.topicId = ConsensusTopicId.fromString((String) topicId.unwrapped());
-            } else if (topicId.valueType() == ConfigValueType.NUMBER) {
-                this.topicId = new ConsensusTopicId(((Number) topicId.unwrapped()).longValue());
-            } else {
-                throw new ConfigException.WrongType(topicId.origin(),
-                        "hcs.topicId",
-                        "string or number",
-                        topicId.valueType().toString());
+            for (ConfigValue topicId : config.getList("hcs.topicIds")) {
+                topicIds.add(topicId(topicId, "hcs.topicIds"));
             }
+
+            if (topicIds.isEmpty()) {
+                throw new ConfigException.BadValue(
+                        config.origin(),
+                        "hcs.topicIds",
+                        "must list at least one topic ID");
+            }
+
+            this.topicIds = Collections.unmodifiableList(topicIds);
+            this.topicId = topicIds.get(0);
+        } else if (config.hasPath("hcs.topicId")) {
+            this.topicId = topicId(config.getValue("hcs.topicId"), "hcs.topicId");
+            this.topicIds = Collections.singletonList(this.topicId);
         } else {
             this.topicId = null;
+            this.topicIds = Collections.emptyList();
         }
 
         String submitKey = null;
@@ -117,5 +450,392 @@ public final class HcsConfig {
         }
 
         this.testnet = testnet;
+
+        if (config.hasPath("hcs.nodeAccountIds")) {
+            List<AccountId> nodeAccountIds = new ArrayList<>();
+
+            for (ConfigValue nodeAccountId : config.getList("hcs.nodeAccountIds")) {
+                nodeAccountIds.add(accountId(nodeAccountId, "hcs.nodeAccountIds"));
+            }
+
+            if (nodeAccountIds.isEmpty()) {
+                throw new ConfigException.BadValue(
+                        config.origin(),
+                        "hcs.nodeAccountIds",
+                        "must list at least one node");
+            }
+
+            this.nodeAccountIds = Collections.unmodifiableList(nodeAccountIds);
+        } else {
+            List<AccountId> nodeAccountIds = new ArrayList<>();
+
+            // the nodes `Client.forTestnet()` and `Client.forMainnet()` connect to
+            for (long node = 3; node <= (testnet ? 6 : 12); node++) {
+                nodeAccountIds.add(new AccountId(node));
+            }
+
+            this.nodeAccountIds = Collections.unmodifiableList(nodeAccountIds);
+        }
+
+        this.nodeTimeout = Duration.ofMillis(config.hasPath("hcs.nodeTimeoutMs")
+                ? config.getLong("hcs.nodeTimeoutMs")
+                : 5_000);
+
+        this.nodeCooldown = Duration.ofMillis(config.hasPath("hcs.nodeCooldownMs")
+                ? config.getLong("hcs.nodeCooldownMs")
+                : 10_000);
+
+        this.batchMaxRecords = config.hasPath("hcs.batch.maxRecords")
+                ? config.getInt("hcs.batch.maxRecords")
+                : 32;
+
+        if (this.batchMaxRecords < 1) {
+            throw new ConfigException.BadValue(
+                    config.origin(),
+                    "hcs.batch.maxRecords",
+                    "must be at least 1");
+        }
+
+        this.batchMaxDelay = Duration.ofMillis(config.hasPath("hcs.batch.maxDelayMs")
+                ? config.getLong("hcs.batch.maxDelayMs")
+                : 50);
+
+        this.maxMessageBytes = config.hasPath("hcs.maxMessageBytes")
+                ? config.getInt("hcs.maxMessageBytes")
+                : 1024;
+
+        this.compactMessages = config.hasPath("hcs.compactMessages")
+                && config.getBoolean("hcs.compactMessages");
+
+        if (this.topicIds.size() > 1 && !this.compactMessages) {
+            throw new ConfigException.BadValue(
+                    config.origin(),
+                    "hcs.compactMessages",
+                    "must be true when sharding across several topics");
+        }
+
+        this.chunkTimeout = Duration.ofMillis(config.hasPath("hcs.chunkTimeoutMs")
+                ? config.getLong("hcs.chunkTimeoutMs")
+                : 300_000);
+
+        this.lockTimeout = Duration.ofMillis(config.hasPath("hcs.lockTimeoutMs")
+                ? config.getLong("hcs.lockTimeoutMs")
+                : 300_000);
+
+        this.receiptFallback = Duration.ofMillis(config.hasPath("hcs.receiptFallbackMs")
+                ? config.getLong("hcs.receiptFallbackMs")
+                : 30_000);
+
+        String contendedInputs = config.hasPath("hcs.contendedInputs")
+                ? config.getString("hcs.contendedInputs")
+                : "queue";
+
+        if (contendedInputs.equals("submit")) {
+            this.contendedInputs = ContendedInputs.SUBMIT;
+        } else if (contendedInputs.equals("queue")) {
+            this.contendedInputs = ContendedInputs.QUEUE;
+        } else if (contendedInputs.equals("fail-fast")) {
+            this.contendedInputs = ContendedInputs.FAIL_FAST;
+        } else {
+            throw new ConfigException.BadValue(
+                    config.origin(),
+                    "hcs.contendedInputs",
+                    "must be `submit`, `queue` or `fail-fast`");
+        }
+
+        this.signatureCacheSize = config.hasPath("hcs.signatureCacheSize")
+                ? config.getInt("hcs.signatureCacheSize")
+                : 4096;
+
+        this.signatureBatchSize = config.hasPath("hcs.signatureBatchSize")
+                ? config.getInt("hcs.signatureBatchSize")
+                : 256;
+
+        if (this.signatureBatchSize < 1) {
+            throw new ConfigException.BadValue(
+                    config.origin(),
+                    "hcs.signatureBatchSize",
+                    "must be at least 1");
+        }
+
+        this.traceCapacity = config.hasPath("hcs.trace.capacity")
+                ? config.getInt("hcs.trace.capacity")
+                : 4096;
+
+        if (this.traceCapacity < 0 || (this.traceCapacity > 0 && Integer.bitCount(this.traceCapacity) != 1)) {
+            throw new ConfigException.BadValue(
+                    config.origin(),
+                    "hcs.trace.capacity",
+                    "must be 0 or a power of two");
+        }
+
+        this.traceSlowThreshold = Duration.ofMillis(config.hasPath("hcs.trace.slowThresholdMs")
+                ? config.getLong("hcs.trace.slowThresholdMs")
+                : 10_000);
+
+        this.submitThreads = config.hasPath("hcs.submit.threads")
+                ? config.getInt("hcs.submit.threads")
+                : 8;
+
+        this.submitQueueSize = config.hasPath("hcs.submit.queueSize")
+                ? config.getInt("hcs.submit.queueSize")
+                : 256;
+
+        if (this.submitThreads < 1 || this.submitQueueSize < 1) {
+            throw new ConfigException.BadValue(
+                    config.origin(),
+                    "hcs.submit",
+                    "threads and queueSize must be at least 1");
+        }
+
+        this.applyDecodeThreads = config.hasPath("hcs.apply.decodeThreads")
+                ? config.getInt("hcs.apply.decodeThreads")
+                : Runtime.getRuntime().availableProcessors();
+
+        this.applyRingSize = config.hasPath("hcs.apply.ringSize")
+                ? config.getInt("hcs.apply.ringSize")
+                : 1024;
+
+        if (this.applyDecodeThreads < 1 || this.applyRingSize < 1 || Integer.bitCount(this.applyRingSize) != 1) {
+            throw new ConfigException.BadValue(
+                    config.origin(),
+                    "hcs.apply",
+                    "decodeThreads must be at least 1 and ringSize a power of two");
+        }
+
+        this.applyGapTimeout = Duration.ofMillis(config.hasPath("hcs.apply.gapTimeoutMs")
+                ? config.getLong("hcs.apply.gapTimeoutMs")
+                : 5_000);
+
+        this.applyMaxRetries = config.hasPath("hcs.apply.maxRetries")
+                ? config.getInt("hcs.apply.maxRetries")
+                : 10;
+
+        if (this.applyMaxRetries < 0) {
+            throw new ConfigException.BadValue(
+                    config.origin(),
+                    "hcs.apply.maxRetries",
+                    "must not be negative");
+        }
+
+        String bootstrap = config.hasPath("hcs.bootstrap.mode")
+                ? config.getString("hcs.bootstrap.mode")
+                : "history";
+
+        if (bootstrap.equals("history")) {
+            this.bootstrap = Bootstrap.HISTORY;
+        } else if (bootstrap.equals("snapshot")) {
+            this.bootstrap = Bootstrap.SNAPSHOT;
+        } else if (bootstrap.equals("none")) {
+            this.bootstrap = Bootstrap.NONE;
+        } else {
+            throw new ConfigException.BadValue(
+                    config.origin(),
+                    "hcs.bootstrap.mode",
+                    "must be `history`, `snapshot` or `none`");
+        }
+
+        this.bootstrapSnapshotDirectory = config.hasPath("hcs.bootstrap.snapshotDirectory")
+                ? Paths.get(config.getString("hcs.bootstrap.snapshotDirectory"))
+                : null;
+
+        if (this.bootstrap == Bootstrap.SNAPSHOT && this.bootstrapSnapshotDirectory == null) {
+            throw new ConfigException.BadValue(
+                    config.origin(),
+                    "hcs.bootstrap.snapshotDirectory",
+                    "required when bootstrapping from a snapshot");
+        }
+
+        if (config.hasPath("hcs.bootstrap.snapshotPublicKey")) {
+            this.bootstrapSnapshotPublicKey = Hex.decode(config.getString("hcs.bootstrap.snapshotPublicKey"));
+
+            if (this.bootstrapSnapshotPublicKey.length != Ed25519.PUBLIC_KEY_SIZE) {
+                throw new ConfigException.BadValue(
+                        config.origin(),
+                        "hcs.bootstrap.snapshotPublicKey",
+                        "must be 64 hex characters");
+            }
+        } else {
+            this.bootstrapSnapshotPublicKey = Ed25519PublicKey.fromPrivateKey(this.privateKey).toBytes();
+        }
+
+        this.bootstrapParallelQueries = config.hasPath("hcs.bootstrap.parallelQueries")
+                ? config.getInt("hcs.bootstrap.parallelQueries")
+                : 4;
+
+        this.bootstrapQueryLimit = config.hasPath("hcs.bootstrap.queryLimit")
+                ? config.getInt("hcs.bootstrap.queryLimit")
+                : 5_000;
+
+        if (this.bootstrapParallelQueries < 1 || this.bootstrapQueryLimit < 1) {
+            throw new ConfigException.BadValue(
+                    config.origin(),
+                    "hcs.bootstrap",
+                    "parallelQueries and queryLimit must be at least 1");
+        }
+
+        this.persistenceEnabled = !config.hasPath("hcs.persistence.enabled")
+                || config.getBoolean("hcs.persistence.enabled");
+
+        this.persistenceDirectory = config.hasPath("hcs.persistence.directory")
+                ? Paths.get(config.getString("hcs.persistence.directory"))
+                : null;
+
+        this.persistenceInitialCapacity = config.hasPath("hcs.persistence.initialCapacity")
+                ? config.getLong("hcs.persistence.initialCapacity")
+                : 1 << 20;
+
+        this.persistenceCheckpointInterval = config.hasPath("hcs.persistence.checkpointInterval")
+                ? config.getInt("hcs.persistence.checkpointInterval")
+                : 10_000;
+
+        if (this.persistenceCheckpointInterval < 1) {
+            throw new ConfigException.BadValue(
+                    config.origin(),
+                    "hcs.persistence.checkpointInterval",
+                    "must be at least 1");
+        }
+
+        this.persistenceTiered = config.hasPath("hcs.persistence.tiered")
+                && config.getBoolean("hcs.persistence.tiered");
+
+        if (this.persistenceTiered && !this.persistenceEnabled) {
+            throw new ConfigException.BadValue(
+                    config.origin(),
+                    "hcs.persistence.tiered",
+                    "requires hcs.persistence.enabled");
+        }
+
+        this.persistenceHotMessages = config.hasPath("hcs.persistence.hotMessages")
+                ? config.getLong("hcs.persistence.hotMessages")
+                : 1_000_000;
+
+        if (this.persistenceHotMessages < 1) {
+            throw new ConfigException.BadValue(
+                    config.origin(),
+                    "hcs.persistence.hotMessages",
+                    "must be at least 1");
+        }
+
+        // an index kept in memory is about as quick to look up as the filter
+        this.filterEnabled = config.hasPath("hcs.filter.enabled")
+                ? config.getBoolean("hcs.filter.enabled")
+                : this.persistenceEnabled;
+
+        this.filterBitsPerState = config.hasPath("hcs.filter.bitsPerState")
+                ? config.getInt("hcs.filter.bitsPerState")
+                : 10;
+
+        if (this.filterBitsPerState < 1 || this.filterBitsPerState > 64) {
+            throw new ConfigException.BadValue(
+                    config.origin(),
+                    "hcs.filter.bitsPerState",
+                    "must be between 1 and 64");
+        }
+
+        String transport = config.hasPath("hcs.transport")
+                ? config.getString("hcs.transport")
+                : "hedera";
+
+        if (transport.equals("hedera")) {
+            this.transport = Transport.HEDERA;
+        } else if (transport.equals("simulated")) {
+            this.transport = Transport.SIMULATED;
+        } else {
+            throw new ConfigException.BadValue(
+                    config.origin(),
+                    "hcs.transport",
+                    "must be one of hedera or simulated");
+        }
+
+        this.simulatorLatency = Duration.ofMillis(config.hasPath("hcs.simulator.latencyMs")
+                ? config.getLong("hcs.simulator.latencyMs")
+                : 3_000);
+
+        this.simulatorJitter = Duration.ofMillis(config.hasPath("hcs.simulator.jitterMs")
+                ? config.getLong("hcs.simulator.jitterMs")
+                : 500);
+
+        if (this.simulatorLatency.isNegative() || this.simulatorJitter.isNegative()
+                || this.simulatorJitter.compareTo(this.simulatorLatency) > 0) {
+            throw new ConfigException.BadValue(
+                    config.origin(),
+                    "hcs.simulator",
+                    "latencyMs and jitterMs must not be negative, nor jitterMs more than latencyMs");
+        }
+
+        this.simulatorMaxTps = config.hasPath("hcs.simulator.maxTps")
+                ? config.getInt("hcs.simulator.maxTps")
+                : 0;
+
+        if (this.simulatorMaxTps < 0) {
+            throw new ConfigException.BadValue(
+                    config.origin(),
+                    "hcs.simulator.maxTps",
+                    "must not be negative");
+        }
+
+        this.simulatorDuplicateRate = config.hasPath("hcs.simulator.duplicateRate")
+                ? config.getDouble("hcs.simulator.duplicateRate")
+                : 0;
+
+        if (this.simulatorDuplicateRate < 0 || this.simulatorDuplicateRate > 1) {
+            throw new ConfigException.BadValue(
+                    config.origin(),
+                    "hcs.simulator.duplicateRate",
+                    "must be between 0 and 1");
+        }
+
+        this.simulatorDisconnectInterval = Duration.ofMillis(config.hasPath("hcs.simulator.disconnectIntervalMs")
+                ? config.getLong("hcs.simulator.disconnectIntervalMs")
+                : 0);
+
+        if (this.simulatorDisconnectInterval.isNegative()) {
+            throw new ConfigException.BadValue(
+                    config.origin(),
+                    "hcs.simulator.disconnectIntervalMs",
+                    "must not be negative");
+        }
+    }
+
+    private static AccountId accountId(ConfigValue accountId, String path) {
+        if (accountId.valueType() == ConfigValueType.STRING) {
+            return AccountId.fromString((String) accountId.unwrapped());
+        } else if (accountId.valueType() == ConfigValueType.NUMBER) {
+            return new AccountId(((Number) accountId.unwrapped()).longValue());
+        } else {
+            throw new ConfigException.WrongType(accountId.origin(),
+                    path,
+                    "string or number",
+                    accountId.valueType().toString());
+        }
+    }
+
+    private static byte[] privateKey(Config config, String path) {
+        byte[] privateKey = Hex.decode(config.getString(path));
+
+        // FIXME: use `Ed25519PrivateKey.fromString()` except Corda needs to upgrade Bouncycastle
+        if (privateKey.length != Ed25519.SECRET_KEY_SIZE) {
+            throw new ConfigException.BadValue(
+                    config.origin(),
+                    path,
+                    "must be 64 hex characters; if you have a 96-character private key from "
+                            + "the SDK then you must trim the first 32 characters");
+        }
+
+        return privateKey;
+    }
+
+    private static ConsensusTopicId topicId(ConfigValue topicId, String path) {
+        if (topicId.valueType() == ConfigValueType.STRING) {
+            return ConsensusTopicId.fromString((String) topicId.unwrapped());
+        } else if (topicId.valueType() == ConfigValueType.NUMBER) {
+            return new ConsensusTopicId(((Number) topicId.unwrapped()).longValue());
+        } else {
+            throw new ConfigException.WrongType(topicId.origin(),
+                    path,
+                    "string or number",
+                    topicId.valueType().toString());
+        }
     }
 }
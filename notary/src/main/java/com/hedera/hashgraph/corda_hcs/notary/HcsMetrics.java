@@ -0,0 +1,75 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SlidingWindowReservoir;
+import com.codahale.metrics.Timer;
+
+/**
+ * The notary's metrics, kept in the node's metric registry, which the node publishes over JMX
+ * (and so Jolokia) with its own. Every name starts with {@code HcsNotary.}.
+ *
+ * Timers and histograms sample the latest {@value #WINDOW} updates into a fixed array rather than
+ * a decaying reservoir, so recording a latency doesn't allocate on the paths that record them.
+ */
+final class HcsMetrics {
+    private static final String PREFIX = "HcsNotary.";
+
+    private static final int WINDOW = 1028;
+
+    private final MetricRegistry registry;
+
+    // from the spends of a request being submitted until they're recorded and checked
+    final Timer commit;
+
+    // a submission to a Hedera node, until it accepted the transaction
+    final Timer execute;
+
+    // a receipt query for a message the mirror subscription was slow to deliver
+    final Timer receipt;
+
+    // from a message being sent until its consensus sequence number is known
+    final Timer consensusWait;
+
+    // how long after consensus each message was applied, in milliseconds
+    final Histogram mirrorLag;
+
+    // requests rejected because a state was already consumed
+    final Meter conflicts;
+
+    // submissions sent again to another node because the first was busy or unreachable
+    final Meter retries;
+
+    // the most each accepted submission could have been charged, in tinybars; receipts don't
+    // carry the actual fee and a record query for every message would cost more than the message
+    final Counter feesOffered;
+
+    HcsMetrics(MetricRegistry registry) {
+        this.registry = registry;
+
+        this.commit = timer("Commit");
+        this.execute = timer("Submit.Execute");
+        this.receipt = timer("Submit.Receipt");
+        this.consensusWait = timer("ConsensusWait");
+        this.mirrorLag = registry.histogram(PREFIX + "MirrorLag", () -> new Histogram(new SlidingWindowReservoir(WINDOW)));
+        this.conflicts = registry.meter(PREFIX + "Conflicts");
+        this.retries = registry.meter(PREFIX + "Submit.Retries");
+        this.feesOffered = registry.counter(PREFIX + "Submit.FeesOffered");
+    }
+
+    /**
+     * Register a gauge, replacing one left behind by a notary service started before in this
+     * process.
+     */
+    void gauge(String name, Gauge<?> gauge) {
+        registry.remove(PREFIX + name);
+        registry.register(PREFIX + name, gauge);
+    }
+
+    private Timer timer(String name) {
+        return registry.timer(PREFIX + name, () -> new Timer(new SlidingWindowReservoir(WINDOW)));
+    }
+}
@@ -0,0 +1,889 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hedera.hashgraph.sdk.Client;
+import com.hedera.hashgraph.sdk.HederaStatusException;
+import com.hedera.hashgraph.sdk.TransactionId;
+import com.hedera.hashgraph.sdk.account.AccountId;
+import com.hedera.hashgraph.sdk.consensus.ConsensusTopicId;
+
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.NotaryError;
+import net.corda.core.flows.NotaryException;
+import net.corda.core.flows.StateConsumptionDetails;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+/**
+ * The HCS side of a notary, shared by {@link HcsNotaryService} and
+ * {@link HcsSinglePartyNotaryService}: records the spends of transactions in HCS and checks them
+ * against the states already consumed.
+ */
+final class HcsNotaryCore {
+    private static final Logger logger = LoggerFactory.getLogger(HcsNotaryCore.class);
+
+    // attempts at submitting one message, each on a different node if the last was busy
+    private static final int MAX_SUBMIT_ATTEMPTS = 3;
+
+    // Hedera, or a stand-in for it
+    private final HcsTransport transport;
+
+    // reads the history of the topics, unless the notary ignores it
+    @Nullable
+    private final TopicBackfill backfill;
+
+    // pays for and routes HCS submissions
+    private final OperatorPool operatorPool;
+
+    private final AccountId operatorAccountId;
+
+    private final byte[] privateKeyBytes;
+
+    @Nullable
+    private final Ed25519PublicKey submitPublicKey;
+
+    // runs the blocking Hedera calls so they don't pin flow worker threads
+    private final ThreadPoolExecutor submitExecutor;
+
+    // falls back to receipt queries for messages the mirror subscription is slow to deliver
+    private final ScheduledExecutorService receiptScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "hcs-receipt-fallback");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // decodes topic messages ahead of each shard's apply thread
+    private final ExecutorService decodeExecutor;
+
+    // states are assigned to a shard by their hash; a lone shard holds them all
+    private final List<HcsShard> shards;
+
+    // inputs of the requests submitted but not yet applied
+    private final InFlightReservations reservations = new InFlightReservations();
+    private final HcsConfig.ContendedInputs contendedInputs;
+
+    // cross-shard commits in flight, so concurrent requests for one transaction share a vote
+    private final ConcurrentHashMap<SecureHash, CompletableFuture<Void>> crossShardCommits = new ConcurrentHashMap<>();
+
+    private final HcsMetrics metrics;
+
+    // the phases of recent notarisations
+    final NotarisationTracer tracer;
+
+    /**
+     * @param baseDirectory the node's base directory, which holds the persisted index unless
+     *                      configured otherwise.
+     * @param metricRegistry the registry the notary's metrics are kept in (see {@link HcsMetrics}).
+     */
+    HcsNotaryCore(HcsConfig hcsConfig, Path baseDirectory, MetricRegistry metricRegistry) {
+        this(hcsConfig, baseDirectory, metricRegistry, null);
+    }
+
+    /**
+     * @param transport the transport to reach HCS through instead of the one configured, such as
+     *                  a simulated network shared with a notary stopped before this one.
+     */
+    HcsNotaryCore(HcsConfig hcsConfig, Path baseDirectory, MetricRegistry metricRegistry,
+                  @Nullable HcsTransport transport) {
+        this.metrics = new HcsMetrics(metricRegistry);
+        this.tracer = new NotarisationTracer(hcsConfig.traceCapacity, hcsConfig.traceSlowThreshold);
+        this.operatorAccountId = hcsConfig.accountId;
+
+        this.privateKeyBytes = hcsConfig.privateKey;
+
+        this.submitPublicKey = hcsConfig.submitKey != null ? Ed25519PublicKey.fromPrivateKey(hcsConfig.submitKey) : null;
+
+        Client sdkClient = (hcsConfig.testnet ? Client.forTestnet() : Client.forMainnet())
+                .setOperatorWith(
+                        operatorAccountId,
+                        Ed25519PublicKey.fromPrivateKey(privateKeyBytes),
+                        message -> SigningUtils.sign(privateKeyBytes, message));
+
+        List<OperatorPool.Operator> operators = new ArrayList<>(hcsConfig.operators.size());
+
+        for (HcsConfig.Operator operator : hcsConfig.operators) {
+            // the account that creates the topic may be in the pool too
+            Client client = operator.accountId.equals(operatorAccountId)
+                    ? sdkClient
+                    : (hcsConfig.testnet ? Client.forTestnet() : Client.forMainnet())
+                            .setOperatorWith(
+                                    operator.accountId,
+                                    Ed25519PublicKey.fromPrivateKey(operator.privateKey),
+                                    message -> SigningUtils.sign(operator.privateKey, message));
+
+            operators.add(new OperatorPool.Operator(operator.accountId, client));
+        }
+
+        operatorPool = new OperatorPool(operators, hcsConfig.operatorSelection, hcsConfig.nodeAccountIds, hcsConfig.nodeCooldown);
+        contendedInputs = hcsConfig.contendedInputs;
+
+        if (transport != null) {
+            this.transport = transport;
+        } else if (hcsConfig.transport == HcsConfig.Transport.SIMULATED) {
+            this.transport = new SimulatedTransport(hcsConfig);
+        } else {
+            this.transport = new HederaTransport(hcsConfig.testnet, sdkClient, hcsConfig.submitKey, hcsConfig.nodeTimeout, tracer);
+        }
+
+        backfill = hcsConfig.bootstrap != HcsConfig.Bootstrap.NONE
+                ? new TopicBackfill(this.transport, hcsConfig, receiptScheduler)
+                : null;
+
+        AtomicInteger submitThreadCount = new AtomicInteger();
+
+        // when the queue is full the batcher thread sends the batch itself, and the batches that
+        // wait for it grow and then block the flows until it catches up (see BatchingSubmitter)
+        submitExecutor = new ThreadPoolExecutor(
+                hcsConfig.submitThreads,
+                hcsConfig.submitThreads,
+                0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(hcsConfig.submitQueueSize),
+                r -> {
+                    Thread thread = new Thread(r, "hcs-submit-" + submitThreadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
+        HcsShard.TopicSubmitter submitter = new HcsShard.TopicSubmitter() {
+            @Override
+            public CompletableFuture<TransactionId> submit(ConsensusTopicId topicId, byte[] message,
+                                                           NotarisationTracer.Traces traces) {
+                return CompletableFuture.supplyAsync(() -> submitMessage(topicId, message, traces), submitExecutor);
+            }
+
+            @Override
+            public CompletableFuture<Long> querySequenceNumber(TransactionId transactionId) {
+                return CompletableFuture.supplyAsync(() -> querySubmissionSequenceNumber(transactionId), submitExecutor);
+            }
+        };
+
+        AtomicInteger decodeThreadCount = new AtomicInteger();
+
+        decodeExecutor = Executors.newFixedThreadPool(hcsConfig.applyDecodeThreads, r -> {
+            Thread thread = new Thread(r, "hcs-decode-" + decodeThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        int shardCount = Math.max(1, hcsConfig.topicIds.size());
+        List<HcsShard> shards = new ArrayList<>(shardCount);
+
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new HcsShard(
+                    i,
+                    hcsConfig.topicIds.isEmpty() ? null : hcsConfig.topicIds.get(i),
+                    openIndex(hcsConfig, baseDirectory, i, shardCount),
+                    hcsConfig,
+                    submitter,
+                    receiptScheduler,
+                    decodeExecutor,
+                    metrics,
+                    tracer));
+        }
+
+        this.shards = Collections.unmodifiableList(shards);
+    }
+
+    private static DestructionIndex openIndex(HcsConfig hcsConfig, Path baseDirectory, int shard, int shardCount) {
+        DestructionIndex index = openUnfilteredIndex(hcsConfig, baseDirectory, shard, shardCount);
+
+        return hcsConfig.filterEnabled
+                ? new FilteredDestructionIndex(index, hcsConfig.persistenceInitialCapacity, hcsConfig.filterBitsPerState)
+                : index;
+    }
+
+    private static DestructionIndex openUnfilteredIndex(HcsConfig hcsConfig, Path baseDirectory, int shard, int shardCount) {
+        if (!hcsConfig.persistenceEnabled) {
+            return new CompactDestructionIndex(hcsConfig.persistenceInitialCapacity);
+        }
+
+        Path directory = hcsConfig.persistenceDirectory != null
+                ? hcsConfig.persistenceDirectory
+                : baseDirectory.resolve("hcs-notary");
+
+        try {
+            checkShardLayout(directory, shardCount);
+
+            // an unsharded notary keeps its index directly in the directory, as it always has
+            Path shardDirectory = shardCount > 1 ? directory.resolve("shard-" + shard) : directory;
+
+            if (hcsConfig.persistenceTiered) {
+                return TieredDestructionIndex.open(
+                        shardDirectory,
+                        hcsConfig.persistenceInitialCapacity,
+                        hcsConfig.persistenceCheckpointInterval,
+                        hcsConfig.persistenceHotMessages);
+            }
+
+            // opened as a plain index, a tiered one would look empty
+            if (Files.exists(shardDirectory.resolve("tiers"))) {
+                throw new IllegalStateException("destruction index in " + shardDirectory
+                        + " is tiered but hcs.persistence.tiered is not set");
+            }
+
+            return PersistentDestructionIndex.open(
+                    shardDirectory,
+                    hcsConfig.persistenceInitialCapacity,
+                    hcsConfig.persistenceCheckpointInterval);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to open destruction index in " + directory, e);
+        }
+    }
+
+    /**
+     * Make sure the persisted indices were written with the same number of shards, as states
+     * would otherwise be looked up in the wrong one.
+     */
+    private static void checkShardLayout(Path directory, int shardCount) throws IOException {
+        Path layoutFile = directory.resolve("shards");
+
+        if (Files.exists(layoutFile)) {
+            int persistedCount = Integer.parseInt(new String(Files.readAllBytes(layoutFile), StandardCharsets.UTF_8).trim());
+
+            if (persistedCount != shardCount) {
+                throw new IllegalStateException("destruction index in " + directory + " was written for "
+                        + persistedCount + " shards but " + shardCount + " topics are configured");
+            }
+
+            return;
+        }
+
+        if (shardCount == 1) {
+            return;
+        }
+
+        if (Files.exists(directory.resolve("destructions.log")) || Files.exists(directory.resolve("tiers"))) {
+            throw new IllegalStateException("destruction index in " + directory
+                    + " was written by an unsharded notary but " + shardCount + " topics are configured");
+        }
+
+        Files.createDirectories(directory);
+        Files.write(layoutFile, Integer.toString(shardCount).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Record the spends of the given transaction in HCS and check them against the states
+     * already consumed.
+     *
+     * A transaction whose states all belong to one shard is applied by that shard directly. One
+     * spanning several shards first locks its states in each of them, and is notarised only if
+     * every shard voted for it and its locks were committed; otherwise its locks are released
+     * again. States locked by another transaction fail the request with a
+     * {@link NotaryError.General} rather than a conflict, as the lock may yet be released.
+     *
+     * States already known to be consumed by another transaction are rejected before anything is
+     * submitted; the check after consensus remains the source of truth. A request spending an
+     * input that another request from this notary is still spending waits for it to be applied or
+     * fails, as configured.
+     *
+     * @param trace the notarisation's trace (see {@link NotarisationTracer}), or
+     *              {@link NotarisationTracer#NONE}.
+     * @return a future that completes once the spends are recorded, or exceptionally with a
+     * {@link NotaryException} if they conflict or with the {@link HederaStatusException} that
+     * prevented a submission.
+     */
+    CompletableFuture<Void> commitTransactionSpends(SerializeTransaction transaction, long trace) {
+        Map<StateRef, StateConsumptionDetails> knownConflicts = findConsumedStates(transaction);
+
+        if (!knownConflicts.isEmpty()) {
+            logger.debug("rejecting before submission, consumed states: " + knownConflicts);
+            metrics.conflicts.mark();
+
+            CompletableFuture<Void> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(new NotaryException(
+                    new NotaryError.Conflict(transaction.txnId, knownConflicts), transaction.txnId));
+
+            return rejected;
+        }
+
+        if (contendedInputs == HcsConfig.ContendedInputs.SUBMIT) {
+            return submitTransactionSpends(transaction, trace);
+        }
+
+        InFlightReservations.Reservation reservation =
+                new InFlightReservations.Reservation(transaction.txnId, transaction.inputs);
+        InFlightReservations.Reservation holder = reservations.reserve(reservation);
+
+        if (holder != null) {
+            // a retry of a request still in flight takes its outcome rather than sending it again
+            if (holder.txnId.equals(transaction.txnId)) {
+                logger.debug("waiting for the request of transaction " + transaction.txnId + " already in flight");
+
+                // its own spends aren't conflicts, so one that failed is checked or submitted again
+                return holder.released.thenCompose(v -> isCommitted(transaction)
+                        ? CompletableFuture.completedFuture(null)
+                        : commitTransactionSpends(transaction, trace));
+            }
+
+            if (contendedInputs == HcsConfig.ContendedInputs.QUEUE) {
+                logger.debug("waiting for transaction " + holder.txnId + " to release inputs of " + transaction.txnId);
+
+                // once the holder's spends are applied they're found by the check above
+                return holder.released.thenCompose(v -> commitTransactionSpends(transaction, trace));
+            }
+
+            CompletableFuture<Void> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(new NotaryException(new NotaryError.General(new IllegalStateException(
+                    "inputs of transaction " + transaction.txnId + " are being spent by transaction "
+                            + holder.txnId + ", try again later")), transaction.txnId));
+
+            return rejected;
+        }
+
+        CompletableFuture<Void> committed = submitTransactionSpends(transaction, trace);
+
+        // once the spends are applied, or their submission failed
+        committed.whenComplete((v, e) -> reservations.release(reservation));
+
+        return committed;
+    }
+
+    private CompletableFuture<Void> submitTransactionSpends(SerializeTransaction transaction, long trace) {
+        logger.trace("submitting transaction spends");
+
+        long started = System.nanoTime();
+        Map<HcsShard, SerializeTransaction> records = partition(transaction);
+
+        if (records.size() == 1) {
+            Map.Entry<HcsShard, SerializeTransaction> record = records.entrySet().iterator().next();
+            HcsShard shard = record.getKey();
+
+            return shard.submit(record.getValue(), SerializeTransaction.RECORD_APPLY, -1, trace)
+                    .thenCompose(seq -> shard.awaitSequenceNumber(seq).thenApply(watermark -> seq))
+                    .thenAccept(seq -> {
+                        tracer.record(trace, NotarisationTracer.Phase.APPLIED);
+                        checkTransaction(shard, transaction, seq);
+                        metrics.commit.update(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                    });
+        }
+
+        CompletableFuture<Void> commit = new CompletableFuture<>();
+        CompletableFuture<Void> inFlight = crossShardCommits.putIfAbsent(transaction.txnId, commit);
+
+        // a second lock would only be voted for by the shards the first one already holds
+        if (inFlight != null) {
+            return inFlight;
+        }
+
+        commitAcrossShards(transaction, records, trace).whenComplete((v, e) -> {
+            crossShardCommits.remove(transaction.txnId, commit);
+
+            if (e == null) {
+                metrics.commit.update(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                commit.complete(null);
+            } else {
+                commit.completeExceptionally(e);
+            }
+        });
+
+        return commit;
+    }
+
+    private CompletableFuture<Void> commitAcrossShards(SerializeTransaction txn, Map<HcsShard, SerializeTransaction> records,
+                                                       long trace) {
+        Map<HcsShard, CompletableFuture<Long>> locks = new LinkedHashMap<>();
+
+        records.forEach((shard, record) -> locks.put(shard,
+                shard.submit(record, SerializeTransaction.RECORD_LOCK, -1, trace)
+                        .thenCompose(seq -> shard.awaitSequenceNumber(seq).thenApply(watermark -> seq))));
+
+        return CompletableFuture.allOf(locks.values().toArray(new CompletableFuture<?>[0]))
+                .handle((v, e) -> e)
+                .thenCompose(lockError -> {
+                    tracer.record(trace, NotarisationTracer.Phase.APPLIED);
+
+                    HashMap<StateRef, StateConsumptionDetails> consumedStates = new HashMap<>();
+                    HashMap<StateRef, SecureHash> heldStates = new HashMap<>();
+                    List<CompletableFuture<Long>> aborts = new ArrayList<>();
+                    boolean locked = lockError == null;
+
+                    for (Map.Entry<HcsShard, SerializeTransaction> entry : records.entrySet()) {
+                        CompletableFuture<Long> lock = locks.get(entry.getKey());
+
+                        if (!lock.isCompletedExceptionally()) {
+                            locked &= vote(entry.getKey(), entry.getValue(), lock.join(), consumedStates, heldStates);
+                        }
+                    }
+
+                    if (locked) {
+                        return commitLocks(txn, records, locks);
+                    }
+
+                    for (Map.Entry<HcsShard, SerializeTransaction> entry : records.entrySet()) {
+                        HcsShard shard = entry.getKey();
+                        CompletableFuture<Long> lock = locks.get(shard);
+
+                        // a shard whose lock wasn't submitted holds nothing; one with only refs locks nothing
+                        if (lock.isCompletedExceptionally() || entry.getValue().inputs.isEmpty()) {
+                            continue;
+                        }
+
+                        aborts.add(shard.submit(entry.getValue(), SerializeTransaction.RECORD_ABORT, lock.join(),
+                                NotarisationTracer.NONE)
+                                .thenCompose(shard::awaitSequenceNumber));
+                    }
+
+                    NotaryException error;
+
+                    if (!consumedStates.isEmpty()) {
+                        logger.debug("throwing error, consumed states: " + consumedStates);
+                        metrics.conflicts.mark();
+                        error = new NotaryException(new NotaryError.Conflict(txn.txnId, consumedStates), txn.txnId);
+                    } else if (!heldStates.isEmpty()) {
+                        error = lockedError(txn.txnId, heldStates);
+                    } else {
+                        Throwable cause = lockError instanceof CompletionException && lockError.getCause() != null
+                                ? lockError.getCause()
+                                : lockError;
+
+                        error = new NotaryException(new NotaryError.General(cause != null
+                                ? cause
+                                : new IllegalStateException("spends of transaction " + txn.txnId
+                                + " were not recorded by every shard")), txn.txnId);
+                    }
+
+                    return CompletableFuture.allOf(aborts.toArray(new CompletableFuture<?>[0]))
+                            .<Void>thenApply(aborted -> {
+                                throw new CompletionException(error);
+                            });
+                });
+    }
+
+    /**
+     * Commit the locks every shard took for the transaction, then check that they were all still
+     * held when their commit was applied rather than expired.
+     */
+    private CompletableFuture<Void> commitLocks(SerializeTransaction txn, Map<HcsShard, SerializeTransaction> records,
+                                                Map<HcsShard, CompletableFuture<Long>> locks) {
+        List<CompletableFuture<Long>> commits = new ArrayList<>();
+
+        for (Map.Entry<HcsShard, SerializeTransaction> entry : records.entrySet()) {
+            HcsShard shard = entry.getKey();
+
+            // a shard with only refs locks nothing
+            if (entry.getValue().inputs.isEmpty()) {
+                continue;
+            }
+
+            commits.add(shard.submit(entry.getValue(), SerializeTransaction.RECORD_COMMIT, locks.get(shard).join(),
+                    NotarisationTracer.NONE)
+                    .thenCompose(shard::awaitSequenceNumber));
+        }
+
+        return CompletableFuture.allOf(commits.toArray(new CompletableFuture<?>[0]))
+                .thenRun(() -> {
+                    for (Map.Entry<HcsShard, SerializeTransaction> entry : records.entrySet()) {
+                        HcsShard shard = entry.getKey();
+
+                        for (StateRef input : entry.getValue().inputs) {
+                            StateDestruction destruction = shard.get(input);
+
+                            if (destruction == null || !destruction.txnId.equals(txn.txnId)
+                                    || shard.isHeld(input, destruction)) {
+                                throw new CompletionException(new NotaryException(new NotaryError.General(
+                                        new IllegalStateException("locks of transaction " + txn.txnId
+                                                + " were released before their commit, try again later")), txn.txnId));
+                            }
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Returns true if the shard voted for the transaction, i.e. the lock record at
+     * {@code lockSequenceNumber} consumed its inputs there (or an earlier one of the same
+     * transaction did) and none of its refs were consumed before it.
+     *
+     * States consumed for good by another transaction go in {@code consumedStates}; those only
+     * locked by one go in {@code heldStates}, with the transaction holding them.
+     */
+    private static boolean vote(HcsShard shard, SerializeTransaction record, long lockSequenceNumber,
+                                Map<StateRef, StateConsumptionDetails> consumedStates,
+                                Map<StateRef, SecureHash> heldStates) {
+        boolean locked = true;
+
+        for (StateRef input : record.inputs) {
+            StateDestruction destruction = shard.get(input);
+
+            if (destruction == null) {
+                // the lock never made it into the index, e.g. chunks that didn't all arrive in time
+                locked = false;
+            } else if (!destruction.txnId.equals(record.txnId)) {
+                locked = false;
+
+                if (shard.isHeld(input, destruction)) {
+                    heldStates.put(input, destruction.txnId);
+                } else {
+                    consumedStates.put(input,
+                            new StateConsumptionDetails(destruction.txnId, StateConsumptionDetails.ConsumedStateType.INPUT_STATE));
+                }
+            }
+        }
+
+        for (StateRef ref : record.refs) {
+            StateDestruction destruction = shard.get(ref);
+
+            if (destruction != null && destruction.sequenceNumber <= lockSequenceNumber) {
+                locked = false;
+
+                if (shard.isHeld(ref, destruction)) {
+                    heldStates.put(ref, destruction.txnId);
+                } else {
+                    consumedStates.put(ref,
+                            new StateConsumptionDetails(destruction.txnId, StateConsumptionDetails.ConsumedStateType.REFERENCE_INPUT_STATE));
+                }
+            }
+        }
+
+        return locked;
+    }
+
+    /**
+     * The error for a transaction whose states are locked by others, which may yet release them.
+     */
+    private static NotaryException lockedError(SecureHash txnId, Map<StateRef, SecureHash> heldStates) {
+        return new NotaryException(new NotaryError.General(new IllegalStateException(
+                "states of transaction " + txnId + " are locked by transactions " + new HashSet<>(heldStates.values())
+                        + ", try again later")), txnId);
+    }
+
+    /**
+     * Find the states of the transaction that the messages applied so far already consumed for
+     * another transaction, which any message submitted now is certain to lose to. States only
+     * locked by another transaction may yet be released, so are left to the check after consensus.
+     */
+    private Map<StateRef, StateConsumptionDetails> findConsumedStates(SerializeTransaction txn) {
+        Map<StateRef, StateConsumptionDetails> consumedStates = Collections.emptyMap();
+
+        for (StateRef input : txn.inputs) {
+            HcsShard shard = shardOf(input);
+            StateDestruction destruction = shard.get(input);
+
+            if (destruction != null && !destruction.txnId.equals(txn.txnId) && !shard.isHeld(input, destruction)) {
+                if (consumedStates.isEmpty()) {
+                    consumedStates = new HashMap<>();
+                }
+
+                consumedStates.put(input,
+                        new StateConsumptionDetails(destruction.txnId, StateConsumptionDetails.ConsumedStateType.INPUT_STATE));
+            }
+        }
+
+        for (StateRef ref : txn.refs) {
+            HcsShard shard = shardOf(ref);
+            StateDestruction destruction = shard.get(ref);
+
+            if (destruction != null && !shard.isHeld(ref, destruction)) {
+                if (consumedStates.isEmpty()) {
+                    consumedStates = new HashMap<>();
+                }
+
+                consumedStates.put(ref,
+                        new StateConsumptionDetails(destruction.txnId, StateConsumptionDetails.ConsumedStateType.REFERENCE_INPUT_STATE));
+            }
+        }
+
+        return consumedStates;
+    }
+
+    /**
+     * Split the spends of the transaction into a record for each shard owning one of its states.
+     */
+    private Map<HcsShard, SerializeTransaction> partition(SerializeTransaction txn) {
+        if (shards.size() == 1) {
+            return Collections.singletonMap(shards.get(0), txn);
+        }
+
+        Map<HcsShard, List<StateRef>> inputs = new HashMap<>();
+        Map<HcsShard, List<StateRef>> refs = new HashMap<>();
+
+        for (StateRef input : txn.inputs) {
+            inputs.computeIfAbsent(shardOf(input), shard -> new ArrayList<>()).add(input);
+        }
+
+        for (StateRef ref : txn.refs) {
+            refs.computeIfAbsent(shardOf(ref), shard -> new ArrayList<>()).add(ref);
+        }
+
+        Map<HcsShard, SerializeTransaction> records = new LinkedHashMap<>();
+
+        for (HcsShard shard : shards) {
+            if (inputs.containsKey(shard) || refs.containsKey(shard)) {
+                records.put(shard, new SerializeTransaction(
+                        txn.txnId,
+                        inputs.getOrDefault(shard, Collections.emptyList()),
+                        refs.getOrDefault(shard, Collections.emptyList())));
+            }
+        }
+
+        // a transaction without states is still recorded, on the first shard
+        if (records.isEmpty()) {
+            records.put(shards.get(0), txn);
+        }
+
+        return records;
+    }
+
+    HcsShard shardOf(StateRef stateRef) {
+        return shards.get(StateRefs.shard(stateRef.getTxhash().getBytes(), 0, stateRef.getIndex(), shards.size()));
+    }
+
+    private TransactionId submitMessage(ConsensusTopicId topicId, byte[] message, NotarisationTracer.Traces traces) {
+        try {
+            return executeSubmitMessage(topicId, message, traces);
+        } catch (HederaStatusException | HcsTransport.NodeBusyException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private TransactionId executeSubmitMessage(ConsensusTopicId topicId, byte[] message, NotarisationTracer.Traces traces)
+            throws HederaStatusException, HcsTransport.NodeBusyException {
+        for (int attempt = 1; ; attempt++) {
+            try (OperatorPool.Lease lease = operatorPool.acquire()) {
+                try {
+                    return executeSubmitMessage(topicId, message, lease, traces);
+                } catch (HcsTransport.NodeBusyException e) {
+                    operatorPool.cooldown(lease.nodeAccountId);
+
+                    // a message that did reach consensus before the node stopped answering is sent
+                    // again, which is harmless as records are idempotent
+                    if (attempt >= MAX_SUBMIT_ATTEMPTS) {
+                        throw e;
+                    }
+
+                    metrics.retries.mark();
+
+                    logger.debug("retrying submission on another node after " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private TransactionId executeSubmitMessage(ConsensusTopicId topicId, byte[] message, OperatorPool.Lease lease,
+                                               NotarisationTracer.Traces traces)
+            throws HederaStatusException, HcsTransport.NodeBusyException {
+        long started = System.nanoTime();
+
+        TransactionId txnId = transport.submit(topicId, message, lease, traces);
+
+        metrics.execute.update(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        metrics.feesOffered.inc(lease.operator.client.getMaxTransactionFee());
+        tracer.record(traces, NotarisationTracer.Phase.EXECUTED);
+
+        logger.trace("transaction ID" + txnId);
+
+        // the sequence number normally comes from the mirror subscription instead of a receipt
+        return txnId;
+    }
+
+    private long querySubmissionSequenceNumber(TransactionId transactionId) {
+        long started = System.nanoTime();
+
+        try {
+            return transport.querySequenceNumber(transactionId);
+        } catch (HederaStatusException e) {
+            throw new CompletionException(e);
+        } finally {
+            metrics.receipt.update(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void checkTransaction(HcsShard shard, SerializeTransaction txn, long sequenceNumber) {
+        HashMap<StateRef, StateConsumptionDetails> consumedStates = new HashMap<>();
+        HashMap<StateRef, SecureHash> heldStates = new HashMap<>();
+
+        for (StateRef input : txn.inputs) {
+            StateDestruction destruction = shard.get(input);
+
+            if (destruction == null) {
+                // the message never made it into the index, e.g. chunks that didn't all arrive in time
+                throw new CompletionException(new NotaryException(new NotaryError.General(new IllegalStateException(
+                        "spends of transaction " + txn.txnId + " were not recorded by HCS")), txn.txnId));
+            }
+
+            if (!destruction.txnId.equals(txn.txnId)) {
+                if (shard.isHeld(input, destruction)) {
+                    heldStates.put(input, destruction.txnId);
+                } else {
+                    consumedStates.put(input,
+                            new StateConsumptionDetails(destruction.txnId, StateConsumptionDetails.ConsumedStateType.INPUT_STATE));
+                }
+            }
+        }
+
+        for (StateRef ref : txn.refs) {
+            StateDestruction destruction = shard.get(ref);
+
+            if (destruction != null) {
+                if (shard.isHeld(ref, destruction)) {
+                    heldStates.put(ref, destruction.txnId);
+                } else {
+                    consumedStates.put(ref,
+                            new StateConsumptionDetails(destruction.txnId, StateConsumptionDetails.ConsumedStateType.REFERENCE_INPUT_STATE));
+                }
+            }
+        }
+
+        if (!consumedStates.isEmpty()) {
+            logger.debug("throwing error, consumed states: " + consumedStates + " at sequence number " + sequenceNumber);
+            metrics.conflicts.mark();
+            throw new CompletionException(new NotaryException(new NotaryError.Conflict(txn.txnId, consumedStates), txn.txnId));
+        }
+
+        if (!heldStates.isEmpty()) {
+            logger.debug("throwing error, locked states: " + heldStates + " at sequence number " + sequenceNumber);
+            throw new CompletionException(lockedError(txn.txnId, heldStates));
+        }
+    }
+
+    /**
+     * Returns true if the transaction's spends were already committed, so a retried request for it
+     * can be answered without going through HCS again: every one of its inputs is consumed by it
+     * and none of its references were consumed before those inputs.
+     */
+    boolean isCommitted(SerializeTransaction txn) {
+        // without inputs there's nothing to show it was recorded; a cross-shard commit in flight
+        // may still release its locks
+        if (txn.inputs.isEmpty() || crossShardCommits.containsKey(txn.txnId)) {
+            return false;
+        }
+
+        // the sequence number the inputs were consumed at in each shard
+        Map<HcsShard, Long> consumedAt = new HashMap<>();
+
+        for (StateRef input : txn.inputs) {
+            HcsShard shard = shardOf(input);
+            StateDestruction destruction = shard.get(input);
+
+            // a lock of its own may yet be released
+            if (destruction == null || !destruction.txnId.equals(txn.txnId) || shard.isHeld(input, destruction)) {
+                return false;
+            }
+
+            consumedAt.merge(shard, destruction.sequenceNumber, Math::min);
+        }
+
+        for (StateRef ref : txn.refs) {
+            HcsShard shard = shardOf(ref);
+            StateDestruction destruction = shard.get(ref);
+
+            if (destruction == null) {
+                continue;
+            }
+
+            // sequence numbers only compare within a shard, so without an input there we can't tell
+            Long inputsConsumedAt = consumedAt.get(shard);
+
+            if (inputsConsumedAt == null || destruction.sequenceNumber <= inputsConsumedAt) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * How far behind consensus the messages last applied were when they were applied, in the
+     * shard furthest behind.
+     */
+    Duration applyLag() {
+        Duration lag = Duration.ZERO;
+
+        for (HcsShard shard : shards) {
+            Duration shardLag = shard.lag();
+
+            if (shardLag.compareTo(lag) > 0) {
+                lag = shardLag;
+            }
+        }
+
+        return lag;
+    }
+
+    void start() {
+        ConsensusTopicId createdTopicId = null;
+
+        // sharded notaries are configured with every topic, so only a lone shard may need one
+        if (shards.get(0).topicId() == null) {
+            try {
+                createdTopicId = transport.createTopic(submitPublicKey);
+            } catch (HederaStatusException e) {
+                throw new RuntimeException("failed to create topic", e);
+            }
+        }
+
+        for (HcsShard shard : shards) {
+            shard.start(transport, createdTopicId, backfill);
+        }
+
+        tracer.register();
+    }
+
+    /**
+     * Write a snapshot of every shard's consumed states to the given directory, from which
+     * another notary can be bootstrapped (see {@link HcsConfig#bootstrap}).
+     *
+     * @return a future that completes once every snapshot is written.
+     */
+    CompletableFuture<Void> writeSnapshots(Path directory) {
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+
+        List<CompletableFuture<Void>> written = new ArrayList<>(shards.size());
+
+        for (HcsShard shard : shards) {
+            written.add(shard.writeSnapshot(shard.snapshotFile(directory), privateKeyBytes));
+        }
+
+        return CompletableFuture.allOf(written.toArray(new CompletableFuture<?>[0]));
+    }
+
+    void stop() {
+        tracer.unregister();
+
+        for (HcsShard shard : shards) {
+            shard.stop();
+        }
+
+        transport.close();
+
+        decodeExecutor.shutdown();
+        receiptScheduler.shutdown();
+        submitExecutor.shutdown();
+        operatorPool.close();
+    }
+}
@@ -1,20 +1,8 @@
 package com.hedera.hashgraph.corda_hcs.notary;
 
-import com.hedera.hashgraph.sdk.Client;
 import com.hedera.hashgraph.sdk.HederaStatusException;
-import com.hedera.hashgraph.sdk.Transaction;
-import com.hedera.hashgraph.sdk.TransactionId;
-import com.hedera.hashgraph.sdk.account.AccountId;
-import com.hedera.hashgraph.sdk.consensus.ConsensusMessageSubmitTransaction;
-import com.hedera.hashgraph.sdk.consensus.ConsensusTopicCreateTransaction;
-import com.hedera.hashgraph.sdk.consensus.ConsensusTopicId;
-import com.hedera.hashgraph.sdk.mirror.MirrorClient;
-import com.hedera.hashgraph.sdk.mirror.MirrorConsensusTopicQuery;
-import com.hedera.hashgraph.sdk.mirror.MirrorConsensusTopicResponse;
-import com.hedera.hashgraph.sdk.mirror.MirrorSubscriptionHandle;
 import com.typesafe.config.Config;
 
-import net.corda.core.contracts.StateRef;
 import net.corda.core.crypto.Crypto;
 import net.corda.core.crypto.SecureHash;
 import net.corda.core.crypto.SignableData;
@@ -22,9 +10,7 @@ import net.corda.core.crypto.SignatureMetadata;
 import net.corda.core.crypto.TransactionSignature;
 import net.corda.core.flows.FlowLogic;
 import net.corda.core.flows.FlowSession;
-import net.corda.core.flows.NotaryError;
 import net.corda.core.flows.NotaryException;
-import net.corda.core.flows.StateConsumptionDetails;
 import net.corda.core.internal.notary.NotaryService;
 import net.corda.core.node.ServiceHub;
 import net.corda.core.transactions.CoreTransaction;
@@ -35,11 +21,13 @@ import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
 import java.security.PublicKey;
-import java.time.Instant;
-import java.util.HashMap;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 
 import javax.annotation.Nullable;
 
@@ -48,64 +36,51 @@ public abstract class HcsNotaryService extends NotaryService {
 
     private final ServiceHubInternal serviceHubInternal;
     private final PublicKey publicKey;
-    private final NotaryConfig notaryConfig;
 
-    private final Client sdkClient;
-    private final MirrorClient mirrorClient;
+    private final HcsNotaryCore core;
 
-    private final AccountId operatorAccountId;
+    // signatures issued recently, by transaction ID, for retried requests; guarded by itself
+    private final SignatureCache issuedSignatures;
 
-    @Nullable
-    private ConsensusTopicId topicId;
-
-    private final byte[] privateKeyBytes;
-
-    @Nullable
-    private final byte[] submitKeyBytes;
-
-    @Nullable
-    private final Ed25519PublicKey submitPublicKey;
-
-
-    private final ConcurrentHashMap<StateRef, StateDestruction> stateDestructions = new ConcurrentHashMap<>();
+    private final BatchSigner.Signer signer;
+    private final BatchSigner batchSigner;
 
-    private long sequenceNumber = -1;
-    // your application may want to consider the topic's entire history instead
-    private Instant lastMsgTimestamp = Instant.now();
+    public HcsNotaryService(ServiceHubInternal serviceHubInternal, PublicKey publicKey) {
+        this(serviceHubInternal, publicKey, hcsConfig(serviceHubInternal));
+    }
 
-    @Nullable
-    private MirrorSubscriptionHandle subscriptionHandle;
+    private HcsNotaryService(ServiceHubInternal serviceHubInternal, PublicKey publicKey, HcsConfig hcsConfig) {
+        this(serviceHubInternal, publicKey, hcsConfig, new HcsNotaryCore(
+                hcsConfig,
+                serviceHubInternal.getConfiguration().getBaseDirectory(),
+                serviceHubInternal.getMonitoringService().getMetrics()), null);
+    }
 
-    public HcsNotaryService(ServiceHubInternal serviceHubInternal, PublicKey publicKey) {
+    /**
+     * @param signer what signs transactions instead of the node's key management service, such
+     *               as a key of the caller's own.
+     */
+    HcsNotaryService(ServiceHubInternal serviceHubInternal, PublicKey publicKey, HcsConfig hcsConfig,
+                     HcsNotaryCore core, @Nullable BatchSigner.Signer signer) {
         super();
         this.serviceHubInternal = serviceHubInternal;
         this.publicKey = publicKey;
-        this.notaryConfig = Objects.requireNonNull(serviceHubInternal.getConfiguration().getNotary());
+        this.core = core;
 
-        Config extraConfig = Objects.requireNonNull(
-                this.notaryConfig.getExtraConfig(),
-                "required `extraConfig.hcs` key in notary config");
-
-        final HcsConfig hcsConfig = new HcsConfig(extraConfig);
+        issuedSignatures = new SignatureCache(hcsConfig.signatureCacheSize);
 
-        this.operatorAccountId = hcsConfig.accountId;
-        this.topicId = hcsConfig.topicId;
-
-        this.privateKeyBytes = hcsConfig.privateKey;
-        this.submitKeyBytes = hcsConfig.submitKey;
+        this.signer = signer != null ? signer : this::sign;
+        batchSigner = new BatchSigner(this.signer, hcsConfig.signatureBatchSize);
+    }
 
-        this.submitPublicKey = submitKeyBytes != null ? Ed25519PublicKey.fromPrivateKey(submitKeyBytes) : null;
+    private static HcsConfig hcsConfig(ServiceHubInternal serviceHubInternal) {
+        NotaryConfig notaryConfig = Objects.requireNonNull(serviceHubInternal.getConfiguration().getNotary());
 
-        sdkClient = (hcsConfig.testnet ? Client.forTestnet() : Client.forMainnet())
-                .setOperatorWith(
-                        operatorAccountId,
-                        Ed25519PublicKey.fromPrivateKey(privateKeyBytes),
-                        message -> SigningUtils.sign(privateKeyBytes, message));
+        Config extraConfig = Objects.requireNonNull(
+                notaryConfig.getExtraConfig(),
+                "required `extraConfig.hcs` key in notary config");
 
-        mirrorClient = new MirrorClient(
-                hcsConfig.testnet
-                        ? "hcs.testnet.mirrornode.hedera.com:5600"
-                        : "hcs.mainnet.mirrornode.hedera.com:5600");
+        return new HcsConfig(extraConfig);
     }
 
     @NotNull
@@ -137,133 +112,135 @@ public abstract class HcsNotaryService extends NotaryService {
         return new HcsNotaryServiceFlow(this, otherSession);
     }
 
-    long submitTransactionSpends(CoreTransaction transaction) throws HederaStatusException {
-        logger.trace("submitting transaction spends");
-
-        ConsensusMessageSubmitTransaction msgTxn = new ConsensusMessageSubmitTransaction()
-                .setTopicId(Objects.requireNonNull(topicId, "topic ID not set or created"));
-
-        logger.trace("serializing corda transaction");
-
-        msgTxn.setMessage(new SerializeTransaction(transaction).serialize());
+    /**
+     * Record the spends of the given transaction in HCS and check them against the states
+     * already consumed.
+     *
+     * @return a future that completes once the spends are recorded, or exceptionally with a
+     * {@link NotaryException} if they conflict or with the {@link HederaStatusException} that
+     * prevented a submission.
+     * @see HcsNotaryCore#commitTransactionSpends(SerializeTransaction, long)
+     */
+    CompletableFuture<Void> commitTransactionSpends(CoreTransaction transaction, long trace) {
+        SerializeTransaction record = new SerializeTransaction(transaction);
 
-        logger.trace("building transaction");
+        core.tracer.record(trace, NotarisationTracer.Phase.SERIALIZED);
 
-        Transaction hederaTxn = msgTxn.build(sdkClient);
+        return core.commitTransactionSpends(record, trace);
+    }
 
-        logger.trace("submitting transaction to Hedera");
+    /**
+     * Returns the signature for a transaction this notary already notarised, which a retried
+     * request can be answered with without going through HCS again, or null if it hasn't.
+     *
+     * A transaction was notarised if its signature is still cached, or if every one of its inputs
+     * is consumed by it and none of its references were consumed before those inputs.
+     */
+    @Nullable
+    TransactionSignature findIssuedSignature(CoreTransaction txn) {
+        synchronized (issuedSignatures) {
+            TransactionSignature signature = issuedSignatures.get(txn.getId());
 
-        if (submitKeyBytes != null && submitPublicKey != null) {
-            hederaTxn.signWith(submitPublicKey, m -> SigningUtils.sign(submitKeyBytes, m));
+            if (signature != null) {
+                return signature;
+            }
         }
 
-        TransactionId txnId = hederaTxn.execute(sdkClient);
+        if (!core.isCommitted(new SerializeTransaction(txn))) {
+            return null;
+        }
 
-        logger.trace("transaction ID" + txnId);
+        logger.debug("transaction " + txn.getId() + " was already notarised, signing it again");
 
-        return txnId.getReceipt(sdkClient)
-                .getConsensusTopicSequenceNumber();
+        return signTransaction(txn.getId());
     }
 
-    boolean checkTransaction(CoreTransaction txn, long sequenceNumber) throws NotaryException {
-        if (this.sequenceNumber < sequenceNumber) {
-            return false;
-        }
-
-        HashMap<StateRef, StateConsumptionDetails> consumedStates = new HashMap<>();
-
-        for (StateRef input : txn.getInputs()) {
-            StateDestruction destruction = stateDestructions.get(input);
+    TransactionSignature signTransaction(SecureHash txId) {
+        TransactionSignature signature = signer.sign(txId);
 
-            if (destruction != null && !destruction.txnId.equals(txn.getId())) {
-                consumedStates.put(input,
-                        new StateConsumptionDetails(destruction.txnId, StateConsumptionDetails.ConsumedStateType.INPUT_STATE));
-            }
+        synchronized (issuedSignatures) {
+            issuedSignatures.put(txId, signature);
         }
 
-        for (StateRef ref : txn.getReferences()) {
-            StateDestruction destruction = stateDestructions.get(ref);
+        return signature;
+    }
 
-            if (destruction != null) {
-                consumedStates.put(ref,
-                        new StateConsumptionDetails(destruction.txnId, StateConsumptionDetails.ConsumedStateType.REFERENCE_INPUT_STATE));
-            }
-        }
+    /**
+     * Sign the given transaction together with the others notarised around the same time.
+     *
+     * @see BatchSigner
+     */
+    CompletableFuture<TransactionSignature> signTransactionInBatch(SecureHash txId, long trace) {
+        return batchSigner.sign(txId).thenApply(signature -> {
+            core.tracer.record(trace, NotarisationTracer.Phase.SIGNED);
 
-        if (!consumedStates.isEmpty()) {
-            logger.debug("throwing error, consumed states: " + consumedStates);
-            throw new NotaryException(new NotaryError.Conflict(txn.getId(), consumedStates), txn.getId());
-        }
+            synchronized (issuedSignatures) {
+                issuedSignatures.put(txId, signature);
+            }
 
-        return true;
+            return signature;
+        });
     }
 
-    TransactionSignature signTransaction(SecureHash txId) {
-        SignableData signableData = new SignableData(txId, new SignatureMetadata(serviceHubInternal.getMyInfo().getPlatformVersion(), Crypto.findSignatureScheme(publicKey).getSchemeNumberID()));
-        return serviceHubInternal.getKeyManagementService().sign(signableData, publicKey);
+    /**
+     * The phases of recent notarisations, which are also published over JMX.
+     */
+    NotarisationTracer tracer() {
+        return core.tracer;
     }
 
+    private TransactionSignature sign(SecureHash id) {
+        SignableData signableData = new SignableData(id, new SignatureMetadata(serviceHubInternal.getMyInfo().getPlatformVersion(), Crypto.findSignatureScheme(publicKey).getSchemeNumberID()));
 
-    private void onMessage(MirrorConsensusTopicResponse msg) {
-        logger.trace("received consensus message " + msg);
-
-        SerializeTransaction txn = SerializeTransaction.deserialize(msg.message);
-
-        logger.trace("received transaction " + txn);
+        return serviceHubInternal.getKeyManagementService().sign(signableData, publicKey);
+    }
 
-        for (StateRef input : txn.inputs) {
-            // don't overwrite with duplicate destructions
-            stateDestructions.computeIfAbsent(input, key -> new StateDestruction(txn.txnId, msg.sequenceNumber));
-        }
+    /**
+     * How far behind consensus the notary was when it applied the latest HCS messages, in the
+     * shard furthest behind.
+     */
+    public Duration getApplyLag() {
+        return core.applyLag();
+    }
 
-        sequenceNumber = msg.sequenceNumber;
-        lastMsgTimestamp = msg.consensusTimestamp;
+    /**
+     * Write a snapshot of the states consumed so far to the given directory, from which another
+     * notary configured with {@code hcs.bootstrap.mode = snapshot} can be started.
+     *
+     * @return a future that completes once the snapshot is written.
+     */
+    public CompletableFuture<Void> writeSnapshot(Path directory) {
+        return core.writeSnapshots(directory);
     }
 
     @Override
     public void start() {
-        if (topicId == null) {
-            ConsensusTopicCreateTransaction txn = new ConsensusTopicCreateTransaction()
-                    .setTopicMemo("Corda HCS Notary");
+        batchSigner.start();
+        core.start();
+    }
 
-            if (submitPublicKey != null) {
-                txn.setSubmitKey(submitPublicKey);
-            }
+    @Override
+    public void stop() {
+        core.stop();
+        batchSigner.stop();
+    }
 
-            try {
-                TransactionId txnId = txn.execute(sdkClient);
-                topicId = txnId.getReceipt(sdkClient).getConsensusTopicId();
-            } catch (HederaStatusException e) {
-                throw new RuntimeException("failed to create topic", e);
-            }
-        }
+    /**
+     * The signatures issued most recently, evicting the least recently used beyond its capacity.
+     */
+    private static final class SignatureCache extends LinkedHashMap<SecureHash, TransactionSignature> {
+        private static final long serialVersionUID = 1L;
 
-        resubscribe();
-    }
+        private final int capacity;
 
-    private void resubscribe() {
-        if (topicId == null) {
-            return;
+        SignatureCache(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
         }
 
-        subscriptionHandle = new MirrorConsensusTopicQuery()
-                .setTopicId(topicId)
-                // start immediately after the last message we received
-                .setStartTime(lastMsgTimestamp.plusNanos(1))
-                .subscribe(
-                        mirrorClient,
-                        this::onMessage,
-                        e -> {
-                            logger.error("error on HCS subscribe", e);
-                            resubscribe();
-                        }
-                );
-    }
-
-    @Override
-    public void stop() {
-        if (subscriptionHandle != null) {
-            subscriptionHandle.unsubscribe();
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<SecureHash, TransactionSignature> eldest) {
+            return size() > capacity;
         }
     }
 }
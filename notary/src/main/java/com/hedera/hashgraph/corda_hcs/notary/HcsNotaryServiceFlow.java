@@ -1,19 +1,25 @@
 package com.hedera.hashgraph.corda_hcs.notary;
 
-import com.hedera.hashgraph.sdk.HederaStatusException;
-
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.crypto.TransactionSignature;
 import net.corda.core.flows.FlowException;
 import net.corda.core.flows.FlowLogic;
 import net.corda.core.flows.FlowSession;
 import net.corda.core.flows.NotarisationPayload;
 import net.corda.core.flows.NotarisationResponse;
+import net.corda.core.flows.NotaryException;
+import net.corda.core.internal.FlowAsyncOperation;
+import net.corda.core.internal.FlowAsyncOperationKt;
+import net.corda.core.internal.concurrent.CordaFutureImplKt;
 import net.corda.core.transactions.CoreTransaction;
 
+import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.time.Duration;
 import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import co.paralleluniverse.fibers.Suspendable;
 
@@ -34,32 +40,87 @@ public class HcsNotaryServiceFlow extends FlowLogic<Void> {
         NotarisationPayload payload = otherPartySession.receive(NotarisationPayload.class)
                 .unwrap(p -> p);
 
-        validateTransaction(payload);
-
         CoreTransaction txn = payload.getCoreTransaction();
+        long trace = notaryService.tracer().start(txn.getId());
 
-        logger.trace("received core txn: " + txn);
+        // a request that fails is responded to with its error as the flow ends
+        try {
+            validateTransaction(payload);
 
-        long seqNumber;
+            notaryService.tracer().record(trace, NotarisationTracer.Phase.VALIDATED);
+            logger.trace("received core txn: " + txn);
 
-        try {
-            seqNumber = notaryService.submitTransactionSpends(txn);
-        } catch (HederaStatusException e) {
-            logger.error("error trying to submit transaction", e);
-            throw new FlowException("an error occured while submitting an HCS message", e);
+            // a retried request for a transaction we already notarised isn't submitted again
+            TransactionSignature signature = notaryService.findIssuedSignature(txn);
+
+            if (signature == null) {
+                // suspends the flow while the spends are submitted to HCS and applied by the mirror subscription
+                FlowAsyncOperationKt.executeAsync(this, new CommitTransactionSpends(notaryService, txn, trace), false);
+
+                // suspends it again until the batch it is signed with is
+                signature = FlowAsyncOperationKt.executeAsync(this, new SignTransaction(notaryService, txn, trace), false);
+            }
+
+            logger.trace("notarizing transaction " + txn.getId());
+            otherPartySession.send(new NotarisationResponse(Collections.singletonList(signature)));
+        } finally {
+            notaryService.tracer().finish(trace);
         }
 
-        logger.trace("sequence number: " + seqNumber);
+        return null;
+    }
 
-        while (!notaryService.checkTransaction(txn, seqNumber)) {
-            FlowLogic.sleep(Duration.ofSeconds(5));
+    private static final class CommitTransactionSpends implements FlowAsyncOperation<Void> {
+        private final HcsNotaryService notaryService;
+        private final CoreTransaction txn;
+        private final long trace;
+
+        CommitTransactionSpends(HcsNotaryService notaryService, CoreTransaction txn, long trace) {
+            this.notaryService = notaryService;
+            this.txn = txn;
+            this.trace = trace;
         }
 
-        logger.trace("notarizing transaction " + txn.getId());
-        otherPartySession.send(new NotarisationResponse(
-                Collections.singletonList(notaryService.signTransaction(txn.getId()))));
+        @NotNull
+        @Override
+        public CordaFuture<Void> execute(@NotNull String deduplicationId) {
+            CompletableFuture<Void> committed = new CompletableFuture<>();
+
+            notaryService.commitTransactionSpends(txn, trace).whenComplete((v, e) -> {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+
+                if (cause == null) {
+                    committed.complete(null);
+                } else if (cause instanceof NotaryException) {
+                    // conflicts are reported to the requesting party as they are
+                    committed.completeExceptionally(cause);
+                } else {
+                    logger.error("error trying to submit transaction", cause);
+                    committed.completeExceptionally(
+                            new FlowException("an error occured while submitting an HCS message", cause));
+                }
+            });
+
+            return CordaFutureImplKt.asCordaFuture(committed);
+        }
+    }
 
-        return null;
+    private static final class SignTransaction implements FlowAsyncOperation<TransactionSignature> {
+        private final HcsNotaryService notaryService;
+        private final CoreTransaction txn;
+        private final long trace;
+
+        SignTransaction(HcsNotaryService notaryService, CoreTransaction txn, long trace) {
+            this.notaryService = notaryService;
+            this.txn = txn;
+            this.trace = trace;
+        }
+
+        @NotNull
+        @Override
+        public CordaFuture<TransactionSignature> execute(@NotNull String deduplicationId) {
+            return CordaFutureImplKt.asCordaFuture(notaryService.signTransactionInBatch(txn.getId(), trace));
+        }
     }
 
     /**
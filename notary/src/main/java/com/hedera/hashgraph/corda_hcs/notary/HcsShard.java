@@ -0,0 +1,741 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import com.codahale.metrics.Gauge;
+import com.hedera.hashgraph.sdk.TransactionId;
+import com.hedera.hashgraph.sdk.consensus.ConsensusTopicId;
+
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * One HCS topic and the destruction index of the states assigned to it: submits records to the
+ * topic, applies the topic's messages in consensus order (see {@link ApplyPipeline}) and lets
+ * flows wait for them.
+ */
+final class HcsShard {
+    private static final Logger logger = LoggerFactory.getLogger(HcsShard.class);
+
+    interface TopicSubmitter {
+        /**
+         * Submit the message to the given topic.
+         *
+         * @param traces the notarisations whose records the message carries.
+         * @return a future that completes with the Hedera transaction ID of the submission once a
+         * node has accepted it.
+         */
+        CompletableFuture<TransactionId> submit(ConsensusTopicId topicId, byte[] message, NotarisationTracer.Traces traces);
+
+        /**
+         * Query the receipt of a submission.
+         *
+         * @return a future that completes with the consensus sequence number of the message.
+         */
+        CompletableFuture<Long> querySequenceNumber(TransactionId transactionId);
+    }
+
+    final int number;
+
+    @Nullable
+    private volatile ConsensusTopicId topicId;
+
+    private final BatchingSubmitter batchingSubmitter;
+    private final TopicSubmitter submitter;
+
+    // submitted messages by their hash, resolved with their sequence number as they come back
+    // through the mirror subscription so flows don't have to wait for a receipt query too
+    private final ConcurrentHashMap<SecureHash, CompletableFuture<Long>> awaitingConsensus = new ConcurrentHashMap<>();
+
+    // queries the receipt of a submission that hasn't come back by then
+    private final ScheduledExecutorService receiptScheduler;
+    private final long receiptFallbackNanos;
+
+    private final DestructionIndex stateDestructions;
+
+    // the applied sequence number watermark, written only by the thread applying messages
+    private final SequenceWaiters sequenceWaiters;
+
+    private final ApplyPipeline pipeline;
+
+    // only used by the thread applying messages, for reassembled payloads
+    private final TransactionView messageView = new TransactionView();
+    private final ChunkAssembler chunkAssembler;
+
+    // the locks of transactions spanning several shards not yet committed or aborted, and a view
+    // to release an expired one with; only changed by the thread applying messages
+    private final HeldLocks heldLocks;
+    private final TransactionView lockView = new TransactionView();
+
+    // the last message whose locks were taken or released, as replays after a restart rebuild them
+    private volatile long locksAppliedThrough = -1;
+
+    // the last message applied before the restart, up to which the locks are being rebuilt
+    private volatile long replayThrough;
+
+    // resumes where the persistent index left off; on first start, at the beginning of the topic
+    // (or of the snapshot loaded) unless the notary is configured to ignore its history
+    private volatile Instant resumeTimestamp;
+
+    private final HcsConfig.Bootstrap bootstrap;
+
+    @Nullable
+    private final Path snapshotFile;
+    private final byte[] snapshotPublicKey;
+
+    @Nullable
+    private HcsTransport transport;
+
+    @Nullable
+    private volatile HcsTransport.Subscription subscription;
+
+    // reading the topic's history, before subscribing to it
+    @Nullable
+    private volatile CompletableFuture<Void> history;
+
+    private final HcsMetrics metrics;
+
+    HcsShard(int number, @Nullable ConsensusTopicId topicId, DestructionIndex stateDestructions,
+             HcsConfig hcsConfig, TopicSubmitter submitter, ScheduledExecutorService receiptScheduler,
+             Executor decodeExecutor, HcsMetrics metrics, NotarisationTracer tracer) {
+        this.number = number;
+        this.topicId = topicId;
+        this.stateDestructions = stateDestructions;
+        this.submitter = submitter;
+        this.receiptScheduler = receiptScheduler;
+        this.receiptFallbackNanos = hcsConfig.receiptFallback.toNanos();
+        this.metrics = metrics;
+
+        if (stateDestructions.appliedSequenceNumber() == TopicSnapshot.LOADING_SEQUENCE_NUMBER) {
+            throw new IllegalStateException("the notary stopped while loading a snapshot into the destruction index "
+                    + "of shard " + number + "; delete the index and start again");
+        }
+
+        this.bootstrap = hcsConfig.bootstrap;
+        this.snapshotFile = hcsConfig.bootstrapSnapshotDirectory != null
+                ? snapshotFile(hcsConfig.bootstrapSnapshotDirectory)
+                : null;
+        this.snapshotPublicKey = hcsConfig.bootstrapSnapshotPublicKey;
+
+        Instant appliedResumeTimestamp = stateDestructions.resumeTimestamp();
+
+        sequenceWaiters = new SequenceWaiters(stateDestructions.appliedSequenceNumber());
+        replayThrough = stateDestructions.appliedSequenceNumber();
+
+        if (appliedResumeTimestamp != null) {
+            resumeTimestamp = appliedResumeTimestamp;
+        } else {
+            resumeTimestamp = bootstrap == HcsConfig.Bootstrap.NONE ? Instant.now() : Instant.EPOCH;
+        }
+
+        chunkAssembler = new ChunkAssembler(hcsConfig.chunkTimeout);
+        heldLocks = new HeldLocks(hcsConfig.lockTimeout);
+
+        pipeline = new ApplyPipeline(
+                "hcs-apply-" + number,
+                stateDestructions.appliedSequenceNumber(),
+                resumeTimestamp,
+                hcsConfig,
+                this::applyMessage,
+                this::requestMessages,
+                this::applyFailed,
+                () -> !awaitingConsensus.isEmpty(),
+                decodeExecutor,
+                receiptScheduler);
+
+        batchingSubmitter = new BatchingSubmitter(
+                this::send,
+                hcsConfig.batchMaxRecords,
+                hcsConfig.batchMaxDelay,
+                hcsConfig.maxMessageBytes,
+                hcsConfig.compactMessages,
+                metrics.consensusWait,
+                tracer);
+
+        String prefix = "Shard" + number + ".";
+
+        metrics.gauge(prefix + "Watermark", (Gauge<Long>) sequenceWaiters::watermark);
+        metrics.gauge(prefix + "ApplyLag", (Gauge<Long>) () -> pipeline.lag().toMillis());
+        metrics.gauge(prefix + "Index.Size", (Gauge<Long>) stateDestructions::size);
+        metrics.gauge(prefix + "Index.MemoryBytes", (Gauge<Long>) stateDestructions::memoryBytes);
+
+        if (stateDestructions instanceof FilteredDestructionIndex) {
+            metrics.gauge(prefix + "Index.FilterFalsePositiveRate",
+                    (Gauge<Double>) ((FilteredDestructionIndex) stateDestructions)::falsePositiveRate);
+        }
+    }
+
+    /**
+     * Submit a message to the topic.
+     *
+     * @return a future that completes with the consensus sequence number of the message.
+     */
+    private CompletableFuture<Long> send(byte[] message, NotarisationTracer.Traces traces) {
+        ConsensusTopicId topicId = Objects.requireNonNull(this.topicId, "topic ID not set or created");
+        SecureHash messageHash = SecureHash.sha256(message);
+
+        CompletableFuture<Long> consensus = new CompletableFuture<>();
+        // an identical message in flight has the same effect, so whichever comes back first will do
+        CompletableFuture<Long> identical = awaitingConsensus.putIfAbsent(messageHash, consensus);
+
+        if (identical != null) {
+            consensus = identical;
+        }
+
+        CompletableFuture<Long> result = consensus;
+
+        // registered before submitting, so the mirror subscription can't deliver the message first
+        submitter.submit(topicId, message, traces).whenComplete((transactionId, e) -> {
+            if (e != null) {
+                awaitingConsensus.remove(messageHash, result);
+                result.completeExceptionally(e);
+                return;
+            }
+
+            receiptScheduler.schedule(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+
+                logger.debug("message " + transactionId + " not seen by the mirror subscription, querying its receipt");
+
+                submitter.querySequenceNumber(transactionId).whenComplete((sequenceNumber, receiptError) -> {
+                    awaitingConsensus.remove(messageHash, result);
+
+                    if (receiptError == null) {
+                        result.complete(sequenceNumber);
+                    } else {
+                        result.completeExceptionally(receiptError);
+                    }
+                });
+            }, receiptFallbackNanos, TimeUnit.NANOSECONDS);
+        });
+
+        return result;
+    }
+
+    @Nullable
+    ConsensusTopicId topicId() {
+        return topicId;
+    }
+
+    /**
+     * Queue a record for submission to this shard's topic.
+     *
+     * @return a future that completes with the consensus sequence number of the message carrying
+     * the record.
+     */
+    CompletableFuture<Long> submit(SerializeTransaction record, byte kind, long lockSequenceNumber, long trace) {
+        RuntimeException failure = sequenceWaiters.failure();
+
+        // its outcome could never be known, so it isn't paid for
+        if (failure != null) {
+            CompletableFuture<Long> result = new CompletableFuture<>();
+            result.completeExceptionally(failure);
+            return result;
+        }
+
+        return batchingSubmitter.submit(record, kind, lockSequenceNumber, trace);
+    }
+
+    /**
+     * Returns a future which completes once every message up to and including
+     * {@code sequenceNumber} has been applied.
+     */
+    CompletableFuture<Long> awaitSequenceNumber(long sequenceNumber) {
+        return sequenceWaiters.await(sequenceNumber);
+    }
+
+    long watermark() {
+        return sequenceWaiters.watermark();
+    }
+
+    /**
+     * How far behind consensus the last message applied was when it was applied.
+     */
+    Duration lag() {
+        return pipeline.lag();
+    }
+
+    @Nullable
+    StateDestruction get(StateRef stateRef) {
+        return stateDestructions.get(stateRef);
+    }
+
+    /**
+     * Returns true if the given destruction of the state, as read from {@link #get}, is a lock that
+     * may still be released: one still held, or one released since the destruction was read.
+     * Until the locks held before a restart are rebuilt, any destruction may be one of them.
+     */
+    boolean isHeld(StateRef stateRef, StateDestruction destruction) {
+        if (locksAppliedThrough < replayThrough) {
+            return true;
+        }
+
+        if (heldLocks.isHeld(stateRef, destruction)) {
+            return true;
+        }
+
+        // a lock is aborted in the index before it's released, so an abort in between shows here
+        StateDestruction current = stateDestructions.get(stateRef);
+
+        return current == null
+                || current.sequenceNumber != destruction.sequenceNumber
+                || !current.txnId.equals(destruction.txnId);
+    }
+
+    /**
+     * The file this shard's snapshot is written to and read from in the given directory.
+     */
+    Path snapshotFile(Path directory) {
+        return directory.resolve("shard-" + number + ".snapshot");
+    }
+
+    /**
+     * Start applying the topic's messages.
+     *
+     * @param backfill reads the topic's history up to now before subscribing to it, unless the
+     *                 notary is configured to ignore its history.
+     */
+    void start(HcsTransport transport, @Nullable ConsensusTopicId createdTopicId, @Nullable TopicBackfill backfill) {
+        // a topic just created has no history to read
+        boolean created = topicId == null;
+
+        if (topicId == null) {
+            topicId = createdTopicId;
+        }
+
+        this.transport = transport;
+
+        ConsensusTopicId topicId = this.topicId;
+
+        if (topicId == null) {
+            return;
+        }
+
+        if (!created && bootstrap == HcsConfig.Bootstrap.SNAPSHOT && stateDestructions.appliedSequenceNumber() < 0) {
+            loadSnapshot(topicId, Objects.requireNonNull(backfill));
+        }
+
+        pipeline.start();
+
+        if (created || backfill == null) {
+            resubscribe(transport, resumeTimestamp);
+            return;
+        }
+
+        Instant until = Instant.now();
+
+        CompletableFuture<Void> history = backfill.read("hcs-backfill-" + number, topicId, resumeTimestamp, until, pipeline::offer);
+
+        this.history = history;
+
+        history.whenComplete((v, e) -> {
+            if (e == null) {
+                resubscribe(transport, until);
+            } else if (!(e instanceof CancellationException)) {
+                logger.error("failed to read the history of shard " + number + ", subscribing from where it stopped", e);
+                resubscribe(transport, resumeTimestamp);
+            }
+        });
+    }
+
+    /**
+     * Load the consumed states from a snapshot into the empty index, after checking that the last
+     * message in the snapshot matches the topic's.
+     */
+    private void loadSnapshot(ConsensusTopicId topicId, TopicBackfill backfill) {
+        Path snapshotFile = Objects.requireNonNull(this.snapshotFile);
+
+        if (!Files.exists(snapshotFile)) {
+            logger.warn("no snapshot of shard " + number + " in " + snapshotFile + ", reading its entire history");
+            return;
+        }
+
+        TopicMessage watermark;
+
+        try {
+            watermark = TopicSnapshot.load(snapshotFile, topicId, stateDestructions, snapshotPublicKey,
+                    snapshotWatermark -> checkWatermark(topicId, backfill, snapshotWatermark));
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to load snapshot of shard " + number + " from " + snapshotFile, e);
+        }
+
+        resumeTimestamp = Objects.requireNonNull(stateDestructions.resumeTimestamp());
+        replayThrough = watermark.sequenceNumber;
+        sequenceWaiters.advance(watermark.sequenceNumber);
+        pipeline.reset(watermark, resumeTimestamp);
+    }
+
+    private void checkWatermark(ConsensusTopicId topicId, TopicBackfill backfill, TopicMessage watermark) {
+        List<TopicMessage> messages = backfill.fetch(
+                topicId,
+                watermark.consensusTimestamp,
+                watermark.consensusTimestamp.plusNanos(1),
+                1);
+
+        // the running hash covers every message before it too
+        if (messages.isEmpty()
+                || messages.get(0).sequenceNumber != watermark.sequenceNumber
+                || !Arrays.equals(messages.get(0).runningHash, watermark.runningHash)) {
+            throw new IllegalStateException("snapshot of shard " + number + " doesn't match message "
+                    + watermark.sequenceNumber + " of topic " + topicId);
+        }
+    }
+
+    /**
+     * Write a snapshot of this shard's consumed states, as of the last message applied.
+     *
+     * @return a future that completes once the snapshot is written.
+     */
+    CompletableFuture<Void> writeSnapshot(Path file, byte[] privateKey) {
+        return pipeline.runBetweenMessages(() -> {
+            ConsensusTopicId topicId = this.topicId;
+            TopicMessage lastApplied = pipeline.lastApplied();
+
+            if (topicId == null || lastApplied == null) {
+                throw new IllegalStateException("no message of shard " + number + " applied since the notary started");
+            }
+
+            try {
+                TopicSnapshot.write(file, topicId, lastApplied, resumeTimestamp, stateDestructions, privateKey);
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to write snapshot of shard " + number + " to " + file, e);
+            }
+        });
+    }
+
+    private void resubscribe(HcsTransport transport, Instant startTime) {
+        ConsensusTopicId topicId = this.topicId;
+
+        if (topicId == null) {
+            return;
+        }
+
+        subscription = transport.subscribe(topicId, startTime, null, 0, new HcsTransport.Observer() {
+            @Override
+            public void onMessage(TopicMessage message) {
+                pipeline.offer(message);
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                logger.error("error on HCS subscribe to shard " + number, e);
+                // start immediately after the last message we applied, or at the first chunk still needed
+                resubscribe(transport, resumeTimestamp);
+            }
+
+            @Override
+            public void onCompleted() {
+                // a subscription without an end time goes on until it fails
+            }
+        });
+    }
+
+    /**
+     * Fetch a range of the topic's messages again, for a gap in what the subscription delivered.
+     */
+    private void requestMessages(Instant startTime, Instant endTime, long limit) {
+        ConsensusTopicId topicId = this.topicId;
+        HcsTransport transport = this.transport;
+
+        if (topicId == null || transport == null) {
+            return;
+        }
+
+        transport.subscribe(topicId, startTime, endTime, limit, new HcsTransport.Observer() {
+            @Override
+            public void onMessage(TopicMessage message) {
+                pipeline.offer(message);
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                // the pipeline asks again if the gap is still there
+                logger.warn("error requesting missing messages of shard " + number, e);
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        });
+    }
+
+    private void applyFailed(TopicMessage message, RuntimeException cause) {
+        logger.error("shard " + number + " stopped at message " + message.sequenceNumber
+                + ", which it failed to apply; requests spending its states fail until the notary is restarted");
+
+        sequenceWaiters.fail(new IllegalStateException("shard " + number + " failed to apply message "
+                + message.sequenceNumber, cause));
+    }
+
+    private void applyMessage(ApplyPipeline.Message message) {
+        TopicMessage msg = message.response();
+        boolean trace = logger.isTraceEnabled();
+
+        if (trace) {
+            logger.trace("received consensus message " + msg);
+        }
+
+        // messages before the watermark are read again after a restart to rebuild incomplete
+        // payloads and the locks still held, which the index already reflects
+        boolean replay = message.isReplay();
+        boolean replayed = replay && msg.sequenceNumber <= locksAppliedThrough;
+        TransactionView txn = message.view();
+
+        if (ChunkAssembler.isChunk(msg.message)) {
+            byte[] payload = chunkAssembler.add(msg.message, msg.consensusTimestamp);
+            chunkAssembler.expire(msg.consensusTimestamp);
+
+            txn = payload != null && !replayed ? decode(payload, msg.sequenceNumber) : null;
+        } else if (message.decodeError() != null && !replay) {
+            // every replay of the topic skips it the same way
+            logger.warn("ignoring malformed message " + msg.sequenceNumber + " of shard " + number, message.decodeError());
+        }
+
+        if (replayed) {
+            if (trace) {
+                logger.trace("skipping already applied message " + msg.sequenceNumber);
+            }
+
+            return;
+        }
+
+        expireLocks(msg, replay);
+
+        if (replay) {
+            if (txn != null) {
+                replayLocks(txn, msg);
+            }
+
+            locksAppliedThrough = msg.sequenceNumber;
+            return;
+        }
+
+        if (txn != null) {
+            // records in a batch are applied in order, so the first to spend a state wins
+            while (txn.next()) {
+                if (trace) {
+                    logger.trace("received transaction " + txn.toSerializeTransaction());
+                }
+
+                switch (txn.kind()) {
+                    case SerializeTransaction.RECORD_LOCK:
+                        if (lockable(txn)) {
+                            // held before its inputs are consumed, so they never look consumed for good
+                            if (txn.inputsLen() > 0 && stateDestructions.probe(txn.data(), txn.inputHashOffset(0),
+                                    txn.inputIndex(0)) == null) {
+                                heldLocks.hold(lock(txn, msg));
+                            }
+
+                            stateDestructions.apply(txn, msg.sequenceNumber);
+                        }
+                        break;
+                    case SerializeTransaction.RECORD_ABORT: {
+                        HeldLocks.Lock lock = heldLocks.get(txn.txnId(), txn.lockSequenceNumber());
+
+                        // a lock already committed or expired stays that way
+                        if (lock != null) {
+                            stateDestructions.abort(txn, txn.lockSequenceNumber(), msg.sequenceNumber);
+                            heldLocks.release(lock);
+                        }
+                        break;
+                    }
+                    case SerializeTransaction.RECORD_COMMIT: {
+                        HeldLocks.Lock lock = heldLocks.get(txn.txnId(), txn.lockSequenceNumber());
+
+                        if (lock != null) {
+                            heldLocks.release(lock);
+                        }
+                        break;
+                    }
+                    default:
+                        stateDestructions.apply(txn, msg.sequenceNumber);
+                }
+            }
+        }
+
+        Instant resume = msg.consensusTimestamp.plusNanos(1);
+        Instant pendingChunk = chunkAssembler.earliestPendingTimestamp();
+        Instant heldLock = heldLocks.earliestTimestamp();
+
+        // a restart has to read the messages of both again
+        if (pendingChunk != null && pendingChunk.isBefore(resume)) {
+            resume = pendingChunk;
+        }
+
+        if (heldLock != null && heldLock.isBefore(resume)) {
+            resume = heldLock;
+        }
+
+        stateDestructions.commit(msg.sequenceNumber, resume);
+
+        resumeTimestamp = resume;
+        locksAppliedThrough = msg.sequenceNumber;
+        // publishes the destructions above to flows waiting on this sequence number
+        sequenceWaiters.advance(msg.sequenceNumber);
+
+        metrics.mirrorLag.update(Math.max(0, System.currentTimeMillis() - msg.consensusTimestamp.toEpochMilli()));
+
+        resolveSubmission(msg, message.messageHash());
+    }
+
+    /**
+     * Release the locks that have expired as of the message, aborting them in the index unless it
+     * is a replay, for which the index already reflects it.
+     */
+    private void expireLocks(TopicMessage msg, boolean replay) {
+        for (HeldLocks.Lock lock = heldLocks.expired(msg.consensusTimestamp); lock != null;
+             lock = heldLocks.expired(msg.consensusTimestamp)) {
+            if (!replay) {
+                logger.warn("lock of transaction " + lock.record.txnId + " at " + lock.sequenceNumber + " of shard "
+                        + number + " expired before its commit or abort, releasing its states");
+
+                lockView.wrap(lock.message).next();
+                stateDestructions.abort(lockView, lock.sequenceNumber, msg.sequenceNumber);
+            }
+
+            heldLocks.release(lock);
+        }
+    }
+
+    /**
+     * Take and release the locks of a message applied before a restart. A lock record is held
+     * only if its inputs are still consumed by it, i.e. it wasn't aborted or expired later on.
+     */
+    private void replayLocks(TransactionView txn, TopicMessage msg) {
+        while (txn.next()) {
+            switch (txn.kind()) {
+                case SerializeTransaction.RECORD_LOCK: {
+                    if (txn.inputsLen() == 0) {
+                        break;
+                    }
+
+                    byte[] data = txn.data();
+                    StateDestruction destruction = stateDestructions.probe(data, txn.inputHashOffset(0), txn.inputIndex(0));
+
+                    if (destruction != null && destruction.sequenceNumber == msg.sequenceNumber
+                            && StateRefs.hashEquals(destruction.txnId.getBytes(), 0, data, txn.txnIdOffset())) {
+                        heldLocks.hold(lock(txn, msg));
+                    }
+                    break;
+                }
+                case SerializeTransaction.RECORD_ABORT:
+                case SerializeTransaction.RECORD_COMMIT: {
+                    HeldLocks.Lock lock = heldLocks.get(txn.txnId(), txn.lockSequenceNumber());
+
+                    if (lock != null) {
+                        heldLocks.release(lock);
+                    }
+                    break;
+                }
+                default:
+            }
+        }
+    }
+
+    private static HeldLocks.Lock lock(TransactionView txn, TopicMessage msg) {
+        SerializeTransaction record = txn.toSerializeTransaction();
+
+        // only the inputs are released again
+        return new HeldLocks.Lock(new SerializeTransaction(record.txnId, record.inputs, Collections.emptyList()),
+                msg.sequenceNumber, msg.consensusTimestamp);
+    }
+
+    @Nullable
+    private TransactionView decode(byte[] payload, long sequenceNumber) {
+        try {
+            return messageView.wrap(payload);
+        } catch (IllegalArgumentException e) {
+            logger.warn("ignoring malformed payload completed by message " + sequenceNumber + " of shard " + number, e);
+            return null;
+        }
+    }
+
+    private void resolveSubmission(TopicMessage msg, @Nullable SecureHash messageHash) {
+        // most of the time no submission is in flight when the topic is quiet, or they all are
+        if (awaitingConsensus.isEmpty()) {
+            return;
+        }
+
+        // only hashed ahead of time if a submission was already in flight then
+        CompletableFuture<Long> submission = awaitingConsensus.remove(
+                messageHash != null ? messageHash : SecureHash.sha256(msg.message));
+
+        if (submission != null) {
+            submission.complete(msg.sequenceNumber);
+        }
+    }
+
+    /**
+     * Returns true if none of the record's inputs are consumed by another transaction and none of
+     * its refs are consumed at all, i.e. if this shard votes for the transaction.
+     */
+    private boolean lockable(TransactionView txn) {
+        byte[] data = txn.data();
+
+        for (int i = 0; i < txn.inputsLen(); i++) {
+            StateDestruction destruction = stateDestructions.probe(data, txn.inputHashOffset(i), txn.inputIndex(i));
+
+            // a lock record submitted again is still a vote for the transaction
+            if (destruction != null
+                    && !StateRefs.hashEquals(destruction.txnId.getBytes(), 0, data, txn.txnIdOffset())) {
+                return false;
+            }
+        }
+
+        for (int i = 0; i < txn.refsLen(); i++) {
+            if (stateDestructions.probe(data, txn.refHashOffset(i), txn.refIndex(i)) != null) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    void stop() {
+        CompletableFuture<Void> history = this.history;
+
+        if (history != null) {
+            history.cancel(false);
+        }
+
+        HcsTransport.Subscription subscription = this.subscription;
+
+        if (subscription != null) {
+            subscription.unsubscribe();
+        }
+
+        pipeline.stop();
+        batchingSubmitter.shutdown();
+
+        long size = stateDestructions.size();
+        long memoryBytes = stateDestructions.memoryBytes();
+
+        logger.info("shard " + number + " destruction index holds " + size + " consumed states in " + memoryBytes
+                + " bytes (" + memoryBytes / Math.max(1, size) + " bytes per state), last applied "
+                + pipeline.lag().toMillis() + " ms after consensus");
+
+        stateDestructions.close();
+    }
+}
@@ -0,0 +1,108 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import com.typesafe.config.Config;
+
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.FlowSession;
+import net.corda.core.internal.notary.SinglePartyNotaryService;
+import net.corda.core.internal.notary.UniquenessProvider;
+import net.corda.core.node.ServiceHub;
+import net.corda.node.services.api.ServiceHubInternal;
+import net.corda.node.services.config.NotaryConfig;
+import net.corda.node.services.transactions.NonValidatingNotaryFlow;
+import net.corda.node.services.transactions.ValidatingNotaryFlow;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.security.PublicKey;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A variant of {@link HcsNotaryService} built on Corda's own notary flows, which validate the
+ * transaction (or not, as configured by {@code notary.validating}) and commit its states through
+ * an {@link HcsUniquenessProvider}.
+ */
+public abstract class HcsSinglePartyNotaryService extends SinglePartyNotaryService {
+    private final ServiceHubInternal serviceHubInternal;
+    private final PublicKey publicKey;
+    private final NotaryConfig notaryConfig;
+
+    private final HcsNotaryCore core;
+    private final HcsUniquenessProvider uniquenessProvider;
+
+    public HcsSinglePartyNotaryService(ServiceHubInternal serviceHubInternal, PublicKey publicKey) {
+        super();
+        this.serviceHubInternal = serviceHubInternal;
+        this.publicKey = publicKey;
+        this.notaryConfig = Objects.requireNonNull(serviceHubInternal.getConfiguration().getNotary());
+
+        Config extraConfig = Objects.requireNonNull(
+                this.notaryConfig.getExtraConfig(),
+                "required `extraConfig.hcs` key in notary config");
+
+        core = new HcsNotaryCore(
+                new HcsConfig(extraConfig),
+                serviceHubInternal.getConfiguration().getBaseDirectory(),
+                serviceHubInternal.getMonitoringService().getMetrics());
+        uniquenessProvider = new HcsUniquenessProvider(core, serviceHubInternal.getClock());
+    }
+
+    @NotNull
+    @Override
+    public PublicKey getNotaryIdentityKey() {
+        return publicKey;
+    }
+
+    @NotNull
+    @Override
+    public ServiceHub getServices() {
+        return serviceHubInternal;
+    }
+
+    @NotNull
+    @Override
+    protected UniquenessProvider getUniquenessProvider() {
+        return uniquenessProvider;
+    }
+
+    @NotNull
+    @Override
+    public FlowLogic<Void> createServiceFlow(@NotNull FlowSession otherPartySession) {
+        Duration etaThreshold = Duration.ofSeconds(notaryConfig.getEtaMessageThresholdSeconds());
+
+        return notaryConfig.getValidating()
+                ? new ValidatingNotaryFlow(otherPartySession, this, etaThreshold)
+                : new NonValidatingNotaryFlow(otherPartySession, this, etaThreshold);
+    }
+
+    /**
+     * How far behind consensus the notary was when it applied the latest HCS messages, in the
+     * shard furthest behind.
+     */
+    public Duration getApplyLag() {
+        return core.applyLag();
+    }
+
+    /**
+     * Write a snapshot of the states consumed so far to the given directory, from which another
+     * notary configured with {@code hcs.bootstrap.mode = snapshot} can be started.
+     *
+     * @return a future that completes once the snapshot is written.
+     */
+    public CompletableFuture<Void> writeSnapshot(Path directory) {
+        return core.writeSnapshots(directory);
+    }
+
+    @Override
+    public void start() {
+        core.start();
+    }
+
+    @Override
+    public void stop() {
+        core.stop();
+    }
+}
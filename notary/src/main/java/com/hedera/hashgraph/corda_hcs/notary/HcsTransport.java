@@ -0,0 +1,75 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import com.hedera.hashgraph.sdk.HederaStatusException;
+import com.hedera.hashgraph.sdk.TransactionId;
+import com.hedera.hashgraph.sdk.consensus.ConsensusTopicId;
+
+import java.time.Instant;
+
+import javax.annotation.Nullable;
+
+/**
+ * What the notary needs of HCS: creating a topic, submitting messages to it and reading them
+ * back from a mirror node. {@link HederaTransport} talks to a Hedera network;
+ * {@link SimulatedTransport} stands in for one in the node's own process.
+ */
+interface HcsTransport {
+    /**
+     * Create a topic only the holder of the given key may submit to, or anyone if not given.
+     */
+    ConsensusTopicId createTopic(@Nullable Ed25519PublicKey submitKey) throws HederaStatusException;
+
+    /**
+     * Submit a message to the topic, paid for by the lease's operator through its node, blocking
+     * until the node has accepted it.
+     *
+     * @throws NodeBusyException if the node was busy or didn't answer, so the message may be
+     * submitted through another one.
+     */
+    TransactionId submit(ConsensusTopicId topicId, byte[] message, OperatorPool.Lease lease,
+                         NotarisationTracer.Traces traces) throws HederaStatusException, NodeBusyException;
+
+    /**
+     * The sequence number a submitted message was given, blocking until it reaches consensus.
+     */
+    long querySequenceNumber(TransactionId transactionId) throws HederaStatusException;
+
+    /**
+     * Read the messages of the topic with consensus timestamps from {@code startTime} on, as they
+     * reach consensus.
+     *
+     * @param endTime the timestamp reading stops before, after which the observer is completed;
+     *                if not given, reading goes on until unsubscribed or failed.
+     * @param limit the most messages read, or 0 for no limit.
+     */
+    Subscription subscribe(ConsensusTopicId topicId, Instant startTime, @Nullable Instant endTime, long limit,
+                           Observer observer);
+
+    void close();
+
+    interface Observer {
+        void onMessage(TopicMessage message);
+
+        /**
+         * Called when reading fails, after which nothing else is; not called once unsubscribed.
+         */
+        void onError(Throwable e);
+
+        void onCompleted();
+    }
+
+    interface Subscription {
+        void unsubscribe();
+    }
+
+    /**
+     * The node a message was submitted through was busy or didn't answer.
+     */
+    final class NodeBusyException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        NodeBusyException(String message, @Nullable Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
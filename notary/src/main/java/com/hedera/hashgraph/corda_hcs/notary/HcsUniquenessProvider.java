@@ -0,0 +1,102 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.TimeWindow;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.NotarisationRequestSignature;
+import net.corda.core.flows.NotaryError;
+import net.corda.core.flows.NotaryException;
+import net.corda.core.identity.Party;
+import net.corda.core.internal.concurrent.CordaFutureImplKt;
+import net.corda.core.internal.notary.NotaryServiceFlow;
+import net.corda.core.internal.notary.UniquenessProvider;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import javax.annotation.Nullable;
+
+/**
+ * Commits input and reference states through HCS for Corda's own notary flows, which batch
+ * requests and sign them once the returned future completes.
+ */
+final class HcsUniquenessProvider implements UniquenessProvider {
+    private static final Logger logger = LoggerFactory.getLogger(HcsUniquenessProvider.class);
+
+    private final HcsNotaryCore core;
+    private final Clock clock;
+
+    HcsUniquenessProvider(HcsNotaryCore core, Clock clock) {
+        this.core = core;
+        this.clock = clock;
+    }
+
+    @NotNull
+    @Override
+    public CordaFuture<Result> commit(
+            @NotNull List<StateRef> states,
+            @NotNull SecureHash txId,
+            @NotNull Party callerIdentity,
+            @NotNull NotarisationRequestSignature requestSignature,
+            @Nullable TimeWindow timeWindow,
+            @NotNull List<StateRef> references
+    ) {
+        // Corda's flows sign and respond after the provider is done, so the trace ends there
+        long trace = core.tracer.start(txId);
+        SerializeTransaction txn = new SerializeTransaction(txId, states, references);
+        CompletableFuture<Result> result;
+
+        core.tracer.record(trace, NotarisationTracer.Phase.SERIALIZED);
+
+        // a retried request is answered even if its time window has since passed, as Corda's own
+        // providers do
+        if (core.isCommitted(txn)) {
+            logger.debug("transaction " + txId + " was already committed");
+
+            core.tracer.finish(trace);
+            result = CompletableFuture.completedFuture(Result.Success.INSTANCE);
+        } else {
+            Instant now = clock.instant();
+
+            if (timeWindow != null && !timeWindow.contains(now)) {
+                core.tracer.finish(trace);
+                result = CompletableFuture.completedFuture(
+                        new Result.Failure(new NotaryError.TimeWindowInvalid(now, timeWindow)));
+            } else {
+                result = core.commitTransactionSpends(txn, trace).handle((v, e) -> {
+                    core.tracer.finish(trace);
+
+                    if (e == null) {
+                        return Result.Success.INSTANCE;
+                    }
+
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+
+                    if (cause instanceof NotaryException) {
+                        return new Result.Failure(((NotaryException) cause).getError());
+                    }
+
+                    // anything else isn't the request's fault, so fails the flow instead
+                    throw new CompletionException(cause);
+                });
+            }
+        }
+
+        return CordaFutureImplKt.asCordaFuture(result);
+    }
+
+    @NotNull
+    @Override
+    public Duration getEta(int numStates) {
+        return NotaryServiceFlow.Companion.getDefaultEstimatedWaitTime();
+    }
+}
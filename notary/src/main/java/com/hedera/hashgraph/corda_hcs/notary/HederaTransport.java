@@ -0,0 +1,181 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import com.hedera.hashgraph.proto.Timestamp;
+import com.hedera.hashgraph.proto.mirror.ConsensusServiceGrpc;
+import com.hedera.hashgraph.proto.mirror.ConsensusTopicQuery;
+import com.hedera.hashgraph.proto.mirror.ConsensusTopicResponse;
+import com.hedera.hashgraph.sdk.Client;
+import com.hedera.hashgraph.sdk.HederaNetworkException;
+import com.hedera.hashgraph.sdk.HederaStatusException;
+import com.hedera.hashgraph.sdk.Status;
+import com.hedera.hashgraph.sdk.Transaction;
+import com.hedera.hashgraph.sdk.TransactionId;
+import com.hedera.hashgraph.sdk.consensus.ConsensusMessageSubmitTransaction;
+import com.hedera.hashgraph.sdk.consensus.ConsensusTopicCreateTransaction;
+import com.hedera.hashgraph.sdk.consensus.ConsensusTopicId;
+
+import io.grpc.Context;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.stub.StreamObserver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import javax.annotation.Nullable;
+
+/**
+ * HCS on a Hedera network: submissions and receipts through the SDK, and topic messages from
+ * the network's mirror node.
+ *
+ * Messages are read through the mirror node's gRPC API directly, as the SDK's subscriptions
+ * don't report when a query has returned everything it will.
+ */
+final class HederaTransport implements HcsTransport {
+    private static final Logger logger = LoggerFactory.getLogger(HederaTransport.class);
+
+    // creates topics and queries receipts; submissions go through each lease's operator
+    private final Client client;
+    private final ManagedChannel mirrorChannel;
+    private final Duration nodeTimeout;
+
+    @Nullable
+    private final byte[] submitKeyBytes;
+
+    @Nullable
+    private final Ed25519PublicKey submitPublicKey;
+
+    private final NotarisationTracer tracer;
+
+    /**
+     * @param submitKey the key messages are signed with as well as the operator's, if the topic
+     *                  has one.
+     */
+    HederaTransport(boolean testnet, Client client, @Nullable byte[] submitKey, Duration nodeTimeout,
+                    NotarisationTracer tracer) {
+        this.client = client;
+        this.nodeTimeout = nodeTimeout;
+        this.submitKeyBytes = submitKey;
+        this.submitPublicKey = submitKey != null ? Ed25519PublicKey.fromPrivateKey(submitKey) : null;
+        this.tracer = tracer;
+
+        String mirrorEndpoint = testnet
+                ? "hcs.testnet.mirrornode.hedera.com:5600"
+                : "hcs.mainnet.mirrornode.hedera.com:5600";
+
+        mirrorChannel = ManagedChannelBuilder.forTarget(mirrorEndpoint)
+                .usePlaintext()
+                .build();
+    }
+
+    @Override
+    public ConsensusTopicId createTopic(@Nullable Ed25519PublicKey submitKey) throws HederaStatusException {
+        ConsensusTopicCreateTransaction txn = new ConsensusTopicCreateTransaction()
+                .setTopicMemo("Corda HCS Notary");
+
+        if (submitKey != null) {
+            txn.setSubmitKey(submitKey);
+        }
+
+        TransactionId txnId = txn.execute(client);
+
+        return txnId.getReceipt(client).getConsensusTopicId();
+    }
+
+    @Override
+    public TransactionId submit(ConsensusTopicId topicId, byte[] message, OperatorPool.Lease lease,
+                                NotarisationTracer.Traces traces) throws HederaStatusException, NodeBusyException {
+        Client client = lease.operator.client;
+
+        ConsensusMessageSubmitTransaction msgTxn = new ConsensusMessageSubmitTransaction()
+                .setTopicId(topicId)
+                .setNodeAccountId(lease.nodeAccountId)
+                .setMessage(message);
+
+        logger.trace("building transaction");
+
+        Transaction hederaTxn = msgTxn.build(client);
+
+        tracer.record(traces, NotarisationTracer.Phase.BUILT);
+
+        logger.trace("submitting transaction to Hedera node " + lease.nodeAccountId);
+
+        if (submitKeyBytes != null && submitPublicKey != null) {
+            hederaTxn.signWith(submitPublicKey, m -> SigningUtils.sign(submitKeyBytes, m));
+        }
+
+        tracer.record(traces, NotarisationTracer.Phase.SUBMISSION_SIGNED);
+
+        try {
+            // the SDK retries a busy node until the timeout; give up on it sooner and use another
+            return hederaTxn.execute(client, nodeTimeout);
+        } catch (HederaStatusException e) {
+            if (e.status == Status.Busy) {
+                throw new NodeBusyException(e.getMessage(), e);
+            }
+
+            throw e;
+        } catch (HederaNetworkException e) {
+            throw new NodeBusyException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public long querySequenceNumber(TransactionId transactionId) throws HederaStatusException {
+        return transactionId.getReceipt(client)
+                .getConsensusTopicSequenceNumber();
+    }
+
+    @Override
+    public Subscription subscribe(ConsensusTopicId topicId, Instant startTime, @Nullable Instant endTime, long limit,
+                                  Observer observer) {
+        ConsensusTopicQuery.Builder query = ConsensusTopicQuery.newBuilder()
+                .setTopicID(topicId.toProto())
+                .setConsensusStartTime(timestamp(startTime))
+                .setLimit(limit);
+
+        if (endTime != null) {
+            query.setConsensusEndTime(timestamp(endTime));
+        }
+
+        // cancelling the query fails it too, which the observer isn't told of
+        Context.CancellableContext context = Context.current().withCancellation();
+
+        context.run(() -> ConsensusServiceGrpc.newStub(mirrorChannel).subscribeTopic(query.build(),
+                new StreamObserver<ConsensusTopicResponse>() {
+                    @Override
+                    public void onNext(ConsensusTopicResponse response) {
+                        observer.onMessage(TopicMessage.of(response));
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        if (!context.isCancelled()) {
+                            observer.onError(e);
+                        }
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        observer.onCompleted();
+                    }
+                }));
+
+        return () -> context.cancel(null);
+    }
+
+    private static Timestamp timestamp(Instant instant) {
+        return Timestamp.newBuilder()
+                .setSeconds(instant.getEpochSecond())
+                .setNanos(instant.getNano())
+                .build();
+    }
+
+    @Override
+    public void close() {
+        mirrorChannel.shutdownNow();
+    }
+}
@@ -0,0 +1,117 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * The locks a shard holds for transactions spanning several shards, from their lock record until
+ * their commit or abort record. The states they consume are in the destruction index as usual;
+ * this tells them apart from states consumed for good, as the lock may still be released.
+ *
+ * A lock not committed or aborted within {@code timeout} of its lock record, in consensus time,
+ * is expired, so a notary that stopped halfway through a transaction doesn't leave its states
+ * locked forever. Like reassembling chunks, this depends only on consensus timestamps, so every
+ * replay of the topic holds and expires the same locks.
+ *
+ * Only changed by the thread applying messages; {@link #isHeld} may be called from any thread.
+ */
+final class HeldLocks {
+    static final class Lock {
+        final SerializeTransaction record;
+        final long sequenceNumber;
+        final Instant consensusTimestamp;
+
+        // the lock's record as a v1 message, to release its inputs with
+        final byte[] message;
+
+        Lock(SerializeTransaction record, long sequenceNumber, Instant consensusTimestamp) {
+            this.record = record;
+            this.sequenceNumber = sequenceNumber;
+            this.consensusTimestamp = consensusTimestamp;
+            this.message = record.serialize();
+        }
+    }
+
+    private final Duration timeout;
+
+    // by transaction, in the order they were taken, which is also the order they expire in; a
+    // transaction holds at most one lock in a shard, as a second would consume nothing
+    private final LinkedHashMap<SecureHash, Lock> byTransaction = new LinkedHashMap<>();
+
+    private final ConcurrentHashMap<StateRef, Lock> byState = new ConcurrentHashMap<>();
+
+    HeldLocks(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    void hold(Lock lock) {
+        byTransaction.put(lock.record.txnId, lock);
+
+        for (StateRef input : lock.record.inputs) {
+            byState.put(input, lock);
+        }
+    }
+
+    /**
+     * The lock taken by the given transaction at {@code sequenceNumber}, if it is still held.
+     */
+    @Nullable
+    Lock get(SecureHash txnId, long sequenceNumber) {
+        Lock lock = byTransaction.get(txnId);
+
+        return lock != null && lock.sequenceNumber == sequenceNumber ? lock : null;
+    }
+
+    void release(Lock lock) {
+        byTransaction.remove(lock.record.txnId, lock);
+
+        for (StateRef input : lock.record.inputs) {
+            byState.remove(input, lock);
+        }
+    }
+
+    /**
+     * The oldest lock that has expired as of the given consensus time, or null if there is none.
+     */
+    @Nullable
+    Lock expired(Instant consensusTimestamp) {
+        Iterator<Lock> locks = byTransaction.values().iterator();
+
+        if (!locks.hasNext()) {
+            return null;
+        }
+
+        Lock oldest = locks.next();
+
+        return consensusTimestamp.isAfter(oldest.consensusTimestamp.plus(timeout)) ? oldest : null;
+    }
+
+    /**
+     * Returns true if the given destruction of the state is a lock that is still held.
+     */
+    boolean isHeld(StateRef stateRef, StateDestruction destruction) {
+        Lock lock = byState.get(stateRef);
+
+        return lock != null
+                && lock.sequenceNumber == destruction.sequenceNumber
+                && lock.record.txnId.equals(destruction.txnId);
+    }
+
+    /**
+     * The consensus timestamp of the oldest lock held, or null if there are none.
+     */
+    @Nullable
+    Instant earliestTimestamp() {
+        Iterator<Lock> locks = byTransaction.values().iterator();
+
+        return locks.hasNext() ? locks.next().consensusTimestamp : null;
+    }
+}
@@ -0,0 +1,69 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * The input states of the requests this notary has submitted but not yet seen applied, so a
+ * request contending for one of them can wait or fail instead of paying for a message that is
+ * certain to lose.
+ *
+ * The table is a {@link ConcurrentHashMap}, which is already striped: reserving and releasing an
+ * uncontended state is a CAS on its own bin and lookups never lock.
+ */
+final class InFlightReservations {
+    static final class Reservation {
+        final SecureHash txnId;
+        final List<StateRef> inputs;
+
+        // completes once the reservation is released
+        final CompletableFuture<Void> released = new CompletableFuture<>();
+
+        Reservation(SecureHash txnId, List<StateRef> inputs) {
+            this.txnId = txnId;
+            this.inputs = inputs;
+        }
+    }
+
+    private final ConcurrentHashMap<StateRef, Reservation> reservations = new ConcurrentHashMap<>();
+
+    /**
+     * Reserve every input of the reservation, or none of them.
+     *
+     * @return null if they were all reserved, otherwise the reservation already holding one of
+     * them, which may be for the same transaction.
+     */
+    @Nullable
+    Reservation reserve(Reservation reservation) {
+        List<StateRef> inputs = reservation.inputs;
+
+        for (int i = 0; i < inputs.size(); i++) {
+            Reservation holder = reservations.putIfAbsent(inputs.get(i), reservation);
+
+            if (holder != null && holder != reservation) {
+                // back out so two requests can't each hold half of the other's inputs
+                for (int j = 0; j < i; j++) {
+                    reservations.remove(inputs.get(j), reservation);
+                }
+
+                return holder;
+            }
+        }
+
+        return null;
+    }
+
+    void release(Reservation reservation) {
+        for (StateRef input : reservation.inputs) {
+            reservations.remove(input, reservation);
+        }
+
+        reservation.released.complete(null);
+    }
+}
@@ -0,0 +1,266 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.contracts.StateRef;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A memory-mapped open-addressing hash table from {@link StateRef} to the offset of the
+ * {@link DestructionLog} entry that consumed it.
+ *
+ * The table is only a cache of the log: a slot is trusted only if the log entry it points to
+ * actually lists its state, so slots left dangling by a crash are harmless and are overwritten
+ * the next time their state is inserted. A released state's slot is pointed at the abort entry
+ * that released it, which is not a record and so doesn't count either.
+ */
+final class MappedStateRefTable {
+    // SLOT FORMAT:
+    // byte[32] state transaction ID
+    // int4 state index
+    // int8 log offset + 1 (0 means the slot is empty)
+
+    static final int SLOT_SIZE = 32 + 4 + 8;
+
+    // keep each mapping well under the 2 GiB limit of a single `MappedByteBuffer`
+    private static final int SEGMENT_SHIFT = 24;
+    private static final long SEGMENT_SLOTS = 1L << SEGMENT_SHIFT;
+
+    interface SlotValidator {
+        /**
+         * Returns true if the log entry at {@code logOffset} lists the state whose transaction ID
+         * is at {@code offset} in {@code hash}.
+         */
+        boolean isValid(long logOffset, byte[] hash, int offset, int index);
+    }
+
+    interface SlotVisitor {
+        void visit(byte[] hash, int index, long logOffset);
+    }
+
+    final Path file;
+    final long capacity;
+
+    // slots in use, whether their state is consumed, released or left dangling by a crash; only
+    // changed by the applying thread
+    long used;
+
+    private final long mask;
+    private final MappedByteBuffer[] segments;
+
+    private MappedStateRefTable(Path file, long capacity, MappedByteBuffer[] segments) {
+        this.file = file;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.segments = segments;
+    }
+
+    /**
+     * Open (or create) the table in the given file.
+     *
+     * @param capacity the number of slots; must be a power of two.
+     */
+    static MappedStateRefTable open(Path file, long capacity) throws IOException {
+        if (Long.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+
+        int segmentsLen = (int) Math.max(1, capacity >>> SEGMENT_SHIFT);
+        long segmentSlots = Math.min(capacity, SEGMENT_SLOTS);
+
+        MappedByteBuffer[] segments = new MappedByteBuffer[segmentsLen];
+
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            for (int i = 0; i < segmentsLen; i++) {
+                segments[i] = channel.map(
+                        FileChannel.MapMode.READ_WRITE,
+                        i * segmentSlots * SLOT_SIZE,
+                        segmentSlots * SLOT_SIZE);
+            }
+        }
+
+        return new MappedStateRefTable(file, capacity, segments);
+    }
+
+    /**
+     * Returns the log offset recorded for the state whose transaction ID is at {@code offset} in
+     * {@code hash}, or -1 if there is no valid one.
+     */
+    long get(byte[] hash, int offset, int index, SlotValidator validator) {
+        for (long slot = slotFor(hash, offset, index); ; slot = (slot + 1) & mask) {
+            long logOffset = offsetAt(slot);
+
+            if (logOffset < 0) {
+                return -1;
+            }
+
+            if (keyMatches(slot, hash, offset, index)) {
+                return validator.isValid(logOffset, hash, offset, index) ? logOffset : -1;
+            }
+        }
+    }
+
+    /**
+     * Record the given log offset for the state whose transaction ID is at {@code offset} in
+     * {@code hash}, unless a valid one already exists.
+     *
+     * @return the existing valid log offset, or -1 if the given one was recorded.
+     */
+    long putIfAbsent(byte[] hash, int offset, int index, long logOffset, SlotValidator validator) {
+        for (long slot = slotFor(hash, offset, index); ; slot = (slot + 1) & mask) {
+            long existing = offsetAt(slot);
+
+            if (existing < 0) {
+                writeSlot(slot, hash, offset, index, logOffset);
+                used++;
+                return -1;
+            }
+
+            if (keyMatches(slot, hash, offset, index)) {
+                if (validator.isValid(existing, hash, offset, index)) {
+                    return existing;
+                }
+
+                // released, or left dangling by a crash; take it over
+                writeSlot(slot, hash, offset, index, logOffset);
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Point the slot of the given state, if it has one, at a different log offset.
+     */
+    void replace(byte[] hash, int offset, int index, long logOffset) {
+        for (long slot = slotFor(hash, offset, index); ; slot = (slot + 1) & mask) {
+            if (offsetAt(slot) < 0) {
+                return;
+            }
+
+            if (keyMatches(slot, hash, offset, index)) {
+                segment(slot).putLong(position(slot) + 36, logOffset + 1);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Copy the occupied slots {@code keep} accepts into a new, empty table.
+     */
+    void copyTo(MappedStateRefTable other, SlotValidator keep) {
+        byte[] hash = new byte[32];
+
+        for (long slot = 0; slot < capacity; slot++) {
+            long logOffset = offsetAt(slot);
+
+            if (logOffset < 0) {
+                continue;
+            }
+
+            ByteBuffer segment = segment(slot);
+            int pos = position(slot);
+
+            for (int i = 0; i < 32; i++) {
+                hash[i] = segment.get(pos + i);
+            }
+
+            int index = segment.getInt(pos + 32);
+
+            if (!keep.isValid(logOffset, hash, 0, index)) {
+                continue;
+            }
+
+            other.used++;
+
+            for (long to = other.slotFor(hash, 0, index); ; to = (to + 1) & other.mask) {
+                if (other.offsetAt(to) < 0) {
+                    other.writeSlot(to, hash, 0, index, logOffset);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Visit every occupied slot; the hash is reused once the visitor returns.
+     */
+    void forEach(SlotVisitor visitor) {
+        byte[] hash = new byte[32];
+
+        for (long slot = 0; slot < capacity; slot++) {
+            long logOffset = offsetAt(slot);
+
+            if (logOffset < 0) {
+                continue;
+            }
+
+            ByteBuffer segment = segment(slot);
+            int pos = position(slot);
+
+            for (int i = 0; i < 32; i++) {
+                hash[i] = segment.get(pos + i);
+            }
+
+            visitor.visit(hash, segment.getInt(pos + 32), logOffset);
+        }
+    }
+
+    void force() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    private long slotFor(byte[] hash, int offset, int index) {
+        return StateRefs.hash(hash, offset, index) & mask;
+    }
+
+    private ByteBuffer segment(long slot) {
+        return segments[(int) (slot >>> SEGMENT_SHIFT)];
+    }
+
+    private static int position(long slot) {
+        return (int) (slot & (SEGMENT_SLOTS - 1)) * SLOT_SIZE;
+    }
+
+    private long offsetAt(long slot) {
+        return segment(slot).getLong(position(slot) + 36) - 1;
+    }
+
+    private boolean keyMatches(long slot, byte[] hash, int offset, int index) {
+        ByteBuffer segment = segment(slot);
+        int pos = position(slot);
+
+        if (segment.getInt(pos + 32) != index) {
+            return false;
+        }
+
+        for (int i = 0; i < 32; i++) {
+            if (segment.get(pos + i) != hash[offset + i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void writeSlot(long slot, byte[] hash, int offset, int index, long logOffset) {
+        ByteBuffer segment = segment(slot);
+        int pos = position(slot);
+
+        for (int i = 0; i < 32; i++) {
+            segment.put(pos + i, hash[offset + i]);
+        }
+
+        segment.putInt(pos + 32, index);
+        // written last; readers validate any hit against the log so a torn slot is never trusted
+        segment.putLong(pos + 36, logOffset + 1);
+    }
+}
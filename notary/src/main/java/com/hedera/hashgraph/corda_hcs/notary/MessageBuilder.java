@@ -0,0 +1,216 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a single HCS message out of one or more transactions while keeping track of its exact
+ * size, so a batch can be closed before it outgrows an HCS message.
+ *
+ * In compact mode this writes the v2 format (see {@link SerializeTransaction}), sharing one copy
+ * of each transaction hash between every record in the message, or v4 once it holds a record of
+ * a kind other than {@link SerializeTransaction#RECORD_APPLY}; otherwise it writes a bare v1
+ * record for a lone transaction and a v1 batch for several, which older notaries can read.
+ */
+final class MessageBuilder {
+    private final boolean compact;
+
+    private final List<SerializeTransaction> txns = new ArrayList<>();
+
+    // v4 only: the kind and lock sequence number of each record
+    private final List<Byte> kinds = new ArrayList<>();
+    private final List<Long> lockSequenceNumbers = new ArrayList<>();
+
+    private boolean hasKinds;
+    // records carrying a lock sequence number
+    private int lockReleases;
+
+    // v1: the total size of the records; v2: the total size of the records without the hash table
+    private int recordsSize;
+
+    // v2 only: each distinct hash in the message, in order of first appearance, to its index
+    private final Map<SecureHash, Integer> hashIndices = new HashMap<>();
+    private final List<SecureHash> hashes = new ArrayList<>();
+
+    MessageBuilder(boolean compact) {
+        this.compact = compact;
+    }
+
+    boolean isEmpty() {
+        return txns.isEmpty();
+    }
+
+    int count() {
+        return txns.size();
+    }
+
+    /**
+     * The size the message would have if {@code txn} were added to it as a record of the given kind.
+     */
+    int sizeWith(SerializeTransaction txn, byte kind) {
+        if (!compact) {
+            int recordsSize = this.recordsSize + txn.serializedSize();
+            return txns.isEmpty() ? recordsSize : SerializeTransaction.batchSize(recordsSize);
+        }
+
+        Map<SecureHash, Integer> added = new HashMap<>();
+        int recordSize = compactRecordSize(txn, added);
+
+        return compactSize(txns.size() + 1, hashes.size() + added.size(), recordsSize + recordSize)
+                + kindsSize(txns.size() + 1, hasKinds || kind != SerializeTransaction.RECORD_APPLY,
+                lockReleases + (SerializeTransaction.namesLock(kind) ? 1 : 0));
+    }
+
+    void add(SerializeTransaction txn) {
+        add(txn, SerializeTransaction.RECORD_APPLY, -1);
+    }
+
+    /**
+     * Add a record of the given kind.
+     *
+     * @param lockSequenceNumber the sequence number of the lock record to release, for
+     *                           {@link SerializeTransaction#RECORD_ABORT} and
+     *                           {@link SerializeTransaction#RECORD_COMMIT}.
+     * @throws IllegalStateException if not in compact mode and the record isn't
+     *                               {@link SerializeTransaction#RECORD_APPLY}.
+     */
+    void add(SerializeTransaction txn, byte kind, long lockSequenceNumber) {
+        if (!compact && kind != SerializeTransaction.RECORD_APPLY) {
+            throw new IllegalStateException("record kinds require compact messages");
+        }
+
+        txns.add(txn);
+        kinds.add(kind);
+        lockSequenceNumbers.add(lockSequenceNumber);
+
+        if (kind != SerializeTransaction.RECORD_APPLY) {
+            hasKinds = true;
+        }
+
+        if (SerializeTransaction.namesLock(kind)) {
+            lockReleases++;
+        }
+
+        if (!compact) {
+            recordsSize += txn.serializedSize();
+            return;
+        }
+
+        Map<SecureHash, Integer> added = new LinkedHashMap<>();
+        recordsSize += compactRecordSize(txn, added);
+
+        // in order of first appearance, so their indices follow on from the existing ones
+        for (Map.Entry<SecureHash, Integer> entry : added.entrySet()) {
+            hashIndices.put(entry.getKey(), entry.getValue());
+            hashes.add(entry.getKey());
+        }
+    }
+
+    byte[] build() {
+        if (!compact) {
+            // a lone record is sent bare so single-transaction messages stay readable to older notaries
+            return txns.size() == 1
+                    ? txns.get(0).serialize()
+                    : SerializeTransaction.serializeBatch(txns);
+        }
+
+        ByteBuffer out = SerializeTransaction.encodeBuffer(compactSize(txns.size(), hashes.size(), recordsSize)
+                + kindsSize(txns.size(), hasKinds, lockReleases));
+
+        out.put(hasKinds ? SerializeTransaction.VERSION_COMPACT_KINDS : SerializeTransaction.VERSION_COMPACT);
+        SerializeTransaction.putVarint(out, hashes.size());
+
+        for (SecureHash hash : hashes) {
+            hash.putTo(out);
+        }
+
+        SerializeTransaction.putVarint(out, txns.size());
+
+        for (int i = 0; i < txns.size(); i++) {
+            SerializeTransaction txn = txns.get(i);
+
+            if (hasKinds) {
+                out.put(kinds.get(i));
+
+                if (SerializeTransaction.namesLock(kinds.get(i))) {
+                    out.putLong(lockSequenceNumbers.get(i));
+                }
+            }
+
+            SerializeTransaction.putVarint(out, hashIndices.get(txn.txnId));
+            SerializeTransaction.putVarint(out, txn.inputs.size());
+            SerializeTransaction.putVarint(out, txn.refs.size());
+
+            for (StateRef input : txn.inputs) {
+                SerializeTransaction.putVarint(out, hashIndices.get(input.getTxhash()));
+                SerializeTransaction.putVarint(out, input.getIndex());
+            }
+
+            for (StateRef ref : txn.refs) {
+                SerializeTransaction.putVarint(out, hashIndices.get(ref.getTxhash()));
+                SerializeTransaction.putVarint(out, ref.getIndex());
+            }
+        }
+
+        // pad the message so it can never be mistaken for a bare record
+        if (SerializeTransaction.isRecord(out.array(), out.position())) {
+            out.put((byte) 0);
+        }
+
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    /**
+     * The size of {@code txn} as a v2 record, collecting the hashes it introduces in {@code added}.
+     */
+    private int compactRecordSize(SerializeTransaction txn, Map<SecureHash, Integer> added) {
+        int size = SerializeTransaction.varintSize(hashIndex(txn.txnId, added))
+                + SerializeTransaction.varintSize(txn.inputs.size())
+                + SerializeTransaction.varintSize(txn.refs.size());
+
+        for (StateRef input : txn.inputs) {
+            size += SerializeTransaction.varintSize(hashIndex(input.getTxhash(), added))
+                    + SerializeTransaction.varintSize(input.getIndex());
+        }
+
+        for (StateRef ref : txn.refs) {
+            size += SerializeTransaction.varintSize(hashIndex(ref.getTxhash(), added))
+                    + SerializeTransaction.varintSize(ref.getIndex());
+        }
+
+        return size;
+    }
+
+    private int hashIndex(SecureHash hash, Map<SecureHash, Integer> added) {
+        Integer index = hashIndices.get(hash);
+
+        if (index == null) {
+            index = added.get(hash);
+        }
+
+        if (index == null) {
+            index = hashes.size() + added.size();
+            added.put(hash, index);
+        }
+
+        return index;
+    }
+
+    private static int kindsSize(int recordsLen, boolean hasKinds, int lockReleases) {
+        return hasKinds ? recordsLen + lockReleases * 8 : 0;
+    }
+
+    private static int compactSize(int recordsLen, int hashesLen, int recordsSize) {
+        // version + hashesLen + hashes + recordsLen + records + potential padding byte
+        return 1 + SerializeTransaction.varintSize(hashesLen) + hashesLen * 32
+                + SerializeTransaction.varintSize(recordsLen) + recordsSize + 1;
+    }
+}
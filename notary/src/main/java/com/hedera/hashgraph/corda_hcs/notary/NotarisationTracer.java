@@ -0,0 +1,265 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.crypto.SecureHash;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Records when each notarisation reached each of its phases in a ring of preallocated slots,
+ * overwritten oldest first, so the latest ones can be dumped over JMX (see
+ * {@link NotarisationTracesMBean}) and those slower than a threshold are logged as they finish.
+ *
+ * A notarisation takes the next slot when it starts and is traced by that slot's position in the
+ * ring. Recording a phase writes a timestamp into the slot, without locks or allocation; once the
+ * ring has come round and a newer notarisation took the slot, an older one records nothing more.
+ * A phase reached more than once, e.g. by each chunk of a message, keeps the last time.
+ */
+final class NotarisationTracer implements NotarisationTracesMBean {
+    private static final Logger logger = LoggerFactory.getLogger(NotarisationTracer.class);
+
+    static final String OBJECT_NAME = "com.hedera.hashgraph.corda_hcs.notary:type=NotarisationTraces";
+
+    /**
+     * A notarisation that isn't traced, e.g. a lock being aborted or with tracing disabled.
+     */
+    static final long NONE = -1;
+
+    enum Phase {
+        // the notary flow received the request
+        RECEIVED,
+        VALIDATED,
+        // its spends were serialized into a record
+        SERIALIZED,
+        // the Hedera transaction carrying its record was built and signed
+        BUILT,
+        SUBMISSION_SIGNED,
+        // a Hedera node accepted that transaction
+        EXECUTED,
+        // the consensus sequence number of the message is known, from the mirror or a receipt
+        RECEIPT,
+        // the message was applied, and with it the spends checked
+        APPLIED,
+        // the notary signed the transaction
+        SIGNED,
+        RESPONDED;
+
+        private final String label = name().toLowerCase();
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    /**
+     * The traces of the records in one batch message.
+     */
+    static final class Traces {
+        private long[] traces = new long[0];
+        private int count;
+
+        void add(long trace) {
+            if (trace == NONE) {
+                return;
+            }
+
+            if (count == traces.length) {
+                traces = Arrays.copyOf(traces, Math.max(16, count * 2));
+            }
+
+            traces[count++] = trace;
+        }
+    }
+
+    private final int mask;
+    private final long slowThresholdNanos;
+
+    // the trace in each slot, or NONE while it is being taken
+    private final AtomicLongArray owners;
+
+    private final AtomicReferenceArray<SecureHash> txIds;
+
+    // System.nanoTime() at each phase of the trace in each slot, or 0 if not reached
+    private final AtomicLongArray times;
+
+    private final AtomicLong next = new AtomicLong();
+
+    // converts the nanosecond timestamps to wall clock time
+    private final long anchorNanos = System.nanoTime();
+    private final long anchorMillis = System.currentTimeMillis();
+
+    /**
+     * @param capacity      the number of notarisations kept, a power of two, or 0 to trace none.
+     * @param slowThreshold how long a notarisation may take before it is logged, or zero to log
+     *                      none.
+     */
+    NotarisationTracer(int capacity, Duration slowThreshold) {
+        this.mask = capacity - 1;
+        this.slowThresholdNanos = slowThreshold.toNanos();
+        this.owners = new AtomicLongArray(capacity);
+        this.txIds = new AtomicReferenceArray<>(capacity);
+        this.times = new AtomicLongArray(capacity * PHASES.length);
+
+        for (int slot = 0; slot < capacity; slot++) {
+            owners.set(slot, NONE);
+        }
+    }
+
+    /**
+     * Start tracing the notarisation of a transaction, at {@link Phase#RECEIVED}.
+     *
+     * @return the trace to record its later phases with.
+     */
+    long start(SecureHash txId) {
+        if (owners.length() == 0) {
+            return NONE;
+        }
+
+        long trace = next.getAndIncrement();
+        int slot = (int) (trace & mask);
+        int base = slot * PHASES.length;
+
+        // hidden from dumps until it's reset
+        owners.set(slot, NONE);
+
+        for (int phase = 1; phase < PHASES.length; phase++) {
+            times.lazySet(base + phase, 0);
+        }
+
+        times.lazySet(base, System.nanoTime());
+        txIds.lazySet(slot, txId);
+        owners.set(slot, trace);
+
+        return trace;
+    }
+
+    void record(long trace, Phase phase) {
+        if (trace == NONE) {
+            return;
+        }
+
+        int slot = (int) (trace & mask);
+
+        if (owners.get(slot) == trace) {
+            times.lazySet(slot * PHASES.length + phase.ordinal(), System.nanoTime());
+        }
+    }
+
+    void record(Traces traces, Phase phase) {
+        for (int i = 0; i < traces.count; i++) {
+            record(traces.traces[i], phase);
+        }
+    }
+
+    /**
+     * Record that the notarisation was responded to, logging its trace if it was slow.
+     */
+    void finish(long trace) {
+        record(trace, Phase.RESPONDED);
+
+        if (trace == NONE || slowThresholdNanos <= 0) {
+            return;
+        }
+
+        int slot = (int) (trace & mask);
+        long received = times.get(slot * PHASES.length);
+
+        if (System.nanoTime() - received > slowThresholdNanos) {
+            String description = describe(slot);
+
+            // overwritten while we were reading it
+            if (owners.get(slot) == trace) {
+                logger.warn("slow notarisation: " + description);
+            }
+        }
+    }
+
+    @Override
+    public String[] dump() {
+        long end = next.get();
+        List<String> lines = new ArrayList<>();
+
+        for (long trace = Math.max(0, end - owners.length()); trace < end; trace++) {
+            int slot = (int) (trace & mask);
+
+            if (owners.get(slot) != trace) {
+                continue;
+            }
+
+            String description = describe(slot);
+
+            if (owners.get(slot) == trace) {
+                lines.add(description);
+            }
+        }
+
+        return lines.toArray(new String[0]);
+    }
+
+    private String describe(int slot) {
+        int base = slot * PHASES.length;
+        long received = times.get(base);
+
+        StringBuilder description = new StringBuilder()
+                .append(txIds.get(slot))
+                .append(" received at ")
+                .append(Instant.ofEpochMilli(anchorMillis + (received - anchorNanos) / 1_000_000));
+
+        for (int phase = 1; phase < PHASES.length; phase++) {
+            long time = times.get(base + phase);
+
+            if (time != 0) {
+                description.append(", ")
+                        .append(PHASES[phase].label)
+                        .append(" +")
+                        .append(String.format("%.3f", (time - received) / 1e6))
+                        .append(" ms");
+            }
+        }
+
+        if (times.get(base + Phase.RESPONDED.ordinal()) == 0) {
+            description.append(", in flight");
+        }
+
+        return description.toString();
+    }
+
+    /**
+     * Publish the traces over JMX, in place of those of a notary started before in this process.
+     */
+    void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+
+            server.registerMBean(new StandardMBean(this, NotarisationTracesMBean.class), name);
+        } catch (JMException e) {
+            logger.warn("failed to publish notarisation traces over JMX", e);
+        }
+    }
+
+    void unregister() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            logger.debug("notarisation traces were not published over JMX", e);
+        }
+    }
+}
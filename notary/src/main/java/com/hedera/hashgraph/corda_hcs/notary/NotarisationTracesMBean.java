@@ -0,0 +1,13 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+/**
+ * The latest notarisations traced by an {@link HcsNotaryService}, published over JMX as
+ * {@code com.hedera.hashgraph.corda_hcs.notary:type=NotarisationTraces}.
+ */
+public interface NotarisationTracesMBean {
+    /**
+     * One line per notarisation still in the trace buffer, oldest first: its transaction ID, when
+     * its request was received, and how long after that it reached each of its phases.
+     */
+    String[] dump();
+}
@@ -0,0 +1,155 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import com.hedera.hashgraph.sdk.Client;
+import com.hedera.hashgraph.sdk.account.AccountId;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Spreads HCS submissions across a pool of operator accounts, each with its own throttle and
+ * transaction ID space, and across Hedera nodes; a node that was busy or unreachable is left out
+ * of the rotation for a while.
+ */
+final class OperatorPool {
+    private static final Logger logger = LoggerFactory.getLogger(OperatorPool.class);
+
+    static final class Operator {
+        final AccountId accountId;
+        final Client client;
+
+        // submissions currently paid for by this account
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        Operator(AccountId accountId, Client client) {
+            this.accountId = accountId;
+            this.client = client;
+        }
+    }
+
+    /**
+     * An operator and node to make one submission with; close it once the submission is done.
+     */
+    static final class Lease implements AutoCloseable {
+        final Operator operator;
+        final AccountId nodeAccountId;
+
+        private Lease(Operator operator, AccountId nodeAccountId) {
+            this.operator = operator;
+            this.nodeAccountId = nodeAccountId;
+        }
+
+        @Override
+        public void close() {
+            operator.inFlight.decrementAndGet();
+        }
+    }
+
+    private final List<Operator> operators;
+    private final HcsConfig.OperatorSelection selection;
+    private final AtomicInteger nextOperator = new AtomicInteger();
+
+    private final List<AccountId> nodeAccountIds;
+    private final AtomicInteger nextNode = new AtomicInteger();
+
+    // System.nanoTime() at which each node comes back into rotation, or 0 if it's in rotation
+    private final AtomicLongArray nodeCooldowns;
+    private final long cooldownNanos;
+
+    OperatorPool(List<Operator> operators, HcsConfig.OperatorSelection selection,
+                 List<AccountId> nodeAccountIds, Duration cooldown) {
+        this.operators = operators;
+        this.selection = selection;
+        this.nodeAccountIds = nodeAccountIds;
+        this.nodeCooldowns = new AtomicLongArray(nodeAccountIds.size());
+        this.cooldownNanos = cooldown.toNanos();
+    }
+
+    /**
+     * Pick the operator and node for the next submission.
+     */
+    Lease acquire() {
+        Operator operator = selection == HcsConfig.OperatorSelection.LEAST_LOADED
+                ? leastLoaded()
+                : operators.get(Math.floorMod(nextOperator.getAndIncrement(), operators.size()));
+
+        operator.inFlight.incrementAndGet();
+
+        return new Lease(operator, nextNode());
+    }
+
+    /**
+     * Take the node out of the rotation for the configured cooldown.
+     */
+    void cooldown(AccountId nodeAccountId) {
+        int node = nodeAccountIds.indexOf(nodeAccountId);
+
+        if (node < 0) {
+            return;
+        }
+
+        long until = System.nanoTime() + cooldownNanos;
+
+        // 0 means "in rotation"
+        nodeCooldowns.set(node, until != 0 ? until : 1);
+
+        logger.warn("taking node " + nodeAccountId + " out of rotation for " + cooldownNanos / 1_000_000 + " ms");
+    }
+
+    void close() {
+        for (Operator operator : operators) {
+            try {
+                operator.client.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (TimeoutException e) {
+                logger.warn("timed out closing client of operator " + operator.accountId, e);
+            }
+        }
+    }
+
+    private Operator leastLoaded() {
+        // start at a different account each time so ties are spread out too
+        int start = Math.floorMod(nextOperator.getAndIncrement(), operators.size());
+        Operator best = operators.get(start);
+
+        for (int i = 1; i < operators.size(); i++) {
+            Operator operator = operators.get((start + i) % operators.size());
+
+            if (operator.inFlight.get() < best.inFlight.get()) {
+                best = operator;
+            }
+        }
+
+        return best;
+    }
+
+    private AccountId nextNode() {
+        long now = System.nanoTime();
+        int start = Math.floorMod(nextNode.getAndIncrement(), nodeAccountIds.size());
+        int earliest = start;
+
+        for (int i = 0; i < nodeAccountIds.size(); i++) {
+            int node = (start + i) % nodeAccountIds.size();
+            long until = nodeCooldowns.get(node);
+
+            if (until == 0 || now - until >= 0) {
+                return nodeAccountIds.get(node);
+            }
+
+            if (until - nodeCooldowns.get(earliest) < 0) {
+                earliest = node;
+            }
+        }
+
+        // every node is cooling down; use the one that comes back first
+        return nodeAccountIds.get(earliest);
+    }
+}
@@ -0,0 +1,546 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.contracts.StateRef;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+
+/**
+ * A destruction index that survives restarts.
+ *
+ * Applied messages are appended to a {@link DestructionLog} and looked up through a
+ * {@link MappedStateRefTable}. Every {@code checkpointInterval} messages both are flushed to disk
+ * and a checkpoint recording the log offset they cover and the last applied sequence number and
+ * resume timestamp is written, so opening the index only replays the log written since.
+ */
+final class PersistentDestructionIndex implements DestructionIndex {
+    private static final Logger logger = LoggerFactory.getLogger(PersistentDestructionIndex.class);
+
+    // CHECKPOINT FORMAT:
+    // int8 magic
+    // int8 log offset covered by the table
+    // int8 last applied sequence number
+    // int8 resume timestamp seconds
+    // int4 resume timestamp nanos
+    // int8 table capacity
+    // int8 table size
+    // int8 table slots used
+    // int4 CRC32 of the above
+
+    private static final long CHECKPOINT_MAGIC = 0x4843534e4f544131L; // "HCSNOTA1"
+    private static final int CHECKPOINT_SIZE = 8 + 8 + 8 + 8 + 4 + 8 + 8 + 8 + 4;
+
+    private static final long MIN_CAPACITY = 1 << 16;
+
+    // grow the table once it is this full, counting the slots of released states
+    private static final double MAX_LOAD = 0.6;
+
+    private final Path directory;
+    private final int checkpointInterval;
+    private final boolean keepReleased;
+
+    private final DestructionLog log;
+
+    interface ReleasedVisitor {
+        /**
+         * Visit the state whose transaction ID is in {@code hash}; the array is reused once this
+         * returns.
+         */
+        void visit(byte[] hash, int index);
+    }
+
+    private volatile MappedStateRefTable table;
+
+    private volatile long size;
+
+    // the size as of the last commit, which is what a checkpoint covers
+    private long committedSize;
+
+    private volatile long sequenceNumber = -1;
+
+    @Nullable
+    private volatile Instant resumeTimestamp;
+
+    private int uncheckpointedMessages;
+
+    private boolean recovering;
+
+    // created once rather than per inserted state
+    private final MappedStateRefTable.SlotValidator pendingValidator;
+    private final MappedStateRefTable.SlotValidator writtenValidator;
+
+    private PersistentDestructionIndex(Path directory, int checkpointInterval, boolean keepReleased, DestructionLog log) {
+        this.directory = directory;
+        this.checkpointInterval = checkpointInterval;
+        this.keepReleased = keepReleased;
+        this.log = log;
+
+        this.pendingValidator = (offset, hash, hashOffset, index) -> log.listsInput(offset, hash, hashOffset, index, true);
+        this.writtenValidator = (offset, hash, hashOffset, index) -> log.listsInput(offset, hash, hashOffset, index, false);
+    }
+
+    /**
+     * Open the index in the given directory, creating it if it doesn't exist, and recover
+     * everything applied before the last shutdown or crash.
+     */
+    static PersistentDestructionIndex open(Path directory, long initialCapacity, int checkpointInterval) throws IOException {
+        return open(directory, initialCapacity, checkpointInterval, false);
+    }
+
+    /**
+     * Like {@link #open(Path, long, int)}.
+     *
+     * @param keepReleased keep the slots of released states when the table grows, for an index
+     *                     whose released states hide destructions in an older one; otherwise
+     *                     they are dropped.
+     */
+    static PersistentDestructionIndex open(Path directory, long initialCapacity, int checkpointInterval,
+                                           boolean keepReleased) throws IOException {
+        Files.createDirectories(directory);
+
+        DestructionLog log = DestructionLog.open(directory.resolve("destructions.log"));
+        PersistentDestructionIndex index = new PersistentDestructionIndex(directory, checkpointInterval, keepReleased, log);
+
+        index.recover(initialCapacity);
+
+        return index;
+    }
+
+    @Nullable
+    @Override
+    public StateDestruction get(StateRef stateRef) {
+        return lookup(stateRef.getTxhash().getBytes(), 0, stateRef.getIndex(), false);
+    }
+
+    @Nullable
+    @Override
+    public StateDestruction probe(byte[] hash, int offset, int index) {
+        return lookup(hash, offset, index, true);
+    }
+
+    /**
+     * Like {@link #get(StateRef)} for the state whose transaction ID is at {@code offset} in
+     * {@code hash}.
+     */
+    @Nullable
+    StateDestruction get(byte[] hash, int offset, int index) {
+        return lookup(hash, offset, index, false);
+    }
+
+    /**
+     * Returns true if the state whose transaction ID is at {@code offset} in {@code hash} is
+     * either consumed or was consumed and then released again in this index.
+     *
+     * @param includePending also see the records applied so far from the current message; only
+     *                       the applying thread may do this.
+     */
+    boolean holds(byte[] hash, int offset, int index, boolean includePending) {
+        long logOffset = table.get(hash, offset, index, (o, h, ho, i) -> true);
+
+        return logOffset >= 0
+                && (log.listsInput(logOffset, hash, offset, index, includePending)
+                || log.listsRelease(logOffset, hash, offset, index, includePending));
+    }
+
+    @Override
+    public void apply(TransactionView txn, long sequenceNumber) {
+        long logOffset = log.appendRecord(txn, sequenceNumber);
+
+        MappedStateRefTable table = this.table;
+        byte[] data = txn.data();
+
+        for (int i = 0; i < txn.inputsLen(); i++) {
+            insert(table, data, txn.inputHashOffset(i), txn.inputIndex(i), logOffset, pendingValidator);
+        }
+
+        growIfFull();
+    }
+
+    @Override
+    public void abort(TransactionView txn, long lockSequenceNumber, long sequenceNumber) {
+        long logOffset = log.appendAbort(txn, lockSequenceNumber);
+
+        MappedStateRefTable table = this.table;
+        byte[] data = txn.data();
+
+        for (int i = 0; i < txn.inputsLen(); i++) {
+            release(table, data, txn.inputHashOffset(i), txn.inputIndex(i),
+                    data, txn.txnIdOffset(), lockSequenceNumber, logOffset, true);
+        }
+    }
+
+    @Override
+    public void commit(long sequenceNumber, Instant resumeTimestamp) {
+        log.appendCommit(sequenceNumber, resumeTimestamp);
+
+        this.resumeTimestamp = resumeTimestamp;
+        this.sequenceNumber = sequenceNumber;
+        this.committedSize = size;
+
+        if (++uncheckpointedMessages >= checkpointInterval) {
+            checkpoint();
+        }
+    }
+
+    @Override
+    public void forEach(Visitor visitor) {
+        table.forEach((hash, index, logOffset) -> {
+            // a slot pointing at an abort entry holds a released state
+            StateDestruction destruction = log.readDestruction(logOffset, hash, 0, index, true);
+
+            if (destruction != null) {
+                visitor.visit(hash, index, destruction.txnId.getBytes(), destruction.sequenceNumber);
+            }
+        });
+    }
+
+    /**
+     * Visit every state that was released and not consumed again since, in no particular order.
+     */
+    void forEachReleased(ReleasedVisitor visitor) {
+        table.forEach((hash, index, logOffset) -> {
+            if (log.listsRelease(logOffset, hash, 0, index, true)) {
+                visitor.visit(hash, index);
+            }
+        });
+    }
+
+    @Override
+    public long appliedSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    @Nullable
+    @Override
+    public Instant resumeTimestamp() {
+        return resumeTimestamp;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public long memoryBytes() {
+        // the table is mapped rather than allocated, but it is what has to stay resident
+        return table.capacity * MappedStateRefTable.SLOT_SIZE;
+    }
+
+    @Override
+    public void close() {
+        checkpoint();
+
+        try {
+            log.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to close destruction log", e);
+        }
+    }
+
+    /**
+     * Close the index and delete its files, and its directory if nothing else is left in it.
+     */
+    void delete() throws IOException {
+        close();
+
+        deleteTablesExcept(-1);
+        Files.deleteIfExists(directory.resolve("checkpoint"));
+        Files.deleteIfExists(directory.resolve("destructions.log"));
+
+        try {
+            Files.deleteIfExists(directory);
+        } catch (DirectoryNotEmptyException e) {
+            // shared with other files
+        }
+    }
+
+    /**
+     * Flush the log and table to disk and record how far they go.
+     */
+    void checkpoint() {
+        try {
+            log.force();
+            table.force();
+
+            writeCheckpoint();
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to checkpoint destruction index", e);
+        }
+
+        uncheckpointedMessages = 0;
+    }
+
+    private void insert(MappedStateRefTable table, byte[] hash, int offset, int index, long logOffset,
+                        MappedStateRefTable.SlotValidator validator) {
+        // don't overwrite with duplicate destructions
+        long existing = table.putIfAbsent(hash, offset, index, logOffset, validator);
+
+        // on recovery the table may already hold entries written after the checkpoint
+        if (existing < 0 || existing == logOffset) {
+            size++;
+        }
+    }
+
+    @Nullable
+    private StateDestruction lookup(byte[] hash, int offset, int index, boolean includePending) {
+        // the log entry is read and checked once we've found it, rather than by the table
+        long logOffset = table.get(hash, offset, index, (o, h, ho, i) -> true);
+
+        return logOffset >= 0 ? log.readDestruction(logOffset, hash, offset, index, includePending) : null;
+    }
+
+    /**
+     * Point the state's slot at the abort entry at {@code logOffset} if it is consumed by the
+     * given transaction at {@code lockSequenceNumber}.
+     */
+    private void release(MappedStateRefTable table, byte[] hash, int offset, int index,
+                         byte[] txnId, int txnIdOffset, long lockSequenceNumber, long logOffset,
+                         boolean includePending) {
+        long existing = table.get(hash, offset, index, (o, h, ho, i) -> true);
+
+        if (existing < 0) {
+            return;
+        }
+
+        // on recovery the table may already point at this abort entry
+        if (existing == logOffset) {
+            size--;
+            return;
+        }
+
+        StateDestruction destruction = log.readDestruction(existing, hash, offset, index, includePending);
+
+        if (destruction != null
+                && destruction.sequenceNumber == lockSequenceNumber
+                && StateRefs.hashEquals(destruction.txnId.getBytes(), 0, txnId, txnIdOffset)) {
+            table.replace(hash, offset, index, logOffset);
+            size--;
+        }
+    }
+
+    private void growIfFull() {
+        // released states keep their slots, which probes still pass over
+        if (table.used > table.capacity * MAX_LOAD) {
+            grow();
+        }
+    }
+
+    private void grow() {
+        MappedStateRefTable oldTable = table;
+        long capacity = oldTable.capacity * 2;
+
+        // mostly released states, which aren't copied, so a smaller table will do
+        if (!keepReleased && oldTable.capacity / 2 >= MIN_CAPACITY && size <= oldTable.capacity / 2 * MAX_LOAD / 2) {
+            capacity = oldTable.capacity / 2;
+        }
+
+        logger.info("resizing destruction index to " + capacity + " slots for " + size + " consumed states");
+
+        try {
+            // a smaller table may have been here before
+            Files.deleteIfExists(tableFile(capacity));
+
+            MappedStateRefTable newTable = MappedStateRefTable.open(tableFile(capacity), capacity);
+            oldTable.copyTo(newTable, keepReleased ? (o, h, ho, i) -> true : pendingValidator);
+            newTable.force();
+
+            table = newTable;
+
+            // the new table now covers everything in the log so far; while recovering, that is
+            // only known once the log has been read to the end, so the old checkpoint is kept and
+            // a crash rebuilds the table from the log
+            if (!recovering) {
+                log.force();
+                writeCheckpoint();
+            }
+
+            // still mapped by any concurrent readers; the space is reclaimed once they're done
+            Files.deleteIfExists(oldTable.file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to grow destruction index", e);
+        }
+    }
+
+    private void recover(long initialCapacity) throws IOException {
+        ByteBuffer checkpoint = readCheckpoint();
+
+        long logOffset = 0;
+
+        if (checkpoint != null) {
+            logOffset = checkpoint.getLong();
+            sequenceNumber = checkpoint.getLong();
+
+            Instant timestamp = Instant.ofEpochSecond(checkpoint.getLong(), checkpoint.getInt());
+            resumeTimestamp = sequenceNumber >= 0 ? timestamp : null;
+
+            long capacity = checkpoint.getLong();
+            size = checkpoint.getLong();
+            committedSize = size;
+
+            long used = checkpoint.getLong();
+
+            if (Files.exists(tableFile(capacity))) {
+                deleteTablesExcept(capacity);
+                table = MappedStateRefTable.open(tableFile(capacity), capacity);
+                table.used = used;
+            } else {
+                logger.warn("destruction index table missing, rebuilding from log");
+                checkpoint = null;
+            }
+        }
+
+        if (checkpoint == null) {
+            long capacity = Long.highestOneBit(Math.max(MIN_CAPACITY, initialCapacity) - 1) << 1;
+
+            deleteTablesExcept(-1);
+
+            logOffset = 0;
+            size = 0;
+            committedSize = 0;
+            sequenceNumber = -1;
+            resumeTimestamp = null;
+            table = MappedStateRefTable.open(tableFile(capacity), capacity);
+        }
+
+        long start = System.nanoTime();
+
+        recovering = true;
+
+        log.recover(logOffset, new DestructionLog.Visitor() {
+            @Override
+            public void onRecord(long offset, byte[] body, int inputsLen) {
+                MappedStateRefTable table = PersistentDestructionIndex.this.table;
+
+                for (int i = 0; i < inputsLen; i++) {
+                    int pos = DestructionLog.recordInputOffset(i);
+
+                    insert(table, body, pos, StateRefs.getInt(body, pos + 32), offset, writtenValidator);
+                }
+
+                growIfFull();
+            }
+
+            @Override
+            public void onAbort(long offset, byte[] body, int inputsLen) {
+                MappedStateRefTable table = PersistentDestructionIndex.this.table;
+                long lockSequenceNumber = DestructionLog.entrySequenceNumber(body);
+
+                for (int i = 0; i < inputsLen; i++) {
+                    int pos = DestructionLog.recordInputOffset(i);
+
+                    release(table, body, pos, StateRefs.getInt(body, pos + 32),
+                            body, DestructionLog.ENTRY_TXN_ID_OFFSET, lockSequenceNumber, offset, false);
+                }
+            }
+
+            @Override
+            public void onCommit(long sequenceNumber, Instant resumeTimestamp) {
+                PersistentDestructionIndex.this.sequenceNumber = sequenceNumber;
+                PersistentDestructionIndex.this.resumeTimestamp = resumeTimestamp;
+                committedSize = size;
+            }
+        });
+
+        recovering = false;
+
+        logger.info("recovered destruction index with " + size + " consumed states up to sequence number "
+                + sequenceNumber + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+
+        checkpoint();
+    }
+
+    @Nullable
+    private ByteBuffer readCheckpoint() throws IOException {
+        byte[] bytes;
+
+        try {
+            bytes = Files.readAllBytes(directory.resolve("checkpoint"));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        if (bytes.length != CHECKPOINT_SIZE) {
+            logger.warn("ignoring checkpoint of unexpected size " + bytes.length);
+            return null;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, CHECKPOINT_SIZE - 4);
+
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+
+        if (in.getLong() != CHECKPOINT_MAGIC || in.getInt(CHECKPOINT_SIZE - 4) != (int) crc.getValue()) {
+            logger.warn("ignoring corrupt checkpoint");
+            return null;
+        }
+
+        return in;
+    }
+
+    private void writeCheckpoint() throws IOException {
+        Instant resumeTimestamp = this.resumeTimestamp;
+
+        ByteBuffer out = ByteBuffer.allocate(CHECKPOINT_SIZE);
+
+        out.putLong(CHECKPOINT_MAGIC);
+        out.putLong(log.end());
+        out.putLong(sequenceNumber);
+        out.putLong(resumeTimestamp != null ? resumeTimestamp.getEpochSecond() : 0);
+        out.putInt(resumeTimestamp != null ? resumeTimestamp.getNano() : 0);
+        out.putLong(table.capacity);
+        out.putLong(committedSize);
+        out.putLong(table.used);
+
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), 0, out.position());
+        out.putInt((int) crc.getValue());
+
+        Path tmp = directory.resolve("checkpoint.tmp");
+
+        out.flip();
+
+        try (FileChannel channel = FileChannel.open(tmp,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+
+            channel.force(true);
+        }
+
+        Files.move(tmp, directory.resolve("checkpoint"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path tableFile(long capacity) {
+        return directory.resolve("destructions-" + capacity + ".idx");
+    }
+
+    private void deleteTablesExcept(long capacity) throws IOException {
+        try (DirectoryStream<Path> tables = Files.newDirectoryStream(directory, "destructions-*.idx")) {
+            for (Path file : tables) {
+                if (!file.equals(tableFile(capacity))) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+}
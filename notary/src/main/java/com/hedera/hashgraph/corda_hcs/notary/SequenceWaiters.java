@@ -0,0 +1,97 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * A registry of futures keyed by HCS sequence number which are completed as the applied
+ * watermark passes them.
+ */
+final class SequenceWaiters {
+    private final ConcurrentSkipListMap<Long, CompletableFuture<Long>> waiters = new ConcurrentSkipListMap<>();
+
+    private volatile long watermark;
+
+    @Nullable
+    private volatile RuntimeException failure;
+
+    SequenceWaiters(long watermark) {
+        this.watermark = watermark;
+    }
+
+    /**
+     * The sequence number of the last message that was completely applied.
+     */
+    long watermark() {
+        return watermark;
+    }
+
+    /**
+     * Returns a future that completes with the watermark once it reaches {@code sequenceNumber}.
+     */
+    CompletableFuture<Long> await(long sequenceNumber) {
+        long current = watermark;
+
+        if (current >= sequenceNumber) {
+            return CompletableFuture.completedFuture(current);
+        }
+
+        CompletableFuture<Long> future = waiters.computeIfAbsent(sequenceNumber, seq -> new CompletableFuture<>());
+
+        // the watermark may have passed us between the check above and registering
+        current = watermark;
+
+        if (current >= sequenceNumber) {
+            waiters.remove(sequenceNumber, future);
+            future.complete(current);
+        }
+
+        // or the watermark stopped for good
+        RuntimeException failure = this.failure;
+
+        if (failure != null) {
+            waiters.remove(sequenceNumber, future);
+            future.completeExceptionally(failure);
+        }
+
+        return future;
+    }
+
+    /**
+     * Move the watermark to {@code sequenceNumber} and complete everyone waiting on it or before it.
+     *
+     * Must only be called by the thread applying messages.
+     */
+    void advance(long sequenceNumber) {
+        watermark = sequenceNumber;
+
+        ConcurrentNavigableMap<Long, CompletableFuture<Long>> passed = waiters.headMap(sequenceNumber, true);
+
+        for (Map.Entry<Long, CompletableFuture<Long>> entry; (entry = passed.pollFirstEntry()) != null; ) {
+            entry.getValue().complete(sequenceNumber);
+        }
+    }
+
+    /**
+     * Stop the watermark where it is, failing everyone waiting on it now or later with {@code cause}.
+     */
+    void fail(RuntimeException cause) {
+        failure = cause;
+
+        for (Map.Entry<Long, CompletableFuture<Long>> entry; (entry = waiters.pollFirstEntry()) != null; ) {
+            entry.getValue().completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Why the watermark stopped, or null if it hasn't.
+     */
+    @Nullable
+    RuntimeException failure() {
+        return failure;
+    }
+}
@@ -9,6 +9,7 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public final class SerializeTransaction {
@@ -30,7 +31,7 @@ public final class SerializeTransaction {
         this.refs = refs;
     }
 
-    // SERIALIZED FORMAT:
+    // SERIALIZED FORMAT (v1 record):
     // byte[32] transaction ID
     // int4 inputsLen = inputs.size()
     // int4 refsLen = refs.size()
@@ -42,15 +43,220 @@ public final class SerializeTransaction {
     // for 0 .. refsLen:
     //   byte[32] ref transaction ID
     //   int4 state index
+    //
+    // A bare v1 record is a complete message on its own (the original, unversioned format).
+    //
+    // VERSIONED FORMAT:
+    // byte version
+    //
+    // version 1 (batch):
+    //   int4 recordsLen
+    //
+    //   for 0 .. recordsLen:
+    //     v1 record
+    //
+    // version 2 (compact):
+    //   varint hashesLen
+    //
+    //   for 0 .. hashesLen:
+    //     byte[32] transaction ID, each distinct one in the message appearing once
+    //
+    //   varint recordsLen
+    //
+    //   for 0 .. recordsLen:
+    //     varint hash table index of the transaction ID
+    //     varint inputsLen
+    //     varint refsLen
+    //
+    //     for 0 .. inputsLen + refsLen:
+    //       varint hash table index of the input or ref transaction ID
+    //       varint state index
+    //
+    // version 3 (chunk):
+    //   int8 group ID, shared by every chunk of one payload
+    //   int4 chunk index
+    //   int4 chunksLen
+    //   int4 partLen
+    //   byte[partLen] part of a payload which is itself a complete message in any other format
+    //
+    // version 4 (compact with record kinds):
+    //   as version 2, except that every record starts with
+    //     byte kind = RECORD_APPLY | RECORD_LOCK | RECORD_ABORT | RECORD_COMMIT
+    //     int8 lock sequence number (RECORD_ABORT and RECORD_COMMIT only)
+    //
+    // Varints are unsigned LEB128: 7 bits per byte, least significant first, high bit set on all
+    // but the last byte.
+    //
+    // A bare v1 record always has a length of exactly 40 + 36 * (inputsLen + refsLen), which is
+    // how it is told apart from a versioned message; versioned messages that happen to satisfy
+    // that equation are padded with a trailing zero byte, which the decoder ignores.
 
-    public byte[] serialize() {
+    static final byte VERSION_BATCH = 1;
+    static final byte VERSION_COMPACT = 2;
+    static final byte VERSION_CHUNK = 3;
+    static final byte VERSION_COMPACT_KINDS = 4;
+
+    // consume the inputs that aren't already consumed; the only kind before version 4
+    static final byte RECORD_APPLY = 0;
+    // consume all of the inputs, or none of them if any input or ref is already consumed
+    static final byte RECORD_LOCK = 1;
+    // release the inputs consumed by the lock record of this transaction at the given sequence number
+    static final byte RECORD_ABORT = 2;
+    // keep for good the inputs consumed by the lock record of this transaction at the given sequence number
+    static final byte RECORD_COMMIT = 3;
+
+    /**
+     * Returns true if records of the given kind carry the sequence number of a lock record.
+     */
+    static boolean namesLock(byte kind) {
+        return kind == RECORD_ABORT || kind == RECORD_COMMIT;
+    }
+
+    // version + group ID + chunk index + chunksLen + partLen
+    static final int CHUNK_HEADER_SIZE = 1 + 8 + 4 + 4 + 4;
+
+    // reused by each encoding thread so a message costs one allocation, the returned array
+    private static final ThreadLocal<ByteBuffer> encodeBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(4096));
+
+    /**
+     * The size of this transaction when serialized as a v1 record.
+     */
+    public int serializedSize() {
         // txn ID + lengths + inputsLen(txn ID + index) + refsLen(txn ID + index)
-        int capacity = 32 + 4 + 4 + inputs.size() * 36 + refs.size() * 36;
+        return 32 + 4 + 4 + inputs.size() * 36 + refs.size() * 36;
+    }
 
-        ByteBuffer out = ByteBuffer.allocate(capacity);
+    /**
+     * The size of a batch message holding records of the given total size.
+     */
+    static int batchSize(int recordsSize) {
+        // version + recordsLen + records + potential padding byte
+        return 1 + 4 + recordsSize + 1;
+    }
+
+    public byte[] serialize() {
+        ByteBuffer out = encodeBuffer(serializedSize());
+
+        writeTo(out);
+
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    /**
+     * Serialize the given transactions, in order, into a single batch message.
+     */
+    public static byte[] serializeBatch(List<SerializeTransaction> txns) {
+        int recordsSize = 0;
+
+        for (SerializeTransaction txn : txns) {
+            recordsSize += txn.serializedSize();
+        }
+
+        ByteBuffer out = encodeBuffer(batchSize(recordsSize));
+
+        out.put(VERSION_BATCH);
+        out.putInt(txns.size());
 
-        logger.trace("allocated buffer with " + capacity + " bytes");
+        for (SerializeTransaction txn : txns) {
+            txn.writeTo(out);
+        }
+
+        if (logger.isTraceEnabled()) {
+            logger.trace("serialized batch of " + txns.size() + " transactions");
+        }
+
+        // pad the batch so it can never be mistaken for a bare record
+        if (isRecord(out.array(), out.position())) {
+            out.put((byte) 0);
+        }
+
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    /**
+     * Split a message that is too large for HCS into chunk messages of at most
+     * {@code maxMessageBytes} bytes each.
+     *
+     * @throws IllegalArgumentException if the message needs more than {@code maxChunks} chunks.
+     */
+    static List<byte[]> chunk(byte[] payload, long groupId, int maxMessageBytes, int maxChunks) {
+        // leave room for a padding byte
+        int partSize = maxMessageBytes - CHUNK_HEADER_SIZE - 1;
+
+        if (partSize <= 0) {
+            throw new IllegalArgumentException("maxMessageBytes too small to chunk messages: " + maxMessageBytes);
+        }
 
+        int chunksLen = (payload.length + partSize - 1) / partSize;
+
+        if (chunksLen > maxChunks) {
+            throw new IllegalArgumentException("message of " + payload.length + " bytes needs " + chunksLen
+                    + " chunks, more than the maximum of " + maxChunks);
+        }
+
+        List<byte[]> chunks = new ArrayList<>(chunksLen);
+
+        for (int i = 0; i < chunksLen; i++) {
+            int offset = i * partSize;
+            int partLen = Math.min(partSize, payload.length - offset);
+
+            ByteBuffer out = encodeBuffer(CHUNK_HEADER_SIZE + partLen + 1);
+
+            out.put(VERSION_CHUNK);
+            out.putLong(groupId);
+            out.putInt(i);
+            out.putInt(chunksLen);
+            out.putInt(partLen);
+            out.put(payload, offset, partLen);
+
+            // pad the chunk so it can never be mistaken for a bare record
+            if (isRecord(out.array(), out.position())) {
+                out.put((byte) 0);
+            }
+
+            chunks.add(Arrays.copyOf(out.array(), out.position()));
+        }
+
+        return chunks;
+    }
+
+    /**
+     * A cleared encode buffer of at least {@code capacity} bytes owned by the calling thread.
+     */
+    static ByteBuffer encodeBuffer(int capacity) {
+        ByteBuffer buf = encodeBuffers.get();
+
+        if (buf.capacity() < capacity) {
+            buf = ByteBuffer.allocate(Math.max(capacity, buf.capacity() * 2));
+            encodeBuffers.set(buf);
+        } else {
+            buf.clear();
+        }
+
+        return buf;
+    }
+
+    static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        out.put((byte) value);
+    }
+
+    static int varintSize(int value) {
+        int size = 1;
+
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+
+        return size;
+    }
+
+    private void writeTo(ByteBuffer out) {
         txnId.putTo(out);
         out.putInt(inputs.size());
         out.putInt(refs.size());
@@ -68,13 +274,56 @@ public final class SerializeTransaction {
         }
 
         logger.trace("serialized outputs");
-
-        return out.array();
     }
 
+    /**
+     * Deserialize a message containing a single bare v1 record.
+     */
     public static SerializeTransaction deserialize(byte[] data) {
-        ByteBuffer in = ByteBuffer.wrap(data).asReadOnlyBuffer();
+        return readRecord(ByteBuffer.wrap(data).asReadOnlyBuffer());
+    }
+
+    /**
+     * Deserialize every record in a message, in the order they should be applied.
+     *
+     * Accepts both bare v1 records and versioned messages.
+     */
+    public static List<SerializeTransaction> deserializeAll(byte[] data) {
+        TransactionView view = new TransactionView().wrap(data);
+
+        List<SerializeTransaction> txns = new ArrayList<>();
+
+        while (view.next()) {
+            txns.add(view.toSerializeTransaction());
+        }
+
+        return txns;
+    }
+
+    /**
+     * Returns true if the first {@code len} bytes of {@code data} are exactly one bare v1 record.
+     */
+    static boolean isRecord(byte[] data, int len) {
+        if (len < 40) {
+            return false;
+        }
+
+        long inputsLen = StateRefs.getInt(data, 32);
+        long refsLen = StateRefs.getInt(data, 36);
+
+        return inputsLen >= 0 && refsLen >= 0 && len == 40 + 36 * (inputsLen + refsLen);
+    }
+
+    /**
+     * Returns true if the message is in a format with record kinds, so it may take or release locks.
+     */
+    static boolean hasRecordKinds(byte[] message) {
+        return message.length > 0
+                && message[0] == VERSION_COMPACT_KINDS
+                && !isRecord(message, message.length);
+    }
 
+    private static SerializeTransaction readRecord(ByteBuffer in) {
         byte[] txnIdBytes = new byte[32];
         in.get(txnIdBytes);
 
@@ -14,4 +14,9 @@ public class SigningUtils {
         Ed25519.sign(privateKeyBytes, 0, message, 0, message.length, signature, 0);
         return signature;
     }
+
+    static boolean verify(byte[] publicKeyBytes, byte[] message, byte[] signature) {
+        return signature.length == Ed25519.SIGNATURE_SIZE
+                && Ed25519.verify(signature, 0, publicKeyBytes, 0, message, 0, message.length);
+    }
 }
@@ -0,0 +1,422 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import com.hedera.hashgraph.sdk.TransactionId;
+import com.hedera.hashgraph.sdk.consensus.ConsensusTopicId;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+/**
+ * A Hedera network and mirror node simulated in the node's own process, for testing the notary
+ * without paying for or waiting on a real one.
+ *
+ * Each message submitted reaches consensus after the configured latency, give or take the
+ * jitter, so messages may overtake each other as they can on Hedera; it's then given the topic's
+ * next sequence number, a consensus timestamp after the last one and a running hash, and
+ * delivered to every subscriber of the topic. The network may answer BUSY once a second's worth
+ * of submissions is over the configured rate, and the mirror node may deliver a message twice or
+ * drop a subscription.
+ *
+ * Topics keep every message in memory, and are lost when the node stops.
+ */
+final class SimulatedTransport implements HcsTransport {
+    private static final Logger logger = LoggerFactory.getLogger(SimulatedTransport.class);
+
+    // how long a receipt query waits for its message to reach consensus
+    private static final long RECEIPT_TIMEOUT_MILLIS = 30_000;
+
+    // how long a receipt can be queried after its message reached consensus, as on Hedera
+    private static final long RECEIPT_EXPIRY_NANOS = TimeUnit.MINUTES.toNanos(3);
+
+    // topics created are numbered from here, clear of those configured for a real network
+    private static final long FIRST_TOPIC_NUM = 1_000_000;
+
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private final int maxTps;
+    private final double duplicateRate;
+    private final long disconnectIntervalMillis;
+
+    private final ConcurrentHashMap<ConsensusTopicId, Topic> topics;
+    private final AtomicLong nextTopicNum = new AtomicLong(FIRST_TOPIC_NUM);
+
+    // the sequence numbers of messages submitted, once they reach consensus
+    private final ConcurrentHashMap<TransactionId, CompletableFuture<Long>> receipts = new ConcurrentHashMap<>();
+
+    // receipts in the order they expire; only touched by the consensus thread
+    private final ArrayDeque<Receipt> expiringReceipts = new ArrayDeque<>();
+
+    // transaction IDs are unique by their valid start, which is never the same twice
+    private final AtomicLong lastValidStartNanos = new AtomicLong();
+
+    // orders messages reaching consensus, so only one topic message is appended at a time
+    private final ScheduledExecutorService consensus = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "hcs-simulator-consensus");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // only used by the consensus thread
+    private final MessageDigest runningHashDigest;
+
+    private final Set<Reader> readers = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger readerCount = new AtomicInteger();
+
+    // submissions accepted in the current second; guarded by this
+    private long throttleSecond;
+    private int throttleCount;
+
+    SimulatedTransport(HcsConfig hcsConfig) {
+        this(hcsConfig, new ConcurrentHashMap<>());
+    }
+
+    private SimulatedTransport(HcsConfig hcsConfig, ConcurrentHashMap<ConsensusTopicId, Topic> topics) {
+        this.topics = topics;
+        this.latencyNanos = hcsConfig.simulatorLatency.toNanos();
+        this.jitterNanos = hcsConfig.simulatorJitter.toNanos();
+        this.maxTps = hcsConfig.simulatorMaxTps;
+        this.duplicateRate = hcsConfig.simulatorDuplicateRate;
+        this.disconnectIntervalMillis = hcsConfig.simulatorDisconnectInterval.toMillis();
+
+        try {
+            runningHashDigest = MessageDigest.getInstance("SHA-384");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        logger.warn("HCS is simulated in-process; notarisations are not recorded on Hedera");
+    }
+
+    /**
+     * A new transport to this one's topics, as a notary restarted against the same network would
+     * find them; this one may be closed.
+     */
+    SimulatedTransport reconnect(HcsConfig hcsConfig) {
+        return new SimulatedTransport(hcsConfig, topics);
+    }
+
+    @Override
+    public ConsensusTopicId createTopic(@Nullable Ed25519PublicKey submitKey) {
+        ConsensusTopicId topicId = new ConsensusTopicId(0, 0, nextTopicNum.getAndIncrement());
+
+        topic(topicId);
+
+        return topicId;
+    }
+
+    private Topic topic(ConsensusTopicId topicId) {
+        // topics configured but never created exist as soon as they're used
+        return topics.computeIfAbsent(topicId, Topic::new);
+    }
+
+    @Override
+    public TransactionId submit(ConsensusTopicId topicId, byte[] message, OperatorPool.Lease lease,
+                                NotarisationTracer.Traces traces) throws NodeBusyException {
+        if (!admit()) {
+            throw new NodeBusyException("simulated node " + lease.nodeAccountId + " is busy", null);
+        }
+
+        Topic topic = topic(topicId);
+        byte[] payload = message.clone();
+
+        long validStartNanos = lastValidStartNanos.accumulateAndGet(
+                TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()),
+                (last, now) -> Math.max(last + 1, now));
+
+        TransactionId transactionId = TransactionId.withValidStart(
+                lease.operator.accountId, Instant.EPOCH.plusNanos(validStartNanos));
+
+        CompletableFuture<Long> receipt = new CompletableFuture<>();
+        receipts.put(transactionId, receipt);
+
+        long delayNanos = latencyNanos;
+
+        if (jitterNanos > 0) {
+            delayNanos += ThreadLocalRandom.current().nextLong(-jitterNanos, jitterNanos + 1);
+        }
+
+        consensus.schedule(() -> {
+            TopicMessage reached = topic.append(payload, runningHashDigest);
+
+            receipt.complete(reached.sequenceNumber);
+            expireReceipts(new Receipt(transactionId, System.nanoTime() + RECEIPT_EXPIRY_NANOS));
+        }, delayNanos, TimeUnit.NANOSECONDS);
+
+        return transactionId;
+    }
+
+    private boolean admit() {
+        if (maxTps == 0) {
+            return true;
+        }
+
+        long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+
+        synchronized (this) {
+            if (second != throttleSecond) {
+                throttleSecond = second;
+                throttleCount = 0;
+            }
+
+            return ++throttleCount <= maxTps;
+        }
+    }
+
+    // runs on the consensus thread
+    private void expireReceipts(Receipt reached) {
+        expiringReceipts.add(reached);
+
+        long now = System.nanoTime();
+
+        for (Receipt oldest = expiringReceipts.peek(); oldest != null && oldest.expiresAtNanos - now < 0;
+             oldest = expiringReceipts.peek()) {
+            receipts.remove(expiringReceipts.poll().transactionId);
+        }
+    }
+
+    @Override
+    public long querySequenceNumber(TransactionId transactionId) {
+        CompletableFuture<Long> receipt = receipts.get(transactionId);
+
+        if (receipt == null) {
+            throw new IllegalStateException("no receipt for transaction " + transactionId);
+        }
+
+        try {
+            return receipt.get(RECEIPT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted waiting for the receipt of transaction " + transactionId, e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IllegalStateException("no receipt for transaction " + transactionId, e);
+        }
+    }
+
+    @Override
+    public Subscription subscribe(ConsensusTopicId topicId, Instant startTime, @Nullable Instant endTime, long limit,
+                                  Observer observer) {
+        Reader reader = new Reader(topic(topicId), startTime, endTime, limit, observer);
+
+        readers.add(reader);
+
+        Thread thread = new Thread(reader, "hcs-simulator-mirror-" + readerCount.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+
+        return reader;
+    }
+
+    @Override
+    public void close() {
+        consensus.shutdownNow();
+
+        for (Reader reader : readers) {
+            reader.unsubscribe();
+        }
+    }
+
+    private static final class Receipt {
+        final TransactionId transactionId;
+        final long expiresAtNanos;
+
+        Receipt(TransactionId transactionId, long expiresAtNanos) {
+            this.transactionId = transactionId;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    private static final class Topic {
+        final ConsensusTopicId topicId;
+
+        // every message that reached consensus, in order; guarded by this
+        final ArrayList<TopicMessage> messages = new ArrayList<>();
+        private Instant lastTimestamp = Instant.EPOCH;
+        private byte[] runningHash = new byte[48];
+
+        Topic(ConsensusTopicId topicId) {
+            this.topicId = topicId;
+        }
+
+        synchronized TopicMessage append(byte[] message, MessageDigest digest) {
+            Instant now = Instant.now();
+            Instant timestamp = now.isAfter(lastTimestamp) ? now : lastTimestamp.plusNanos(1);
+            long sequenceNumber = messages.size() + 1;
+
+            digest.update(runningHash);
+            digest.update(ByteBuffer.allocate(28)
+                    .putLong(topicId.topic)
+                    .putLong(sequenceNumber)
+                    .putLong(timestamp.getEpochSecond())
+                    .putInt(timestamp.getNano())
+                    .array());
+            digest.update(message);
+
+            runningHash = digest.digest();
+            lastTimestamp = timestamp;
+
+            TopicMessage reached = new TopicMessage(sequenceNumber, timestamp, message, runningHash);
+            messages.add(reached);
+
+            notifyAll();
+
+            return reached;
+        }
+
+        // the index of the first message at or after the given time; guarded by this
+        int indexOf(Instant time) {
+            int low = 0;
+            int high = messages.size();
+
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+
+                if (messages.get(mid).consensusTimestamp.isBefore(time)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            return low;
+        }
+
+        // every message appended from now on is at or after this
+        synchronized Instant nextTimestamp() {
+            Instant now = Instant.now();
+
+            return now.isAfter(lastTimestamp) ? now : lastTimestamp.plusNanos(1);
+        }
+    }
+
+    /**
+     * Delivers a topic's messages to one subscriber in order, on a thread of its own.
+     */
+    private final class Reader implements Runnable, Subscription {
+        private final Topic topic;
+        private final Instant startTime;
+
+        @Nullable
+        private final Instant endTime;
+
+        private final long limit;
+        private final Observer observer;
+
+        private volatile boolean unsubscribed;
+
+        Reader(Topic topic, Instant startTime, @Nullable Instant endTime, long limit, Observer observer) {
+            this.topic = topic;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.limit = limit;
+            this.observer = observer;
+        }
+
+        @Override
+        public void run() {
+            try {
+                read();
+            } catch (InterruptedException e) {
+                if (!unsubscribed) {
+                    observer.onError(e);
+                }
+            } finally {
+                readers.remove(this);
+            }
+        }
+
+        private void read() throws InterruptedException {
+            // the mirror node drops a subscription after a random time, on average the interval
+            long disconnectAt = disconnectIntervalMillis > 0
+                    ? System.currentTimeMillis() + ThreadLocalRandom.current().nextLong(2 * disconnectIntervalMillis)
+                    : Long.MAX_VALUE;
+
+            long read = 0;
+            int next;
+
+            synchronized (topic) {
+                next = topic.indexOf(startTime);
+            }
+
+            while (!unsubscribed) {
+                if (System.currentTimeMillis() >= disconnectAt) {
+                    observer.onError(new IllegalStateException(
+                            "simulated mirror node dropped the subscription to topic " + topic.topicId));
+                    return;
+                }
+
+                TopicMessage message;
+
+                synchronized (topic) {
+                    if (next >= topic.messages.size()) {
+                        // nothing else can reach consensus before the end time
+                        if (endTime != null && !topic.nextTimestamp().isBefore(endTime)) {
+                            break;
+                        }
+
+                        long waitMillis = disconnectAt - System.currentTimeMillis();
+
+                        if (endTime != null) {
+                            waitMillis = Math.min(waitMillis, endTime.toEpochMilli() - System.currentTimeMillis() + 1);
+                        }
+
+                        if (waitMillis > 0) {
+                            topic.wait(waitMillis);
+                        }
+
+                        continue;
+                    }
+
+                    message = topic.messages.get(next);
+                }
+
+                if (endTime != null && !message.consensusTimestamp.isBefore(endTime)) {
+                    break;
+                }
+
+                next++;
+                observer.onMessage(message);
+
+                if (duplicateRate > 0 && ThreadLocalRandom.current().nextDouble() < duplicateRate) {
+                    observer.onMessage(message);
+                }
+
+                if (limit > 0 && ++read >= limit) {
+                    break;
+                }
+            }
+
+            if (!unsubscribed) {
+                observer.onCompleted();
+            }
+        }
+
+        @Override
+        public void unsubscribe() {
+            unsubscribed = true;
+
+            synchronized (topic) {
+                topic.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+/**
+ * Helpers for working with state references as raw bytes.
+ */
+final class StateRefs {
+    private StateRefs() {
+    }
+
+    /**
+     * Hash the state with the given transaction ID (at {@code offset} in {@code hash}) and index
+     * for use in an open-addressing table.
+     */
+    static long hash(byte[] hash, int offset, int index) {
+        // the state's transaction ID is already a SHA-256 hash, so its leading bytes are well-mixed
+        long h = ((hash[offset] & 0xFFL) << 56)
+                | ((hash[offset + 1] & 0xFFL) << 48)
+                | ((hash[offset + 2] & 0xFFL) << 40)
+                | ((hash[offset + 3] & 0xFFL) << 32)
+                | ((hash[offset + 4] & 0xFFL) << 24)
+                | ((hash[offset + 5] & 0xFFL) << 16)
+                | ((hash[offset + 6] & 0xFFL) << 8)
+                | (hash[offset + 7] & 0xFFL);
+
+        h ^= index * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 29;
+
+        return h;
+    }
+
+    /**
+     * A second hash of the state, independent of {@link #hash}, for structures that need two.
+     */
+    static long secondHash(byte[] hash, int offset, int index) {
+        long h = ((hash[offset + 8] & 0xFFL) << 56)
+                | ((hash[offset + 9] & 0xFFL) << 48)
+                | ((hash[offset + 10] & 0xFFL) << 40)
+                | ((hash[offset + 11] & 0xFFL) << 32)
+                | ((hash[offset + 12] & 0xFFL) << 24)
+                | ((hash[offset + 13] & 0xFFL) << 16)
+                | ((hash[offset + 14] & 0xFFL) << 8)
+                | (hash[offset + 15] & 0xFFL);
+
+        h ^= index * 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 31;
+
+        return h;
+    }
+
+    /**
+     * The shard, out of {@code shards}, that owns the state with the given transaction ID (at
+     * {@code offset} in {@code hash}) and index.
+     */
+    static int shard(byte[] hash, int offset, int index, int shards) {
+        // the high bits, so shard membership doesn't correlate with the slot in a shard's table
+        return (int) ((hash(hash, offset, index) >>> 33) % shards);
+    }
+
+    /**
+     * Read a big-endian int at {@code offset} in {@code data}.
+     */
+    static int getInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24)
+                | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8)
+                | (data[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Returns true if the 32 bytes at {@code offset} in {@code a} equal those at {@code otherOffset}
+     * in {@code b}.
+     */
+    static boolean hashEquals(byte[] a, int offset, byte[] b, int otherOffset) {
+        for (int i = 0; i < 32; i++) {
+            if (a[offset + i] != b[otherOffset + i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
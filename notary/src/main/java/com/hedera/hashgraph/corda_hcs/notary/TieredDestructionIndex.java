@@ -0,0 +1,873 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.contracts.StateRef;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+
+/**
+ * A persistent destruction index that only keeps the states consumed by recent messages in a hash
+ * table, moving older ones to sorted, memory-mapped {@link ColdSegment}s in the background, so
+ * the memory it needs stays the same however long the notary has been running.
+ *
+ * The hot tier is a {@link PersistentDestructionIndex} of its own, a generation, applied to until
+ * it spans {@code hotMessages} sequence numbers. It is then frozen and a new generation started;
+ * the frozen generation is still looked up while a background thread writes its states to a new
+ * segment, after which it is deleted. Segments are merged whenever the newest is at least half the
+ * size of the one before it, so there are only ever a few and each is larger than those after it.
+ *
+ * A state is looked up in the current generation, then the frozen one, then the segments from
+ * newest to oldest, and the first tier that has it decides. Each lookup holds a reference to the
+ * tiers it started with, so a migrated generation and the segments merged away are only deleted
+ * once no lookup is reading them any more. States consumed in an older tier
+ * aren't applied again, and a state released once it has left the current generation is copied
+ * back into it and released there, so its older destruction is hidden.
+ */
+final class TieredDestructionIndex implements DestructionIndex {
+    private static final Logger logger = LoggerFactory.getLogger(TieredDestructionIndex.class);
+
+    // MANIFEST FORMAT:
+    // int8 magic
+    // int8 current generation
+    // int8 sequence number the current generation started at
+    // int1 1 if the generation before it is frozen, 0 if not
+    // int4 segmentsLen
+    // int8[segmentsLen] segment numbers, newest first
+    // int4 CRC32 of the above
+
+    private static final long MANIFEST_MAGIC = 0x4843535449455231L; // "HCSTIER1"
+
+    // merge the newest segment into the one before it once it's at least this fraction as large
+    private static final int MERGE_RATIO = 2;
+
+    // how long a migration that failed is retried after
+    private static final long RETRY_DELAY_SECONDS = 60;
+
+    private final Path directory;
+    private final long initialCapacity;
+    private final int checkpointInterval;
+    private final long hotMessages;
+
+    private volatile Tiers tiers;
+
+    // only used on the migration thread
+    private long nextSegment;
+
+    // deletions of tiers no lookup is reading any more, waiting for the migration thread; guarded by this
+    private final List<Runnable> pendingDeletes = new ArrayList<>();
+
+    private final ScheduledThreadPoolExecutor migrator;
+
+    // only used on the thread applying messages
+    private final TransactionView copy = new TransactionView();
+
+    private TieredDestructionIndex(Path directory, long initialCapacity, int checkpointInterval, long hotMessages,
+                                   Tiers tiers, long nextSegment) {
+        this.directory = directory;
+        this.initialCapacity = initialCapacity;
+        this.checkpointInterval = checkpointInterval;
+        this.hotMessages = hotMessages;
+        this.tiers = tiers;
+        this.nextSegment = nextSegment;
+
+        this.migrator = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "hcs-tiers-" + directory.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.migrator.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Open the index in the given directory, creating it if it doesn't exist.
+     *
+     * An index written by {@link PersistentDestructionIndex} in the same directory is moved into
+     * a segment first.
+     */
+    static TieredDestructionIndex open(Path directory, long initialCapacity, int checkpointInterval,
+                                       long hotMessages) throws IOException {
+        Files.createDirectories(directory);
+
+        ByteBuffer manifest = readManifest(directory);
+
+        long generation = 0;
+        long generationStart = 0;
+        boolean hasFrozen = false;
+        List<Long> segmentNumbers = new ArrayList<>();
+
+        if (manifest != null) {
+            generation = manifest.getLong();
+            generationStart = manifest.getLong();
+            hasFrozen = manifest.get() != 0;
+
+            for (int i = manifest.getInt(); i > 0; i--) {
+                segmentNumbers.add(manifest.getLong());
+            }
+        }
+
+        // without a manifest, nothing is listed
+        deleteUnlisted(directory, manifest != null ? generation : -1, hasFrozen, segmentNumbers);
+
+        if (manifest == null && Files.exists(directory.resolve("destructions.log"))) {
+            return adopt(directory, initialCapacity, checkpointInterval, hotMessages);
+        }
+
+        PersistentDestructionIndex current = PersistentDestructionIndex.open(
+                generationDirectory(directory, generation), initialCapacity, checkpointInterval, true);
+
+        PersistentDestructionIndex frozen = hasFrozen
+                ? PersistentDestructionIndex.open(generationDirectory(directory, generation - 1), initialCapacity, checkpointInterval, true)
+                : null;
+
+        List<ColdSegment> segments = new ArrayList<>();
+
+        for (long number : segmentNumbers) {
+            segments.add(ColdSegment.open(segmentFile(directory, number)));
+        }
+
+        Tiers tiers = new Tiers(generation, generationStart, current, frozen, segments);
+
+        if (manifest == null) {
+            writeManifest(directory, tiers);
+        }
+
+        long nextSegment = segmentNumbers.isEmpty() ? 0 : Collections.max(segmentNumbers) + 1;
+
+        TieredDestructionIndex index = new TieredDestructionIndex(
+                directory, initialCapacity, checkpointInterval, hotMessages, tiers, nextSegment);
+
+        logger.info("opened tiered destruction index at generation " + generation + " with "
+                + segments.size() + " cold segments");
+
+        if (frozen != null) {
+            index.migrator.execute(index::migrate);
+        }
+
+        return index;
+    }
+
+    /**
+     * Move an index written by {@link PersistentDestructionIndex} into the first segment.
+     */
+    private static TieredDestructionIndex adopt(Path directory, long initialCapacity, int checkpointInterval,
+                                                long hotMessages) throws IOException {
+        logger.info("moving destruction index in " + directory + " to a cold segment");
+
+        PersistentDestructionIndex index = PersistentDestructionIndex.open(directory, initialCapacity, checkpointInterval);
+
+        // nothing is older, so released states can be left out
+        ColdSegment segment = ColdSegment.build(segmentFile(directory, 0), visitor -> index.forEach(visitor::visit));
+
+        PersistentDestructionIndex current = PersistentDestructionIndex.open(
+                generationDirectory(directory, 0), initialCapacity, checkpointInterval, true);
+
+        long sequenceNumber = index.appliedSequenceNumber();
+
+        if (sequenceNumber >= 0) {
+            current.commit(sequenceNumber, index.resumeTimestamp());
+            current.checkpoint();
+        }
+
+        Tiers tiers = new Tiers(0, Math.max(0, sequenceNumber), current, null,
+                Collections.singletonList(segment));
+
+        writeManifest(directory, tiers);
+        index.delete();
+
+        return new TieredDestructionIndex(directory, initialCapacity, checkpointInterval, hotMessages, tiers, 1);
+    }
+
+    @Nullable
+    @Override
+    public StateDestruction get(StateRef stateRef) {
+        Tiers tiers = acquire();
+        byte[] hash = stateRef.getTxhash().getBytes();
+        int index = stateRef.getIndex();
+
+        try {
+            StateDestruction destruction = tiers.current.get(stateRef);
+
+            if (destruction != null || tiers.current.holds(hash, 0, index, false)) {
+                return destruction;
+            }
+
+            return olderDestruction(tiers, hash, 0, index);
+        } finally {
+            release(tiers);
+        }
+    }
+
+    @Nullable
+    @Override
+    public StateDestruction probe(byte[] hash, int offset, int index) {
+        Tiers tiers = acquire();
+
+        try {
+            StateDestruction destruction = tiers.current.probe(hash, offset, index);
+
+            if (destruction != null || tiers.current.holds(hash, offset, index, true)) {
+                return destruction;
+            }
+
+            return olderDestruction(tiers, hash, offset, index);
+        } finally {
+            release(tiers);
+        }
+    }
+
+    @Override
+    public void apply(TransactionView txn, long sequenceNumber) {
+        Tiers tiers = acquire();
+
+        try {
+            apply(tiers, txn, sequenceNumber);
+        } finally {
+            release(tiers);
+        }
+    }
+
+    private void apply(Tiers tiers, TransactionView txn, long sequenceNumber) {
+        byte[] data = txn.data();
+
+        // states consumed in an older tier stay consumed by whatever consumed them there
+        boolean[] keep = null;
+
+        for (int i = 0; i < txn.inputsLen(); i++) {
+            int offset = txn.inputHashOffset(i);
+            int index = txn.inputIndex(i);
+
+            if (!tiers.current.holds(data, offset, index, true) && olderDestruction(tiers, data, offset, index) != null) {
+                if (keep == null) {
+                    keep = new boolean[txn.inputsLen()];
+                    Arrays.fill(keep, true);
+                }
+
+                keep[i] = false;
+            }
+        }
+
+        if (keep == null) {
+            tiers.current.apply(txn, sequenceNumber);
+        } else if (copyInputs(txn, keep)) {
+            tiers.current.apply(copy, sequenceNumber);
+        }
+    }
+
+    @Override
+    public void abort(TransactionView txn, long lockSequenceNumber, long sequenceNumber) {
+        Tiers tiers = acquire();
+
+        try {
+            abort(tiers, txn, lockSequenceNumber, sequenceNumber);
+        } finally {
+            release(tiers);
+        }
+    }
+
+    private void abort(Tiers tiers, TransactionView txn, long lockSequenceNumber, long sequenceNumber) {
+        byte[] data = txn.data();
+
+        // locks that have left the current generation are copied back into it to be released
+        boolean[] moved = null;
+
+        for (int i = 0; i < txn.inputsLen(); i++) {
+            int offset = txn.inputHashOffset(i);
+            int index = txn.inputIndex(i);
+
+            if (tiers.current.holds(data, offset, index, true)) {
+                continue;
+            }
+
+            StateDestruction destruction = olderDestruction(tiers, data, offset, index);
+
+            if (destruction != null
+                    && destruction.sequenceNumber == lockSequenceNumber
+                    && StateRefs.hashEquals(destruction.txnId.getBytes(), 0, data, txn.txnIdOffset())) {
+                if (moved == null) {
+                    moved = new boolean[txn.inputsLen()];
+                }
+
+                moved[i] = true;
+            }
+        }
+
+        tiers.current.abort(txn, lockSequenceNumber, sequenceNumber);
+
+        if (moved != null && copyInputs(txn, moved)) {
+            tiers.current.apply(copy, lockSequenceNumber);
+            tiers.current.abort(copy, lockSequenceNumber, sequenceNumber);
+        }
+    }
+
+    @Override
+    public void commit(long sequenceNumber, Instant resumeTimestamp) {
+        Tiers tiers = this.tiers;
+
+        tiers.current.commit(sequenceNumber, resumeTimestamp);
+
+        if (tiers.frozen == null && sequenceNumber - tiers.generationStart >= hotMessages) {
+            freeze(tiers, sequenceNumber, resumeTimestamp);
+        }
+    }
+
+    @Override
+    public void forEach(Visitor visitor) {
+        Tiers tiers = acquire();
+
+        try {
+            forEach(tiers, visitor);
+        } finally {
+            release(tiers);
+        }
+    }
+
+    private static void forEach(Tiers tiers, Visitor visitor) {
+        PersistentDestructionIndex frozen = tiers.frozen;
+
+        // every tier is visited, skipping the states a newer tier has
+        tiers.current.forEach(visitor);
+
+        if (frozen != null) {
+            frozen.forEach((hash, index, txnId, sequenceNumber) -> {
+                if (!tiers.current.holds(hash, 0, index, true)) {
+                    visitor.visit(hash, index, txnId, sequenceNumber);
+                }
+            });
+        }
+
+        for (int s = 0; s < tiers.segments.size(); s++) {
+            int newerSegments = s;
+
+            tiers.segments.get(s).forEach((hash, index, txnId, sequenceNumber) -> {
+                if (sequenceNumber != ColdSegment.RELEASED && !heldAbove(tiers, newerSegments, hash, index)) {
+                    visitor.visit(hash, index, txnId, sequenceNumber);
+                }
+            });
+        }
+    }
+
+    @Override
+    public long appliedSequenceNumber() {
+        return tiers.current.appliedSequenceNumber();
+    }
+
+    @Nullable
+    @Override
+    public Instant resumeTimestamp() {
+        return tiers.current.resumeTimestamp();
+    }
+
+    /**
+     * The number of consumed states in this index, counting a state once for each tier it is in.
+     */
+    @Override
+    public long size() {
+        Tiers tiers = acquire();
+
+        try {
+            long size = tiers.current.size() + (tiers.frozen != null ? tiers.frozen.size() : 0);
+
+            for (ColdSegment segment : tiers.segments) {
+                size += segment.entriesLen;
+            }
+
+            return size;
+        } finally {
+            release(tiers);
+        }
+    }
+
+    @Override
+    public long memoryBytes() {
+        // the segments are only ever in the page cache
+        Tiers tiers = acquire();
+
+        try {
+            return tiers.current.memoryBytes() + (tiers.frozen != null ? tiers.frozen.memoryBytes() : 0);
+        } finally {
+            release(tiers);
+        }
+    }
+
+    /**
+     * Stop migrating, waiting for a migration in progress to finish, and close every tier.
+     */
+    @Override
+    public void close() {
+        migrator.shutdown();
+
+        try {
+            if (!migrator.awaitTermination(1, TimeUnit.SECONDS)) {
+                logger.info("waiting for destruction index migration in " + directory + " to finish");
+                migrator.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Tiers tiers = this.tiers;
+
+        tiers.current.close();
+
+        if (tiers.frozen != null) {
+            tiers.frozen.close();
+        }
+
+        List<Runnable> deletes;
+
+        synchronized (this) {
+            deletes = new ArrayList<>(pendingDeletes);
+            pendingDeletes.clear();
+        }
+
+        deletes.forEach(Runnable::run);
+    }
+
+    /**
+     * Start a new generation with the same commit as the current one, and migrate the current one
+     * to a segment.
+     */
+    private void freeze(Tiers tiers, long sequenceNumber, Instant resumeTimestamp) {
+        long generation = tiers.generation + 1;
+
+        try {
+            tiers.current.checkpoint();
+
+            PersistentDestructionIndex next = PersistentDestructionIndex.open(
+                    generationDirectory(directory, generation), initialCapacity, checkpointInterval, true);
+
+            next.commit(sequenceNumber, resumeTimestamp);
+            next.checkpoint();
+
+            synchronized (this) {
+                Tiers nextTiers = new Tiers(generation, sequenceNumber, next, tiers.current, this.tiers.segments);
+
+                writeManifest(directory, nextTiers);
+                replace(nextTiers, null);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to start a new generation of the destruction index", e);
+        }
+
+        logger.info("froze destruction index generation " + tiers.generation + " with "
+                + tiers.current.size() + " consumed states at sequence number " + sequenceNumber);
+
+        migrator.execute(this::migrate);
+    }
+
+    /**
+     * Write the frozen generation to a new segment, merge segments as needed and then swap the
+     * result in for the frozen generation and the segments merged.
+     */
+    private void migrate() {
+        Tiers tiers = this.tiers;
+        PersistentDestructionIndex frozen = tiers.frozen;
+
+        if (frozen == null) {
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+        List<ColdSegment> created = new ArrayList<>();
+        List<ColdSegment> segments = new ArrayList<>(tiers.segments);
+
+        try {
+            // released states only matter while there are older states for them to hide
+            boolean keepReleased = !tiers.segments.isEmpty();
+
+            ColdSegment segment = ColdSegment.build(segmentFile(directory, nextSegment++), visitor -> {
+                frozen.forEach(visitor::visit);
+
+                if (keepReleased) {
+                    frozen.forEachReleased((hash, index) -> ColdSegment.visitReleased(visitor, hash, index));
+                }
+            });
+
+            created.add(segment);
+            segments.add(0, segment);
+
+            while (segments.size() > 1 && segments.get(0).entriesLen * MERGE_RATIO >= segments.get(1).entriesLen) {
+                ColdSegment newer = segments.remove(0);
+                ColdSegment older = segments.remove(0);
+
+                ColdSegment merged = ColdSegment.merge(segmentFile(directory, nextSegment++), newer, older, segments.isEmpty());
+
+                created.add(merged);
+                segments.add(0, merged);
+            }
+
+            List<ColdSegment> replaced = new ArrayList<>(tiers.segments);
+            replaced.addAll(created);
+            replaced.removeAll(segments);
+
+            synchronized (this) {
+                Tiers current = this.tiers;
+                Tiers migrated = new Tiers(current.generation, current.generationStart, current.current, null, segments);
+
+                writeManifest(directory, migrated);
+                replace(migrated, () -> {
+                    try {
+                        frozen.delete();
+
+                        for (ColdSegment old : replaced) {
+                            Files.deleteIfExists(old.file);
+                        }
+                    } catch (IOException | UncheckedIOException e) {
+                        logger.warn("failed to delete migrated destruction index files in " + directory, e);
+                    }
+                });
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("failed to migrate destruction index generation " + (tiers.generation - 1) + ", retrying", e);
+
+            for (ColdSegment segment : created) {
+                try {
+                    Files.deleteIfExists(segment.file);
+                } catch (IOException ignored) {
+                    // deleted on the next start instead
+                }
+            }
+
+            if (!migrator.isShutdown()) {
+                migrator.schedule(this::migrate, RETRY_DELAY_SECONDS, TimeUnit.SECONDS);
+            }
+
+            return;
+        }
+
+        logger.info("migrated destruction index generation " + (tiers.generation - 1) + " to a cold segment in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms; "
+                + segments.size() + " cold segments now");
+    }
+
+    /**
+     * The current tiers, which stay open until {@link #release}d.
+     */
+    private Tiers acquire() {
+        while (true) {
+            Tiers tiers = this.tiers;
+
+            if (tiers.retain()) {
+                return tiers;
+            }
+
+            // replaced and retired in between, so the new tiers are set by now
+        }
+    }
+
+    private void release(Tiers tiers) {
+        if (tiers.references.decrementAndGet() != 0) {
+            return;
+        }
+
+        // no lookup is reading these tiers any more, nor any older ones
+        Runnable onRetired = tiers.onRetired;
+
+        if (onRetired != null) {
+            deleteLater(onRetired);
+        }
+
+        Tiers next = tiers.next;
+
+        if (next != null) {
+            release(next);
+        }
+    }
+
+    /**
+     * Swap in new tiers, running {@code onRetired} once no lookup is reading the ones replaced,
+     * or any older ones.
+     */
+    private void replace(Tiers next, @Nullable Runnable onRetired) {
+        synchronized (this) {
+            Tiers previous = this.tiers;
+
+            previous.onRetired = onRetired;
+            previous.next = next;
+
+            // held until the tiers before it are retired, so they retire in order
+            next.references.incrementAndGet();
+            this.tiers = next;
+
+            release(previous);
+        }
+    }
+
+    private void deleteLater(Runnable delete) {
+        synchronized (this) {
+            pendingDeletes.add(delete);
+        }
+
+        try {
+            migrator.execute(() -> {
+                synchronized (this) {
+                    if (!pendingDeletes.remove(delete)) {
+                        return;
+                    }
+                }
+
+                delete.run();
+            });
+        } catch (RejectedExecutionException e) {
+            // closing, which deletes it instead
+        }
+    }
+
+    /**
+     * The given inputs of the view's current record, as a record of the same transaction in
+     * {@link #copy}.
+     *
+     * @return false if there are none.
+     */
+    private boolean copyInputs(TransactionView txn, boolean[] inputs) {
+        byte[] data = txn.data();
+        int inputsLen = 0;
+
+        for (boolean input : inputs) {
+            inputsLen += input ? 1 : 0;
+        }
+
+        if (inputsLen == 0) {
+            return false;
+        }
+
+        // a bare v1 record, with no reference states
+        ByteBuffer record = ByteBuffer.allocate(32 + 4 + 4 + inputsLen * 36);
+
+        record.put(data, txn.txnIdOffset(), 32);
+        record.putInt(inputsLen);
+        record.putInt(0);
+
+        for (int i = 0; i < inputs.length; i++) {
+            if (inputs[i]) {
+                record.put(data, txn.inputHashOffset(i), 32);
+                record.putInt(txn.inputIndex(i));
+            }
+        }
+
+        copy.wrap(record.array());
+        copy.next();
+
+        return true;
+    }
+
+    /**
+     * The destruction of the state in the tiers older than the current generation, or null if
+     * it isn't consumed there.
+     */
+    @Nullable
+    private static StateDestruction olderDestruction(Tiers tiers, byte[] hash, int offset, int index) {
+        // frozen generations aren't applied to any more, so there's nothing pending in them
+        if (tiers.frozen != null) {
+            StateDestruction destruction = tiers.frozen.get(hash, offset, index);
+
+            if (destruction != null || tiers.frozen.holds(hash, offset, index, false)) {
+                return destruction;
+            }
+        }
+
+        for (ColdSegment segment : tiers.segments) {
+            long entry = segment.find(hash, offset, index);
+
+            if (entry >= 0) {
+                return segment.destruction(entry);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns true if a tier newer than the segment at {@code segment} has the state.
+     */
+    private static boolean heldAbove(Tiers tiers, int segment, byte[] hash, int index) {
+        if (tiers.current.holds(hash, 0, index, true)
+                || (tiers.frozen != null && tiers.frozen.holds(hash, 0, index, false))) {
+            return true;
+        }
+
+        for (int s = 0; s < segment; s++) {
+            if (tiers.segments.get(s).find(hash, 0, index) >= 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static Path generationDirectory(Path directory, long generation) {
+        return directory.resolve("generation-" + generation);
+    }
+
+    private static Path segmentFile(Path directory, long number) {
+        return directory.resolve("segment-" + number + ".cold");
+    }
+
+    /**
+     * Delete the generations and segments the manifest doesn't list, left by a crash.
+     */
+    private static void deleteUnlisted(Path directory, long generation, boolean hasFrozen,
+                                       List<Long> segmentNumbers) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "{generation-*,segment-*}")) {
+            for (Path file : files) {
+                boolean listed = file.equals(generationDirectory(directory, generation))
+                        || (hasFrozen && file.equals(generationDirectory(directory, generation - 1)));
+
+                for (long number : segmentNumbers) {
+                    listed |= file.equals(segmentFile(directory, number));
+                }
+
+                if (listed) {
+                    continue;
+                }
+
+                if (Files.isDirectory(file)) {
+                    try (DirectoryStream<Path> children = Files.newDirectoryStream(file)) {
+                        for (Path child : children) {
+                            Files.delete(child);
+                        }
+                    }
+                }
+
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Nullable
+    private static ByteBuffer readManifest(Path directory) throws IOException {
+        byte[] bytes;
+
+        try {
+            bytes = Files.readAllBytes(directory.resolve("tiers"));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, Math.max(0, bytes.length - 4));
+
+        if (bytes.length < 8 + 8 + 8 + 1 + 4 + 4
+                || in.getLong() != MANIFEST_MAGIC
+                || in.getInt(bytes.length - 4) != (int) crc.getValue()) {
+            // unlike a checkpoint, the manifest can't be rebuilt
+            throw new IOException("corrupt destruction index manifest in " + directory);
+        }
+
+        return in;
+    }
+
+    private static void writeManifest(Path directory, Tiers tiers) throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(8 + 8 + 8 + 1 + 4 + tiers.segments.size() * 8 + 4);
+
+        out.putLong(MANIFEST_MAGIC);
+        out.putLong(tiers.generation);
+        out.putLong(tiers.generationStart);
+        out.put((byte) (tiers.frozen != null ? 1 : 0));
+        out.putInt(tiers.segments.size());
+
+        for (ColdSegment segment : tiers.segments) {
+            String name = segment.file.getFileName().toString();
+            out.putLong(Long.parseLong(name.substring("segment-".length(), name.length() - ".cold".length())));
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), 0, out.position());
+        out.putInt((int) crc.getValue());
+
+        Path tmp = directory.resolve("tiers.tmp");
+
+        out.flip();
+
+        try (FileChannel channel = FileChannel.open(tmp,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+
+            channel.force(true);
+        }
+
+        Files.move(tmp, directory.resolve("tiers"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * The tiers at one point in time; replaced as a whole so lookups see a consistent set.
+     */
+    private static final class Tiers {
+        // one for each lookup using them, plus one while they are current and one while the
+        // tiers they replaced aren't retired yet
+        final AtomicInteger references = new AtomicInteger(1);
+
+        // set once replaced, before the reference for being current is released
+        @Nullable
+        volatile Tiers next;
+        @Nullable
+        volatile Runnable onRetired;
+
+        final long generation;
+        final long generationStart;
+
+        final PersistentDestructionIndex current;
+
+        @Nullable
+        final PersistentDestructionIndex frozen;
+
+        // newest first
+        final List<ColdSegment> segments;
+
+        Tiers(long generation, long generationStart, PersistentDestructionIndex current,
+              @Nullable PersistentDestructionIndex frozen, List<ColdSegment> segments) {
+            this.generation = generation;
+            this.generationStart = generationStart;
+            this.current = current;
+            this.frozen = frozen;
+            this.segments = segments;
+        }
+
+        /**
+         * Take a reference to these tiers, unless they are already retired.
+         */
+        boolean retain() {
+            while (true) {
+                int count = references.get();
+
+                if (count == 0) {
+                    return false;
+                }
+
+                if (references.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
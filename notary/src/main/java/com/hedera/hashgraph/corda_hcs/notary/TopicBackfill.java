@@ -0,0 +1,330 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import com.hedera.hashgraph.sdk.consensus.ConsensusTopicId;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Reads ranges of a topic's history from the mirror node, several queries at a time.
+ *
+ * A range is read by one query at first; once that query returns as many messages as it may,
+ * what is left of the range is split into as many parts as queries may run at once, each read by
+ * its own query (and split again the same way if need be). The messages of every part are
+ * buffered until those of the parts before it have been passed on, so they're still passed on in
+ * consensus order.
+ */
+final class TopicBackfill {
+    private static final Logger logger = LoggerFactory.getLogger(TopicBackfill.class);
+
+    // how long a query that failed is retried after
+    private static final long RETRY_DELAY_MILLIS = 1_000;
+
+    // how long fetching a few messages may take
+    private static final long FETCH_TIMEOUT_SECONDS = 30;
+
+    private final HcsTransport transport;
+    private final int parallelQueries;
+    private final int queryLimit;
+    private final ScheduledExecutorService scheduler;
+
+    TopicBackfill(HcsTransport transport, HcsConfig hcsConfig, ScheduledExecutorService scheduler) {
+        this.transport = transport;
+        this.parallelQueries = hcsConfig.bootstrapParallelQueries;
+        this.queryLimit = hcsConfig.bootstrapQueryLimit;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Read the messages of the topic with consensus timestamps from {@code startTime} up to
+     * {@code endTime} and pass them to the consumer in order, on a thread of its own.
+     *
+     * @return a future that completes once every message has been passed on; cancelling it stops
+     * reading.
+     */
+    CompletableFuture<Void> read(String name, ConsensusTopicId topicId, Instant startTime, Instant endTime,
+                                 Consumer<TopicMessage> consumer) {
+        Read read = new Read(topicId, startTime, endTime, consumer);
+
+        Thread thread = new Thread(read, name);
+        thread.setDaemon(true);
+        thread.start();
+
+        return read.done;
+    }
+
+    /**
+     * Fetch up to {@code limit} messages of the topic with consensus timestamps from
+     * {@code startTime} up to {@code endTime}, blocking until they're all returned.
+     */
+    List<TopicMessage> fetch(ConsensusTopicId topicId, Instant startTime, Instant endTime, long limit) {
+        List<TopicMessage> messages = new ArrayList<>();
+        CompletableFuture<List<TopicMessage>> fetched = new CompletableFuture<>();
+
+        HcsTransport.Subscription subscription = transport.subscribe(topicId, startTime, endTime, limit,
+                new HcsTransport.Observer() {
+                    @Override
+                    public void onMessage(TopicMessage message) {
+                        messages.add(message);
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        fetched.completeExceptionally(e);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        fetched.complete(messages);
+                    }
+                });
+
+        try {
+            return fetched.get(FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted fetching messages of topic " + topicId, e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IllegalStateException("failed to fetch messages of topic " + topicId, e);
+        } finally {
+            subscription.unsubscribe();
+        }
+    }
+
+    /**
+     * Part of the range being read, and the messages read from it that haven't been passed on.
+     */
+    private static final class Part {
+        Instant startTime;
+        final Instant endTime;
+
+        final ArrayDeque<TopicMessage> messages = new ArrayDeque<>();
+
+        boolean querying;
+        boolean retrying;
+        boolean complete;
+
+        // by the current query
+        long received;
+        Instant lastTimestamp;
+
+        Part(Instant startTime, Instant endTime) {
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }
+    }
+
+    private final class Read implements Runnable {
+        private final ConsensusTopicId topicId;
+        private final Consumer<TopicMessage> consumer;
+
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        // the parts still to be passed on, in order; guarded by this
+        private final LinkedList<Part> parts = new LinkedList<>();
+
+        // the queries in flight, cancelled once done; guarded by this
+        private final Map<Part, HcsTransport.Subscription> queries = new IdentityHashMap<>();
+
+        Read(ConsensusTopicId topicId, Instant startTime, Instant endTime, Consumer<TopicMessage> consumer) {
+            this.topicId = topicId;
+            this.consumer = consumer;
+
+            if (startTime.isBefore(endTime)) {
+                parts.add(new Part(startTime, endTime));
+            }
+
+            done.whenComplete((v, e) -> {
+                synchronized (this) {
+                    for (HcsTransport.Subscription query : queries.values()) {
+                        query.unsubscribe();
+                    }
+
+                    queries.clear();
+                    notifyAll();
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            long startNanos = System.nanoTime();
+            long passedOn = 0;
+
+            logger.info("reading the history of topic " + topicId);
+
+            try {
+                while (!done.isDone()) {
+                    TopicMessage message;
+
+                    synchronized (this) {
+                        Part head = parts.peekFirst();
+
+                        if (head == null) {
+                            break;
+                        }
+
+                        message = head.messages.poll();
+
+                        if (message == null) {
+                            if (head.complete) {
+                                parts.removeFirst();
+                            } else {
+                                startQueries();
+                                wait();
+                            }
+
+                            continue;
+                        }
+                    }
+
+                    consumer.accept(message);
+                    passedOn++;
+                }
+            } catch (InterruptedException | RuntimeException e) {
+                done.completeExceptionally(e);
+                return;
+            }
+
+            if (done.complete(null)) {
+                logger.info("read " + passedOn + " messages of topic " + topicId + " in "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms");
+            }
+        }
+
+        // guarded by this
+        private void startQueries() {
+            for (Part part : parts) {
+                if (queries.size() >= parallelQueries || done.isDone()) {
+                    return;
+                }
+
+                if (part.querying || part.retrying || part.complete) {
+                    continue;
+                }
+
+                part.querying = true;
+                part.received = 0;
+
+                queries.put(part, transport.subscribe(topicId, part.startTime, part.endTime, queryLimit, new Observer(part)));
+            }
+        }
+
+        private synchronized void received(Part part, TopicMessage message) {
+            part.messages.add(message);
+            part.received++;
+            part.lastTimestamp = message.consensusTimestamp;
+
+            if (part == parts.peekFirst()) {
+                notifyAll();
+            }
+        }
+
+        private synchronized void completed(Part part) {
+            part.querying = false;
+            part.complete = true;
+            queries.remove(part);
+
+            if (part.received >= queryLimit) {
+                // there may be more, which are read in parts of their own
+                Instant remainderStart = part.lastTimestamp.plusNanos(1);
+
+                if (remainderStart.isBefore(part.endTime)) {
+                    ListIterator<Part> after = parts.listIterator(parts.indexOf(part) + 1);
+
+                    for (Part remainder : split(remainderStart, part.endTime, parallelQueries)) {
+                        after.add(remainder);
+                    }
+                }
+            }
+
+            startQueries();
+            notifyAll();
+        }
+
+        private synchronized void failed(Part part, Throwable e) {
+            part.querying = false;
+            queries.remove(part);
+
+            if (done.isDone()) {
+                return;
+            }
+
+            logger.warn("error reading the history of topic " + topicId + ", retrying", e);
+
+            // what was received already is kept
+            if (part.received > 0) {
+                part.startTime = part.lastTimestamp.plusNanos(1);
+            }
+
+            part.retrying = true;
+
+            scheduler.schedule(() -> {
+                synchronized (this) {
+                    part.retrying = false;
+                    startQueries();
+                }
+            }, RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        private final class Observer implements HcsTransport.Observer {
+            private final Part part;
+
+            Observer(Part part) {
+                this.part = part;
+            }
+
+            @Override
+            public void onMessage(TopicMessage message) {
+                received(part, message);
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                failed(part, e);
+            }
+
+            @Override
+            public void onCompleted() {
+                completed(part);
+            }
+        }
+    }
+
+    private static List<Part> split(Instant startTime, Instant endTime, int partsLen) {
+        long nanos = Duration.between(startTime, endTime).toNanos();
+        long step = Math.max(1, nanos / partsLen);
+
+        List<Part> parts = new ArrayList<>(partsLen);
+        Instant partStart = startTime;
+
+        while (partStart.isBefore(endTime)) {
+            Instant partEnd = parts.size() == partsLen - 1 ? endTime : partStart.plusNanos(step);
+
+            if (partEnd.isAfter(endTime)) {
+                partEnd = endTime;
+            }
+
+            parts.add(new Part(partStart, partEnd));
+            partStart = partEnd;
+        }
+
+        return parts;
+    }
+}
@@ -0,0 +1,37 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import com.hedera.hashgraph.proto.mirror.ConsensusTopicResponse;
+
+import java.time.Instant;
+
+/**
+ * A message read from an HCS topic, however it was delivered.
+ */
+final class TopicMessage {
+    final long sequenceNumber;
+    final Instant consensusTimestamp;
+    final byte[] message;
+    final byte[] runningHash;
+
+    TopicMessage(long sequenceNumber, Instant consensusTimestamp, byte[] message, byte[] runningHash) {
+        this.sequenceNumber = sequenceNumber;
+        this.consensusTimestamp = consensusTimestamp;
+        this.message = message;
+        this.runningHash = runningHash;
+    }
+
+    static TopicMessage of(ConsensusTopicResponse response) {
+        return new TopicMessage(
+                response.getSequenceNumber(),
+                Instant.ofEpochSecond(response.getConsensusTimestamp().getSeconds(), response.getConsensusTimestamp().getNanos()),
+                response.getMessage().toByteArray(),
+                response.getRunningHash().toByteArray());
+    }
+
+    @Override
+    public String toString() {
+        return "TopicMessage{sequenceNumber=" + sequenceNumber
+                + ", consensusTimestamp=" + consensusTimestamp
+                + ", messageLen=" + message.length + "}";
+    }
+}
@@ -0,0 +1,282 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import com.hedera.hashgraph.sdk.consensus.ConsensusTopicId;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * A signed copy of a shard's destruction index as of one of its topic's messages, from which a
+ * new notary can be bootstrapped instead of replaying the topic's entire history.
+ *
+ * Besides the consumed states, a snapshot records the sequence number, consensus timestamp and
+ * running hash of the last message it includes. The running hash covers every message up to that
+ * one, so checking it against the mirror node shows the snapshot was taken of the same topic.
+ */
+final class TopicSnapshot {
+    private static final Logger logger = LoggerFactory.getLogger(TopicSnapshot.class);
+
+    // SNAPSHOT FORMAT:
+    // int8 magic
+    // int8 topic shard
+    // int8 topic realm
+    // int8 topic number
+    // int8 sequence number of the last message included
+    // int8 its consensus timestamp seconds
+    // int4 its consensus timestamp nanos
+    // int4 runningHashLen
+    // byte[runningHashLen] its running hash
+    // int8 resume timestamp seconds
+    // int4 resume timestamp nanos
+    //
+    // for each consumed state:
+    //   byte[32] transaction ID of the state
+    //   int4 state index
+    //   byte[32] ID of the transaction consuming it
+    //   int8 sequence number of the message consuming it
+    //
+    // int8 number of consumed states
+    // byte[64] Ed25519 signature of the SHA-256 hash of everything above
+
+    private static final long MAGIC = 0x484353534e415031L; // "HCSSNAP1"
+
+    private static final int STATE_SIZE = 32 + 4 + 32 + 8;
+    private static final int TRAILER_SIZE = 8 + 64;
+
+    // states loaded between commits of the index, so its log is flushed as it goes
+    private static final int LOAD_COMMIT_INTERVAL = 10_000;
+
+    /**
+     * The sequence number an index is committed at while a snapshot is loaded into it, which no
+     * topic message has.
+     */
+    static final long LOADING_SEQUENCE_NUMBER = 0;
+
+    private TopicSnapshot() {
+    }
+
+    /**
+     * Write a snapshot of the index, which must not change until this returns.
+     *
+     * @param lastApplied the last message applied to the index.
+     */
+    static void write(Path file, ConsensusTopicId topicId, TopicMessage lastApplied, Instant resumeTimestamp,
+                      DestructionIndex index, byte[] privateKey) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        MessageDigest digest = sha256();
+
+        long[] count = new long[1];
+
+        try (DigestOutputStream digestOut = new DigestOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16), digest);
+             DataOutputStream out = new DataOutputStream(digestOut)) {
+            out.writeLong(MAGIC);
+            out.writeLong(topicId.shard);
+            out.writeLong(topicId.realm);
+            out.writeLong(topicId.topic);
+            out.writeLong(lastApplied.sequenceNumber);
+            out.writeLong(lastApplied.consensusTimestamp.getEpochSecond());
+            out.writeInt(lastApplied.consensusTimestamp.getNano());
+            out.writeInt(lastApplied.runningHash.length);
+            out.write(lastApplied.runningHash);
+            out.writeLong(resumeTimestamp.getEpochSecond());
+            out.writeInt(resumeTimestamp.getNano());
+
+            try {
+                index.forEach((hash, stateIndex, txnId, sequenceNumber) -> {
+                    try {
+                        out.write(hash);
+                        out.writeInt(stateIndex);
+                        out.write(txnId);
+                        out.writeLong(sequenceNumber);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+
+                    count[0]++;
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            out.writeLong(count[0]);
+            out.flush();
+
+            // the signature itself isn't covered by the digest
+            digestOut.on(false);
+            out.write(SigningUtils.sign(privateKey, digest.digest()));
+        }
+
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        logger.info("wrote snapshot of " + count[0] + " consumed states up to message "
+                + lastApplied.sequenceNumber + " of topic " + topicId + " to " + file);
+    }
+
+    /**
+     * Check the snapshot's signature and load its states into an empty index.
+     *
+     * While the states are loaded the index is committed at {@link #LOADING_SEQUENCE_NUMBER}, so an
+     * interrupted load can be told apart from a complete one.
+     *
+     * @param topicId        the shard's topic, which the snapshot must have been taken of.
+     * @param checkWatermark called with the last message included in the snapshot before any
+     *                       state is loaded; throws if it doesn't match the topic.
+     * @return the last message included in the snapshot, without its contents.
+     */
+    static TopicMessage load(Path file, ConsensusTopicId topicId, DestructionIndex index, byte[] publicKey,
+                             Consumer<TopicMessage> checkWatermark) throws IOException {
+        long size = Files.size(file);
+
+        verify(file, size, publicKey);
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readLong() != MAGIC) {
+                throw new IOException(file + " is not a snapshot");
+            }
+
+            ConsensusTopicId snapshotTopicId = new ConsensusTopicId(in.readLong(), in.readLong(), in.readLong());
+
+            if (!snapshotTopicId.equals(topicId)) {
+                throw new IOException(file + " is a snapshot of topic " + snapshotTopicId + ", not " + topicId);
+            }
+
+            long sequenceNumber = in.readLong();
+            Instant consensusTimestamp = Instant.ofEpochSecond(in.readLong(), in.readInt());
+
+            int runningHashLen = in.readInt();
+
+            if (runningHashLen < 0 || runningHashLen > 64) {
+                throw new IOException(file + " is not a snapshot");
+            }
+
+            byte[] runningHash = new byte[runningHashLen];
+            in.readFully(runningHash);
+
+            Instant resumeTimestamp = Instant.ofEpochSecond(in.readLong(), in.readInt());
+
+            TopicMessage watermark = new TopicMessage(sequenceNumber, consensusTimestamp, new byte[0], runningHash);
+            checkWatermark.accept(watermark);
+
+            long headerSize = 8 * 5 + 8 + 4 + 4 + runningHashLen + 8 + 4;
+            long statesSize = size - headerSize - TRAILER_SIZE;
+
+            if (statesSize < 0 || statesSize % STATE_SIZE != 0) {
+                throw new IOException(file + " is truncated");
+            }
+
+            long statesLen = statesSize / STATE_SIZE;
+
+            // checked up front, so a snapshot cut short between states leaves the index untouched
+            if (stateCount(file, size) != statesLen) {
+                throw new IOException(file + " is truncated");
+            }
+
+            // each state is applied as a bare v1 record consuming just that state
+            byte[] record = new byte[40 + 36];
+            ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+            recordBuffer.putInt(32, 1);
+            recordBuffer.putInt(36, 0);
+
+            TransactionView view = new TransactionView();
+
+            for (long i = 0; i < statesLen; i++) {
+                in.readFully(record, 40, 36);
+                in.readFully(record, 0, 32);
+
+                long consumedAt = in.readLong();
+
+                view.wrap(record);
+                view.next();
+                index.apply(view, consumedAt);
+
+                if ((i + 1) % LOAD_COMMIT_INTERVAL == 0) {
+                    index.commit(LOADING_SEQUENCE_NUMBER, Instant.EPOCH);
+                }
+            }
+
+            if (in.readLong() != statesLen) {
+                throw new IOException(file + " is truncated");
+            }
+
+            index.commit(sequenceNumber, resumeTimestamp);
+
+            logger.info("loaded snapshot of " + statesLen + " consumed states up to message " + sequenceNumber
+                    + " of topic " + snapshotTopicId + " from " + file);
+
+            return watermark;
+        }
+    }
+
+    private static void verify(Path file, long size, byte[] publicKey) throws IOException {
+        if (size < TRAILER_SIZE) {
+            throw new IOException(file + " is truncated");
+        }
+
+        MessageDigest digest = sha256();
+        byte[] signature = new byte[64];
+
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buf = new byte[1 << 16];
+            long left = size - signature.length;
+
+            while (left > 0) {
+                int read = in.read(buf, 0, (int) Math.min(buf.length, left));
+
+                if (read < 0) {
+                    throw new IOException(file + " is truncated");
+                }
+
+                digest.update(buf, 0, read);
+                left -= read;
+            }
+
+            new DataInputStream(in).readFully(signature);
+        }
+
+        if (!SigningUtils.verify(publicKey, digest.digest(), signature)) {
+            throw new IOException(file + " is not signed by the configured snapshot key");
+        }
+    }
+
+    private static long stateCount(Path file, long size) throws IOException {
+        ByteBuffer count = ByteBuffer.allocate(8);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (count.hasRemaining()) {
+                if (channel.read(count, size - TRAILER_SIZE + count.position()) < 0) {
+                    throw new IOException(file + " is truncated");
+                }
+            }
+        }
+
+        return count.getLong(0);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
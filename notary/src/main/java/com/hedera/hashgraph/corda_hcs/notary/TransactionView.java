@@ -0,0 +1,312 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A reusable flyweight over the records of a serialized HCS message (see
+ * {@link SerializeTransaction} for the formats) which reads them in place.
+ *
+ * Every record is decoded when the view is pointed at a message, so a message can be decoded on
+ * one thread and its records walked on another. Transaction IDs are exposed as offsets into
+ * {@link #data()} rather than as {@link SecureHash} objects, so decoding allocates nothing once the
+ * view's arrays are large enough. A view is not thread-safe.
+ */
+final class TransactionView {
+    private byte[] data;
+
+    private boolean compact;
+    private boolean hasKinds;
+
+    // v2 only
+    private int hashesOffset;
+    private int hashesLen;
+
+    // decoding position in data
+    private int position;
+
+    private int recordsLen;
+    private int record;
+
+    // per record
+    private byte[] kinds = new byte[4];
+    private long[] lockSequenceNumbers = new long[4];
+    private int[] txnIdOffsets = new int[4];
+    private int[] statesStarts = new int[4];
+    private int[] inputsLens = new int[4];
+    private int[] refsLens = new int[4];
+
+    // the inputs then the refs of each record, in order
+    private int statesLen;
+    private int[] stateHashOffsets = new int[32];
+    private int[] stateIndices = new int[32];
+
+    /**
+     * Point this view at a new message and decode its records, positioned before the first.
+     *
+     * @throws IllegalArgumentException if the message is malformed or has an unsupported version.
+     */
+    TransactionView wrap(byte[] data) {
+        this.data = data;
+
+        compact = false;
+        hasKinds = false;
+        recordsLen = 0;
+        record = -1;
+        statesLen = 0;
+
+        try {
+            int recordsLeft;
+
+            if (SerializeTransaction.isRecord(data, data.length)) {
+                position = 0;
+                recordsLeft = 1;
+            } else if (data.length > 0 && data[0] == SerializeTransaction.VERSION_BATCH) {
+                position = 1 + 4;
+                recordsLeft = readInt(1);
+            } else if (data.length > 0 && (data[0] == SerializeTransaction.VERSION_COMPACT
+                    || data[0] == SerializeTransaction.VERSION_COMPACT_KINDS)) {
+                compact = true;
+                hasKinds = data[0] == SerializeTransaction.VERSION_COMPACT_KINDS;
+                position = 1;
+                hashesLen = readVarint();
+
+                // checked before it's multiplied, which could overflow
+                if (hashesLen < 0 || hashesLen > (data.length - position) / 32) {
+                    throw new IllegalArgumentException("hash table of " + hashesLen + " hashes overruns message of "
+                            + data.length + " bytes");
+                }
+
+                hashesOffset = position;
+                position += hashesLen * 32;
+                recordsLeft = readVarint();
+            } else {
+                throw new IllegalArgumentException("unsupported message version " + (data.length > 0 ? data[0] : -1));
+            }
+
+            if (recordsLeft < 0) {
+                throw new IllegalArgumentException("negative record count " + recordsLeft);
+            }
+
+            while (recordsLeft-- > 0) {
+                decodeRecord();
+            }
+        } catch (IndexOutOfBoundsException e) {
+            recordsLen = 0;
+            throw new IllegalArgumentException("truncated message of " + data.length + " bytes", e);
+        } catch (IllegalArgumentException e) {
+            recordsLen = 0;
+            throw e;
+        }
+
+        return this;
+    }
+
+    /**
+     * Move to the next record in the message.
+     *
+     * @return false if there are no more records.
+     */
+    boolean next() {
+        if (record + 1 >= recordsLen) {
+            return false;
+        }
+
+        record++;
+
+        return true;
+    }
+
+    private void decodeRecord() {
+        if (kinds.length == recordsLen) {
+            int len = recordsLen * 2;
+
+            kinds = Arrays.copyOf(kinds, len);
+            lockSequenceNumbers = Arrays.copyOf(lockSequenceNumbers, len);
+            txnIdOffsets = Arrays.copyOf(txnIdOffsets, len);
+            statesStarts = Arrays.copyOf(statesStarts, len);
+            inputsLens = Arrays.copyOf(inputsLens, len);
+            refsLens = Arrays.copyOf(refsLens, len);
+        }
+
+        int r = recordsLen;
+
+        byte kind = SerializeTransaction.RECORD_APPLY;
+        long lockSequenceNumber = -1;
+
+        if (hasKinds) {
+            kind = data[position++];
+
+            if (SerializeTransaction.namesLock(kind)) {
+                lockSequenceNumber = ((long) readInt(position) << 32) | (readInt(position + 4) & 0xFFFFFFFFL);
+                position += 8;
+            } else if (kind != SerializeTransaction.RECORD_APPLY && kind != SerializeTransaction.RECORD_LOCK) {
+                throw new IllegalArgumentException("unsupported record kind " + kind);
+            }
+        }
+
+        int txnIdOffset;
+        int inputsLen;
+        int refsLen;
+
+        if (compact) {
+            txnIdOffset = readHashOffset();
+            inputsLen = readVarint();
+            refsLen = readVarint();
+        } else {
+            txnIdOffset = position;
+            inputsLen = readInt(position + 32);
+            refsLen = readInt(position + 36);
+            position += 40;
+        }
+
+        // each state takes at least two bytes, which bounds the arrays a corrupt length can grow
+        if (inputsLen < 0 || refsLen < 0 || (long) inputsLen + refsLen > data.length) {
+            throw new IllegalArgumentException("invalid state counts " + inputsLen + ", " + refsLen);
+        }
+
+        int statesEnd = statesLen + inputsLen + refsLen;
+
+        if (stateHashOffsets.length < statesEnd) {
+            int len = Math.max(statesEnd, stateHashOffsets.length * 2);
+
+            stateHashOffsets = Arrays.copyOf(stateHashOffsets, len);
+            stateIndices = Arrays.copyOf(stateIndices, len);
+        }
+
+        for (int i = statesLen; i < statesEnd; i++) {
+            if (compact) {
+                stateHashOffsets[i] = readHashOffset();
+                stateIndices[i] = readVarint();
+            } else {
+                stateHashOffsets[i] = position;
+                stateIndices[i] = readInt(position + 32);
+                position += 36;
+            }
+        }
+
+        kinds[r] = kind;
+        lockSequenceNumbers[r] = lockSequenceNumber;
+        txnIdOffsets[r] = txnIdOffset;
+        statesStarts[r] = statesLen;
+        inputsLens[r] = inputsLen;
+        refsLens[r] = refsLen;
+
+        statesLen = statesEnd;
+        recordsLen++;
+    }
+
+    /**
+     * The message this view is reading; all offsets are into this array.
+     */
+    byte[] data() {
+        return data;
+    }
+
+    /**
+     * One of {@link SerializeTransaction#RECORD_APPLY}, {@link SerializeTransaction#RECORD_LOCK},
+     * {@link SerializeTransaction#RECORD_ABORT} or {@link SerializeTransaction#RECORD_COMMIT}.
+     */
+    byte kind() {
+        return kinds[record];
+    }
+
+    /**
+     * The sequence number of the lock record released by an abort or commit record, otherwise -1.
+     */
+    long lockSequenceNumber() {
+        return lockSequenceNumbers[record];
+    }
+
+    int txnIdOffset() {
+        return txnIdOffsets[record];
+    }
+
+    SecureHash txnId() {
+        return hashAt(txnIdOffset());
+    }
+
+    int inputsLen() {
+        return inputsLens[record];
+    }
+
+    int inputHashOffset(int i) {
+        return stateHashOffsets[statesStarts[record] + i];
+    }
+
+    int inputIndex(int i) {
+        return stateIndices[statesStarts[record] + i];
+    }
+
+    int refsLen() {
+        return refsLens[record];
+    }
+
+    int refHashOffset(int i) {
+        return stateHashOffsets[statesStarts[record] + inputsLens[record] + i];
+    }
+
+    int refIndex(int i) {
+        return stateIndices[statesStarts[record] + inputsLens[record] + i];
+    }
+
+    /**
+     * Materialize the current record; this allocates, so keep it off the hot path.
+     */
+    SerializeTransaction toSerializeTransaction() {
+        int inputsLen = inputsLen();
+        int refsLen = refsLen();
+
+        List<StateRef> inputs = new ArrayList<>(inputsLen);
+        List<StateRef> refs = new ArrayList<>(refsLen);
+
+        for (int i = 0; i < inputsLen; i++) {
+            inputs.add(new StateRef(hashAt(inputHashOffset(i)), inputIndex(i)));
+        }
+
+        for (int i = 0; i < refsLen; i++) {
+            refs.add(new StateRef(hashAt(refHashOffset(i)), refIndex(i)));
+        }
+
+        return new SerializeTransaction(hashAt(txnIdOffset()), inputs, refs);
+    }
+
+    private SecureHash hashAt(int offset) {
+        return new SecureHash.SHA256(Arrays.copyOfRange(data, offset, offset + 32));
+    }
+
+    private int readHashOffset() {
+        int index = readVarint();
+
+        if (index < 0 || index >= hashesLen) {
+            throw new IllegalArgumentException("hash table index " + index + " out of bounds for " + hashesLen + " hashes");
+        }
+
+        return hashesOffset + index * 32;
+    }
+
+    private int readVarint() {
+        int value = 0;
+
+        for (int shift = 0; ; shift += 7) {
+            byte b = data[position++];
+            value |= (b & 0x7F) << shift;
+
+            if (b >= 0) {
+                return value;
+            }
+
+            if (shift >= 28) {
+                throw new IllegalArgumentException("varint too long at offset " + position);
+            }
+        }
+    }
+
+    private int readInt(int offset) {
+        return StateRefs.getInt(data, offset);
+    }
+}
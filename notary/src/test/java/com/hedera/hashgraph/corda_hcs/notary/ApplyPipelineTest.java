@@ -0,0 +1,265 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import com.typesafe.config.ConfigFactory;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.transaction;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ApplyPipelineTest {
+    private static final String PRIVATE_KEY = "db484b828e64b2d8f12ce3c0a0e93a0b8cce7af1bb8f39c97732394482538e10";
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    // sequence numbers in the order they were applied, replays negated
+    private final List<Long> applied = Collections.synchronizedList(new ArrayList<>());
+
+    // the ranges requested again, as {start, end, limit} with the timestamps in seconds
+    private final List<long[]> requested = Collections.synchronizedList(new ArrayList<>());
+
+    private final CompletableFuture<TopicMessage> failed = new CompletableFuture<>();
+
+    private ApplyPipeline pipeline;
+
+    @After
+    public void stop() {
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+
+        scheduler.shutdownNow();
+    }
+
+    private static HcsConfig config(int maxRetries) {
+        return new HcsConfig(ConfigFactory.parseString("hcs {"
+                + " accountId = \"0.0.1001\", privateKey = \"" + PRIVATE_KEY + "\","
+                + " apply { ringSize = 16, gapTimeoutMs = 60000, maxRetries = " + maxRetries + " }"
+                + " }"));
+    }
+
+    // message seq of a topic with one message a second
+    private static TopicMessage message(long seq) {
+        return message(seq, transaction(1, 0).serialize());
+    }
+
+    private static TopicMessage message(long seq, byte[] payload) {
+        return new TopicMessage(seq, Instant.ofEpochSecond(1000 + seq), payload, new byte[48]);
+    }
+
+    private ApplyPipeline start(long appliedSequenceNumber, int maxRetries, ApplyPipeline.Applier applier,
+                                Executor decodeExecutor) {
+        pipeline = new ApplyPipeline("hcs-apply-test", appliedSequenceNumber, Instant.EPOCH, config(maxRetries),
+                applier,
+                (startTime, endTime, limit) -> requested.add(
+                        new long[]{startTime.getEpochSecond(), endTime.getEpochSecond(), limit}),
+                (message, cause) -> failed.complete(message),
+                () -> false,
+                decodeExecutor,
+                scheduler);
+
+        pipeline.start();
+
+        return pipeline;
+    }
+
+    private ApplyPipeline start(long appliedSequenceNumber) {
+        return start(appliedSequenceNumber, 0, message -> {
+            long seq = message.response().sequenceNumber;
+            applied.add(message.isReplay() ? -seq : seq);
+        }, Runnable::run);
+    }
+
+    private void awaitApplied(int count) throws Exception {
+        for (int i = 0; i < 1000 && applied.size() < count; i++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(count, applied.size());
+    }
+
+    @Test
+    public void messagesDecodedOutOfOrderApplyInOrder() throws Exception {
+        List<Runnable> decodes = Collections.synchronizedList(new ArrayList<>());
+
+        // held until all are published, then decoded last first
+        start(-1, 0, message -> applied.add(message.response().sequenceNumber), decodes::add);
+
+        for (long seq = 1; seq <= 10; seq++) {
+            pipeline.offer(message(seq));
+        }
+
+        assertEquals(10, decodes.size());
+        assertTrue(applied.isEmpty());
+
+        for (int i = decodes.size() - 1; i >= 0; i--) {
+            decodes.get(i).run();
+        }
+
+        awaitApplied(10);
+
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L), applied);
+        assertEquals(10, pipeline.lastApplied().sequenceNumber);
+    }
+
+    @Test
+    public void gapIsRequestedAgain() throws Exception {
+        start(-1);
+
+        pipeline.offer(message(1));
+        pipeline.offer(message(2));
+        pipeline.offer(message(5));
+        pipeline.offer(message(6));
+
+        // from just after message 2 up to message 5, for the two missing
+        assertEquals(1, requested.size());
+        assertEquals(1002, requested.get(0)[0]);
+        assertEquals(1005, requested.get(0)[1]);
+        assertEquals(2, requested.get(0)[2]);
+
+        awaitApplied(2);
+
+        // held back until the gap is filled; what's still missing is requested again
+        pipeline.offer(message(4));
+
+        assertEquals(2, requested.size());
+        assertEquals(1002, requested.get(1)[0]);
+        assertEquals(1004, requested.get(1)[1]);
+        assertEquals(1, requested.get(1)[2]);
+
+        pipeline.offer(message(3));
+
+        awaitApplied(6);
+
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L), applied);
+        assertEquals(2, requested.size());
+    }
+
+    @Test
+    public void messagesDeliveredAgainAreDropped() throws Exception {
+        start(-1);
+
+        for (long seq = 1; seq <= 3; seq++) {
+            pipeline.offer(message(seq));
+        }
+
+        pipeline.offer(message(2));
+        pipeline.offer(message(3));
+
+        // delivered twice behind a gap
+        pipeline.offer(message(5));
+        pipeline.offer(message(5));
+        pipeline.offer(message(4));
+
+        // a chunk already applied is replayed, so its payload can be reassembled after a restart
+        byte[] chunk = SerializeTransaction.chunk(new byte[5000], 7L, 1024, 16).get(0);
+
+        pipeline.offer(message(6, chunk));
+        awaitApplied(6);
+
+        pipeline.offer(message(6, chunk));
+        awaitApplied(7);
+
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, -6L), applied);
+    }
+
+    @Test
+    public void messagesAppliedBeforeStartAreOnlyReplayed() throws Exception {
+        start(5);
+
+        // a plain message, only of use the first time
+        pipeline.offer(message(4));
+
+        pipeline.offer(message(3, SerializeTransaction.chunk(new byte[5000], 7L, 1024, 16).get(0)));
+        pipeline.offer(message(6));
+
+        awaitApplied(2);
+
+        assertEquals(Arrays.asList(-3L, 6L), applied);
+        assertTrue(requested.isEmpty());
+    }
+
+    @Test(timeout = 30_000)
+    public void messageThatKeepsFailingStopsThePipeline() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+
+        start(-1, 2, message -> {
+            long seq = message.response().sequenceNumber;
+
+            // message 2 fails once, message 3 every time
+            if ((seq == 2 && attempts.incrementAndGet() == 1) || seq == 3) {
+                throw new IllegalStateException("failed to apply " + seq);
+            }
+
+            applied.add(seq);
+        }, Runnable::run);
+
+        for (long seq = 1; seq <= 4; seq++) {
+            pipeline.offer(message(seq));
+        }
+
+        TopicMessage stoppedAt = failed.get(20, TimeUnit.SECONDS);
+
+        assertEquals(3, stoppedAt.sequenceNumber);
+        assertEquals(Arrays.asList(1L, 2L), applied);
+        assertEquals(2, pipeline.lastApplied().sequenceNumber);
+
+        // nothing more is applied or run on its thread
+        pipeline.offer(message(5));
+
+        try {
+            pipeline.runBetweenMessages(() -> { }).get(10, TimeUnit.SECONDS);
+            fail("expected a stopped pipeline to refuse tasks");
+        } catch (ExecutionException e) {
+            // expected
+        }
+
+        assertEquals(Arrays.asList(1L, 2L), applied);
+    }
+
+    @Test
+    public void stoppedShardFailsItsWaiters() throws Exception {
+        SequenceWaiters waiters = new SequenceWaiters(2);
+
+        CompletableFuture<Long> waiting = waiters.await(3);
+
+        assertFalse(waiting.isDone());
+        assertNull(waiters.failure());
+
+        IllegalStateException cause = new IllegalStateException("failed to apply 3");
+        waiters.fail(cause);
+
+        assertNotNull(waiters.failure());
+
+        for (CompletableFuture<Long> future : Arrays.asList(waiting, waiters.await(4))) {
+            try {
+                future.get(1, TimeUnit.SECONDS);
+                fail("expected a waiter of a stopped shard to fail");
+            } catch (ExecutionException e) {
+                assertEquals(cause, e.getCause());
+            }
+        }
+
+        // what was applied before it stopped still was
+        assertEquals(2, (long) waiters.await(2).get());
+    }
+}
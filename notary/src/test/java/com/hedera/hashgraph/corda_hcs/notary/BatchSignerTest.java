@@ -0,0 +1,213 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.crypto.Crypto;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.crypto.SignableData;
+import net.corda.core.crypto.SignatureMetadata;
+import net.corda.core.crypto.TransactionSignature;
+import net.corda.core.serialization.SerializationContext;
+import net.corda.core.serialization.internal.SerializationEnvironment;
+import net.corda.core.serialization.internal.SerializationEnvironmentKt;
+import net.corda.serialization.internal.CordaSerializationMagic;
+import net.corda.serialization.internal.SerializationFactoryImpl;
+import net.corda.serialization.internal.SharedContexts;
+import net.corda.serialization.internal.amqp.AbstractAMQPSerializationScheme;
+import net.corda.serialization.internal.amqp.SerializerFactory;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchSignerTest {
+    private static final KeyPair KEY_PAIR = Crypto.generateKeyPair(Crypto.EDDSA_ED25519_SHA512);
+
+    private final AtomicInteger signatures = new AtomicInteger();
+
+    private BatchSigner signer;
+
+    // signing and verifying serialize what is signed, as a node would
+    @BeforeClass
+    public static void serialization() {
+        if (SerializationEnvironmentKt.get_allEnabledSerializationEnvs().isEmpty()) {
+            SerializationFactoryImpl factory = new SerializationFactoryImpl();
+            factory.registerScheme(new AMQPScheme());
+
+            SerializationEnvironmentKt.setNodeSerializationEnv(SerializationEnvironment.Companion.with(
+                    factory, SharedContexts.getAMQP_P2P_CONTEXT(), null, null, null, null, null));
+        }
+    }
+
+    @After
+    public void stop() {
+        if (signer != null) {
+            signer.stop();
+        }
+    }
+
+    private TransactionSignature sign(SecureHash id) {
+        signatures.incrementAndGet();
+
+        try {
+            return Crypto.doSign(KEY_PAIR, new SignableData(id,
+                    new SignatureMetadata(4, Crypto.EDDSA_ED25519_SHA512.getSchemeNumberID())));
+        } catch (InvalidKeyException | SignatureException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean verifies(TransactionSignature signature, SecureHash txId) {
+        try {
+            return signature.verify(txId);
+        } catch (IllegalArgumentException | InvalidKeyException | SignatureException e) {
+            // not in the tree, or signed over something else
+            return false;
+        }
+    }
+
+    @Test
+    public void batchSignsEachTransactionInIt() throws Exception {
+        CountDownLatch signing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        signer = new BatchSigner(id -> {
+            signing.countDown();
+
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+
+            return sign(id);
+        }, 100);
+
+        signer.start();
+
+        // held up signing the first, so the rest are requested together
+        CompletableFuture<TransactionSignature> first = signer.sign(SecureHash.randomSHA256());
+        assertTrue(signing.await(10, TimeUnit.SECONDS));
+
+        List<SecureHash> txIds = new ArrayList<>();
+        List<CompletableFuture<TransactionSignature>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 7; i++) {
+            SecureHash txId = SecureHash.randomSHA256();
+
+            txIds.add(txId);
+            futures.add(signer.sign(txId));
+        }
+
+        // one requested twice is in the tree once
+        CompletableFuture<TransactionSignature> again = signer.sign(txIds.get(3));
+
+        release.countDown();
+
+        assertNull(first.get(10, TimeUnit.SECONDS).getPartialMerkleTree());
+
+        for (int i = 0; i < txIds.size(); i++) {
+            TransactionSignature signature = futures.get(i).get(10, TimeUnit.SECONDS);
+
+            assertNotNull(signature.getPartialMerkleTree());
+            assertEquals(KEY_PAIR.getPublic(), signature.getBy());
+            assertTrue(verifies(signature, txIds.get(i)));
+
+            // it proves no other member of the batch
+            assertFalse(verifies(signature, txIds.get((i + 1) % txIds.size())));
+            assertFalse(verifies(signature, SecureHash.randomSHA256()));
+        }
+
+        assertTrue(verifies(again.get(10, TimeUnit.SECONDS), txIds.get(3)));
+        assertEquals(2, signatures.get());
+    }
+
+    @Test
+    public void transactionAloneIsSignedDirectly() throws Exception {
+        signer = new BatchSigner(this::sign, 100);
+        signer.start();
+
+        SecureHash txId = SecureHash.randomSHA256();
+        TransactionSignature signature = signer.sign(txId).get(10, TimeUnit.SECONDS);
+
+        assertNull(signature.getPartialMerkleTree());
+        assertTrue(verifies(signature, txId));
+        assertFalse(verifies(signature, SecureHash.randomSHA256()));
+    }
+
+    @Test
+    public void stopFailsPendingRequests() throws Exception {
+        CountDownLatch signing = new CountDownLatch(1);
+
+        signer = new BatchSigner(id -> {
+            signing.countDown();
+
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+
+            return sign(id);
+        }, 100);
+
+        signer.start();
+
+        CompletableFuture<TransactionSignature> first = signer.sign(SecureHash.randomSHA256());
+        assertTrue(signing.await(10, TimeUnit.SECONDS));
+
+        CompletableFuture<TransactionSignature> pending = signer.sign(SecureHash.randomSHA256());
+
+        signer.stop();
+
+        List<CompletableFuture<TransactionSignature>> failed = new ArrayList<>();
+        Collections.addAll(failed, first, pending, signer.sign(SecureHash.randomSHA256()));
+
+        for (CompletableFuture<TransactionSignature> future : failed) {
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                fail("expected a request to a stopped signer to fail");
+            } catch (ExecutionException e) {
+                // expected
+            }
+        }
+    }
+
+    private static final class AMQPScheme extends AbstractAMQPSerializationScheme {
+        AMQPScheme() {
+            super(Collections.emptyList());
+        }
+
+        @Override
+        public boolean canDeserializeVersion(CordaSerializationMagic magic, SerializationContext.UseCase target) {
+            return canDeserializeVersion(magic) && target == SerializationContext.UseCase.P2P;
+        }
+
+        @Override
+        protected SerializerFactory rpcClientSerializerFactory(SerializationContext context) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected SerializerFactory rpcServerSerializerFactory(SerializationContext context) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import com.codahale.metrics.Timer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.assertTransactionEquals;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.transaction;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchingSubmitterTest {
+    private static final int MAX_MESSAGE_BYTES = 1024;
+
+    // every message sent, in order; each reaches consensus at its index + 1
+    private final List<byte[]> sent = new CopyOnWriteArrayList<>();
+    private final AtomicLong sequenceNumbers = new AtomicLong();
+
+    private BatchingSubmitter submitter;
+
+    @After
+    public void shutdown() {
+        if (submitter != null) {
+            submitter.shutdown();
+        }
+    }
+
+    private BatchingSubmitter submitter(int maxRecords, Duration maxDelay, boolean compact) {
+        submitter = new BatchingSubmitter((message, traces) -> {
+            sent.add(message);
+            return CompletableFuture.completedFuture(sequenceNumbers.incrementAndGet());
+        }, maxRecords, maxDelay, MAX_MESSAGE_BYTES, compact, new Timer(), new NotarisationTracer(0, Duration.ZERO));
+
+        return submitter;
+    }
+
+    private static CompletableFuture<Long> submit(BatchingSubmitter submitter, SerializeTransaction txn) {
+        return submitter.submit(txn, SerializeTransaction.RECORD_APPLY, -1, NotarisationTracer.NONE);
+    }
+
+    @Test
+    public void fullBatchIsSentAtOnce() throws Exception {
+        BatchingSubmitter submitter = submitter(4, Duration.ofHours(1), false);
+        List<SerializeTransaction> txns = new ArrayList<>();
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 4; i++) {
+            SerializeTransaction txn = transaction(1, 0);
+
+            txns.add(txn);
+            futures.add(submit(submitter, txn));
+        }
+
+        for (CompletableFuture<Long> future : futures) {
+            assertEquals(1L, (long) future.get(5, TimeUnit.SECONDS));
+        }
+
+        assertEquals(1, sent.size());
+
+        List<SerializeTransaction> decoded = SerializeTransaction.deserializeAll(sent.get(0));
+
+        assertEquals(4, decoded.size());
+
+        for (int i = 0; i < 4; i++) {
+            assertTransactionEquals(txns.get(i), decoded.get(i));
+        }
+    }
+
+    @Test
+    public void partialBatchIsSentAfterDelay() throws Exception {
+        BatchingSubmitter submitter = submitter(100, Duration.ofMillis(50), false);
+        SerializeTransaction txn = transaction(2, 1);
+
+        long started = System.nanoTime();
+        CompletableFuture<Long> future = submit(submitter, txn);
+
+        assertEquals(1L, (long) future.get(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(50));
+
+        // a lone transaction goes as a bare record
+        assertEquals(1, sent.size());
+        assertTransactionEquals(txn, SerializeTransaction.deserializeAll(sent.get(0)).get(0));
+    }
+
+    @Test
+    public void batchIsClosedBeforeItOutgrowsAMessage() throws Exception {
+        BatchingSubmitter submitter = submitter(1000, Duration.ofMillis(20), false);
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++) {
+            futures.add(submit(submitter, transaction(2, 0)));
+        }
+
+        for (CompletableFuture<Long> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+
+        assertTrue(sent.size() > 1);
+
+        int records = 0;
+
+        for (byte[] message : sent) {
+            assertTrue(message.length <= MAX_MESSAGE_BYTES);
+            records += SerializeTransaction.deserializeAll(message).size();
+        }
+
+        assertEquals(100, records);
+    }
+
+    @Test
+    public void failedSendFailsEveryRecord() throws Exception {
+        IllegalStateException failure = new IllegalStateException("node unavailable");
+
+        submitter = new BatchingSubmitter((message, traces) -> {
+            CompletableFuture<Long> future = new CompletableFuture<>();
+            future.completeExceptionally(failure);
+            return future;
+        }, 2, Duration.ofHours(1), MAX_MESSAGE_BYTES, false, new Timer(), new NotarisationTracer(0, Duration.ZERO));
+
+        CompletableFuture<Long> first = submit(submitter, transaction(1, 0));
+        CompletableFuture<Long> second = submit(submitter, transaction(1, 0));
+
+        for (CompletableFuture<Long> future : Arrays.asList(first, second)) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("expected the send to fail");
+            } catch (ExecutionException e) {
+                assertSame(failure, e.getCause());
+            }
+        }
+    }
+
+    @Test
+    public void slowSendsHoldBackSubmitters() throws Exception {
+        CountDownLatch unblocked = new CountDownLatch(1);
+
+        submitter = new BatchingSubmitter((message, traces) -> {
+            try {
+                unblocked.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+
+            sent.add(message);
+            return CompletableFuture.completedFuture(sequenceNumbers.incrementAndGet());
+        }, 10, Duration.ofMillis(5), MAX_MESSAGE_BYTES, false, new Timer(), new NotarisationTracer(0, Duration.ZERO));
+
+        ExecutorService flows = Executors.newFixedThreadPool(50);
+
+        try {
+            List<Future<CompletableFuture<Long>>> submissions = new ArrayList<>();
+
+            for (int i = 0; i < 200; i++) {
+                submissions.add(flows.submit(() -> submit(submitter, transaction(1, 0))));
+            }
+
+            Thread.sleep(500);
+
+            // the batch being sent, the one handed off behind it and the full one waiting for that
+            int returned = 0;
+
+            for (Future<CompletableFuture<Long>> submission : submissions) {
+                returned += submission.isDone() ? 1 : 0;
+            }
+
+            assertTrue(returned + " submissions returned", returned <= 30);
+
+            unblocked.countDown();
+
+            for (Future<CompletableFuture<Long>> submission : submissions) {
+                submission.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            flows.shutdownNow();
+        }
+
+        int records = 0;
+
+        for (byte[] message : sent) {
+            int batch = SerializeTransaction.deserializeAll(message).size();
+
+            assertTrue(batch <= 10);
+            records += batch;
+        }
+
+        assertEquals(200, records);
+    }
+}
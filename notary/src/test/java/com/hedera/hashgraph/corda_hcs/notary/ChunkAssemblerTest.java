@@ -0,0 +1,214 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.assertTransactionEquals;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.transaction;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChunkAssemblerTest {
+    private static final int MAX_MESSAGE_BYTES = 1024;
+
+    private static final Instant START = Instant.ofEpochSecond(100);
+
+    private static byte[] payload(SerializeTransaction txn) {
+        MessageBuilder builder = new MessageBuilder(true);
+        builder.add(txn);
+        return builder.build();
+    }
+
+    private static List<byte[]> chunk(byte[] payload, long groupId) {
+        return SerializeTransaction.chunk(payload, groupId, MAX_MESSAGE_BYTES, ChunkAssembler.MAX_CHUNKS);
+    }
+
+    @Test
+    public void reassemblesChunksInAnyOrder() {
+        SerializeTransaction txn = transaction(300, 0);
+        byte[] payload = payload(txn);
+        List<byte[]> chunks = chunk(payload, 42);
+
+        assertTrue(chunks.size() > 5);
+
+        for (byte[] chunk : chunks) {
+            assertTrue(chunk.length <= MAX_MESSAGE_BYTES);
+            assertTrue(ChunkAssembler.isChunk(chunk));
+        }
+
+        List<byte[]> shuffled = new ArrayList<>(chunks);
+        Collections.shuffle(shuffled, new Random(2));
+
+        ChunkAssembler assembler = new ChunkAssembler(Duration.ofMinutes(5));
+
+        for (int i = 0; i < shuffled.size() - 1; i++) {
+            assertNull(assembler.add(shuffled.get(i), START.plusSeconds(i)));
+
+            // redelivered, as after a resubscribe
+            assertNull(assembler.add(shuffled.get(i), START.plusSeconds(i)));
+
+            assertEquals(START, assembler.earliestPendingTimestamp());
+        }
+
+        byte[] assembled = assembler.add(shuffled.get(shuffled.size() - 1), START.plusSeconds(shuffled.size()));
+
+        assertArrayEquals(payload, assembled);
+        assertNull(assembler.earliestPendingTimestamp());
+        assertTransactionEquals(txn, SerializeTransaction.deserializeAll(assembled).get(0));
+    }
+
+    @Test
+    public void interleavedGroupsAreAssembledSeparately() {
+        byte[] first = payload(transaction(100, 0));
+        byte[] second = payload(transaction(100, 0));
+
+        List<byte[]> firstChunks = chunk(first, 1);
+        List<byte[]> secondChunks = chunk(second, 2);
+
+        assertEquals(firstChunks.size(), secondChunks.size());
+
+        ChunkAssembler assembler = new ChunkAssembler(Duration.ofMinutes(5));
+        int last = firstChunks.size() - 1;
+
+        for (int i = 0; i < last; i++) {
+            assertNull(assembler.add(secondChunks.get(i), START.plusSeconds(2 * i)));
+            assertNull(assembler.add(firstChunks.get(i), START.plusSeconds(2 * i + 1)));
+        }
+
+        assertArrayEquals(first, assembler.add(firstChunks.get(last), START.plusSeconds(100)));
+        assertEquals(START, assembler.earliestPendingTimestamp());
+
+        assertArrayEquals(second, assembler.add(secondChunks.get(last), START.plusSeconds(101)));
+        assertNull(assembler.earliestPendingTimestamp());
+    }
+
+    @Test
+    public void groupCompletedAfterItsTimeoutIsDiscarded() {
+        List<byte[]> chunks = chunk(payload(transaction(100, 0)), 7);
+        ChunkAssembler assembler = new ChunkAssembler(Duration.ofSeconds(10));
+
+        for (int i = 0; i < chunks.size() - 1; i++) {
+            assertNull(assembler.add(chunks.get(i), START));
+        }
+
+        assertNull(assembler.add(chunks.get(chunks.size() - 1), START.plusSeconds(11)));
+        assertNull(assembler.earliestPendingTimestamp());
+    }
+
+    @Test
+    public void groupCompletedAtItsTimeoutIsAssembled() {
+        byte[] payload = payload(transaction(100, 0));
+        List<byte[]> chunks = chunk(payload, 7);
+        ChunkAssembler assembler = new ChunkAssembler(Duration.ofSeconds(10));
+
+        for (int i = 0; i < chunks.size() - 1; i++) {
+            assertNull(assembler.add(chunks.get(i), START));
+        }
+
+        assertArrayEquals(payload, assembler.add(chunks.get(chunks.size() - 1), START.plusSeconds(10)));
+    }
+
+    @Test
+    public void expireDiscardsIncompleteGroups() {
+        List<byte[]> early = chunk(payload(transaction(100, 0)), 1);
+        List<byte[]> late = chunk(payload(transaction(100, 0)), 2);
+
+        ChunkAssembler assembler = new ChunkAssembler(Duration.ofSeconds(10));
+
+        assertNull(assembler.add(early.get(0), START));
+        assertNull(assembler.add(late.get(0), START.plusSeconds(5)));
+
+        assembler.expire(START.plusSeconds(10));
+
+        assertEquals(START, assembler.earliestPendingTimestamp());
+
+        assembler.expire(START.plusSeconds(11));
+
+        assertEquals(START.plusSeconds(5), assembler.earliestPendingTimestamp());
+
+        // the rest of the expired group starts over and can't complete without its first chunk
+        for (int i = 1; i < early.size(); i++) {
+            assertNull(assembler.add(early.get(i), START.plusSeconds(12)));
+        }
+
+        assembler.expire(START.plusSeconds(16));
+
+        assertEquals(START.plusSeconds(12), assembler.earliestPendingTimestamp());
+
+        assembler.expire(START.plusSeconds(23));
+
+        assertNull(assembler.earliestPendingTimestamp());
+    }
+
+    @Test
+    public void malformedChunksAreIgnored() {
+        List<byte[]> chunks = chunk(payload(transaction(100, 0)), 3);
+        ChunkAssembler assembler = new ChunkAssembler(Duration.ofMinutes(5));
+
+        byte[] chunk = chunks.get(0);
+
+        // truncated header
+        assertNull(assembler.add(Arrays.copyOf(chunk, SerializeTransaction.CHUNK_HEADER_SIZE - 1), START));
+
+        // index past the chunk count, and a part running past the message
+        byte[] badIndex = chunk.clone();
+        ByteBuffer.wrap(badIndex).putInt(1 + 8, chunks.size());
+
+        byte[] badPartLen = chunk.clone();
+        ByteBuffer.wrap(badPartLen).putInt(1 + 8 + 4 + 4, chunk.length);
+
+        byte[] tooManyChunks = chunk.clone();
+        ByteBuffer.wrap(tooManyChunks).putInt(1 + 8 + 4, ChunkAssembler.MAX_CHUNKS + 1);
+
+        assertNull(assembler.add(badIndex, START));
+        assertNull(assembler.add(badPartLen, START));
+        assertNull(assembler.add(tooManyChunks, START));
+        assertNull(assembler.earliestPendingTimestamp());
+
+        // a chunk count disagreeing with the group's first chunk
+        assertNull(assembler.add(chunk, START));
+
+        byte[] mismatched = chunks.get(1).clone();
+        ByteBuffer.wrap(mismatched).putInt(1 + 8 + 4, chunks.size() + 1);
+
+        assertNull(assembler.add(mismatched, START));
+
+        for (int i = 1; i < chunks.size() - 1; i++) {
+            assertNull(assembler.add(chunks.get(i), START));
+        }
+
+        assertEquals(START, assembler.earliestPendingTimestamp());
+        assertNotNull(assembler.add(chunks.get(chunks.size() - 1), START));
+    }
+
+    @Test
+    public void chunkRejectsPayloadsItCannotSplit() {
+        byte[] payload = payload(transaction(100, 0));
+
+        try {
+            SerializeTransaction.chunk(payload, 1, MAX_MESSAGE_BYTES, 2);
+            fail("expected too many chunks to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        try {
+            SerializeTransaction.chunk(payload, 1, SerializeTransaction.CHUNK_HEADER_SIZE + 1, ChunkAssembler.MAX_CHUNKS);
+            fail("expected a message size without room for a part to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
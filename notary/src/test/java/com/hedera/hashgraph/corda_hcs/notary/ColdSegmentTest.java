@@ -0,0 +1,208 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ColdSegmentTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<byte[]> hashes = new ArrayList<>();
+
+    // random hashes, every seventh sharing a prefix with the one before so the sort compares deep
+    private void hashes(int count) {
+        Random random = new Random(1);
+
+        for (int i = 0; i < count; i++) {
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+
+            if (i > 0 && i % 7 == 0) {
+                System.arraycopy(hashes.get(i - 1), 0, hash, 0, 8 + random.nextInt(24));
+            }
+
+            hashes.add(hash);
+        }
+    }
+
+    // state i % 5 of hash i, consumed by hash i at sequence number i, or released every third
+    private ColdSegment build(String name) throws IOException {
+        return ColdSegment.build(folder.getRoot().toPath().resolve(name), visitor -> {
+            for (int i = 0; i < hashes.size(); i++) {
+                if (i % 3 == 0) {
+                    ColdSegment.visitReleased(visitor, hashes.get(i), i % 5);
+                } else {
+                    visitor.visit(hashes.get(i), i % 5, hashes.get(i), i);
+                }
+            }
+        });
+    }
+
+    private static int compare(byte[] hash, int index, byte[] otherHash, int otherIndex) {
+        for (int i = 0; i < 32; i++) {
+            int c = Integer.compare(hash[i] & 0xFF, otherHash[i] & 0xFF);
+
+            if (c != 0) {
+                return c;
+            }
+        }
+
+        return Integer.compare(index, otherIndex);
+    }
+
+    @Test
+    public void buildSortsItsStates() throws IOException {
+        hashes(20_000);
+
+        ColdSegment segment = build("segment");
+
+        assertEquals(hashes.size(), segment.entriesLen);
+
+        for (int i = 0; i < hashes.size(); i++) {
+            long entry = segment.find(hashes.get(i), 0, i % 5);
+            assertTrue(entry >= 0);
+
+            StateDestruction destruction = segment.destruction(entry);
+
+            if (i % 3 == 0) {
+                assertNull(destruction);
+            } else {
+                assertNotNull(destruction);
+                assertEquals(i, destruction.sequenceNumber);
+                assertTrue(Arrays.equals(hashes.get(i), destruction.txnId.getBytes()));
+            }
+
+            // another state of the same transaction
+            assertEquals(-1, segment.find(hashes.get(i), 0, 7));
+        }
+
+        byte[][] previous = {null};
+        int[] previousIndex = {0};
+
+        segment.forEach((hash, index, txnId, sequenceNumber) -> {
+            if (previous[0] != null) {
+                assertTrue(compare(previous[0], previousIndex[0], hash, index) < 0);
+            }
+
+            previous[0] = hash.clone();
+            previousIndex[0] = index;
+        });
+    }
+
+    @Test
+    public void reopenedSegmentReadsTheSame() throws IOException {
+        hashes(1000);
+
+        ColdSegment segment = build("segment");
+        ColdSegment reopened = ColdSegment.open(segment.file);
+
+        assertEquals(segment.entriesLen, reopened.entriesLen);
+
+        for (int i = 1; i < hashes.size(); i += 3) {
+            assertEquals(i, reopened.destruction(reopened.find(hashes.get(i), 0, i % 5)).sequenceNumber);
+        }
+    }
+
+    @Test
+    public void emptySegmentFindsNothing() throws IOException {
+        ColdSegment segment = build("segment");
+
+        assertEquals(0, segment.entriesLen);
+        assertEquals(-1, segment.find(new byte[32], 0, 0));
+        assertEquals(0, ColdSegment.open(segment.file).entriesLen);
+    }
+
+    @Test
+    public void mergeKeepsTheNewerEntry() throws IOException {
+        hashes(10_000);
+
+        ColdSegment older = build("older");
+
+        // the first thousand states consumed again, by later messages
+        ColdSegment newer = ColdSegment.build(folder.getRoot().toPath().resolve("newer"), visitor -> {
+            for (int i = 0; i < 1000; i++) {
+                visitor.visit(hashes.get(i), i % 5, hashes.get(i), 1_000_000 + i);
+            }
+        });
+
+        for (boolean dropReleased : new boolean[]{false, true}) {
+            ColdSegment merged = ColdSegment.merge(folder.getRoot().toPath().resolve("merged-" + dropReleased),
+                    newer, older, dropReleased);
+
+            int released = 0;
+
+            for (int i = 0; i < hashes.size(); i++) {
+                long entry = merged.find(hashes.get(i), 0, i % 5);
+
+                if (i < 1000) {
+                    assertEquals(1_000_000 + i, merged.destruction(entry).sequenceNumber);
+                } else if (i % 3 != 0) {
+                    assertEquals(i, merged.destruction(entry).sequenceNumber);
+                } else if (dropReleased) {
+                    assertEquals(-1, entry);
+                } else {
+                    assertNull(merged.destruction(entry));
+                    released++;
+                }
+            }
+
+            assertEquals(hashes.size() - (dropReleased ? (hashes.size() - 1000 + 2) / 3 : 0), merged.entriesLen);
+            assertEquals(dropReleased ? 0 : (hashes.size() - 1000 + 2) / 3, released);
+        }
+    }
+
+    @Test
+    public void malformedSegmentIsRejected() throws IOException {
+        hashes(100);
+
+        Path file = build("segment").file;
+        byte[] bytes = Files.readAllBytes(file);
+
+        // cut short, whether in the header or in an entry
+        for (int len : new int[]{0, 12, bytes.length - 1}) {
+            Path truncated = folder.getRoot().toPath().resolve("truncated-" + len);
+            Files.write(truncated, Arrays.copyOf(bytes, len));
+
+            try {
+                ColdSegment.open(truncated);
+                fail("expected a segment of " + len + " bytes to be rejected");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+
+        byte[] badMagic = bytes.clone();
+        badMagic[0] ^= 1;
+
+        byte[] badCount = bytes.clone();
+        ByteBuffer.wrap(badCount).putLong(8, -1);
+
+        for (byte[] malformed : Arrays.asList(badMagic, badCount)) {
+            Path corrupt = folder.getRoot().toPath().resolve("corrupt");
+            Files.write(corrupt, malformed);
+
+            try {
+                ColdSegment.open(corrupt);
+                fail("expected a corrupt segment header to be rejected");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.record;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.spending;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.state;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.states;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.transaction;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompactDestructionIndexTest {
+    private static void assertDestroyedBy(DestructionIndex index, StateRef state, SecureHash txnId, long sequenceNumber) {
+        StateDestruction destruction = index.get(state);
+
+        assertNotNull(destruction);
+        assertEquals(txnId, destruction.txnId);
+        assertEquals(sequenceNumber, destruction.sequenceNumber);
+
+        StateDestruction probed = index.probe(state.getTxhash().getBytes(), 0, state.getIndex());
+
+        assertNotNull(probed);
+        assertEquals(txnId, probed.txnId);
+        assertEquals(sequenceNumber, probed.sequenceNumber);
+    }
+
+    @Test
+    public void firstDestructionWins() {
+        CompactDestructionIndex index = new CompactDestructionIndex(16);
+
+        List<StateRef> inputs = states(3);
+        SecureHash first = SecureHash.randomSHA256();
+        SecureHash second = SecureHash.randomSHA256();
+
+        index.apply(record(spending(first, inputs.subList(0, 2))), 1);
+        index.apply(record(spending(second, inputs)), 1);
+        index.commit(1, Instant.ofEpochSecond(1));
+        index.apply(record(spending(second, inputs)), 2);
+        index.commit(2, Instant.ofEpochSecond(2));
+
+        assertEquals(3, index.size());
+        assertDestroyedBy(index, inputs.get(0), first, 1);
+        assertDestroyedBy(index, inputs.get(1), first, 1);
+        assertDestroyedBy(index, inputs.get(2), second, 1);
+
+        assertEquals(2, index.appliedSequenceNumber());
+        assertEquals(Instant.ofEpochSecond(2), index.resumeTimestamp());
+    }
+
+    @Test
+    public void growsPastItsInitialCapacity() {
+        CompactDestructionIndex index = new CompactDestructionIndex(16);
+        long initialBytes = index.memoryBytes();
+
+        Map<StateRef, SecureHash> consumed = new HashMap<>();
+
+        for (long seq = 1; seq <= 500; seq++) {
+            // states of the same transaction share a hash but not a slot
+            SecureHash parent = SecureHash.randomSHA256();
+            List<StateRef> inputs = new ArrayList<>();
+
+            for (int i = 0; i < 200; i++) {
+                inputs.add(new StateRef(parent, i));
+            }
+
+            SerializeTransaction txn = spending(SecureHash.randomSHA256(), inputs);
+
+            index.apply(record(txn), seq);
+            index.commit(seq, Instant.ofEpochSecond(seq));
+
+            for (StateRef input : inputs) {
+                consumed.put(input, txn.txnId);
+            }
+        }
+
+        assertEquals(100_000, index.size());
+        assertTrue(index.memoryBytes() > initialBytes);
+
+        for (Map.Entry<StateRef, SecureHash> entry : consumed.entrySet()) {
+            assertEquals(entry.getValue(), index.get(entry.getKey()).txnId);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            assertNull(index.get(state()));
+        }
+
+        Map<StateRef, SecureHash> visited = new HashMap<>();
+
+        index.forEach((hash, i, txnId, seq) ->
+                visited.put(new StateRef(new SecureHash.SHA256(hash.clone()), i), new SecureHash.SHA256(txnId.clone())));
+
+        assertEquals(consumed, visited);
+    }
+
+    @Test
+    public void abortReleasesOnlyTheNamedLock() {
+        CompactDestructionIndex index = new CompactDestructionIndex(16);
+
+        List<StateRef> inputs = states(2);
+        SerializeTransaction lock = spending(SecureHash.randomSHA256(), inputs);
+        SerializeTransaction other = spending(SecureHash.randomSHA256(), inputs);
+
+        index.apply(record(lock, SerializeTransaction.RECORD_LOCK, -1), 5);
+        index.commit(5, Instant.ofEpochSecond(5));
+
+        // the lock taken at another sequence number, or by another transaction
+        index.abort(record(lock, SerializeTransaction.RECORD_ABORT, 4), 4, 6);
+        index.abort(record(other, SerializeTransaction.RECORD_ABORT, 5), 5, 6);
+        index.commit(6, Instant.ofEpochSecond(6));
+
+        assertEquals(2, index.size());
+        assertDestroyedBy(index, inputs.get(0), lock.txnId, 5);
+
+        index.abort(record(lock, SerializeTransaction.RECORD_ABORT, 5), 5, 7);
+        index.commit(7, Instant.ofEpochSecond(7));
+
+        assertEquals(0, index.size());
+        assertNull(index.get(inputs.get(0)));
+        assertNull(index.get(inputs.get(1)));
+
+        // aborting twice releases nothing more
+        index.abort(record(lock, SerializeTransaction.RECORD_ABORT, 5), 5, 8);
+        index.commit(8, Instant.ofEpochSecond(8));
+
+        assertEquals(0, index.size());
+
+        index.forEach((hash, i, txnId, seq) -> {
+            throw new AssertionError("released state visited");
+        });
+
+        // released states may be consumed again
+        index.apply(record(other), 9);
+        index.commit(9, Instant.ofEpochSecond(9));
+
+        assertEquals(2, index.size());
+        assertDestroyedBy(index, inputs.get(1), other.txnId, 9);
+    }
+
+    @Test
+    public void releasedStatesSurviveGrowth() {
+        CompactDestructionIndex index = new CompactDestructionIndex(16);
+
+        SerializeTransaction lock = transaction(10, 0);
+
+        index.apply(record(lock, SerializeTransaction.RECORD_LOCK, -1), 1);
+        index.abort(record(lock, SerializeTransaction.RECORD_ABORT, 1), 1, 2);
+
+        List<SerializeTransaction> txns = new ArrayList<>();
+
+        for (long seq = 3; seq < 1000; seq++) {
+            SerializeTransaction txn = transaction(100, 0);
+
+            index.apply(record(txn), seq);
+            txns.add(txn);
+        }
+
+        assertNull(index.get(lock.inputs.get(0)));
+
+        SerializeTransaction txn = spending(SecureHash.randomSHA256(), lock.inputs);
+        index.apply(record(txn), 1000);
+
+        assertDestroyedBy(index, lock.inputs.get(9), txn.txnId, 1000);
+        assertEquals(txns.size() * 100 + 10, index.size());
+    }
+
+    @Test(timeout = 10_000)
+    public void abortedLocksDontFillTheTable() {
+        CompactDestructionIndex index = new CompactDestructionIndex(16);
+        long bytes = -1;
+
+        // many more distinct states released than the table has slots
+        for (long seq = 1; seq < 1000; seq += 2) {
+            SerializeTransaction lock = transaction(10, 0);
+
+            index.apply(record(lock, SerializeTransaction.RECORD_LOCK, -1), seq);
+            index.abort(record(lock, SerializeTransaction.RECORD_ABORT, seq), seq, seq + 1);
+            index.commit(seq + 1, Instant.ofEpochSecond(seq + 1));
+
+            if (bytes < 0) {
+                bytes = index.memoryBytes();
+            }
+        }
+
+        assertEquals(0, index.size());
+
+        // a probe for a missing state ends, and the released slots were reclaimed rather than grown past
+        assertNull(index.get(state()));
+        assertEquals(bytes, index.memoryBytes());
+
+        SerializeTransaction txn = transaction(5, 0);
+        index.apply(record(txn), 1000);
+
+        assertDestroyedBy(index, txn.inputs.get(4), txn.txnId, 1000);
+    }
+
+    @Test
+    public void transactionWithoutInputsConsumesNothing() {
+        CompactDestructionIndex index = new CompactDestructionIndex(16);
+        long bytes = index.memoryBytes();
+
+        index.apply(record(transaction(0, 3)), 1);
+        index.commit(1, Instant.ofEpochSecond(1));
+
+        assertEquals(0, index.size());
+        assertEquals(bytes, index.memoryBytes());
+    }
+}
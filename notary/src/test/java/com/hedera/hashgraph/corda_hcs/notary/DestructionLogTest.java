@@ -0,0 +1,196 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.crypto.SecureHash;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.record;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.transaction;
+import static org.junit.Assert.assertEquals;
+
+public class DestructionLogTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Every entry replayed by {@link DestructionLog#recover}, as "record 3 <txnId>", "abort 2 <txnId>"
+     * or "commit 3 <resume timestamp>".
+     */
+    private static final class Replay implements DestructionLog.Visitor {
+        final List<String> entries = new ArrayList<>();
+
+        @Override
+        public void onRecord(long offset, byte[] body, int inputsLen) {
+            entries.add("record " + DestructionLog.entrySequenceNumber(body) + " " + txnId(body));
+        }
+
+        @Override
+        public void onAbort(long offset, byte[] body, int inputsLen) {
+            entries.add("abort " + DestructionLog.entrySequenceNumber(body) + " " + txnId(body));
+        }
+
+        @Override
+        public void onCommit(long sequenceNumber, Instant resumeTimestamp) {
+            entries.add("commit " + sequenceNumber + " " + resumeTimestamp);
+        }
+
+        private static SecureHash txnId(byte[] body) {
+            return new SecureHash.SHA256(Arrays.copyOfRange(body, DestructionLog.ENTRY_TXN_ID_OFFSET,
+                    DestructionLog.ENTRY_TXN_ID_OFFSET + 32));
+        }
+    }
+
+    private Path file() {
+        return folder.getRoot().toPath().resolve("destructions.log");
+    }
+
+    // appends a message of one record and returns what replaying it gives
+    private static List<String> appendMessage(DestructionLog log, long sequenceNumber) {
+        SerializeTransaction txn = transaction(3, 1);
+
+        log.appendRecord(record(txn), sequenceNumber);
+        log.appendCommit(sequenceNumber, Instant.ofEpochSecond(sequenceNumber));
+
+        return Arrays.asList(
+                "record " + sequenceNumber + " " + txn.txnId,
+                "commit " + sequenceNumber + " " + Instant.ofEpochSecond(sequenceNumber));
+    }
+
+    private List<String> recover(long offset) throws IOException {
+        Replay replay = new Replay();
+
+        try (DestructionLog log = DestructionLog.open(file())) {
+            log.recover(offset, replay);
+        }
+
+        return replay.entries;
+    }
+
+    @Test
+    public void recoverReplaysCommittedMessages() throws IOException {
+        List<String> expected = new ArrayList<>();
+        long firstEnd;
+
+        try (DestructionLog log = DestructionLog.open(file())) {
+            expected.addAll(appendMessage(log, 1));
+            firstEnd = log.end();
+
+            SerializeTransaction lock = transaction(2, 0);
+
+            log.appendRecord(record(lock), 2);
+            log.appendAbort(record(lock), 2);
+            log.appendCommit(2, Instant.ofEpochSecond(2));
+
+            expected.add("record 2 " + lock.txnId);
+            expected.add("abort 2 " + lock.txnId);
+            expected.add("commit 2 " + Instant.ofEpochSecond(2));
+        }
+
+        assertEquals(expected, recover(0));
+        assertEquals(expected.subList(2, expected.size()), recover(firstEnd));
+    }
+
+    @Test
+    public void uncommittedEntriesAreNeverWritten() throws IOException {
+        List<String> expected;
+        long end;
+
+        try (DestructionLog log = DestructionLog.open(file())) {
+            expected = appendMessage(log, 1);
+            end = log.end();
+
+            log.appendRecord(record(transaction(1, 0)), 2);
+        }
+
+        assertEquals(end, Files.size(file()));
+        assertEquals(expected, recover(0));
+    }
+
+    @Test
+    public void corruptEntryIsDiscardedWithEverythingAfter() throws IOException {
+        List<String> expected = new ArrayList<>();
+        long end;
+
+        try (DestructionLog log = DestructionLog.open(file())) {
+            expected.addAll(appendMessage(log, 1));
+            expected.addAll(appendMessage(log, 2));
+            end = log.end();
+
+            appendMessage(log, 3);
+            appendMessage(log, 4);
+        }
+
+        // flip a bit in the body of message 3's record
+        try (FileChannel channel = FileChannel.open(file(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, end + 20);
+            b.put(0, (byte) (b.get(0) ^ 1));
+            b.flip();
+            channel.write(b, end + 20);
+        }
+
+        assertEquals(expected, recover(0));
+        assertEquals(end, Files.size(file()));
+
+        // what follows is appended where the intact log ends
+        try (DestructionLog log = DestructionLog.open(file())) {
+            log.recover(0, new Replay());
+            expected.addAll(appendMessage(log, 3));
+        }
+
+        assertEquals(expected, recover(0));
+    }
+
+    @Test
+    public void tornMessageIsDiscarded() throws IOException {
+        List<String> expected;
+        long end;
+
+        try (DestructionLog log = DestructionLog.open(file())) {
+            expected = appendMessage(log, 1);
+            end = log.end();
+
+            appendMessage(log, 2);
+        }
+
+        // the commit entry of message 2 was only partly written
+        try (FileChannel channel = FileChannel.open(file(), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        assertEquals(expected, recover(0));
+        assertEquals(end, Files.size(file()));
+    }
+
+    @Test
+    public void zerosPastTheEndAreIgnored() throws IOException {
+        List<String> expected;
+        long end;
+
+        try (DestructionLog log = DestructionLog.open(file())) {
+            expected = appendMessage(log, 1);
+            end = log.end();
+        }
+
+        // as left by mapping a window past the end of the file
+        try (FileChannel channel = FileChannel.open(file(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4096), end);
+        }
+
+        assertEquals(expected, recover(0));
+        assertEquals(end, Files.size(file()));
+    }
+}
@@ -0,0 +1,128 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.record;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.spending;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.state;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.states;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FilteredDestructionIndexTest {
+    private static final int BITS_PER_STATE = 10;
+
+    private static void assertConsumed(DestructionIndex index, StateRef state, SecureHash txnId) {
+        StateDestruction destruction = index.get(state);
+
+        assertNotNull(state.toString(), destruction);
+        assertEquals(txnId, destruction.txnId);
+
+        assertNotNull(state.toString(), index.probe(state.getTxhash().getBytes(), 0, state.getIndex()));
+    }
+
+    @Test
+    public void appliedStatesAreNeverFilteredOut() {
+        CompactDestructionIndex wrapped = new CompactDestructionIndex(16);
+        FilteredDestructionIndex index = new FilteredDestructionIndex(wrapped, 64, BITS_PER_STATE);
+
+        long initialBytes = index.memoryBytes() - wrapped.memoryBytes();
+
+        List<SerializeTransaction> txns = new ArrayList<>();
+
+        // grown several times over
+        for (int seq = 1; seq <= 2000; seq++) {
+            SerializeTransaction txn = spending(SecureHash.randomSHA256(), states(1 + seq % 4));
+
+            index.apply(record(txn), seq);
+            txns.add(txn);
+
+            // found as soon as it's applied, whether or not that grew the filter
+            for (StateRef input : txn.inputs) {
+                assertConsumed(index, input, txn.txnId);
+            }
+        }
+
+        for (SerializeTransaction txn : txns) {
+            for (StateRef input : txn.inputs) {
+                assertConsumed(index, input, txn.txnId);
+            }
+        }
+
+        assertTrue(index.memoryBytes() - wrapped.memoryBytes() > initialBytes);
+    }
+
+    @Test
+    public void statesAlreadyInTheIndexAreAdded() {
+        CompactDestructionIndex wrapped = new CompactDestructionIndex(16);
+        List<SerializeTransaction> txns = new ArrayList<>();
+
+        for (int seq = 1; seq <= 500; seq++) {
+            SerializeTransaction txn = spending(SecureHash.randomSHA256(), states(2));
+
+            wrapped.apply(record(txn), seq);
+            txns.add(txn);
+        }
+
+        // sized for fewer states than it's given
+        FilteredDestructionIndex index = new FilteredDestructionIndex(wrapped, 16, BITS_PER_STATE);
+
+        for (SerializeTransaction txn : txns) {
+            for (StateRef input : txn.inputs) {
+                assertConsumed(index, input, txn.txnId);
+            }
+        }
+
+        assertEquals(0, index.falsePositiveRate(), 0);
+    }
+
+    @Test
+    public void releasedStatesAreLookedUpInTheIndex() {
+        FilteredDestructionIndex index = new FilteredDestructionIndex(new CompactDestructionIndex(16), 64, BITS_PER_STATE);
+        SerializeTransaction lock = spending(SecureHash.randomSHA256(), states(3));
+
+        index.apply(record(lock), 1);
+        index.abort(record(lock), 1, 2);
+
+        for (StateRef input : lock.inputs) {
+            assertNull(index.get(input));
+        }
+    }
+
+    @Test
+    public void reportsItsFalsePositiveRateAndSize() {
+        CompactDestructionIndex wrapped = new CompactDestructionIndex(16);
+        FilteredDestructionIndex index = new FilteredDestructionIndex(wrapped, 1024, BITS_PER_STATE);
+
+        assertEquals(0, index.falsePositiveRate(), 0);
+
+        int consumed = 10_000;
+
+        for (int seq = 1; seq <= consumed; seq++) {
+            index.apply(record(spending(SecureHash.randomSHA256(), states(1))), seq);
+        }
+
+        // at least as many bits per state as configured, but not more than four times as many
+        long filterBytes = index.memoryBytes() - wrapped.memoryBytes();
+
+        assertTrue(String.valueOf(filterBytes), filterBytes >= (long) consumed * BITS_PER_STATE / 8);
+        assertTrue(String.valueOf(filterBytes), filterBytes <= 4L * consumed * BITS_PER_STATE / 8);
+
+        for (int i = 0; i < 100_000; i++) {
+            assertNull(index.get(state()));
+        }
+
+        // about 1% at 10 bits per state
+        double rate = index.falsePositiveRate();
+
+        assertTrue(String.valueOf(rate), rate > 0 && rate < 0.03);
+    }
+}
@@ -0,0 +1,371 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import com.codahale.metrics.MetricRegistry;
+import com.typesafe.config.ConfigFactory;
+
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.NotaryError;
+import net.corda.core.flows.NotaryException;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.spending;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.state;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * A notary sharded over two simulated topics, for the locks transactions spanning both take.
+ */
+public class HcsNotaryCoreTest {
+    private static final String PRIVATE_KEY = "db484b828e64b2d8f12ce3c0a0e93a0b8cce7af1bb8f39c97732394482538e10";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<HcsNotaryCore> cores = new ArrayList<>();
+
+    @After
+    public void stop() {
+        for (HcsNotaryCore core : cores) {
+            core.stop();
+        }
+    }
+
+    private static HcsConfig config(long lockTimeoutMillis, @Nullable Path persistenceDirectory) {
+        return config(lockTimeoutMillis, persistenceDirectory, "");
+    }
+
+    // one record per message, so the watermark counts the records submitted
+    private static HcsConfig config(String contendedInputs) {
+        return config(600_000, null, " contendedInputs = " + contendedInputs + ", batch.maxRecords = 1,");
+    }
+
+    private static HcsConfig config(long lockTimeoutMillis, @Nullable Path persistenceDirectory, String settings) {
+        return new HcsConfig(ConfigFactory.parseString("hcs {"
+                + " accountId = \"0.0.1001\", privateKey = \"" + PRIVATE_KEY + "\", testnet = true," + settings
+                + " transport = simulated, simulator { latencyMs = 5, jitterMs = 2 },"
+                + " topicIds = [\"0.0.7001\", \"0.0.7002\"], compactMessages = true, lockTimeoutMs = " + lockTimeoutMillis + ","
+                + (persistenceDirectory != null
+                        ? " persistence { enabled = true, directory = \"" + persistenceDirectory + "\","
+                        : " persistence { enabled = false,")
+                // small, as the off-heap tables of stopped notaries are only freed by the collector
+                + " initialCapacity = 1024 },"
+                + " bootstrap.mode = history"
+                + " }"));
+    }
+
+    private HcsNotaryCore start(HcsConfig config, @Nullable HcsTransport transport) throws Exception {
+        HcsNotaryCore core = new HcsNotaryCore(config, folder.getRoot().toPath(), new MetricRegistry(), transport);
+
+        cores.add(core);
+        core.start();
+
+        return core;
+    }
+
+    private void stop(HcsNotaryCore core) {
+        cores.remove(core);
+        core.stop();
+    }
+
+    // a new state in the same shard as the given one
+    private static StateRef stateBeside(HcsNotaryCore core, StateRef other) {
+        while (true) {
+            StateRef state = state();
+
+            if (core.shardOf(state) == core.shardOf(other)) {
+                return state;
+            }
+        }
+    }
+
+    // a new state in the other shard from the given one
+    private static StateRef stateApartFrom(HcsNotaryCore core, StateRef other) {
+        while (true) {
+            StateRef state = state();
+
+            if (core.shardOf(state) != core.shardOf(other)) {
+                return state;
+            }
+        }
+    }
+
+    private static void commit(HcsNotaryCore core, SerializeTransaction txn) throws Exception {
+        core.commitTransactionSpends(txn, NotarisationTracer.NONE).get(10, TimeUnit.SECONDS);
+    }
+
+    private static NotaryError commitError(HcsNotaryCore core, SerializeTransaction txn) throws Exception {
+        CompletableFuture<Void> result = core.commitTransactionSpends(txn, NotarisationTracer.NONE);
+
+        try {
+            result.get(10, TimeUnit.SECONDS);
+            fail("expected " + txn.txnId + " to be rejected");
+            return null;
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof NotaryException);
+            return ((NotaryException) e.getCause()).getError();
+        }
+    }
+
+    // submits a lock record whose coordinator never commits or aborts it
+    private static long orphanLock(HcsShard shard, SerializeTransaction txn) throws Exception {
+        long sequenceNumber = shard.submit(txn, SerializeTransaction.RECORD_LOCK, -1, NotarisationTracer.NONE)
+                .get(10, TimeUnit.SECONDS);
+
+        shard.awaitSequenceNumber(sequenceNumber).get(10, TimeUnit.SECONDS);
+
+        return sequenceNumber;
+    }
+
+    private static void abort(HcsShard shard, SerializeTransaction txn, long lockSequenceNumber) throws Exception {
+        long sequenceNumber = shard.submit(txn, SerializeTransaction.RECORD_ABORT, lockSequenceNumber, NotarisationTracer.NONE)
+                .get(10, TimeUnit.SECONDS);
+
+        shard.awaitSequenceNumber(sequenceNumber).get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void crossShardCommitIsFinal() throws Exception {
+        HcsNotaryCore core = start(config(600_000, null), null);
+
+        StateRef a = state();
+        StateRef b = stateApartFrom(core, a);
+
+        SerializeTransaction txn = spending(SecureHash.randomSHA256(), Arrays.asList(a, b));
+        commit(core, txn);
+
+        assertTrue(core.isCommitted(txn));
+
+        for (StateRef state : Arrays.asList(a, b)) {
+            HcsShard shard = core.shardOf(state);
+
+            assertFalse(shard.isHeld(state, shard.get(state)));
+            assertTrue(commitError(core, spending(SecureHash.randomSHA256(), Collections.singletonList(state)))
+                    instanceof NotaryError.Conflict);
+        }
+    }
+
+    @Test
+    public void heldLockIsRetryableUntilItExpires() throws Exception {
+        HcsNotaryCore core = start(config(1500, null), null);
+
+        StateRef locked = state();
+        HcsShard shard = core.shardOf(locked);
+
+        SerializeTransaction orphan = spending(SecureHash.randomSHA256(), Collections.singletonList(locked));
+        long lockSequenceNumber = orphanLock(shard, orphan);
+
+        assertEquals(orphan.txnId, shard.get(locked).txnId);
+        assertTrue(shard.isHeld(locked, shard.get(locked)));
+
+        // a conflict with a lock that may yet be released is worth retrying, not final
+        SerializeTransaction txn = spending(SecureHash.randomSHA256(), Collections.singletonList(locked));
+
+        assertTrue(commitError(core, txn) instanceof NotaryError.General);
+        assertFalse(core.isCommitted(txn));
+
+        SerializeTransaction crossShard = spending(SecureHash.randomSHA256(),
+                Arrays.asList(locked, stateApartFrom(core, locked)));
+
+        assertTrue(commitError(core, crossShard) instanceof NotaryError.General);
+
+        // expired by the first message after the timeout, so the retry wins
+        Thread.sleep(2000);
+
+        SerializeTransaction retry = spending(SecureHash.randomSHA256(), Collections.singletonList(locked));
+        commit(core, retry);
+
+        assertEquals(retry.txnId, shard.get(locked).txnId);
+        assertFalse(shard.isHeld(locked, shard.get(locked)));
+
+        // a late abort of the expired lock leaves the retry's spend alone
+        abort(shard, orphan, lockSequenceNumber);
+
+        assertEquals(retry.txnId, shard.get(locked).txnId);
+        assertTrue(core.isCommitted(retry));
+    }
+
+    @Test
+    public void retryInFlightSendsNoSecondMessage() throws Exception {
+        HcsNotaryCore core = start(config(600_000, null), null);
+
+        StateRef input = state();
+        HcsShard shard = core.shardOf(input);
+        SerializeTransaction txn = spending(SecureHash.randomSHA256(), Collections.singletonList(input));
+
+        // the client gave up waiting and asked again before the first request was applied
+        CompletableFuture<Void> first = core.commitTransactionSpends(txn, NotarisationTracer.NONE);
+        CompletableFuture<Void> retry = core.commitTransactionSpends(txn, NotarisationTracer.NONE);
+
+        retry.get(10, TimeUnit.SECONDS);
+        first.get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, shard.watermark());
+        assertTrue(core.isCommitted(txn));
+    }
+
+    @Test
+    public void contendedInputQueuesUntilTheHolderIsApplied() throws Exception {
+        HcsNotaryCore core = start(config("queue"), null);
+
+        StateRef input = state();
+        HcsShard shard = core.shardOf(input);
+
+        SerializeTransaction holder = spending(SecureHash.randomSHA256(), Collections.singletonList(input));
+        SerializeTransaction waiter = spending(SecureHash.randomSHA256(), Collections.singletonList(input));
+
+        CompletableFuture<Void> held = core.commitTransactionSpends(holder, NotarisationTracer.NONE);
+
+        // found consumed once the holder is applied, without being submitted
+        NotaryError error = commitError(core, waiter);
+
+        assertTrue(held.isDone());
+        assertTrue(String.valueOf(error), error instanceof NotaryError.Conflict);
+        assertTrue(((NotaryError.Conflict) error).getConsumedStates().containsKey(input));
+
+        assertEquals(1, shard.watermark());
+        assertTrue(core.isCommitted(holder));
+        assertFalse(core.isCommitted(waiter));
+    }
+
+    @Test
+    public void contendedInputFailsFast() throws Exception {
+        HcsNotaryCore core = start(config("fail-fast"), null);
+
+        StateRef input = state();
+        HcsShard shard = core.shardOf(input);
+
+        SerializeTransaction holder = spending(SecureHash.randomSHA256(), Collections.singletonList(input));
+        SerializeTransaction waiter = spending(SecureHash.randomSHA256(), Collections.singletonList(input));
+
+        CompletableFuture<Void> held = core.commitTransactionSpends(holder, NotarisationTracer.NONE);
+
+        // worth retrying, as the holder may yet fail
+        NotaryError error = commitError(core, waiter);
+
+        assertFalse(held.isDone());
+        assertTrue(String.valueOf(error), error instanceof NotaryError.General);
+
+        held.get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, shard.watermark());
+        assertTrue(core.isCommitted(holder));
+        assertFalse(core.isCommitted(waiter));
+    }
+
+    @Test
+    public void contendedInputIsSubmittedForConsensusToDecide() throws Exception {
+        HcsNotaryCore core = start(config("submit"), null);
+
+        StateRef input = state();
+        HcsShard shard = core.shardOf(input);
+
+        List<SerializeTransaction> txns = Arrays.asList(
+                spending(SecureHash.randomSHA256(), Collections.singletonList(input)),
+                spending(SecureHash.randomSHA256(), Collections.singletonList(input)));
+
+        List<CompletableFuture<Void>> results = new ArrayList<>();
+
+        for (SerializeTransaction txn : txns) {
+            results.add(core.commitTransactionSpends(txn, NotarisationTracer.NONE));
+        }
+
+        // both were sent, and whichever consensus ordered first won
+        List<SerializeTransaction> committed = new ArrayList<>();
+
+        for (int i = 0; i < txns.size(); i++) {
+            try {
+                results.get(i).get(10, TimeUnit.SECONDS);
+                committed.add(txns.get(i));
+            } catch (ExecutionException e) {
+                assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof NotaryException);
+                assertTrue(((NotaryException) e.getCause()).getError() instanceof NotaryError.Conflict);
+            }
+        }
+
+        assertEquals(2, shard.watermark());
+        assertEquals(1, committed.size());
+        assertEquals(committed.get(0).txnId, shard.get(input).txnId);
+
+        for (SerializeTransaction txn : txns) {
+            assertEquals(committed.contains(txn), core.isCommitted(txn));
+        }
+    }
+
+    @Test
+    public void locksAreRebuiltAfterRestart() throws Exception {
+        Path directory = folder.newFolder("index").toPath();
+        HcsConfig config = config(600_000, directory);
+        SimulatedTransport network = new SimulatedTransport(config);
+
+        HcsNotaryCore core = start(config, network);
+
+        StateRef locked = state();
+        HcsShard shard = core.shardOf(locked);
+
+        SerializeTransaction orphan = spending(SecureHash.randomSHA256(), Collections.singletonList(locked));
+        long lockSequenceNumber = orphanLock(shard, orphan);
+
+        // traffic after the lock, which the index resumes after
+        for (int i = 0; i < 20; i++) {
+            commit(core, spending(SecureHash.randomSHA256(), Collections.singletonList(stateBeside(core, locked))));
+        }
+
+        StateRef committed = stateBeside(core, locked);
+        StateRef apart = stateApartFrom(core, locked);
+        SerializeTransaction crossShard = spending(SecureHash.randomSHA256(), Arrays.asList(committed, apart));
+
+        commit(core, crossShard);
+
+        stop(core);
+
+        core = start(config, network.reconnect(config));
+        shard = core.shardOf(locked);
+
+        // the other shard held no locks, so it has nothing to replay; still, until it applies a
+        // message after the restart, it can't tell that a destruction isn't a lock yet to be rebuilt
+        HcsShard apartShard = core.shardOf(apart);
+
+        assertTrue(apartShard.isHeld(apart, apartShard.get(apart)));
+
+        // traffic after the restart in both shards, only applied once the messages before it were replayed
+        commit(core, spending(SecureHash.randomSHA256(),
+                Arrays.asList(stateBeside(core, locked), stateApartFrom(core, locked))));
+
+        assertFalse(apartShard.isHeld(apart, apartShard.get(apart)));
+
+        assertEquals(orphan.txnId, shard.get(locked).txnId);
+        assertTrue(shard.isHeld(locked, shard.get(locked)));
+        assertFalse(shard.isHeld(committed, shard.get(committed)));
+        assertTrue(core.isCommitted(crossShard));
+
+        assertTrue(commitError(core, spending(SecureHash.randomSHA256(), Collections.singletonList(locked)))
+                instanceof NotaryError.General);
+        assertTrue(commitError(core, spending(SecureHash.randomSHA256(), Collections.singletonList(committed)))
+                instanceof NotaryError.Conflict);
+
+        // the orphan's coordinator comes back and aborts
+        abort(shard, orphan, lockSequenceNumber);
+
+        assertNull(shard.get(locked));
+    }
+}
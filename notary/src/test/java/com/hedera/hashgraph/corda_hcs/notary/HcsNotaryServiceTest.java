@@ -0,0 +1,215 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import com.codahale.metrics.MetricRegistry;
+import com.typesafe.config.ConfigFactory;
+
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.crypto.Crypto;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.crypto.SignatureMetadata;
+import net.corda.core.crypto.TransactionSignature;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.CoreTransaction;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.spending;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.state;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * The answers to retried requests, from a notary on one simulated topic.
+ */
+public class HcsNotaryServiceTest {
+    private static final String PRIVATE_KEY = "db484b828e64b2d8f12ce3c0a0e93a0b8cce7af1bb8f39c97732394482538e10";
+
+    private static final KeyPair KEY_PAIR = Crypto.generateKeyPair(Crypto.EDDSA_ED25519_SHA512);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // how many signatures were made
+    private final AtomicInteger signatures = new AtomicInteger();
+
+    private HcsNotaryCore core;
+    private HcsNotaryService service;
+
+    @After
+    public void stop() {
+        if (service != null) {
+            service.stop();
+        }
+    }
+
+    private void start(int signatureCacheSize) {
+        HcsConfig config = new HcsConfig(ConfigFactory.parseString("hcs {"
+                + " accountId = \"0.0.1001\", privateKey = \"" + PRIVATE_KEY + "\", testnet = true,"
+                + " transport = simulated, simulator { latencyMs = 5, jitterMs = 2 },"
+                + " topicIds = [\"0.0.7001\"], signatureCacheSize = " + signatureCacheSize + ","
+                + " persistence { enabled = false, initialCapacity = 1024 },"
+                + " bootstrap.mode = history"
+                + " }"));
+
+        core = new HcsNotaryCore(config, folder.getRoot().toPath(), new MetricRegistry());
+
+        // signing over the ID alone is enough to tell which was signed
+        service = new HcsNotaryService(null, KEY_PAIR.getPublic(), config, core, id -> {
+            signatures.incrementAndGet();
+
+            return new TransactionSignature(id.getBytes(), KEY_PAIR.getPublic(),
+                    new SignatureMetadata(4, Crypto.EDDSA_ED25519_SHA512.getSchemeNumberID()));
+        }) {
+        };
+
+        service.start();
+    }
+
+    private static CoreTransaction transaction(SecureHash id, List<StateRef> inputs, List<StateRef> refs) {
+        return new CoreTransaction() {
+            @NotNull
+            @Override
+            public SecureHash getId() {
+                return id;
+            }
+
+            @NotNull
+            @Override
+            public List<StateRef> getInputs() {
+                return inputs;
+            }
+
+            @NotNull
+            @Override
+            public List<StateRef> getReferences() {
+                return refs;
+            }
+
+            @NotNull
+            @Override
+            public List<TransactionState<ContractState>> getOutputs() {
+                return Collections.emptyList();
+            }
+
+            @Nullable
+            @Override
+            public Party getNotary() {
+                return null;
+            }
+
+            @Nullable
+            @Override
+            public SecureHash getNetworkParametersHash() {
+                return null;
+            }
+        };
+    }
+
+    private void commit(CoreTransaction txn) throws Exception {
+        service.commitTransactionSpends(txn, NotarisationTracer.NONE).get(10, TimeUnit.SECONDS);
+    }
+
+    private void commit(SerializeTransaction txn) throws Exception {
+        core.commitTransactionSpends(txn, NotarisationTracer.NONE).get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void committedRequestIsSignedWithoutASubmission() throws Exception {
+        start(100);
+
+        StateRef input = state();
+        StateRef ref = state();
+        CoreTransaction txn = transaction(SecureHash.randomSHA256(), Collections.singletonList(input),
+                Collections.singletonList(ref));
+
+        assertNull(service.findIssuedSignature(txn));
+
+        commit(txn);
+
+        // the reference was consumed after the transaction's inputs, which doesn't change that it was notarised
+        commit(spending(SecureHash.randomSHA256(), Collections.singletonList(ref)));
+
+        HcsShard shard = core.shardOf(input);
+        long watermark = shard.watermark();
+
+        TransactionSignature signature = service.findIssuedSignature(txn);
+
+        assertNotNull(signature);
+        assertArrayEquals(txn.getId().getBytes(), signature.getBytes());
+        assertEquals(1, signatures.get());
+
+        // asked again, the signature is the one cached
+        assertSame(signature, service.findIssuedSignature(txn));
+        assertEquals(1, signatures.get());
+
+        assertEquals(watermark, shard.watermark());
+    }
+
+    @Test
+    public void referenceConsumedBeforeTheInputsIsNotCommitted() throws Exception {
+        start(100);
+
+        StateRef input = state();
+        StateRef ref = state();
+        SecureHash txId = SecureHash.randomSHA256();
+
+        // the reference was gone by the time the inputs were consumed under the transaction's ID,
+        // so it can't have been notarised as it is
+        commit(spending(SecureHash.randomSHA256(), Collections.singletonList(ref)));
+        commit(spending(txId, Collections.singletonList(input)));
+
+        assertNull(service.findIssuedSignature(transaction(txId, Collections.singletonList(input),
+                Collections.singletonList(ref))));
+
+        // nor if only some of its inputs were
+        assertNull(service.findIssuedSignature(transaction(txId, Arrays.asList(input, state()),
+                Collections.emptyList())));
+
+        assertEquals(0, signatures.get());
+    }
+
+    @Test
+    public void leastRecentlyUsedSignatureIsEvicted() {
+        start(2);
+
+        // none are committed, so only the cache answers for them
+        CoreTransaction first = transaction(SecureHash.randomSHA256(), Collections.singletonList(state()),
+                Collections.emptyList());
+        CoreTransaction second = transaction(SecureHash.randomSHA256(), Collections.singletonList(state()),
+                Collections.emptyList());
+        CoreTransaction third = transaction(SecureHash.randomSHA256(), Collections.singletonList(state()),
+                Collections.emptyList());
+
+        TransactionSignature signature = service.signTransaction(first.getId());
+        service.signTransaction(second.getId());
+
+        // looking up the first makes the second the least recently used
+        assertSame(signature, service.findIssuedSignature(first));
+
+        service.signTransaction(third.getId());
+
+        assertSame(signature, service.findIssuedSignature(first));
+        assertNull(service.findIssuedSignature(second));
+        assertNotNull(service.findIssuedSignature(third));
+
+        assertEquals(3, signatures.get());
+    }
+}
@@ -0,0 +1,111 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.contracts.StateRef;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.spending;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.transaction;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HeldLocksTest {
+    private static final Instant START = Instant.ofEpochSecond(1000);
+
+    private final HeldLocks locks = new HeldLocks(Duration.ofSeconds(60));
+
+    private static StateDestruction destruction(HeldLocks.Lock lock) {
+        return new StateDestruction(lock.record.txnId, lock.sequenceNumber);
+    }
+
+    @Test
+    public void heldUntilReleased() {
+        HeldLocks.Lock lock = new HeldLocks.Lock(transaction(2, 1), 5, START);
+        StateRef input = lock.record.inputs.get(0);
+
+        locks.hold(lock);
+
+        assertSame(lock, locks.get(lock.record.txnId, 5));
+        assertTrue(locks.isHeld(input, destruction(lock)));
+
+        // refs are read, not locked
+        assertFalse(locks.isHeld(lock.record.refs.get(0), destruction(lock)));
+
+        locks.release(lock);
+
+        assertNull(locks.get(lock.record.txnId, 5));
+        assertFalse(locks.isHeld(input, destruction(lock)));
+        assertNull(locks.earliestTimestamp());
+    }
+
+    @Test
+    public void onlyTheLockedDestructionIsHeld() {
+        HeldLocks.Lock lock = new HeldLocks.Lock(transaction(1, 0), 5, START);
+        StateRef input = lock.record.inputs.get(0);
+
+        locks.hold(lock);
+
+        // the same transaction at another sequence number, or another transaction
+        assertNull(locks.get(lock.record.txnId, 4));
+        assertFalse(locks.isHeld(input, new StateDestruction(lock.record.txnId, 4)));
+        assertFalse(locks.isHeld(input, new StateDestruction(transaction(0, 0).txnId, 5)));
+    }
+
+    @Test
+    public void releasingAnOldLockLeavesANewerOne() {
+        HeldLocks.Lock first = new HeldLocks.Lock(transaction(1, 0), 5, START);
+        StateRef input = first.record.inputs.get(0);
+
+        // the state was released by an abort and locked again before the first lock's release
+        HeldLocks.Lock second = new HeldLocks.Lock(spending(transaction(0, 0).txnId, first.record.inputs), 8, START.plusSeconds(1));
+
+        locks.hold(first);
+        locks.hold(second);
+        locks.release(first);
+
+        assertTrue(locks.isHeld(input, destruction(second)));
+        assertSame(second, locks.get(second.record.txnId, 8));
+        assertEquals(START.plusSeconds(1), locks.earliestTimestamp());
+    }
+
+    @Test
+    public void locksExpireOldestFirst() {
+        HeldLocks.Lock first = new HeldLocks.Lock(transaction(1, 0), 5, START);
+        HeldLocks.Lock second = new HeldLocks.Lock(transaction(1, 0), 6, START.plusSeconds(10));
+
+        locks.hold(first);
+        locks.hold(second);
+
+        assertEquals(START, locks.earliestTimestamp());
+
+        // expired only after the timeout has passed
+        assertNull(locks.expired(START.plusSeconds(60)));
+        assertSame(first, locks.expired(START.plusSeconds(61)));
+
+        locks.release(first);
+
+        assertNull(locks.expired(START.plusSeconds(61)));
+        assertSame(second, locks.expired(START.plusSeconds(71)));
+        assertEquals(START.plusSeconds(10), locks.earliestTimestamp());
+
+        locks.release(second);
+
+        assertNull(locks.expired(START.plusSeconds(1000)));
+    }
+
+    @Test
+    public void lockRecordIsReadableAsABareRecord() {
+        HeldLocks.Lock lock = new HeldLocks.Lock(transaction(3, 2), 5, START);
+
+        TransactionView view = new TransactionView().wrap(lock.message);
+
+        assertTrue(view.next());
+        TestStates.assertTransactionEquals(lock.record, view.toSerializeTransaction());
+    }
+}
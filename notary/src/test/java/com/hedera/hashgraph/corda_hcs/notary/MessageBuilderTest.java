@@ -0,0 +1,243 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.assertTransactionEquals;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.transaction;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageBuilderTest {
+    @Test
+    public void loneRecordIsSentBare() {
+        SerializeTransaction txn = transaction(2, 1);
+        MessageBuilder builder = new MessageBuilder(false);
+
+        builder.add(txn);
+
+        byte[] message = builder.build();
+
+        assertArrayEquals(txn.serialize(), message);
+        assertTrue(SerializeTransaction.isRecord(message, message.length));
+    }
+
+    @Test
+    public void batchRoundTrips() {
+        for (int count = 2; count < 40; count++) {
+            MessageBuilder builder = new MessageBuilder(false);
+            List<SerializeTransaction> txns = new ArrayList<>();
+
+            for (int i = 0; i < count; i++) {
+                SerializeTransaction txn = transaction(i % 4, i % 3);
+
+                // a lone record is bare, with nothing around it
+                assertEquals(txns.isEmpty()
+                                ? txn.serializedSize()
+                                : SerializeTransaction.batchSize(recordsSize(txns) + txn.serializedSize()),
+                        builder.sizeWith(txn, SerializeTransaction.RECORD_APPLY));
+
+                builder.add(txn);
+                txns.add(txn);
+            }
+
+            byte[] message = builder.build();
+
+            // the size allows for a padding byte that most batches don't need
+            assertTrue(message.length <= SerializeTransaction.batchSize(recordsSize(txns)));
+            assertFalse(SerializeTransaction.isRecord(message, message.length));
+
+            List<SerializeTransaction> decoded = SerializeTransaction.deserializeAll(message);
+
+            assertEquals(count, decoded.size());
+
+            for (int i = 0; i < count; i++) {
+                assertTransactionEquals(txns.get(i), decoded.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void compactBatchRoundTrips() {
+        Random random = new Random(7);
+
+        for (int count = 1; count < 60; count++) {
+            MessageBuilder builder = new MessageBuilder(true);
+            List<SerializeTransaction> txns = new ArrayList<>();
+
+            SecureHash parent = SecureHash.randomSHA256();
+
+            for (int i = 0; i < count; i++) {
+                List<StateRef> inputs = new ArrayList<>();
+                List<StateRef> refs = new ArrayList<>();
+
+                // some states share a transaction, some come from earlier records, and some have
+                // indices taking several varint bytes
+                for (int j = 0; j < i % 5; j++) {
+                    SecureHash hash = j % 2 == 0 ? parent : txns.isEmpty() ? SecureHash.randomSHA256() : txns.get(random.nextInt(txns.size())).txnId;
+                    inputs.add(new StateRef(hash, random.nextInt(i % 2 == 0 ? 100 : 100_000)));
+                }
+
+                for (int j = 0; j < i % 3; j++) {
+                    refs.add(new StateRef(SecureHash.randomSHA256(), j));
+                }
+
+                SerializeTransaction txn = new SerializeTransaction(SecureHash.randomSHA256(), inputs, refs);
+                int size = builder.sizeWith(txn, SerializeTransaction.RECORD_APPLY);
+
+                builder.add(txn);
+                txns.add(txn);
+
+                // exact, less the padding byte most messages don't need
+                int length = builder.build().length;
+                assertTrue(length == size || length == size - 1);
+            }
+
+            byte[] message = builder.build();
+
+            assertEquals(SerializeTransaction.VERSION_COMPACT, message[0]);
+            assertFalse(SerializeTransaction.isRecord(message, message.length));
+            assertFalse(SerializeTransaction.hasRecordKinds(message));
+
+            List<SerializeTransaction> decoded = SerializeTransaction.deserializeAll(message);
+
+            assertEquals(count, decoded.size());
+
+            for (int i = 0; i < count; i++) {
+                assertTransactionEquals(txns.get(i), decoded.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void compactSharesHashes() {
+        SecureHash parent = SecureHash.randomSHA256();
+        List<StateRef> inputs = new ArrayList<>();
+
+        for (int i = 0; i < 6; i++) {
+            inputs.add(new StateRef(parent, i));
+        }
+
+        SerializeTransaction txn = new SerializeTransaction(SecureHash.randomSHA256(), inputs, Collections.emptyList());
+
+        MessageBuilder builder = new MessageBuilder(true);
+        builder.add(txn);
+
+        // two hashes and a few bytes per state, where v1 repeats the hash for every state
+        assertTrue(builder.build().length < 90);
+        assertEquals(256, txn.serialize().length);
+    }
+
+    @Test
+    public void compactMessageIsPaddedWhenItLooksLikeABareRecord() {
+        // 35 records without states make a 1228-byte message; with the bytes at 32 .. 39 read as
+        // inputsLen = 0 and refsLen = 33, that's exactly the length of a bare record
+        MessageBuilder builder = new MessageBuilder(true);
+        List<SerializeTransaction> txns = new ArrayList<>();
+
+        for (int i = 0; i < 35; i++) {
+            byte[] txnId = SecureHash.randomSHA256().getBytes();
+
+            if (i == 0) {
+                txnId[30] = 0;
+                txnId[31] = 0;
+            } else if (i == 1) {
+                Arrays.fill(txnId, 0, 6, (byte) 0);
+                txnId[5] = 33;
+            }
+
+            SerializeTransaction txn = new SerializeTransaction(new SecureHash.SHA256(txnId),
+                    Collections.emptyList(), Collections.emptyList());
+
+            builder.add(txn);
+            txns.add(txn);
+        }
+
+        byte[] message = builder.build();
+
+        assertEquals(1229, message.length);
+        assertTrue(SerializeTransaction.isRecord(message, message.length - 1));
+        assertFalse(SerializeTransaction.isRecord(message, message.length));
+
+        List<SerializeTransaction> decoded = SerializeTransaction.deserializeAll(message);
+
+        assertEquals(35, decoded.size());
+
+        for (int i = 0; i < 35; i++) {
+            assertTransactionEquals(txns.get(i), decoded.get(i));
+        }
+    }
+
+    @Test
+    public void recordKindsRoundTrip() {
+        byte[] kinds = {SerializeTransaction.RECORD_APPLY, SerializeTransaction.RECORD_LOCK,
+                SerializeTransaction.RECORD_ABORT, SerializeTransaction.RECORD_COMMIT};
+        long[] lockSequenceNumbers = {-1, -1, 0x0102030405060708L, 77};
+
+        MessageBuilder builder = new MessageBuilder(true);
+        List<SerializeTransaction> txns = new ArrayList<>();
+
+        for (int i = 0; i < kinds.length; i++) {
+            SerializeTransaction txn = transaction(i + 1, i % 2);
+            int size = builder.sizeWith(txn, kinds[i]);
+
+            builder.add(txn, kinds[i], lockSequenceNumbers[i]);
+            txns.add(txn);
+
+            int length = builder.build().length;
+            assertTrue(length == size || length == size - 1);
+        }
+
+        byte[] message = builder.build();
+
+        assertEquals(SerializeTransaction.VERSION_COMPACT_KINDS, message[0]);
+        assertTrue(SerializeTransaction.hasRecordKinds(message));
+
+        TransactionView view = new TransactionView().wrap(message);
+
+        for (int i = 0; i < kinds.length; i++) {
+            assertTrue(view.next());
+            assertEquals(kinds[i], view.kind());
+            assertEquals(lockSequenceNumbers[i], view.lockSequenceNumber());
+            assertTransactionEquals(txns.get(i), view.toSerializeTransaction());
+        }
+
+        assertFalse(view.next());
+    }
+
+    @Test
+    public void applyRecordsAloneNeedNoKinds() {
+        MessageBuilder builder = new MessageBuilder(true);
+        builder.add(transaction(1, 0), SerializeTransaction.RECORD_APPLY, -1);
+
+        byte[] message = builder.build();
+
+        assertEquals(SerializeTransaction.VERSION_COMPACT, message[0]);
+        assertFalse(SerializeTransaction.hasRecordKinds(message));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void recordKindsNeedCompactMessages() {
+        new MessageBuilder(false).add(transaction(1, 0), SerializeTransaction.RECORD_LOCK, -1);
+    }
+
+    private static int recordsSize(List<SerializeTransaction> txns) {
+        int size = 0;
+
+        for (SerializeTransaction txn : txns) {
+            size += txn.serializedSize();
+        }
+
+        return size;
+    }
+}
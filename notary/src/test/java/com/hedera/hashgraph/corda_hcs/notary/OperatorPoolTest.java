@@ -0,0 +1,163 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import com.hedera.hashgraph.sdk.account.AccountId;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class OperatorPoolTest {
+    private static final List<AccountId> NODES = Arrays.asList(new AccountId(3), new AccountId(4), new AccountId(5));
+
+    // leases are pure bookkeeping, so the operators need no client
+    private static List<OperatorPool.Operator> operators(int count) {
+        List<OperatorPool.Operator> operators = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            operators.add(new OperatorPool.Operator(new AccountId(1001 + i), null));
+        }
+
+        return operators;
+    }
+
+    private static OperatorPool pool(List<OperatorPool.Operator> operators, HcsConfig.OperatorSelection selection,
+                                     Duration cooldown) {
+        return new OperatorPool(operators, selection, NODES, cooldown);
+    }
+
+    // the nodes the next `count` leases go to
+    private static List<AccountId> nodes(OperatorPool pool, int count) {
+        List<AccountId> nodes = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            try (OperatorPool.Lease lease = pool.acquire()) {
+                nodes.add(lease.nodeAccountId);
+            }
+        }
+
+        return nodes;
+    }
+
+    @Test
+    public void roundRobinTakesEachOperatorInTurn() {
+        List<OperatorPool.Operator> operators = operators(3);
+        OperatorPool pool = pool(operators, HcsConfig.OperatorSelection.ROUND_ROBIN, Duration.ofMinutes(1));
+
+        for (int i = 0; i < 6; i++) {
+            // whether or not the last lease is still open
+            assertSame(operators.get(i % 3), pool.acquire().operator);
+        }
+    }
+
+    @Test
+    public void leastLoadedTakesTheOperatorWithFewestLeases() {
+        List<OperatorPool.Operator> operators = operators(3);
+        OperatorPool pool = pool(operators, HcsConfig.OperatorSelection.LEAST_LOADED, Duration.ofMinutes(1));
+
+        // one lease each, ties spread across all of them
+        List<OperatorPool.Lease> leases = new ArrayList<>();
+        Set<OperatorPool.Operator> leased = new HashSet<>();
+
+        for (int i = 0; i < 3; i++) {
+            OperatorPool.Lease lease = pool.acquire();
+
+            leases.add(lease);
+            leased.add(lease.operator);
+        }
+
+        assertEquals(new HashSet<>(operators), leased);
+
+        // a second on all but one, which is then the only one with fewest
+        OperatorPool.Lease held = pool.acquire();
+        leases.add(held);
+        leases.add(pool.acquire());
+
+        OperatorPool.Operator idle = null;
+
+        for (OperatorPool.Operator operator : operators) {
+            long count = leases.stream().filter(lease -> lease.operator == operator).count();
+
+            if (count == 1) {
+                idle = operator;
+            }
+        }
+
+        for (int i = 0; i < 3; i++) {
+            try (OperatorPool.Lease lease = pool.acquire()) {
+                assertSame(idle, lease.operator);
+            }
+        }
+
+        // closing its leases makes another operator the least loaded
+        for (OperatorPool.Lease lease : leases) {
+            if (lease.operator == held.operator) {
+                lease.close();
+            }
+        }
+
+        try (OperatorPool.Lease lease = pool.acquire()) {
+            assertSame(held.operator, lease.operator);
+        }
+    }
+
+    @Test
+    public void nodesAreTakenInTurn() {
+        OperatorPool pool = pool(operators(1), HcsConfig.OperatorSelection.ROUND_ROBIN, Duration.ofMinutes(1));
+
+        assertEquals(Arrays.asList(NODES.get(0), NODES.get(1), NODES.get(2), NODES.get(0)), nodes(pool, 4));
+    }
+
+    @Test
+    public void nodeCoolingDownIsSkipped() {
+        OperatorPool pool = pool(operators(1), HcsConfig.OperatorSelection.ROUND_ROBIN, Duration.ofMinutes(1));
+
+        pool.cooldown(NODES.get(1));
+
+        for (AccountId node : nodes(pool, 9)) {
+            assertNotEquals(NODES.get(1), node);
+        }
+
+        // a node that isn't in the rotation is ignored
+        pool.cooldown(new AccountId(99));
+
+        assertEquals(new HashSet<>(Arrays.asList(NODES.get(0), NODES.get(2))), new HashSet<>(nodes(pool, 6)));
+    }
+
+    @Test(timeout = 10_000)
+    public void nodeComesBackAfterItsCooldown() throws InterruptedException {
+        OperatorPool pool = pool(operators(1), HcsConfig.OperatorSelection.ROUND_ROBIN, Duration.ofMillis(50));
+
+        pool.cooldown(NODES.get(0));
+
+        assertFalse(nodes(pool, 3).contains(NODES.get(0)));
+
+        Thread.sleep(100);
+
+        assertTrue(nodes(pool, 3).contains(NODES.get(0)));
+    }
+
+    @Test
+    public void everyNodeCoolingDownFallsBackToTheFirstBack() throws InterruptedException {
+        OperatorPool pool = pool(operators(1), HcsConfig.OperatorSelection.ROUND_ROBIN, Duration.ofMinutes(1));
+
+        pool.cooldown(NODES.get(0));
+        Thread.sleep(2);
+        pool.cooldown(NODES.get(2));
+        Thread.sleep(2);
+        pool.cooldown(NODES.get(1));
+
+        // still submitted somewhere, whichever node the rotation is at
+        assertEquals(Arrays.asList(NODES.get(0), NODES.get(0), NODES.get(0), NODES.get(0)), nodes(pool, 4));
+    }
+}
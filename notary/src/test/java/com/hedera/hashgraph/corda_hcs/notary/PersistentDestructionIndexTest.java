@@ -0,0 +1,309 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.contracts.StateRef;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.record;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.spending;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.state;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.states;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.transaction;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PersistentDestructionIndexTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // every transaction applied and committed, each consuming only new states
+    private final List<SerializeTransaction> committed = new ArrayList<>();
+
+    private Path directory() {
+        return folder.getRoot().toPath().resolve("index");
+    }
+
+    private PersistentDestructionIndex open(int checkpointInterval) throws IOException {
+        return PersistentDestructionIndex.open(directory(), 16, checkpointInterval);
+    }
+
+    // applies and commits messages of {@code records} transactions of {@code inputs} inputs each
+    private void applyMessages(DestructionIndex index, long firstSequenceNumber, int messages, int records, int inputs) {
+        for (long seq = firstSequenceNumber; seq < firstSequenceNumber + messages; seq++) {
+            for (int i = 0; i < records; i++) {
+                SerializeTransaction txn = transaction(inputs, 0);
+
+                index.apply(record(txn), seq);
+                committed.add(txn);
+            }
+
+            index.commit(seq, Instant.ofEpochSecond(1000 + seq));
+        }
+    }
+
+    private void assertCommitted(DestructionIndex index) {
+        long states = 0;
+
+        for (SerializeTransaction txn : committed) {
+            for (StateRef input : txn.inputs) {
+                StateDestruction destruction = index.get(input);
+
+                assertNotNull(destruction);
+                assertEquals(txn.txnId, destruction.txnId);
+            }
+
+            states += txn.inputs.size();
+        }
+
+        assertEquals(states, index.size());
+
+        for (int i = 0; i < 100; i++) {
+            assertNull(index.get(state()));
+        }
+    }
+
+    @Test
+    public void reopenRecoversCommittedMessages() throws IOException {
+        for (int checkpointInterval : new int[]{1, 7, 1000}) {
+            committed.clear();
+
+            PersistentDestructionIndex index = open(checkpointInterval);
+            applyMessages(index, 1, 50, 3, 10);
+
+            assertEquals(50, index.appliedSequenceNumber());
+            assertCommitted(index);
+            index.close();
+
+            index = open(checkpointInterval);
+
+            assertEquals(50, index.appliedSequenceNumber());
+            assertEquals(Instant.ofEpochSecond(1050), index.resumeTimestamp());
+            assertCommitted(index);
+
+            index.delete();
+        }
+    }
+
+    @Test
+    public void crashLosesOnlyTheUncommittedMessage() throws IOException {
+        PersistentDestructionIndex index = open(7);
+        applyMessages(index, 1, 20, 2, 5);
+
+        SerializeTransaction uncommitted = transaction(3, 0);
+        index.apply(record(uncommitted), 21);
+
+        StateRef pending = uncommitted.inputs.get(0);
+
+        assertNull(index.get(pending));
+        assertNotNull(index.probe(pending.getTxhash().getBytes(), 0, pending.getIndex()));
+
+        // reopen without closing, as after a crash
+        PersistentDestructionIndex recovered = open(7);
+
+        assertEquals(20, recovered.appliedSequenceNumber());
+        assertEquals(Instant.ofEpochSecond(1020), recovered.resumeTimestamp());
+        assertNull(recovered.probe(pending.getTxhash().getBytes(), 0, pending.getIndex()));
+        assertCommitted(recovered);
+
+        // and carries on from there
+        applyMessages(recovered, 21, 5, 2, 5);
+        recovered.close();
+
+        PersistentDestructionIndex reopened = open(7);
+        assertEquals(25, reopened.appliedSequenceNumber());
+        assertCommitted(reopened);
+        reopened.close();
+    }
+
+    @Test
+    public void firstDestructionWins() throws IOException {
+        PersistentDestructionIndex index = open(1000);
+
+        List<StateRef> inputs = states(2);
+        SerializeTransaction first = transaction(0, 0);
+        SerializeTransaction second = transaction(0, 0);
+
+        index.apply(record(spending(first.txnId, inputs)), 1);
+        index.apply(record(spending(second.txnId, inputs)), 1);
+        index.commit(1, Instant.ofEpochSecond(1));
+        index.apply(record(spending(second.txnId, inputs)), 2);
+        index.commit(2, Instant.ofEpochSecond(2));
+
+        assertEquals(2, index.size());
+        assertEquals(first.txnId, index.get(inputs.get(1)).txnId);
+        assertEquals(1, index.get(inputs.get(1)).sequenceNumber);
+
+        index.close();
+        index = open(1000);
+
+        assertEquals(2, index.size());
+        assertEquals(first.txnId, index.get(inputs.get(1)).txnId);
+        index.close();
+    }
+
+    @Test
+    public void abortSurvivesReopen() throws IOException {
+        PersistentDestructionIndex index = open(1000);
+        applyMessages(index, 1, 3, 1, 2);
+
+        List<StateRef> inputs = states(2);
+        SerializeTransaction lock = spending(transaction(0, 0).txnId, inputs);
+
+        index.apply(record(lock, SerializeTransaction.RECORD_LOCK, -1), 4);
+        index.commit(4, Instant.ofEpochSecond(4));
+
+        // an abort naming another lock releases nothing
+        index.abort(record(lock, SerializeTransaction.RECORD_ABORT, 3), 3, 5);
+        index.commit(5, Instant.ofEpochSecond(5));
+
+        assertEquals(lock.txnId, index.get(inputs.get(0)).txnId);
+
+        index.abort(record(lock, SerializeTransaction.RECORD_ABORT, 4), 4, 6);
+        index.commit(6, Instant.ofEpochSecond(6));
+
+        assertNull(index.get(inputs.get(0)));
+        assertCommitted(index);
+        index.close();
+
+        index = open(1000);
+
+        assertEquals(6, index.appliedSequenceNumber());
+        assertNull(index.get(inputs.get(0)));
+        assertNull(index.get(inputs.get(1)));
+        assertCommitted(index);
+
+        // the released states may be consumed again
+        SerializeTransaction txn = spending(transaction(0, 0).txnId, inputs);
+
+        index.apply(record(txn), 7);
+        index.commit(7, Instant.ofEpochSecond(7));
+        committed.add(txn);
+
+        assertCommitted(index);
+        index.close();
+    }
+
+    @Test(timeout = 60_000)
+    public void abortedLocksDontFillTheTable() throws IOException {
+        PersistentDestructionIndex index = open(10);
+        applyMessages(index, 1, 5, 2, 5);
+
+        long bytes = index.memoryBytes();
+
+        // more distinct states released than the table has slots
+        for (long seq = 6; seq < 206; seq += 2) {
+            SerializeTransaction lock = transaction(1000, 0);
+
+            index.apply(record(lock, SerializeTransaction.RECORD_LOCK, -1), seq);
+            index.commit(seq, Instant.ofEpochSecond(1000 + seq));
+            index.abort(record(lock, SerializeTransaction.RECORD_ABORT, seq), seq, seq + 1);
+            index.commit(seq + 1, Instant.ofEpochSecond(1000 + seq + 1));
+        }
+
+        // a probe for a missing state ends, and the released slots were dropped rather than grown past
+        assertCommitted(index);
+        assertTrue(index.memoryBytes() <= 2 * bytes);
+
+        // as after a crash, and after a clean shutdown
+        PersistentDestructionIndex recovered = open(10);
+
+        assertEquals(205, recovered.appliedSequenceNumber());
+        assertCommitted(recovered);
+
+        applyMessages(recovered, 206, 5, 2, 5);
+        recovered.close();
+
+        index = open(10);
+
+        assertCommitted(index);
+        assertTrue(index.memoryBytes() <= 2 * bytes);
+        index.close();
+    }
+
+    @Test
+    public void corruptCheckpointIsRebuiltFromLog() throws IOException {
+        PersistentDestructionIndex index = open(5);
+        applyMessages(index, 1, 12, 2, 5);
+        index.close();
+
+        byte[] checkpoint = Files.readAllBytes(directory().resolve("checkpoint"));
+        checkpoint[10] ^= 1;
+        Files.write(directory().resolve("checkpoint"), checkpoint);
+
+        index = open(5);
+
+        assertEquals(12, index.appliedSequenceNumber());
+        assertEquals(Instant.ofEpochSecond(1012), index.resumeTimestamp());
+        assertCommitted(index);
+        index.close();
+
+        Files.write(directory().resolve("checkpoint"), new byte[3]);
+
+        index = open(5);
+        assertCommitted(index);
+        index.close();
+    }
+
+    @Test
+    public void missingTableIsRebuiltFromLog() throws IOException {
+        PersistentDestructionIndex index = open(5);
+        applyMessages(index, 1, 12, 2, 5);
+        index.close();
+
+        try (DirectoryStream<Path> tables = Files.newDirectoryStream(directory(), "destructions-*.idx")) {
+            for (Path table : tables) {
+                Files.delete(table);
+            }
+        }
+
+        index = open(5);
+
+        assertEquals(12, index.appliedSequenceNumber());
+        assertCommitted(index);
+        index.close();
+    }
+
+    @Test
+    public void logLargerThanAMappedWindow() throws IOException {
+        // 24 MB of record entries, so some straddle the 16 MiB windows the log is mapped in
+        PersistentDestructionIndex index = open(50);
+        applyMessages(index, 1, 120, 7, 800);
+
+        assertCommitted(index);
+
+        // a crash after the last checkpoint replays entries from the second window
+        PersistentDestructionIndex recovered = open(50);
+
+        assertEquals(120, recovered.appliedSequenceNumber());
+        assertCommitted(recovered);
+        recovered.close();
+    }
+
+    @Test
+    public void emptyIndexHasNothingApplied() throws IOException {
+        PersistentDestructionIndex index = open(5);
+
+        assertEquals(-1, index.appliedSequenceNumber());
+        assertNull(index.resumeTimestamp());
+        index.close();
+
+        index = open(5);
+
+        assertEquals(-1, index.appliedSequenceNumber());
+        assertNull(index.resumeTimestamp());
+        assertEquals(0, index.size());
+        index.close();
+    }
+}
@@ -0,0 +1,88 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.assertTransactionEquals;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.transaction;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SerializeTransactionTest {
+    @Test
+    public void bareRecordRoundTrips() {
+        for (int inputs = 0; inputs < 4; inputs++) {
+            for (int refs = 0; refs < 3; refs++) {
+                SerializeTransaction txn = transaction(inputs, refs);
+                byte[] message = txn.serialize();
+
+                assertEquals(txn.serializedSize(), message.length);
+                assertTrue(SerializeTransaction.isRecord(message, message.length));
+
+                assertTransactionEquals(txn, SerializeTransaction.deserialize(message));
+
+                List<SerializeTransaction> decoded = SerializeTransaction.deserializeAll(message);
+
+                assertEquals(1, decoded.size());
+                assertTransactionEquals(txn, decoded.get(0));
+            }
+        }
+    }
+
+    @Test
+    public void batchRoundTrips() {
+        for (int count = 0; count < 40; count++) {
+            List<SerializeTransaction> txns = new ArrayList<>();
+            int recordsSize = 0;
+
+            for (int i = 0; i < count; i++) {
+                SerializeTransaction txn = transaction(i % 4, i % 3);
+
+                txns.add(txn);
+                recordsSize += txn.serializedSize();
+            }
+
+            byte[] message = SerializeTransaction.serializeBatch(txns);
+
+            assertEquals(SerializeTransaction.VERSION_BATCH, message[0]);
+            assertTrue(message.length <= SerializeTransaction.batchSize(recordsSize));
+            assertFalse(SerializeTransaction.isRecord(message, message.length));
+
+            List<SerializeTransaction> decoded = SerializeTransaction.deserializeAll(message);
+
+            assertEquals(count, decoded.size());
+
+            for (int i = 0; i < count; i++) {
+                assertTransactionEquals(txns.get(i), decoded.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void batchOfOneIsStillABatch() {
+        SerializeTransaction txn = transaction(1, 1);
+        byte[] message = SerializeTransaction.serializeBatch(Collections.singletonList(txn));
+
+        assertFalse(SerializeTransaction.isRecord(message, message.length));
+        assertEquals(SerializeTransaction.batchSize(txn.serializedSize()) - 1, message.length);
+        assertTransactionEquals(txn, SerializeTransaction.deserializeAll(message).get(0));
+    }
+
+    @Test
+    public void isRecordChecksTheLengthAgainstTheCounts() {
+        byte[] message = transaction(2, 1).serialize();
+
+        assertTrue(SerializeTransaction.isRecord(message, message.length));
+        assertFalse(SerializeTransaction.isRecord(message, message.length - 1));
+        assertFalse(SerializeTransaction.isRecord(message, 39));
+
+        // negative counts never describe a record, whatever the length
+        message[32] = (byte) 0xFF;
+
+        assertFalse(SerializeTransaction.isRecord(message, message.length));
+    }
+}
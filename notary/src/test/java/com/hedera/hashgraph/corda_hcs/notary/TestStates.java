@@ -0,0 +1,70 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * States, transactions and records for the tests.
+ */
+final class TestStates {
+    private TestStates() {
+    }
+
+    static StateRef state() {
+        return new StateRef(SecureHash.randomSHA256(), 0);
+    }
+
+    static List<StateRef> states(int count) {
+        List<StateRef> states = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            states.add(state());
+        }
+
+        return states;
+    }
+
+    /**
+     * A transaction of its own consuming {@code inputs} new states and referencing {@code refs}.
+     */
+    static SerializeTransaction transaction(int inputs, int refs) {
+        return new SerializeTransaction(SecureHash.randomSHA256(), states(inputs), states(refs));
+    }
+
+    static SerializeTransaction spending(SecureHash txnId, List<StateRef> inputs) {
+        return new SerializeTransaction(txnId, inputs, Collections.emptyList());
+    }
+
+    /**
+     * A view of the transaction as a lone v1 record, positioned on it.
+     */
+    static TransactionView record(SerializeTransaction txn) {
+        TransactionView view = new TransactionView().wrap(txn.serialize());
+        view.next();
+        return view;
+    }
+
+    /**
+     * A view of the transaction as a v4 record of the given kind, positioned on it.
+     */
+    static TransactionView record(SerializeTransaction txn, byte kind, long lockSequenceNumber) {
+        MessageBuilder builder = new MessageBuilder(true);
+        builder.add(txn, kind, lockSequenceNumber);
+
+        TransactionView view = new TransactionView().wrap(builder.build());
+        view.next();
+        return view;
+    }
+
+    static void assertTransactionEquals(SerializeTransaction expected, SerializeTransaction actual) {
+        assertEquals(expected.txnId, actual.txnId);
+        assertEquals(expected.inputs, actual.inputs);
+        assertEquals(expected.refs, actual.refs);
+    }
+}
@@ -0,0 +1,340 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.record;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.spending;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.state;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TieredDestructionIndexTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Random random = new Random(11);
+
+    // what the index should hold: the first destruction of each state not released since
+    private final Map<StateRef, StateDestruction> expected = new HashMap<>();
+
+    // every state applied so far, consumed or not
+    private final List<StateRef> states = new ArrayList<>();
+
+    // lock records not aborted yet, by the sequence number they were applied at
+    private final Map<Long, SerializeTransaction> locks = new HashMap<>();
+
+    private Path directory() {
+        return folder.getRoot().toPath().resolve("index");
+    }
+
+    private TieredDestructionIndex open(long hotMessages) throws IOException {
+        return TieredDestructionIndex.open(directory(), 16, 100, hotMessages);
+    }
+
+    /**
+     * Apply and commit {@code messages} messages after {@code sequenceNumber}, each either
+     * spending a few states, some of them spent before, or aborting an earlier lock.
+     */
+    private long applyMessages(DestructionIndex index, long sequenceNumber, int messages) {
+        for (int i = 0; i < messages; i++) {
+            long seq = ++sequenceNumber;
+
+            if (random.nextInt(10) < 2 && !locks.isEmpty()) {
+                List<Long> lockSequenceNumbers = new ArrayList<>(locks.keySet());
+                long lockSequenceNumber = lockSequenceNumbers.get(random.nextInt(lockSequenceNumbers.size()));
+                SerializeTransaction lock = locks.remove(lockSequenceNumber);
+
+                index.abort(record(lock), lockSequenceNumber, seq);
+
+                for (StateRef input : lock.inputs) {
+                    StateDestruction destruction = expected.get(input);
+
+                    if (destruction != null && destruction.txnId.equals(lock.txnId)
+                            && destruction.sequenceNumber == lockSequenceNumber) {
+                        expected.remove(input);
+                    }
+                }
+            } else {
+                List<StateRef> inputs = new ArrayList<>();
+
+                for (int j = random.nextInt(3); j >= 0; j--) {
+                    StateRef input = !states.isEmpty() && random.nextInt(4) == 0
+                            ? states.get(random.nextInt(states.size()))
+                            : new StateRef(SecureHash.randomSHA256(), random.nextInt(3));
+
+                    if (!inputs.contains(input)) {
+                        inputs.add(input);
+                    }
+                }
+
+                SerializeTransaction txn = spending(SecureHash.randomSHA256(), inputs);
+                index.apply(record(txn), seq);
+
+                for (StateRef input : inputs) {
+                    if (expected.putIfAbsent(input, new StateDestruction(txn.txnId, seq)) == null && !states.contains(input)) {
+                        states.add(input);
+                    }
+                }
+
+                if (random.nextInt(3) == 0) {
+                    locks.put(seq, txn);
+                }
+            }
+
+            index.commit(seq, Instant.ofEpochSecond(seq));
+        }
+
+        return sequenceNumber;
+    }
+
+    private void assertExpected(DestructionIndex index) {
+        for (StateRef state : states) {
+            StateDestruction destruction = expected.get(state);
+            StateDestruction actual = index.get(state);
+            StateDestruction probed = index.probe(state.getTxhash().getBytes(), 0, state.getIndex());
+
+            if (destruction == null) {
+                assertNull(state.toString(), actual);
+                assertNull(state.toString(), probed);
+            } else {
+                assertNotNull(state.toString(), actual);
+                assertEquals(destruction.txnId, actual.txnId);
+                assertEquals(destruction.sequenceNumber, actual.sequenceNumber);
+
+                assertNotNull(state.toString(), probed);
+                assertEquals(destruction.txnId, probed.txnId);
+            }
+        }
+
+        // each state once, from the tier that decides it
+        Map<StateRef, StateDestruction> visited = new HashMap<>();
+
+        index.forEach((hash, stateIndex, txnId, sequenceNumber) -> assertNull(visited.put(
+                new StateRef(new SecureHash.SHA256(hash.clone()), stateIndex),
+                new StateDestruction(new SecureHash.SHA256(txnId.clone()), sequenceNumber))));
+
+        assertEquals(expected.size(), visited.size());
+
+        for (Map.Entry<StateRef, StateDestruction> entry : expected.entrySet()) {
+            StateDestruction destruction = visited.get(entry.getKey());
+
+            assertNotNull(destruction);
+            assertEquals(entry.getValue().txnId, destruction.txnId);
+            assertEquals(entry.getValue().sequenceNumber, destruction.sequenceNumber);
+        }
+    }
+
+    private List<String> files() throws IOException {
+        List<String> files = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory())) {
+            for (Path file : stream) {
+                files.add(file.getFileName().toString());
+            }
+        }
+
+        return files;
+    }
+
+    private long count(String prefix) throws IOException {
+        return files().stream().filter(name -> name.startsWith(prefix)).count();
+    }
+
+    // waits for the background thread to migrate the frozen generation and delete it
+    private void awaitMigrated() throws Exception {
+        for (int i = 0; i < 500 && count("generation-") > 1; i++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(files().toString(), 1, count("generation-"));
+    }
+
+    @Test
+    public void tiersAgreeWithEveryDestruction() throws Exception {
+        TieredDestructionIndex index = open(40);
+        long seq = 0;
+
+        // checked as migrations run, not only once they're done
+        for (int i = 0; i < 30; i++) {
+            seq = applyMessages(index, seq, 50);
+            assertExpected(index);
+        }
+
+        awaitMigrated();
+
+        assertExpected(index);
+        assertEquals(seq, index.appliedSequenceNumber());
+        assertTrue(files().toString(), count("segment-") > 0);
+
+        index.close();
+
+        index = open(40);
+
+        assertEquals(seq, index.appliedSequenceNumber());
+        assertEquals(Instant.ofEpochSecond(seq), index.resumeTimestamp());
+        assertExpected(index);
+
+        // and carries on from there, aborting locks in every tier
+        seq = applyMessages(index, seq, 800);
+        awaitMigrated();
+
+        assertExpected(index);
+
+        index.close();
+    }
+
+    @Test
+    public void releasedStateHidesItsColdDestruction() throws Exception {
+        TieredDestructionIndex index = open(10);
+
+        StateRef locked = state();
+        SerializeTransaction lock = spending(SecureHash.randomSHA256(), Collections.singletonList(locked));
+
+        index.apply(record(lock), 1);
+        index.commit(1, Instant.ofEpochSecond(1));
+
+        long seq = applyMessages(index, 1, 50);
+        awaitMigrated();
+
+        assertEquals(lock.txnId, index.get(locked).txnId);
+
+        index.abort(record(lock), 1, ++seq);
+        index.commit(seq, Instant.ofEpochSecond(seq));
+
+        assertNull(index.get(locked));
+
+        // released through later migrations and a restart, then free to spend again
+        seq = applyMessages(index, seq, 50);
+        awaitMigrated();
+        index.close();
+
+        index = open(10);
+
+        assertNull(index.get(locked));
+
+        SerializeTransaction spend = spending(SecureHash.randomSHA256(), Collections.singletonList(locked));
+
+        index.apply(record(spend), ++seq);
+        index.commit(seq, Instant.ofEpochSecond(seq));
+
+        assertEquals(spend.txnId, index.get(locked).txnId);
+        assertEquals(seq, index.get(locked).sequenceNumber);
+
+        index.close();
+    }
+
+    @Test
+    public void filesLeftByACrashAreDeleted() throws Exception {
+        TieredDestructionIndex index = open(20);
+        long seq = applyMessages(index, 0, 100);
+
+        awaitMigrated();
+        index.close();
+
+        List<String> files = files();
+
+        // a segment written and a generation started, neither in the manifest yet
+        Files.write(directory().resolve("segment-99.cold"), new byte[10]);
+        Files.createDirectory(directory().resolve("generation-99"));
+        Files.write(directory().resolve("generation-99").resolve("destructions.log"), new byte[10]);
+
+        index = open(20);
+
+        assertEquals(files, files());
+        assertEquals(seq, index.appliedSequenceNumber());
+        assertExpected(index);
+
+        index.close();
+    }
+
+    @Test
+    public void corruptManifestIsRejected() throws Exception {
+        TieredDestructionIndex index = open(20);
+        applyMessages(index, 0, 100);
+
+        awaitMigrated();
+        index.close();
+
+        Path manifest = directory().resolve("tiers");
+        byte[] bytes = Files.readAllBytes(manifest);
+
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(manifest, bytes);
+
+        // unlike a checkpoint, it can't be rebuilt, and guessing would lose states
+        try {
+            open(20);
+            fail("expected the corrupt manifest to be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void adoptsAPlainIndex() throws Exception {
+        PersistentDestructionIndex plain = PersistentDestructionIndex.open(directory(), 16, 100);
+        long seq = applyMessages(plain, 0, 300);
+
+        plain.close();
+
+        TieredDestructionIndex index = open(50);
+
+        assertFalse(Files.exists(directory().resolve("destructions.log")));
+        assertEquals(seq, index.appliedSequenceNumber());
+        assertEquals(Instant.ofEpochSecond(seq), index.resumeTimestamp());
+        assertExpected(index);
+
+        // locks taken before it was adopted can still be aborted
+        seq = applyMessages(index, seq, 300);
+        awaitMigrated();
+
+        assertExpected(index);
+
+        index.close();
+
+        index = open(50);
+
+        assertExpected(index);
+
+        index.close();
+    }
+
+    @Test
+    public void emptyIndexHasNothingApplied() throws IOException {
+        TieredDestructionIndex index = open(10);
+
+        assertEquals(-1, index.appliedSequenceNumber());
+        assertNull(index.resumeTimestamp());
+        assertNull(index.get(state()));
+        assertEquals(0, index.size());
+
+        index.close();
+
+        index = open(10);
+
+        assertEquals(-1, index.appliedSequenceNumber());
+
+        index.close();
+    }
+}
@@ -0,0 +1,224 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import com.hedera.hashgraph.sdk.consensus.ConsensusTopicId;
+
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.record;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.spending;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.state;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.states;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class TopicSnapshotTest {
+    private static final ConsensusTopicId TOPIC_ID = new ConsensusTopicId(0, 0, 7001);
+
+    private static final Instant RESUME_TIMESTAMP = Instant.ofEpochSecond(1_600_000_000, 7);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Random random = new Random(5);
+
+    private final byte[] privateKey = new byte[32];
+    private byte[] publicKey;
+
+    private CompactDestructionIndex written;
+    private TopicMessage lastApplied;
+    private Path file;
+
+    @Before
+    public void write() throws IOException {
+        random.nextBytes(privateKey);
+        publicKey = Ed25519PublicKey.fromPrivateKey(privateKey).toBytes();
+
+        written = new CompactDestructionIndex(16);
+        long seq = 0;
+
+        for (int i = 0; i < 1000; i++) {
+            written.apply(record(spending(SecureHash.randomSHA256(), states(1 + i % 3))), ++seq);
+        }
+
+        // a released lock's state isn't in the snapshot
+        SerializeTransaction lock = spending(SecureHash.randomSHA256(), states(2));
+
+        written.apply(record(lock), ++seq);
+        written.abort(record(lock), seq, ++seq);
+        written.commit(seq, RESUME_TIMESTAMP);
+
+        byte[] runningHash = new byte[48];
+        random.nextBytes(runningHash);
+
+        lastApplied = new TopicMessage(seq, RESUME_TIMESTAMP.minusNanos(1), new byte[0], runningHash);
+        file = folder.getRoot().toPath().resolve("shard-0.snapshot");
+
+        TopicSnapshot.write(file, TOPIC_ID, lastApplied, RESUME_TIMESTAMP, written, privateKey);
+    }
+
+    private static Map<StateRef, String> destructions(DestructionIndex index) {
+        Map<StateRef, String> destructions = new HashMap<>();
+
+        index.forEach((hash, stateIndex, txnId, sequenceNumber) -> destructions.put(
+                new StateRef(new SecureHash.SHA256(hash.clone()), stateIndex),
+                new SecureHash.SHA256(txnId.clone()) + "@" + sequenceNumber));
+
+        return destructions;
+    }
+
+    private void assertRejected(Path snapshot, ConsensusTopicId topicId, byte[] key) {
+        CompactDestructionIndex index = new CompactDestructionIndex(16);
+
+        try {
+            TopicSnapshot.load(snapshot, topicId, index, key, watermark -> { });
+            fail("expected " + snapshot + " to be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void loadRebuildsTheSameIndex() throws IOException {
+        List<TopicMessage> checked = new ArrayList<>();
+        CompactDestructionIndex loaded = new CompactDestructionIndex(16);
+
+        TopicMessage watermark = TopicSnapshot.load(file, TOPIC_ID, loaded, publicKey, checked::add);
+
+        assertEquals(lastApplied.sequenceNumber, watermark.sequenceNumber);
+        assertEquals(lastApplied.consensusTimestamp, watermark.consensusTimestamp);
+        assertArrayEquals(lastApplied.runningHash, watermark.runningHash);
+        assertEquals(1, checked.size());
+
+        assertEquals(1999, written.size());
+        assertEquals(destructions(written), destructions(loaded));
+        assertEquals(lastApplied.sequenceNumber, loaded.appliedSequenceNumber());
+        assertEquals(RESUME_TIMESTAMP, loaded.resumeTimestamp());
+    }
+
+    @Test
+    public void loadIntoAPersistentIndexSurvivesARestart() throws IOException {
+        Path directory = folder.newFolder("index").toPath();
+        PersistentDestructionIndex loaded = PersistentDestructionIndex.open(directory, 16, 100);
+
+        TopicSnapshot.load(file, TOPIC_ID, loaded, publicKey, watermark -> { });
+        loaded.close();
+
+        loaded = PersistentDestructionIndex.open(directory, 16, 100);
+
+        assertEquals(destructions(written), destructions(loaded));
+        assertEquals(lastApplied.sequenceNumber, loaded.appliedSequenceNumber());
+        assertEquals(RESUME_TIMESTAMP, loaded.resumeTimestamp());
+
+        loaded.close();
+    }
+
+    @Test
+    public void watermarkIsCheckedBeforeAnyState() throws IOException {
+        CompactDestructionIndex loaded = new CompactDestructionIndex(16);
+
+        try {
+            TopicSnapshot.load(file, TOPIC_ID, loaded, publicKey, watermark -> {
+                assertEquals(0, loaded.size());
+                assertEquals(-1, loaded.appliedSequenceNumber());
+
+                // the mirror node has another running hash at that sequence number
+                throw new IllegalStateException("running hash mismatch");
+            });
+            fail("expected the watermark to be rejected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        assertEquals(0, loaded.size());
+        assertNull(loaded.get(state()));
+    }
+
+    @Test
+    public void tamperedSnapshotIsRejected() throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+
+        // in the header, a state, the count and the signature
+        for (int offset : new int[]{20, bytes.length / 2, bytes.length - 70, bytes.length - 1}) {
+            byte[] tampered = bytes.clone();
+            tampered[offset] ^= 1;
+
+            Path snapshot = folder.getRoot().toPath().resolve("tampered-" + offset);
+            Files.write(snapshot, tampered);
+
+            assertRejected(snapshot, TOPIC_ID, publicKey);
+        }
+    }
+
+    @Test
+    public void snapshotSignedByAnotherKeyIsRejected() {
+        byte[] otherPrivateKey = new byte[32];
+        random.nextBytes(otherPrivateKey);
+
+        assertRejected(file, TOPIC_ID, Ed25519PublicKey.fromPrivateKey(otherPrivateKey).toBytes());
+    }
+
+    @Test
+    public void snapshotOfAnotherTopicIsRejected() {
+        assertRejected(file, new ConsensusTopicId(0, 0, 7002), publicKey);
+    }
+
+    @Test
+    public void truncatedSnapshotIsRejected() throws Exception {
+        byte[] bytes = Files.readAllBytes(file);
+
+        for (int len : new int[]{0, 40, bytes.length / 2, bytes.length - 64, bytes.length - 1}) {
+            Path snapshot = folder.getRoot().toPath().resolve("truncated-" + len);
+            Files.write(snapshot, Arrays.copyOf(bytes, len));
+
+            assertRejected(snapshot, TOPIC_ID, publicKey);
+        }
+
+        // signed as they are, so only their length gives them away: a state cut short, and the
+        // last state missing with the count left as it was
+        int countOffset = bytes.length - 64 - 8;
+
+        for (int cut : new int[]{10, 76}) {
+            byte[] body = new byte[countOffset - cut + 8];
+
+            System.arraycopy(bytes, 0, body, 0, countOffset - cut);
+            System.arraycopy(bytes, countOffset, body, countOffset - cut, 8);
+
+            Path snapshot = folder.getRoot().toPath().resolve("cut-" + cut);
+            Files.write(snapshot, signed(body));
+
+            assertRejected(snapshot, TOPIC_ID, publicKey);
+        }
+    }
+
+    private byte[] signed(byte[] body) throws NoSuchAlgorithmException {
+        byte[] signature = SigningUtils.sign(privateKey, MessageDigest.getInstance("SHA-256").digest(body));
+        byte[] snapshot = Arrays.copyOf(body, body.length + signature.length);
+
+        System.arraycopy(signature, 0, snapshot, body.length, signature.length);
+
+        return snapshot;
+    }
+}
@@ -0,0 +1,207 @@
+package com.hedera.hashgraph.corda_hcs.notary;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.assertTransactionEquals;
+import static com.hedera.hashgraph.corda_hcs.notary.TestStates.transaction;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TransactionViewTest {
+    private static void assertMalformed(byte[] message) {
+        TransactionView view = new TransactionView();
+
+        try {
+            view.wrap(message);
+            fail("expected " + Arrays.toString(message) + " to be rejected");
+        } catch (IllegalArgumentException e) {
+            // a rejected message leaves nothing to read
+            assertFalse(view.next());
+        }
+    }
+
+    private static List<SerializeTransaction> batch(int count) {
+        List<SerializeTransaction> txns = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            txns.add(transaction(i % 3 + 1, i % 2));
+        }
+
+        return txns;
+    }
+
+    // a compact message with {@code hashesLen} zero hashes followed by {@code records}
+    private static byte[] compact(int hashesLen, byte[] records) {
+        byte[] message = new byte[1 + 1 + hashesLen * 32 + records.length];
+
+        message[0] = SerializeTransaction.VERSION_COMPACT;
+        message[1] = (byte) hashesLen;
+        System.arraycopy(records, 0, message, 2 + hashesLen * 32, records.length);
+
+        return message;
+    }
+
+    @Test
+    public void readsRecordsInPlace() {
+        SerializeTransaction txn = transaction(3, 2);
+        byte[] message = txn.serialize();
+
+        TransactionView view = new TransactionView().wrap(message);
+
+        assertTrue(view.next());
+        assertEquals(SerializeTransaction.RECORD_APPLY, view.kind());
+        assertEquals(-1, view.lockSequenceNumber());
+        assertEquals(txn.txnId, view.txnId());
+        assertEquals(3, view.inputsLen());
+        assertEquals(2, view.refsLen());
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(StateRefs.hashEquals(txn.inputs.get(i).getTxhash().getBytes(), 0, message, view.inputHashOffset(i)));
+            assertEquals(txn.inputs.get(i).getIndex(), view.inputIndex(i));
+        }
+
+        for (int i = 0; i < 2; i++) {
+            assertTrue(StateRefs.hashEquals(txn.refs.get(i).getTxhash().getBytes(), 0, message, view.refHashOffset(i)));
+            assertEquals(txn.refs.get(i).getIndex(), view.refIndex(i));
+        }
+
+        assertFalse(view.next());
+    }
+
+    @Test
+    public void viewIsReusable() {
+        TransactionView view = new TransactionView();
+
+        List<SerializeTransaction> large = batch(50);
+        List<SerializeTransaction> small = batch(2);
+
+        for (List<SerializeTransaction> txns : Arrays.asList(large, small, large)) {
+            view.wrap(SerializeTransaction.serializeBatch(txns));
+
+            for (SerializeTransaction txn : txns) {
+                assertTrue(view.next());
+                assertTransactionEquals(txn, view.toSerializeTransaction());
+            }
+
+            assertFalse(view.next());
+        }
+
+        assertMalformed(new byte[]{SerializeTransaction.VERSION_BATCH, 0, 0});
+
+        view.wrap(SerializeTransaction.serializeBatch(small));
+
+        assertTrue(view.next());
+        assertTransactionEquals(small.get(0), view.toSerializeTransaction());
+    }
+
+    @Test
+    public void truncatedBatchIsRejected() {
+        byte[] message = SerializeTransaction.serializeBatch(batch(4));
+
+        for (int len = 0; len < message.length; len++) {
+            assertMalformed(Arrays.copyOf(message, len));
+        }
+    }
+
+    @Test
+    public void unsupportedVersionIsRejected() {
+        byte[] message = SerializeTransaction.serializeBatch(batch(2));
+
+        message[0] = 9;
+
+        assertMalformed(message);
+    }
+
+    @Test
+    public void negativeRecordCountIsRejected() {
+        byte[] message = SerializeTransaction.serializeBatch(batch(2));
+
+        ByteBuffer.wrap(message).putInt(1, -2);
+
+        assertMalformed(message);
+    }
+
+    @Test
+    public void truncatedCompactMessageIsRejected() {
+        MessageBuilder builder = new MessageBuilder(true);
+
+        for (SerializeTransaction txn : batch(4)) {
+            builder.add(txn);
+        }
+
+        byte[] message = builder.build();
+
+        for (int len = 0; len < message.length; len++) {
+            assertMalformed(Arrays.copyOf(message, len));
+        }
+    }
+
+    @Test
+    public void compactHashTableOverrunIsRejected() {
+        // hashesLen = 1 << 27, whose 32 bytes per hash overflow an int
+        assertMalformed(new byte[]{SerializeTransaction.VERSION_COMPACT,
+                (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x40, 1, 0, 1, 0, 0, 0});
+
+        // two hashes where there is room for one
+        byte[] message = new byte[1 + 1 + 32 + 5];
+        message[0] = SerializeTransaction.VERSION_COMPACT;
+        message[1] = 2;
+
+        assertMalformed(message);
+    }
+
+    @Test
+    public void compactHashIndexOutOfRangeIsRejected() {
+        // one record, consuming state 0 of hash 0
+        assertEquals(1, SerializeTransaction.deserializeAll(compact(1, new byte[]{1, 0, 1, 0, 0, 0})).size());
+
+        // its transaction ID, or its input, at hash 1
+        assertMalformed(compact(1, new byte[]{1, 1, 1, 0, 0, 0}));
+        assertMalformed(compact(1, new byte[]{1, 0, 1, 0, 1, 0}));
+    }
+
+    @Test
+    public void overlongVarintIsRejected() {
+        // a record count of six varint bytes
+        assertMalformed(compact(1, new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0}));
+
+        // a state index whose last byte never comes
+        assertMalformed(compact(1, new byte[]{1, 0, 1, 0, 0, (byte) 0x80}));
+    }
+
+    @Test
+    public void unsupportedRecordKindIsRejected() {
+        byte[] message = TestStates.record(transaction(1, 0), SerializeTransaction.RECORD_LOCK, -1).data();
+
+        assertEquals(SerializeTransaction.VERSION_COMPACT_KINDS, message[0]);
+
+        // the kind of the only record, after a table of two hashes and the record count
+        int kind = 1 + 1 + 2 * 32 + 1;
+        assertEquals(SerializeTransaction.RECORD_LOCK, message[kind]);
+
+        message[kind] = 4;
+
+        assertMalformed(message);
+    }
+
+    @Test
+    public void impossibleStateCountsAreRejected() {
+        byte[] message = SerializeTransaction.serializeBatch(batch(2));
+
+        // the inputsLen of the first record, which would otherwise size the view's arrays
+        ByteBuffer.wrap(message).putInt(1 + 4 + 32, Integer.MAX_VALUE);
+
+        assertMalformed(message);
+
+        ByteBuffer.wrap(message).putInt(1 + 4 + 32, -1);
+
+        assertMalformed(message);
+    }
+}
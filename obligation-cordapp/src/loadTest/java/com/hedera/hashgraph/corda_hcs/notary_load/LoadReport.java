@@ -0,0 +1,163 @@
+package com.hedera.hashgraph.corda_hcs.notary_load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What a load test measured: the latency and outcome of each kind of flow started while
+ * measuring, and how many notarisations completed a second.
+ */
+final class LoadReport {
+    private static final Logger logger = LoggerFactory.getLogger(LoadReport.class);
+
+    // flows taking longer are recorded as taking this long
+    private static final long HIGHEST_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    enum Outcome {
+        SUCCEEDED,
+
+        /**
+         * Rejected by the notary, as a state was consumed already.
+         */
+        CONFLICT,
+
+        FAILED
+    }
+
+    /**
+     * The flows of one kind started while measuring.
+     */
+    static final class Operation {
+        // from when the flow was due to start, not when it did, so a backlog counts too
+        private final Histogram latencyMicros = new ConcurrentHistogram(HIGHEST_LATENCY_MICROS, 3);
+
+        private final LongAdder succeeded = new LongAdder();
+        private final LongAdder conflicts = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+
+        void record(long dueNanos, Outcome outcome) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - dueNanos);
+
+            latencyMicros.recordValue(Math.min(Math.max(micros, 0), HIGHEST_LATENCY_MICROS));
+
+            switch (outcome) {
+                case SUCCEEDED:
+                    succeeded.increment();
+                    break;
+                case CONFLICT:
+                    conflicts.increment();
+                    break;
+                default:
+                    failed.increment();
+            }
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> latency = new LinkedHashMap<>();
+            latency.put("min", latencyMicros.getMinValue());
+            latency.put("mean", latencyMicros.getMean());
+            latency.put("p50", latencyMicros.getValueAtPercentile(50));
+            latency.put("p90", latencyMicros.getValueAtPercentile(90));
+            latency.put("p99", latencyMicros.getValueAtPercentile(99));
+            latency.put("p99.9", latencyMicros.getValueAtPercentile(99.9));
+            latency.put("max", latencyMicros.getMaxValue());
+
+            Map<String, Object> operation = new LinkedHashMap<>();
+            operation.put("count", latencyMicros.getTotalCount());
+            operation.put("succeeded", succeeded.sum());
+            operation.put("conflicts", conflicts.sum());
+            operation.put("failed", failed.sum());
+            operation.put("latencyMicros", latency);
+
+            return operation;
+        }
+    }
+
+    final Operation issue = new Operation();
+    final Operation transfer = new Operation();
+    final Operation settle = new Operation();
+
+    // from when both flows were due until both finished
+    final Operation doubleSpend = new Operation();
+
+    // races by how many of their flows succeeded; both succeeding is a double spend the notary let through
+    final LongAdder doubleSpendsNoneWon = new LongAdder();
+    final LongAdder doubleSpendsOneWon = new LongAdder();
+    final LongAdder doubleSpendsBothWon = new LongAdder();
+
+    // flows due while too many were in flight
+    final LongAdder skipped = new LongAdder();
+
+    // notarised transactions of flows that finished while measuring
+    final LongAdder notarised = new LongAdder();
+
+    /**
+     * Log a summary of the report and write all of it to the given file as JSON.
+     */
+    void write(Path file, LoadSettings settings) throws IOException {
+        double achievedTps = notarised.sum() / (settings.duration.toNanos() / 1e9);
+
+        Map<String, Object> operations = new LinkedHashMap<>();
+        operations.put("issue", issue.toMap());
+        operations.put("transfer", transfer.toMap());
+        operations.put("settle", settle.toMap());
+        operations.put("doubleSpend", doubleSpend.toMap());
+
+        Map<String, Object> doubleSpends = new LinkedHashMap<>();
+        doubleSpends.put("noneWon", doubleSpendsNoneWon.sum());
+        doubleSpends.put("oneWon", doubleSpendsOneWon.sum());
+        doubleSpends.put("bothWon", doubleSpendsBothWon.sum());
+
+        Map<String, Object> mix = new LinkedHashMap<>();
+        mix.put("issue", settings.issueWeight);
+        mix.put("transfer", settings.transferWeight);
+        mix.put("settle", settings.settleWeight);
+
+        Map<String, Object> load = new LinkedHashMap<>();
+        load.put("nodes", settings.nodes);
+        load.put("targetRate", settings.rate);
+        load.put("warmupSeconds", settings.warmup.getSeconds());
+        load.put("durationSeconds", settings.duration.getSeconds());
+        load.put("mix", mix);
+        load.put("doubleSpendRate", settings.doubleSpendRate);
+        load.put("maxInFlight", settings.maxInFlight);
+        load.put("hcs", settings.hcs.root().unwrapped());
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("settings", load);
+        report.put("achievedTps", achievedTps);
+        report.put("notarised", notarised.sum());
+        report.put("skipped", skipped.sum());
+        report.put("operations", operations);
+        report.put("doubleSpends", doubleSpends);
+
+        Path parent = file.toAbsolutePath().getParent();
+
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file.toFile(), report);
+
+        logger.info(String.format("notarised %.1f transactions a second against a target of %.1f flows a second; "
+                        + "issue p50 %d us, p99 %d us; %d flows skipped; report written to %s",
+                achievedTps, settings.rate, issue.latencyMicros.getValueAtPercentile(50),
+                issue.latencyMicros.getValueAtPercentile(99), skipped.sum(), file));
+
+        if (doubleSpendsBothWon.sum() > 0) {
+            logger.error(doubleSpendsBothWon.sum() + " double spends were notarised");
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.hedera.hashgraph.corda_hcs.notary_load;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+import com.typesafe.config.ConfigFactory;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+/**
+ * The settings of a load test, from the `load` keys of the given config; see the README for
+ * what each of them does.
+ */
+final class LoadSettings {
+    /**
+     * How many nodes start flows; transfers need a third party besides lender and borrower.
+     */
+    final int nodes;
+
+    /**
+     * How many flows a second are started, across all nodes.
+     */
+    final double rate;
+
+    /**
+     * How long flows are started for before measuring, and how long they're measured for.
+     */
+    final Duration warmup;
+    final Duration duration;
+
+    /**
+     * The relative weights of issuing, transferring and settling obligations in the mix.
+     */
+    final int issueWeight;
+    final int transferWeight;
+    final int settleWeight;
+
+    /**
+     * The chance of a transfer or settlement being raced by the other one, spending the same
+     * obligation from the lender's and the borrower's node.
+     */
+    final double doubleSpendRate;
+
+    /**
+     * The most flows in flight at once; flows due while this many are skipped.
+     */
+    final int maxInFlight;
+
+    /**
+     * How many cash states each node issues itself to settle obligations with.
+     */
+    final int cashStates;
+
+    final Path report;
+
+    /**
+     * The notary's `hcs` config, over the defaults of a simulated network.
+     */
+    final Config hcs;
+
+    LoadSettings(Config config) {
+        this.nodes = config.hasPath("load.nodes")
+                ? config.getInt("load.nodes")
+                : 4;
+
+        if (this.nodes < 3) {
+            throw new ConfigException.BadValue(config.origin(), "load.nodes", "must be at least 3");
+        }
+
+        this.rate = config.hasPath("load.rate")
+                ? config.getDouble("load.rate")
+                : 20;
+
+        if (this.rate <= 0) {
+            throw new ConfigException.BadValue(config.origin(), "load.rate", "must be more than 0");
+        }
+
+        this.warmup = Duration.ofSeconds(config.hasPath("load.warmupSeconds")
+                ? config.getLong("load.warmupSeconds")
+                : 10);
+
+        this.duration = Duration.ofSeconds(config.hasPath("load.durationSeconds")
+                ? config.getLong("load.durationSeconds")
+                : 60);
+
+        if (this.warmup.isNegative() || this.duration.isNegative() || this.duration.isZero()) {
+            throw new ConfigException.BadValue(
+                    config.origin(),
+                    "load",
+                    "warmupSeconds must not be negative and durationSeconds must be more than 0");
+        }
+
+        this.issueWeight = config.hasPath("load.mix.issue")
+                ? config.getInt("load.mix.issue")
+                : 40;
+
+        this.transferWeight = config.hasPath("load.mix.transfer")
+                ? config.getInt("load.mix.transfer")
+                : 40;
+
+        this.settleWeight = config.hasPath("load.mix.settle")
+                ? config.getInt("load.mix.settle")
+                : 20;
+
+        if (this.issueWeight < 1 || this.transferWeight < 0 || this.settleWeight < 0) {
+            throw new ConfigException.BadValue(
+                    config.origin(),
+                    "load.mix",
+                    "issue must be at least 1, and transfer and settle not negative");
+        }
+
+        this.doubleSpendRate = config.hasPath("load.doubleSpendRate")
+                ? config.getDouble("load.doubleSpendRate")
+                : 0.05;
+
+        if (this.doubleSpendRate < 0 || this.doubleSpendRate > 1) {
+            throw new ConfigException.BadValue(config.origin(), "load.doubleSpendRate", "must be between 0 and 1");
+        }
+
+        this.maxInFlight = config.hasPath("load.maxInFlight")
+                ? config.getInt("load.maxInFlight")
+                : 1024;
+
+        this.cashStates = config.hasPath("load.cashStates")
+                ? config.getInt("load.cashStates")
+                : 50;
+
+        if (this.maxInFlight < 1 || this.cashStates < 1) {
+            throw new ConfigException.BadValue(config.origin(), "load", "maxInFlight and cashStates must be at least 1");
+        }
+
+        this.report = Paths.get(config.hasPath("load.report")
+                ? config.getString("load.report")
+                : "load-report.json");
+
+        this.hcs = config.hasPath("load.hcs")
+                ? config.getConfig("load.hcs")
+                : ConfigFactory.empty();
+    }
+}
@@ -0,0 +1,143 @@
+package com.hedera.hashgraph.corda_hcs.notary_load;
+
+import com.hedera.hashgraph.corda_hcs.notary_demo.ObligationNotaryService;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.node.services.config.VerifierType;
+import net.corda.testing.driver.DriverDSL;
+import net.corda.testing.driver.DriverParameters;
+import net.corda.testing.driver.NodeHandle;
+import net.corda.testing.driver.NodeParameters;
+import net.corda.testing.node.NotarySpec;
+import net.corda.testing.node.TestCordapp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import static net.corda.testing.driver.Driver.driver;
+
+/**
+ * Measures how fast the obligation CorDapp's transactions are notarised by
+ * {@link ObligationNotaryService}, against an HCS network simulated in the notary's process.
+ *
+ * Starts a network of nodes in this process with Corda's driver, has them issue, transfer and
+ * settle obligations at the configured rate (see {@link LoadWorkload}) and writes a report of the
+ * latencies and the rate achieved (see {@link LoadReport}). Settings come from the `load` system
+ * properties (see {@link LoadSettings}).
+ */
+public final class LoadTest {
+    private static final Logger logger = LoggerFactory.getLogger(LoadTest.class);
+
+    private static final CordaX500Name NOTARY = CordaX500Name.parse("O=NotaryA,L=London,C=GB");
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) {
+        LoadSettings settings = new LoadSettings(ConfigFactory.systemProperties());
+
+        Map<String, Object> notary = new HashMap<>();
+        notary.put("validating", false);
+        notary.put("className", ObligationNotaryService.class.getName());
+        notary.put("extraConfig", Collections.singletonMap("hcs", hcsConfig(settings).root().unwrapped()));
+
+        DriverParameters parameters = new DriverParameters()
+                .withIsDebug(false)
+                .withStartNodesInProcess(true)
+                .withCordappsForAllNodes(Arrays.asList(
+                        TestCordapp.findCordapp("net.corda.examples.obligation"),
+                        TestCordapp.findCordapp("com.hedera.hashgraph.corda_hcs.notary_demo"),
+                        TestCordapp.findCordapp("net.corda.finance.contracts"),
+                        TestCordapp.findCordapp("net.corda.finance.workflows"),
+                        TestCordapp.findCordapp("net.corda.confidential")))
+                .withNotarySpecs(Collections.singletonList(
+                        new NotarySpec(NOTARY, false, Collections.emptyList(), VerifierType.InMemory, null)))
+                .withNotaryCustomOverrides(Collections.singletonMap("notary", notary));
+
+        driver(parameters, dsl -> {
+            run(dsl, settings);
+            return null;
+        });
+    }
+
+    /**
+     * The notary's `hcs` config: the settings given over a simulated network with a throwaway
+     * account, and no persisted index as the simulated topics don't outlive the test.
+     */
+    private static Config hcsConfig(LoadSettings settings) {
+        byte[] privateKey = new byte[32];
+        new SecureRandom().nextBytes(privateKey);
+
+        StringBuilder privateKeyHex = new StringBuilder();
+
+        for (byte b : privateKey) {
+            privateKeyHex.append(String.format("%02x", b));
+        }
+
+        Map<String, Object> defaults = new LinkedHashMap<>();
+        defaults.put("accountId", "0.0.1001");
+        defaults.put("privateKey", privateKeyHex.toString());
+        defaults.put("transport", "simulated");
+        defaults.put("persistence", Collections.singletonMap("enabled", false));
+
+        return settings.hcs.withFallback(ConfigFactory.parseMap(defaults));
+    }
+
+    private static void run(DriverDSL dsl, LoadSettings settings) {
+        List<CordaFuture<NodeHandle>> started = new ArrayList<>(settings.nodes);
+
+        for (int i = 0; i < settings.nodes; i++) {
+            started.add(dsl.startNode(new NodeParameters()
+                    .withProvidedName(CordaX500Name.parse("O=Party" + i + ",L=London,C=GB"))));
+        }
+
+        List<CordaRPCOps> nodes = new ArrayList<>(settings.nodes);
+        List<Party> parties = new ArrayList<>(settings.nodes);
+
+        try {
+            for (CordaFuture<NodeHandle> node : started) {
+                NodeHandle handle = node.get();
+
+                nodes.add(handle.getRpc());
+                parties.add(handle.getNodeInfo().getLegalIdentities().get(0));
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("failed to start the nodes", e);
+        }
+
+        LoadReport report = new LoadReport();
+        LoadWorkload workload = new LoadWorkload(settings, nodes, parties, report);
+
+        workload.issueCash(dsl.getDefaultNotaryIdentity());
+
+        try {
+            workload.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("interrupted, reporting the flows finished so far");
+        }
+
+        try {
+            report.write(settings.report, settings);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to write the report to " + settings.report, e);
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package com.hedera.hashgraph.corda_hcs.notary_load;
+
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.NotaryError;
+import net.corda.core.flows.NotaryException;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.utilities.OpaqueBytes;
+import net.corda.examples.obligation.Obligation;
+import net.corda.examples.obligation.flows.IssueObligation;
+import net.corda.examples.obligation.flows.SettleObligation;
+import net.corda.examples.obligation.flows.TransferObligation;
+import net.corda.finance.flows.CashIssueFlow;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static net.corda.finance.Currencies.POUNDS;
+
+/**
+ * Starts obligation flows at the configured rate, spread at random across the nodes, and records
+ * how each of them went in the report.
+ *
+ * Flows are started on schedule whether or not the ones before them finished, up to
+ * {@link LoadSettings#maxInFlight}, and their latency is measured from when they were due, so a
+ * notary falling behind shows in the latencies rather than slowing the load down. Obligations are
+ * issued between random nodes, and then transferred to a third node by their lender or partly
+ * settled by their borrower; each is only used by one flow at a time, except when two flows race
+ * to spend it on purpose.
+ */
+final class LoadWorkload {
+    private static final Logger logger = LoggerFactory.getLogger(LoadWorkload.class);
+
+    private static final Amount<Currency> OBLIGATION = POUNDS(1_000);
+
+    // so each obligation is settled in ten flows
+    private static final Amount<Currency> SETTLEMENT = POUNDS(100);
+
+    private static final Amount<Currency> CASH = POUNDS(100_000);
+
+    // how long the flows in flight at the end may take to finish
+    private static final long DRAIN_TIMEOUT_MINUTES = 5;
+
+    private final LoadSettings settings;
+    private final List<CordaRPCOps> nodes;
+    private final List<Party> parties;
+    private final LoadReport report;
+
+    // obligations no flow is using, for transfers and settlements
+    private final ConcurrentLinkedQueue<Tracked> idle = new ConcurrentLinkedQueue<>();
+
+    private final Semaphore inFlight;
+
+    // starting a flow over RPC waits for the node to accept it
+    private final ExecutorService starter;
+
+    // when flows finishing count towards the achieved rate; set before the first flow starts
+    private long measureFromNanos;
+    private long measureUntilNanos;
+
+    /**
+     * An obligation as of the last flow that used it.
+     */
+    private static final class Tracked {
+        final UniqueIdentifier linearId;
+        final int borrower;
+        volatile int lender;
+        volatile long unpaid;
+
+        Tracked(UniqueIdentifier linearId, int borrower, int lender, long unpaid) {
+            this.linearId = linearId;
+            this.borrower = borrower;
+            this.lender = lender;
+            this.unpaid = unpaid;
+        }
+    }
+
+    LoadWorkload(LoadSettings settings, List<CordaRPCOps> nodes, List<Party> parties, LoadReport report) {
+        this.settings = settings;
+        this.nodes = nodes;
+        this.parties = parties;
+        this.report = report;
+        this.inFlight = new Semaphore(settings.maxInFlight);
+
+        AtomicInteger starterCount = new AtomicInteger();
+
+        this.starter = Executors.newFixedThreadPool(Math.min(settings.maxInFlight, 64), r -> {
+            Thread thread = new Thread(r, "load-starter-" + starterCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Give every node cash to settle obligations with, in separate states so several settlements
+     * can spend it at once. Issuing cash isn't notarised.
+     */
+    void issueCash(Party notary) {
+        List<CompletableFuture<?>> issued = new ArrayList<>();
+
+        for (CordaRPCOps node : nodes) {
+            for (int i = 0; i < settings.cashStates; i++) {
+                issued.add(node.startFlowDynamic(CashIssueFlow.class, CASH, OpaqueBytes.of((byte) 1), notary)
+                        .getReturnValue()
+                        .toCompletableFuture());
+            }
+        }
+
+        CompletableFuture.allOf(issued.toArray(new CompletableFuture[0])).join();
+
+        logger.info("issued " + settings.cashStates + " cash states to each of " + nodes.size() + " nodes");
+    }
+
+    /**
+     * Start flows until the warmup and the measurement are over, then wait for those in flight.
+     */
+    void run() throws InterruptedException {
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / settings.rate);
+        long startNanos = System.nanoTime();
+
+        measureFromNanos = startNanos + settings.warmup.toNanos();
+        measureUntilNanos = measureFromNanos + settings.duration.toNanos();
+
+        logger.info("starting " + settings.rate + " flows a second on " + nodes.size() + " nodes, measuring after "
+                + settings.warmup.getSeconds() + " s for " + settings.duration.getSeconds() + " s");
+
+        for (long i = 0; ; i++) {
+            long dueNanos = startNanos + i * intervalNanos;
+
+            if (dueNanos - measureUntilNanos >= 0) {
+                break;
+            }
+
+            for (long wait = dueNanos - System.nanoTime(); wait > 0; wait = dueNanos - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+
+            boolean measured = dueNanos - measureFromNanos >= 0;
+
+            if (!inFlight.tryAcquire()) {
+                if (measured) {
+                    report.skipped.increment();
+                }
+
+                continue;
+            }
+
+            starter.execute(() -> {
+                try {
+                    startNext(dueNanos, measured).whenComplete((v, e) -> inFlight.release());
+                } catch (RuntimeException e) {
+                    logger.error("failed to start a flow", e);
+                    inFlight.release();
+                }
+            });
+        }
+
+        if (!inFlight.tryAcquire(settings.maxInFlight, DRAIN_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+            logger.warn((settings.maxInFlight - inFlight.availablePermits()) + " flows still in flight after "
+                    + DRAIN_TIMEOUT_MINUTES + " minutes");
+        }
+
+        starter.shutdownNow();
+    }
+
+    private CompletableFuture<?> startNext(long dueNanos, boolean measured) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int pick = random.nextInt(settings.issueWeight + settings.transferWeight + settings.settleWeight);
+
+        Tracked obligation = pick < settings.issueWeight ? null : idle.poll();
+
+        // there's nothing to spend until enough obligations are issued
+        if (obligation == null) {
+            return issue(dueNanos, measured);
+        }
+
+        if (random.nextDouble() < settings.doubleSpendRate) {
+            return doubleSpend(obligation, dueNanos, measured);
+        }
+
+        return pick < settings.issueWeight + settings.transferWeight
+                ? transfer(obligation, dueNanos, measured)
+                : settle(obligation, dueNanos, measured);
+    }
+
+    private CompletableFuture<?> issue(long dueNanos, boolean measured) {
+        int borrower = ThreadLocalRandom.current().nextInt(nodes.size());
+        int lender = otherNode(borrower, -1);
+
+        return start(borrower, IssueObligation.Initiator.class, OBLIGATION, parties.get(lender), false)
+                .whenComplete((stx, e) -> {
+                    if (e == null) {
+                        Obligation issued = stx.getTx().outputsOfType(Obligation.class).get(0);
+                        idle.add(new Tracked(issued.getLinearId(), borrower, lender, OBLIGATION.getQuantity()));
+                    }
+
+                    finished(report.issue, dueNanos, measured, e);
+                });
+    }
+
+    private CompletableFuture<?> transfer(Tracked obligation, long dueNanos, boolean measured) {
+        return startTransfer(obligation)
+                .whenComplete((stx, e) -> {
+                    // the obligation may be gone if the flow failed, so it isn't used again
+                    if (e == null) {
+                        idle.add(obligation);
+                    }
+
+                    finished(report.transfer, dueNanos, measured, e);
+                });
+    }
+
+    private CompletableFuture<?> settle(Tracked obligation, long dueNanos, boolean measured) {
+        return startSettlement(obligation)
+                .whenComplete((stx, e) -> {
+                    if (e == null && obligation.unpaid > 0) {
+                        idle.add(obligation);
+                    }
+
+                    finished(report.settle, dueNanos, measured, e);
+                });
+    }
+
+    /**
+     * Transfer the obligation from its lender's node while settling it from its borrower's, so
+     * the notary sees both spend it; exactly one of them should be notarised.
+     */
+    private CompletableFuture<?> doubleSpend(Tracked obligation, long dueNanos, boolean measured) {
+        CompletableFuture<SignedTransaction> transfer = startTransfer(obligation);
+        CompletableFuture<SignedTransaction> settlement = startSettlement(obligation);
+
+        return CompletableFuture.allOf(transfer, settlement)
+                .handle((v, ignored) -> {
+                    Throwable transferFailure = failure(transfer);
+                    Throwable settlementFailure = failure(settlement);
+
+                    Throwable e = null;
+
+                    if (transferFailure == null && settlementFailure == null) {
+                        report.doubleSpendsBothWon.increment();
+                        e = new IllegalStateException("both spends of obligation " + obligation.linearId + " were notarised");
+                    } else if (transferFailure == null || settlementFailure == null) {
+                        // the other one is expected to fail, whether the notary or the vault stopped it
+                        report.doubleSpendsOneWon.increment();
+
+                        if (obligation.unpaid > 0) {
+                            idle.add(obligation);
+                        }
+                    } else {
+                        report.doubleSpendsNoneWon.increment();
+                        e = transferFailure;
+                    }
+
+                    finished(report.doubleSpend, dueNanos, measured, e);
+
+                    return null;
+                });
+    }
+
+    private CompletableFuture<SignedTransaction> startTransfer(Tracked obligation) {
+        int lender = obligation.lender;
+        int newLender = otherNode(lender, obligation.borrower);
+
+        return start(lender, TransferObligation.Initiator.class, obligation.linearId, parties.get(newLender), false)
+                .thenApply(stx -> {
+                    obligation.lender = newLender;
+                    return stx;
+                });
+    }
+
+    private CompletableFuture<SignedTransaction> startSettlement(Tracked obligation) {
+        long paid = Math.min(obligation.unpaid, SETTLEMENT.getQuantity());
+
+        return start(obligation.borrower, SettleObligation.Initiator.class, obligation.linearId,
+                new Amount<>(paid, SETTLEMENT.getToken()), false)
+                .thenApply(stx -> {
+                    obligation.unpaid -= paid;
+                    return stx;
+                });
+    }
+
+    private <T> CompletableFuture<T> start(int node, Class<? extends FlowLogic<? extends T>> flow, Object... args) {
+        return nodes.get(node).startFlowDynamic(flow, args)
+                .getReturnValue()
+                .toCompletableFuture();
+    }
+
+    private void finished(LoadReport.Operation operation, long dueNanos, boolean measured, Throwable e) {
+        long nowNanos = System.nanoTime();
+
+        if (e == null && nowNanos - measureFromNanos >= 0 && nowNanos - measureUntilNanos < 0) {
+            report.notarised.increment();
+        }
+
+        if (!measured) {
+            return;
+        }
+
+        if (e == null) {
+            operation.record(dueNanos, LoadReport.Outcome.SUCCEEDED);
+        } else if (isConflict(e)) {
+            operation.record(dueNanos, LoadReport.Outcome.CONFLICT);
+        } else {
+            logger.warn("flow failed", e);
+            operation.record(dueNanos, LoadReport.Outcome.FAILED);
+        }
+    }
+
+    private int otherNode(int first, int second) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        while (true) {
+            int node = random.nextInt(nodes.size());
+
+            if (node != first && node != second) {
+                return node;
+            }
+        }
+    }
+
+    private static Throwable failure(CompletableFuture<?> future) {
+        try {
+            future.join();
+            return null;
+        } catch (CompletionException e) {
+            return e.getCause() != null ? e.getCause() : e;
+        }
+    }
+
+    private static boolean isConflict(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+
+        return cause instanceof NotaryException && ((NotaryException) cause).getError() instanceof NotaryError.Conflict;
+    }
+}